@@ -33,10 +33,19 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -59,7 +68,7 @@ import org.opennms.netmgt.jmx.JmxSampleProcessor;
 import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
-import org.opennms.netmgt.jmx.impl.connection.connectors.DefaultConnectionManager;
+import org.opennms.netmgt.jmx.impl.connection.connectors.PooledConnectionManager;
 import org.opennms.netmgt.jmx.samples.JmxAttributeSample;
 import org.opennms.netmgt.jmx.samples.JmxCompositeSample;
 import org.slf4j.Logger;
@@ -68,87 +77,199 @@ import org.slf4j.LoggerFactory;
 /**
  * A implementation of the JmxCollector.
  * It iterates over all configured MBeans, collects either attributes or composite members and creates a sample accordingly.
+ * <p/>
+ * Connections are obtained from the {@link PooledConnectionManager}, wildcard object names are resolved through the
+ * {@link ObjectNameCache} and the attributes of up to <code>org.opennms.jmx.collector.maxConcurrentRequests</code>
+ * MBeans are read concurrently.
  *
  * @see org.opennms.netmgt.jmx.JmxCollector
  */
 public class DefaultJmxCollector implements JmxCollector {
 
+    /**
+     * The maximum number of MBean reads per agent which may be in flight at the same time.
+     * With the default of 1 the MBeans are read one after the other.
+     */
+    public static final String MAX_CONCURRENT_REQUESTS_PROPERTY = "org.opennms.jmx.collector.maxConcurrentRequests";
+
+    private static final ExecutorService READ_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "JmxCollector-Reader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private final int maxConcurrentRequests;
+
+    private final ObjectNameCache objectNameCache;
+
+    public DefaultJmxCollector() {
+        this(ObjectNameCache.getInstance(), Integer.getInteger(MAX_CONCURRENT_REQUESTS_PROPERTY, 1));
+    }
+
+    DefaultJmxCollector(ObjectNameCache objectNameCache, int maxConcurrentRequests) {
+        this.objectNameCache = Objects.requireNonNull(objectNameCache);
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+    }
+
     @Override
     public void collect(JmxCollectorConfig config, JmxSampleProcessor sampleProcessor) throws JmxServerConnectionException {
-        JmxConnectionManager connectionManager = new DefaultConnectionManager(config.getRetries());
+        JmxConnectionManager connectionManager = new PooledConnectionManager(config.getRetries());
         try (JmxServerConnectionWrapper connectionWrapper = connectionManager.connect(config.getConnectionName(), config.getAgentAddress(), config.getServiceProperties(), null)) {
             Objects.requireNonNull(connectionWrapper, "connectionWrapper should never be null");
             Objects.requireNonNull(connectionWrapper.getMBeanServerConnection(), "connectionWrapper.getMBeanServerConnection() should never be null");
 
+            final String connectionKey = PooledConnectionManager.getConnectionKey(config.getConnectionName(), config.getAgentAddress(), config.getServiceProperties());
             final MBeanServerConnection concreteConnection = connectionWrapper.getMBeanServerConnection();
-            collect(concreteConnection, config.getJmxCollection(), sampleProcessor);
+            try {
+                collect(concreteConnection, connectionKey, config.getJmxCollection(), sampleProcessor);
+            } catch (IOException e) {
+                logger.error("Could not communicate with MBeanServer", e);
+                PooledConnectionManager.invalidate(connectionWrapper);
+            }
         }
     }
 
-    private void collect(MBeanServerConnection concreteConnection, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) {
+    /**
+     * Collects the given MBeans over an established connection.
+     * If the connection fails, all ObjectNames cached for it are discarded before the exception is passed on.
+     */
+    void collect(MBeanServerConnection concreteConnection, String connectionKey, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) throws IOException {
         if (jmxCollection == null || jmxCollection.getMbeanCount() < 1) {
             logger.info("No MBeans to collect.");
             return;
         }
 
+        final LinkedList<Future<List<Attribute>>> pending = new LinkedList<>();
         try {
+            // resolve all object names first, so that the attribute reads can be pipelined
+            final List<MbeanRead> reads = new ArrayList<>();
             for (Mbean eachMbean : jmxCollection.getMbeans()) {
                 logger.debug("Collecting MBean (objectname={}, wildcard={})", eachMbean.getObjectname(), isWildcard(eachMbean.getObjectname()));
 
-                final Collection<ObjectName> objectNames = getObjectNames(concreteConnection, eachMbean.getObjectname());
+                final List<String> attributeNames = extractAttributeNames(eachMbean);
+                final Collection<ObjectName> objectNames = getObjectNames(concreteConnection, connectionKey, eachMbean.getObjectname());
                 for (ObjectName eachObjectName : objectNames) {
-                    logger.debug("Collecting ObjectName {}", eachObjectName);
-
-                    boolean collect = canBeCollected(concreteConnection, eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
-                    if (collect) {
-                        List<String> attributeNames = extractAttributeNames(eachMbean);
-                        List<Attribute> attributes = getAttributes(concreteConnection, eachObjectName, attributeNames);
-
-                        for (Attribute eachAttribute : attributes) {
-                            if (eachAttribute.getValue() instanceof CompositeData) {
-                                CompositeData compositeData = (CompositeData) eachAttribute.getValue();
-                                for (CompMember eachCompositeMember : getCompositeMembers(eachMbean, eachAttribute.getName())) {
-                                    JmxCompositeSample sample = new JmxCompositeSample(eachMbean, eachAttribute, compositeData, eachCompositeMember);
-                                    logger.debug("Collected sample {}", sample);
-                                    sampleProcessor.process(sample);
-                                }
-                            } else {
-                                JmxAttributeSample sample = new JmxAttributeSample(eachMbean, eachAttribute);
-                                logger.debug("Collected sample {}", sample);
-                                sampleProcessor.process(sample);
-                            }
+                    if (isExcluded(eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude())) {
+                        logger.debug("ObjectName {} with key {} is in excludeList {}.", eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
+                        logger.debug("Skip ObjectName {}", eachObjectName);
+                        continue;
+                    }
+                    reads.add(new MbeanRead(concreteConnection, connectionKey, eachMbean, eachObjectName, attributeNames));
+                }
+            }
+
+            // keep up to maxConcurrentRequests reads in flight, the samples are processed in order
+            int nextRead = 0;
+            for (MbeanRead eachRead : reads) {
+                while (nextRead < reads.size() && pending.size() < maxConcurrentRequests) {
+                    pending.add(submit(reads.get(nextRead++)));
+                }
+
+                final List<Attribute> attributes = getResult(pending.removeFirst());
+                if (attributes == null) {
+                    logger.debug("Skip ObjectName {}", eachRead.objectName);
+                    continue;
+                }
+
+                for (Attribute eachAttribute : attributes) {
+                    if (eachAttribute.getValue() instanceof CompositeData) {
+                        CompositeData compositeData = (CompositeData) eachAttribute.getValue();
+                        for (CompMember eachCompositeMember : getCompositeMembers(eachRead.mbean, eachAttribute.getName())) {
+                            JmxCompositeSample sample = new JmxCompositeSample(eachRead.mbean, eachAttribute, compositeData, eachCompositeMember);
+                            logger.debug("Collected sample {}", sample);
+                            sampleProcessor.process(sample);
                         }
                     } else {
-                        logger.debug("Skip ObjectName {}", eachObjectName);
+                        JmxAttributeSample sample = new JmxAttributeSample(eachRead.mbean, eachAttribute);
+                        logger.debug("Collected sample {}", sample);
+                        sampleProcessor.process(sample);
                     }
                 }
             }
         } catch (JMException e) {
             logger.error("Could not collect data", e);
         } catch (IOException e) {
-            logger.error("Could not communicate with MBeanServer", e);
+            // the agent may have been restarted with other MBeans
+            objectNameCache.invalidate(connectionKey);
+            throw e;
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while collecting data");
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<List<Attribute>> eachFuture : pending) {
+                eachFuture.cancel(true);
+            }
         }
     }
 
     /**
-     * Checks if a given objectName can be collected.
-     * It cannot be collected if it is excluded or not registered, otherwise it can be collected.
-     *
-     * @return if it can be collected.
-     * @throws IOException If an error while communicating with the MBeanServer occurs.
+     * Starts reading the given MBean. Without pipelining the read is done right away in the calling thread.
      */
-    private boolean canBeCollected(MBeanServerConnection connection, ObjectName objectName, String keyField, String excludeList) throws IOException {
-        if (isExcluded(objectName, keyField, excludeList)) {
-            logger.debug("ObjectName {} with key {} is in excludeList {}.", objectName, keyField, excludeList);
-            return false;
+    private Future<List<Attribute>> submit(MbeanRead read) {
+        if (maxConcurrentRequests <= 1) {
+            final FutureTask<List<Attribute>> task = new FutureTask<>(read);
+            task.run();
+            return task;
         }
-        if (!connection.isRegistered(objectName)) {
-            logger.debug("ObjectName {} is not registered.", objectName);
-            return false;
+        return READ_EXECUTOR.submit(read);
+    }
+
+    private static List<Attribute> getResult(Future<List<Attribute>> future) throws JMException, IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof JMException) {
+                throw (JMException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Reads the attributes of a single ObjectName.
+     * The result is null if the ObjectName is not registered.
+     */
+    private class MbeanRead implements Callable<List<Attribute>> {
+        private final MBeanServerConnection connection;
+        private final String connectionKey;
+        private final Mbean mbean;
+        private final ObjectName objectName;
+        private final List<String> attributeNames;
+
+        private MbeanRead(MBeanServerConnection connection, String connectionKey, Mbean mbean, ObjectName objectName, List<String> attributeNames) {
+            this.connection = connection;
+            this.connectionKey = connectionKey;
+            this.mbean = mbean;
+            this.objectName = objectName;
+            this.attributeNames = attributeNames;
+        }
+
+        @Override
+        public List<Attribute> call() throws Exception {
+            logger.debug("Collecting ObjectName {}", objectName);
+            try {
+                return getAttributes(connection, objectName, attributeNames);
+            } catch (InstanceNotFoundException e) {
+                logger.debug("ObjectName {} is not registered.", objectName);
+                // the names cached for a wildcard are outdated
+                objectNameCache.invalidate(connectionKey, mbean.getObjectname());
+                return null;
+            }
         }
-        return true;
     }
 
     /**
@@ -251,6 +372,7 @@ public class DefaultJmxCollector implements JmxCollector {
 
     /**
      * Returns an unmodifiable set of <code>ObjectName</code>s according to the given <code>objectName</code>.
+     * The names a wildcard resolved to are cached in the {@link ObjectNameCache}.
      *
      * @param objectName The objectName to query the server with. May contain wildcards.
      *                   See {@link javax.management.MBeanServer#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)} for details.
@@ -258,18 +380,22 @@ public class DefaultJmxCollector implements JmxCollector {
      * @throws MalformedObjectNameException
      * @throws IOException
      */
-    private Set<ObjectName> getObjectNames(MBeanServerConnection mbeanServer, String objectName) throws MalformedObjectNameException, IOException {
-        Set<ObjectName> objectNames = new HashSet<>();
+    private Set<ObjectName> getObjectNames(MBeanServerConnection mbeanServer, String connectionKey, String objectName) throws MalformedObjectNameException, IOException {
+        // we do not have a wildcard
+        if (!isWildcard(objectName)) {
+            return Collections.singleton(new ObjectName(objectName));
+        }
 
         // if we have a wildcard in the object Name, we have to query the server for
         // all object names matching that expression
-        if (isWildcard(objectName)) {
+        Set<ObjectName> objectNames = objectNameCache.get(connectionKey, objectName);
+        if (objectNames == null) {
             Set<ObjectName> retrievedObjectNames = mbeanServer.queryNames(new ObjectName(objectName), null);
-            objectNames.addAll(retrievedObjectNames);
+            objectNames = Collections.unmodifiableSet(new HashSet<>(retrievedObjectNames));
+            objectNameCache.put(connectionKey, objectName, objectNames);
         } else {
-            // we do not have a wildcard
-            objectNames.add(new ObjectName(objectName));
+            logger.debug("Using cached ObjectNames for {}", objectName);
         }
-        return Collections.unmodifiableSet(objectNames);
+        return objectNames;
     }
 }
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.ObjectName;
+
+/**
+ * Caches the <code>ObjectName</code>s a wildcard object name resolved to on an agent,
+ * so that the MBeanServer does not have to be queried on every collection.
+ * <p/>
+ * Entries expire after the time to live configured by the
+ * <code>org.opennms.jmx.objectNameCache.ttl</code> system property (in milliseconds).
+ * A TTL of 0, the default, disables the cache.
+ */
+public class ObjectNameCache {
+
+    public static final String TTL_PROPERTY = "org.opennms.jmx.objectNameCache.ttl";
+
+    private static final ObjectNameCache INSTANCE = new ObjectNameCache(Long.getLong(TTL_PROPERTY, 0L));
+
+    private final long ttl;
+
+    /**
+     * The cached names by connection key and object name pattern.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, Entry>> entries = new ConcurrentHashMap<>();
+
+    public ObjectNameCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public static ObjectNameCache getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * @return the cached names or null if there are none or they expired.
+     */
+    public Set<ObjectName> get(String connectionKey, String objectName) {
+        final ConcurrentMap<String, Entry> connectionEntries = entries.get(connectionKey);
+        if (connectionEntries == null) {
+            return null;
+        }
+        final Entry entry = connectionEntries.get(objectName);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            connectionEntries.remove(objectName, entry);
+            return null;
+        }
+        return entry.objectNames;
+    }
+
+    public void put(String connectionKey, String objectName, Set<ObjectName> objectNames) {
+        if (!isEnabled()) {
+            return;
+        }
+        ConcurrentMap<String, Entry> connectionEntries = entries.get(connectionKey);
+        if (connectionEntries == null) {
+            final ConcurrentMap<String, Entry> created = new ConcurrentHashMap<>();
+            connectionEntries = entries.putIfAbsent(connectionKey, created);
+            if (connectionEntries == null) {
+                connectionEntries = created;
+            }
+        }
+        connectionEntries.put(objectName, new Entry(objectNames, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * Removes the names cached for the given object name, e.g. because one of them is no
+     * longer registered.
+     */
+    public void invalidate(String connectionKey, String objectName) {
+        final ConcurrentMap<String, Entry> connectionEntries = entries.get(connectionKey);
+        if (connectionEntries != null) {
+            connectionEntries.remove(objectName);
+        }
+    }
+
+    /**
+     * Removes all names cached for the given connection.
+     */
+    public void invalidate(String connectionKey) {
+        entries.remove(connectionKey);
+    }
+
+    private static class Entry {
+        private final Set<ObjectName> objectNames;
+        private final long expires;
+
+        private Entry(Set<ObjectName> objectNames, long expires) {
+            this.objectNames = objectNames;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.MBeanServerConnection;
+
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link JmxConnectionManager} which keeps established connections open and shares them
+ * between all of its users (collectd, the JMX monitors...).
+ * <p/>
+ * Connections are keyed by connection name, address and the connection related properties
+ * (see {@link #getConnectionKey(String, String, Map)}), so a monitor and a collector talking
+ * to the same agent use the same connection. An MBeanServerConnection may be used by several
+ * threads at once, so a pooled connection is handed out to every caller asking for it.
+ * Closing the returned wrapper only releases it. A connection that has not been used by anyone
+ * in the meantime is checked before it is handed out again and replaced if it is broken.
+ * Callers that run into an I/O error should {@link #invalidate(JmxServerConnectionWrapper)} the wrapper.
+ * Connections that are idle for longer than the idle timeout are closed.
+ * <p/>
+ * Pooling is disabled unless the <code>org.opennms.jmx.connectionPool.enabled</code> system
+ * property is set, in which case every call opens a new connection as the
+ * {@link DefaultConnectionManager} does.
+ */
+public class PooledConnectionManager implements JmxConnectionManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PooledConnectionManager.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.jmx.connectionPool.enabled";
+
+    public static final String IDLE_TIMEOUT_PROPERTY = "org.opennms.jmx.connectionPool.idleTimeout";
+
+    /**
+     * The properties used by the {@link org.opennms.netmgt.jmx.connection.JmxServerConnector}s
+     * to establish a connection. All other properties (timeouts, collection settings...) do
+     * not change the connection and are not part of the key.
+     */
+    private static final String[] KEY_PROPERTIES = { "factory", "port", "protocol", "urlPath", "username", "password", "version", "sunCacao" };
+
+    /**
+     * The pooled connections by key, this is also the lock for all of the pool state.
+     */
+    private static final Map<String, PooledConnection> s_connections = new HashMap<>();
+
+    private final DefaultConnectionManager delegate;
+
+    private final boolean enabled;
+
+    private final long idleTimeout;
+
+    /**
+     * @param retryCount Any value >= 1. If <= 0, 3 is used.
+     */
+    public PooledConnectionManager(int retryCount) {
+        delegate = new DefaultConnectionManager(retryCount);
+        enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+        idleTimeout = Long.getLong(IDLE_TIMEOUT_PROPERTY, 600000L);
+    }
+
+    @Override
+    public JmxServerConnectionWrapper connect(String connectionName, String ipAddress, Map<String, String> connectionProperties, RetryCallback retryCallback) throws JmxServerConnectionException {
+        if (!enabled) {
+            return delegate.connect(connectionName, ipAddress, connectionProperties, retryCallback);
+        }
+
+        closeIdleConnections();
+
+        final String key = getConnectionKey(connectionName, ipAddress, connectionProperties);
+        PooledConnection pooled;
+        boolean wasIdle = false;
+        synchronized (s_connections) {
+            pooled = s_connections.get(key);
+            if (pooled != null) {
+                wasIdle = pooled.users == 0;
+                pooled.users++;
+            }
+        }
+
+        if (pooled != null) {
+            if (!wasIdle || pooled.isHealthy()) {
+                LOG.debug("Reusing connection {}", pooled);
+                return new Lease(pooled);
+            }
+            LOG.debug("Pooled connection {} is broken, reconnecting", pooled);
+            pooled.invalidate();
+            pooled.release();
+        }
+
+        final PooledConnection created = new PooledConnection(key, connectionName + "/" + ipAddress, delegate.connect(connectionName, ipAddress, connectionProperties, retryCallback));
+        final PooledConnection replaced;
+        synchronized (s_connections) {
+            created.users++;
+            replaced = s_connections.put(key, created);
+        }
+        if (replaced != null) {
+            // someone else connected concurrently, the older connection is closed once released
+            replaced.invalidate();
+        }
+        return new Lease(created);
+    }
+
+    /**
+     * Marks the connection behind the given wrapper as broken, it is closed once all of its
+     * users have released it and will not be handed out again. Does nothing if the wrapper
+     * was not created by a {@link PooledConnectionManager}.
+     */
+    public static void invalidate(JmxServerConnectionWrapper connectionWrapper) {
+        if (connectionWrapper instanceof Lease) {
+            ((Lease) connectionWrapper).pooled.invalidate();
+        }
+    }
+
+    /**
+     * Closes all connections which are not in use.
+     */
+    public static void closeAll() {
+        closeConnections(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of pooled connections.
+     */
+    public static int getPoolSize() {
+        synchronized (s_connections) {
+            return s_connections.size();
+        }
+    }
+
+    /**
+     * Builds the key identifying a connection to an agent.
+     *
+     * @param connectionName The {@link org.opennms.netmgt.jmx.connection.JmxConnectors} name of the connection.
+     * @param ipAddress the address to connect to.
+     * @param connectionProperties properties for the connection. May be null.
+     * @return the key for the connection.
+     */
+    public static String getConnectionKey(String connectionName, String ipAddress, Map<String, String> connectionProperties) {
+        final Map<String, String> keyProperties = new TreeMap<>();
+        if (connectionProperties != null) {
+            for (String eachProperty : KEY_PROPERTIES) {
+                if (connectionProperties.get(eachProperty) != null) {
+                    keyProperties.put(eachProperty, connectionProperties.get(eachProperty));
+                }
+            }
+        }
+        return connectionName + "/" + ipAddress + keyProperties;
+    }
+
+    private void closeIdleConnections() {
+        closeConnections(System.currentTimeMillis() - idleTimeout);
+    }
+
+    /**
+     * Closes the unused connections which were last released before <code>releasedBefore</code>.
+     */
+    private static void closeConnections(long releasedBefore) {
+        final List<PooledConnection> closed = new ArrayList<>();
+        synchronized (s_connections) {
+            final Iterator<PooledConnection> it = s_connections.values().iterator();
+            while (it.hasNext()) {
+                final PooledConnection eachConnection = it.next();
+                if (eachConnection.users == 0 && eachConnection.lastReleased <= releasedBefore) {
+                    eachConnection.broken = true;
+                    it.remove();
+                    closed.add(eachConnection);
+                }
+            }
+        }
+        for (PooledConnection eachConnection : closed) {
+            LOG.debug("Closing idle connection {}", eachConnection);
+            eachConnection.wrapper.close();
+        }
+    }
+
+    private static class PooledConnection {
+        private final String key;
+        private final String name;
+        private final JmxServerConnectionWrapper wrapper;
+
+        // guarded by s_connections
+        private int users = 0;
+        private long lastReleased = System.currentTimeMillis();
+        private boolean broken = false;
+
+        private PooledConnection(String key, String name, JmxServerConnectionWrapper wrapper) {
+            this.key = key;
+            this.name = name;
+            this.wrapper = wrapper;
+        }
+
+        @Override
+        public String toString() {
+            // the key is not logged, it may contain credentials
+            return name;
+        }
+
+        private boolean isHealthy() {
+            try {
+                wrapper.getMBeanServerConnection().getMBeanCount();
+                return true;
+            } catch (Exception e) {
+                LOG.debug("Health check of connection {} failed", name, e);
+                return false;
+            }
+        }
+
+        private void invalidate() {
+            boolean close;
+            synchronized (s_connections) {
+                if (s_connections.get(key) == this) {
+                    s_connections.remove(key);
+                }
+                close = !broken && users == 0;
+                broken = true;
+            }
+            if (close) {
+                wrapper.close();
+            }
+        }
+
+        private void release() {
+            boolean close;
+            synchronized (s_connections) {
+                users--;
+                lastReleased = System.currentTimeMillis();
+                close = broken && users == 0;
+            }
+            if (close) {
+                LOG.debug("Closing invalidated connection {}", name);
+                wrapper.close();
+            }
+        }
+    }
+
+    /**
+     * The wrapper handed out to the callers, closing it releases the pooled connection.
+     */
+    private static class Lease implements JmxServerConnectionWrapper {
+        private final PooledConnection pooled;
+        private boolean released = false;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServerConnection() {
+            return pooled.wrapper.getMBeanServerConnection();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                pooled.release();
+            }
+        }
+    }
+}
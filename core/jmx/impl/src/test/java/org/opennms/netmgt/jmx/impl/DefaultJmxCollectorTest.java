@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.config.collectd.jmx.Attrib;
+import org.opennms.netmgt.config.collectd.jmx.JmxCollection;
+import org.opennms.netmgt.config.collectd.jmx.Mbean;
+import org.opennms.netmgt.jmx.JmxSampleProcessor;
+import org.opennms.netmgt.jmx.samples.JmxAttributeSample;
+import org.opennms.netmgt.jmx.samples.JmxCompositeSample;
+
+/**
+ * Collects test MBeans from the platform MBeanServer through a connection
+ * which counts the wildcard queries and can be made to fail.
+ */
+public class DefaultJmxCollectorTest {
+
+    private static final String DOMAIN = "org.opennms.netmgt.jmx.impl.test";
+
+    private static final String WILDCARD = DOMAIN + ":type=Sample,*";
+
+    private static final String CONNECTION_KEY = "test";
+
+    public interface SampleMBean {
+        int getValue();
+    }
+
+    public static class Sample implements SampleMBean {
+        private final int value;
+
+        public Sample(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int getValue() {
+            return value;
+        }
+    }
+
+    private final MBeanServer platformServer = ManagementFactory.getPlatformMBeanServer();
+
+    private final AtomicInteger queries = new AtomicInteger();
+
+    private volatile boolean failReads = false;
+
+    private final MBeanServerConnection connection = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MBeanServerConnection.class }, (proxy, method, args) -> {
+        if ("queryNames".equals(method.getName())) {
+            queries.incrementAndGet();
+        } else if ("getAttributes".equals(method.getName())) {
+            if (failReads) {
+                throw new IOException("connection lost");
+            }
+            // the MBeans with lower indexes answer slower, so pipelined reads complete out of order
+            final String index = ((ObjectName) args[0]).getKeyProperty("index");
+            Thread.sleep(5 * (10 - Integer.parseInt(index)));
+        }
+        try {
+            return method.invoke(platformServer, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    });
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            platformServer.registerMBean(new Sample(i), getObjectName(i));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ObjectName eachName : platformServer.queryNames(new ObjectName(DOMAIN + ":*"), null)) {
+            platformServer.unregisterMBean(eachName);
+        }
+    }
+
+    @Test
+    public void testPipelinedReadsKeepSampleOrder() throws Exception {
+        final JmxCollection collection = new JmxCollection();
+        for (int i = 0; i < 10; i++) {
+            collection.addMbean(createMbean(getObjectName(i).getCanonicalName()));
+        }
+
+        final List<Integer> values = collect(new DefaultJmxCollector(new ObjectNameCache(0), 4), collection);
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), values);
+    }
+
+    @Test
+    public void testCachedNamesExpire() throws Exception {
+        final DefaultJmxCollector collector = new DefaultJmxCollector(new ObjectNameCache(500), 4);
+        final JmxCollection collection = createWildcardCollection();
+
+        Assert.assertEquals(10, collect(collector, collection).size());
+        Assert.assertEquals(1, queries.get());
+
+        Assert.assertEquals(10, collect(collector, collection).size());
+        Assert.assertEquals(1, queries.get());
+
+        Thread.sleep(600);
+        Assert.assertEquals(10, collect(collector, collection).size());
+        Assert.assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void testUnregisteredMBeanInvalidatesCachedNames() throws Exception {
+        final DefaultJmxCollector collector = new DefaultJmxCollector(new ObjectNameCache(3600000), 4);
+        final JmxCollection collection = createWildcardCollection();
+
+        Assert.assertEquals(10, collect(collector, collection).size());
+        Assert.assertEquals(1, queries.get());
+
+        platformServer.unregisterMBean(getObjectName(3));
+
+        // the cached names are used once more, the missing MBean is skipped
+        final List<Integer> values = collect(collector, collection);
+        Assert.assertEquals(9, values.size());
+        Assert.assertFalse(values.contains(3));
+        Assert.assertEquals(1, queries.get());
+
+        // and the wildcard is resolved again on the next collection
+        Assert.assertEquals(9, collect(collector, collection).size());
+        Assert.assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void testIOExceptionInvalidatesCachedNames() throws Exception {
+        final DefaultJmxCollector collector = new DefaultJmxCollector(new ObjectNameCache(3600000), 4);
+        final JmxCollection collection = createWildcardCollection();
+
+        Assert.assertEquals(10, collect(collector, collection).size());
+        Assert.assertEquals(1, queries.get());
+
+        failReads = true;
+        try {
+            collect(collector, collection);
+            Assert.fail("the IOException should be passed on");
+        } catch (IOException e) {
+            // expected
+        }
+        failReads = false;
+
+        Assert.assertEquals(10, collect(collector, collection).size());
+        Assert.assertEquals(2, queries.get());
+    }
+
+    private List<Integer> collect(DefaultJmxCollector collector, JmxCollection collection) throws IOException {
+        final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+        collector.collect(connection, CONNECTION_KEY, collection, new JmxSampleProcessor() {
+            @Override
+            public void process(JmxAttributeSample attributeSample) {
+                values.add((Integer) attributeSample.getCollectedAttribute().getValue());
+            }
+
+            @Override
+            public void process(JmxCompositeSample compositeSample) {
+                Assert.fail("no composite attributes were configured");
+            }
+        });
+        return values;
+    }
+
+    private static JmxCollection createWildcardCollection() {
+        final JmxCollection collection = new JmxCollection();
+        collection.addMbean(createMbean(WILDCARD));
+        return collection;
+    }
+
+    private static Mbean createMbean(String objectName) {
+        final Attrib attrib = new Attrib();
+        attrib.setName("Value");
+        attrib.setAlias("value");
+        attrib.setType("gauge");
+
+        final Mbean mbean = new Mbean();
+        mbean.setName(objectName);
+        mbean.setObjectname(objectName);
+        mbean.addAttrib(attrib);
+        return mbean;
+    }
+
+    private static ObjectName getObjectName(int index) throws Exception {
+        return new ObjectName(DOMAIN + ":type=Sample,index=" + index);
+    }
+}
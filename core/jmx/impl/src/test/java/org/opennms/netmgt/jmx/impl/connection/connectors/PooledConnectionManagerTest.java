@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+
+public class PooledConnectionManagerTest {
+
+    @Before
+    public void setUp() {
+        System.setProperty(PooledConnectionManager.ENABLED_PROPERTY, "true");
+        PooledConnectionManager.closeAll();
+    }
+
+    @After
+    public void tearDown() {
+        PooledConnectionManager.closeAll();
+        System.clearProperty(PooledConnectionManager.ENABLED_PROPERTY);
+    }
+
+    @Test
+    public void testConnectionIsShared() throws Exception {
+        final PooledConnectionManager connectionManager = new PooledConnectionManager(1);
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("port", "1099");
+        properties.put("collection", "jsr160");
+
+        try (JmxServerConnectionWrapper first = connectionManager.connect(JmxConnectors.PLATFORM, "127.0.0.1", properties, null)) {
+            properties.put("collection", "other");
+            try (JmxServerConnectionWrapper second = connectionManager.connect(JmxConnectors.PLATFORM, "127.0.0.1", properties, null)) {
+                Assert.assertSame(first.getMBeanServerConnection(), second.getMBeanServerConnection());
+                Assert.assertEquals(1, PooledConnectionManager.getPoolSize());
+            }
+        }
+
+        // the connection stays open after it has been released
+        Assert.assertEquals(1, PooledConnectionManager.getPoolSize());
+
+        properties.put("port", "1100");
+        try (JmxServerConnectionWrapper third = connectionManager.connect(JmxConnectors.PLATFORM, "127.0.0.1", properties, null)) {
+            Assert.assertEquals(2, PooledConnectionManager.getPoolSize());
+        }
+
+        PooledConnectionManager.closeAll();
+        Assert.assertEquals(0, PooledConnectionManager.getPoolSize());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final PooledConnectionManager connectionManager = new PooledConnectionManager(1);
+
+        try (JmxServerConnectionWrapper connection = connectionManager.connect(JmxConnectors.PLATFORM, "127.0.0.1", null, null)) {
+            Assert.assertEquals(1, PooledConnectionManager.getPoolSize());
+            PooledConnectionManager.invalidate(connection);
+            Assert.assertEquals(0, PooledConnectionManager.getPoolSize());
+        }
+
+        try (JmxServerConnectionWrapper connection = connectionManager.connect(JmxConnectors.PLATFORM, "127.0.0.1", null, null)) {
+            Assert.assertEquals(1, PooledConnectionManager.getPoolSize());
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        System.clearProperty(PooledConnectionManager.ENABLED_PROPERTY);
+        final PooledConnectionManager connectionManager = new PooledConnectionManager(1);
+
+        try (JmxServerConnectionWrapper connection = connectionManager.connect(JmxConnectors.PLATFORM, "127.0.0.1", null, null)) {
+            Assert.assertNotNull(connection.getMBeanServerConnection());
+            Assert.assertEquals(0, PooledConnectionManager.getPoolSize());
+        }
+    }
+}
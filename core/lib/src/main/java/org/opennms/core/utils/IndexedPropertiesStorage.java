@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the properties of all of the files below a common root directory in
+ * a single index file in that directory, instead of one file each.
+ *
+ * <p>The index is a journal: every write appends one line holding the
+ * complete properties of one file, and later lines replace earlier ones. The
+ * journal is rewritten once it holds more than twice the live data. Each
+ * index is read into memory on first use and the most recently used
+ * {@code maxIndexes} are kept there.</p>
+ *
+ * <p>Files that have no entry in their index yet are read from the file
+ * itself, if it exists, and copied into the index. The original files are
+ * left in place but are no longer updated.</p>
+ */
+public class IndexedPropertiesStorage implements PropertiesCache.Storage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedPropertiesStorage.class);
+
+    /**
+     * Name of the index file kept in each root directory.
+     */
+    public static final String INDEX_FILE_NAME = "properties.idx";
+
+    private static final int STRIPES = 64;
+
+    private static final int MIN_COMPACTION_SIZE = 16 * 1024;
+
+    private static final char PUT = '+';
+
+    private static final char DELETE = '-';
+
+    private final Function<File, File> m_rootResolver;
+
+    private final int m_maxIndexes;
+
+    private final PropertiesCache.FileStorage m_legacyStorage = new PropertiesCache.FileStorage();
+
+    private final LinkedHashMap<String, Index> m_indexes = new LinkedHashMap<String, Index>(16, 0.75f, true);
+
+    private final Lock[] m_locks = new Lock[STRIPES];
+
+    /**
+     * @param rootResolver returns the directory holding the index for a given file
+     * @param maxIndexes the number of indexes to keep in memory
+     */
+    public IndexedPropertiesStorage(Function<File, File> rootResolver, int maxIndexes) {
+        m_rootResolver = rootResolver;
+        m_maxIndexes = Math.max(1, maxIndexes);
+        for (int i = 0; i < STRIPES; i++) {
+            m_locks[i] = new ReentrantLock();
+        }
+    }
+
+    private static class Index {
+        private final File m_root;
+        private final File m_file;
+        private final Map<String, Properties> m_entries = new HashMap<String, Properties>();
+        private final Map<String, Integer> m_recordSizes = new HashMap<String, Integer>();
+        private long m_liveBytes = 0;
+        private long m_length = -1;
+        private long m_lastModified = 0;
+
+        private Index(File root) {
+            m_root = root;
+            m_file = new File(root, INDEX_FILE_NAME);
+        }
+
+        /**
+         * Reads the journal again if it was changed by someone else.
+         */
+        private void ensureLoaded() throws IOException {
+            final long length = m_file.length();
+            if (length == m_length) {
+                return;
+            }
+
+            m_entries.clear();
+            m_recordSizes.clear();
+            m_liveBytes = 0;
+
+            if (m_file.canRead()) {
+                try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        try {
+                            apply(line, line.length() + 1);
+                        } catch (IllegalArgumentException e) {
+                            LOG.warn("Skipping invalid line in {}: {}", m_file, line);
+                        }
+                    }
+                }
+            }
+            m_length = length;
+            m_lastModified = m_file.lastModified();
+        }
+
+        private void apply(String line, int size) throws UnsupportedEncodingException {
+            final int tab = line.indexOf('\t', 2);
+            if (line.length() < 2 || line.charAt(1) != '\t') {
+                throw new IllegalArgumentException(line);
+            }
+            if (line.charAt(0) == PUT && tab > 0) {
+                final String relativePath = decode(line.substring(2, tab));
+                final Properties properties = new Properties();
+                for (final String pair : line.substring(tab + 1).split("&")) {
+                    final int eq = pair.indexOf('=');
+                    if (eq > 0) {
+                        properties.setProperty(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+                    }
+                }
+                remove(relativePath);
+                m_entries.put(relativePath, properties);
+                m_recordSizes.put(relativePath, size);
+                m_liveBytes += size;
+            } else if (line.charAt(0) == DELETE) {
+                final String prefix = decode(line.substring(2));
+                final Iterator<String> it = m_entries.keySet().iterator();
+                while (it.hasNext()) {
+                    final String relativePath = it.next();
+                    if (prefix.isEmpty() || relativePath.startsWith(prefix + "/")) {
+                        it.remove();
+                        final Integer recordSize = m_recordSizes.remove(relativePath);
+                        m_liveBytes -= recordSize == null ? 0 : recordSize;
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException(line);
+            }
+        }
+
+        private void remove(String relativePath) {
+            m_entries.remove(relativePath);
+            final Integer recordSize = m_recordSizes.remove(relativePath);
+            m_liveBytes -= recordSize == null ? 0 : recordSize;
+        }
+
+        private void append(String line) throws IOException {
+            ensureLoaded();
+            if (!m_root.isDirectory() && !m_root.mkdirs()) {
+                throw new IOException("Could not make directory: " + m_root);
+            }
+            try (final Writer out = new OutputStreamWriter(new FileOutputStream(m_file, true), StandardCharsets.UTF_8)) {
+                out.write(line);
+                out.write('\n');
+            }
+            // Records are URL encoded, so their length in characters is their length in bytes
+            apply(line, line.length() + 1);
+            m_length = m_file.length();
+            m_lastModified = m_file.lastModified();
+
+            if (m_length > MIN_COMPACTION_SIZE && m_length > 2 * m_liveBytes) {
+                compact();
+            }
+        }
+
+        private void compact() throws IOException {
+            final File tmp = new File(m_root, INDEX_FILE_NAME + ".tmp");
+            try (final OutputStream out = new FileOutputStream(tmp);
+                 final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                for (final Map.Entry<String, Properties> entry : m_entries.entrySet()) {
+                    writer.write(toRecord(entry.getKey(), entry.getValue()));
+                    writer.write('\n');
+                }
+            }
+            final Path target = m_file.toPath();
+            Files.move(tmp.toPath(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            m_length = -1;
+            ensureLoaded();
+        }
+    }
+
+    @Override
+    public Properties read(File file) throws IOException {
+        final File root = getRoot(file);
+        final String relativePath = relativize(root, file);
+        final Lock lock = lockFor(root);
+        lock.lock();
+        try {
+            final Index index = getIndex(root);
+            index.ensureLoaded();
+            final Properties properties = index.m_entries.get(relativePath);
+            if (properties != null) {
+                return copy(properties);
+            }
+
+            // Not indexed yet, so import the original file if there is one
+            final Properties legacy = m_legacyStorage.read(file);
+            if (legacy != null) {
+                index.append(toRecord(relativePath, legacy));
+            }
+            return legacy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(File file, Properties properties) throws IOException {
+        final File root = getRoot(file);
+        final Lock lock = lockFor(root);
+        lock.lock();
+        try {
+            getIndex(root).append(toRecord(relativize(root, file), properties));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long lastModified(File file) {
+        final File root = getRoot(file);
+        final Lock lock = lockFor(root);
+        lock.lock();
+        try {
+            final Index index = getIndex(root);
+            index.ensureLoaded();
+            if (index.m_entries.containsKey(relativize(root, file))) {
+                return index.m_lastModified;
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read {}", new File(root, INDEX_FILE_NAME), e);
+        } finally {
+            lock.unlock();
+        }
+        return m_legacyStorage.lastModified(file);
+    }
+
+    @Override
+    public void delete(File directory) throws IOException {
+        final String path = directory.getAbsoluteFile().toPath().normalize().toString();
+
+        // Indexes in or below the directory go away with it
+        synchronized (m_indexes) {
+            final Iterator<String> it = m_indexes.keySet().iterator();
+            while (it.hasNext()) {
+                final String root = it.next();
+                if (root.equals(path) || root.startsWith(path + File.separator)) {
+                    it.remove();
+                }
+            }
+        }
+
+        // If the directory is inside of an index, drop its entries from that index
+        final File root = getRoot(new File(directory, INDEX_FILE_NAME));
+        final String relativePath = relativize(root, directory);
+        if (!relativePath.isEmpty() && !relativePath.startsWith("..")) {
+            final Lock lock = lockFor(root);
+            lock.lock();
+            try {
+                if (new File(root, INDEX_FILE_NAME).exists()) {
+                    getIndex(root).append(DELETE + "\t" + encode(relativePath));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private File getRoot(File file) {
+        return m_rootResolver.apply(file.getAbsoluteFile()).getAbsoluteFile();
+    }
+
+    private Lock lockFor(File root) {
+        return m_locks[(root.getPath().hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private Index getIndex(File root) {
+        final String key = root.toPath().normalize().toString();
+        synchronized (m_indexes) {
+            Index index = m_indexes.get(key);
+            if (index == null) {
+                index = new Index(root);
+                m_indexes.put(key, index);
+                if (m_indexes.size() > m_maxIndexes) {
+                    final Iterator<Index> it = m_indexes.values().iterator();
+                    it.next();
+                    it.remove();
+                }
+            }
+            return index;
+        }
+    }
+
+    private static String relativize(File root, File file) {
+        final Path relative = root.toPath().normalize().relativize(file.getAbsoluteFile().toPath().normalize());
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    private static String toRecord(String relativePath, Properties properties) throws UnsupportedEncodingException {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(PUT).append('\t').append(encode(relativePath)).append('\t');
+        boolean first = true;
+        for (final String key : properties.stringPropertyNames()) {
+            if (!first) {
+                sb.append('&');
+            }
+            first = false;
+            sb.append(encode(key)).append('=').append(encode(properties.getProperty(key)));
+        }
+        return sb.toString();
+    }
+
+    private static Properties copy(Properties properties) {
+        final Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, "UTF-8");
+    }
+}
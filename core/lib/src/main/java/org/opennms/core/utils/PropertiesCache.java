@@ -34,10 +34,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.TreeMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -47,6 +54,22 @@ import org.slf4j.LoggerFactory;
 /**
  * Caches properties files in order to improve performance.
  *
+ * <p>The cache is split into lock stripes by file name, so that lookups of
+ * different files do not contend with each other. Each stripe holds at most
+ * its share of {@link #MAX_SIZE_PROPERTY} files and evicts the least recently
+ * used ones beyond that; evicted files are simply read again when they are
+ * next needed.</p>
+ *
+ * <p>When {@link #WRITE_BEHIND_PROPERTY} is set, updates only mark the cached
+ * properties as dirty and they are written out by a background thread every
+ * {@link #FLUSH_INTERVAL_PROPERTY} milliseconds, when they are evicted, or
+ * when {@link #flush()} is called. Repeated updates of the same file between
+ * flushes are then written once. Such a cache should be {@link #close() closed}
+ * when it is no longer used, which stops its background thread.</p>
+ *
+ * <p>The properties are read from and written to a {@link Storage}, which by
+ * default keeps each of them in its own file.</p>
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
@@ -56,31 +79,52 @@ public class PropertiesCache {
 
     public static final String CHECK_LAST_MODIFY_STRING = "org.opennms.utils.propertiesCache.enableCheckFileModified";
 
-    private static class PropertiesHolder {
-        private Properties m_properties;
-        private final File m_file;
-        private final Lock lock = new ReentrantLock();
-        private long m_lastModify = 0;
-        private boolean m_checkLastModify = Boolean.getBoolean(CHECK_LAST_MODIFY_STRING);
+    public static final String MAX_SIZE_PROPERTY = "org.opennms.utils.propertiesCache.maxSize";
 
-        PropertiesHolder(File file) {
-            m_file = file;
-            m_properties = null;
-        }
-        
-        private Properties read() throws IOException {
-            if (!m_file.canRead()) {
+    public static final String WRITE_BEHIND_PROPERTY = "org.opennms.utils.propertiesCache.writeBehind";
+
+    public static final String FLUSH_INTERVAL_PROPERTY = "org.opennms.utils.propertiesCache.flushInterval";
+
+    private static final int STRIPES = 64;
+
+    /**
+     * Where the cached properties are kept.
+     */
+    public interface Storage {
+        /**
+         * Returns the properties stored for the given file, or null if there are none.
+         */
+        Properties read(File file) throws IOException;
+
+        void write(File file, Properties properties) throws IOException;
+
+        /**
+         * Returns the time the properties of the given file were last changed, or
+         * 0 if there are none.
+         */
+        long lastModified(File file);
+
+        /**
+         * Forgets the properties of all files in or below the given directory.
+         */
+        void delete(File directory) throws IOException;
+    }
+
+    /**
+     * Keeps the properties of each file in the file itself.
+     */
+    public static class FileStorage implements Storage {
+        @Override
+        public Properties read(File file) throws IOException {
+            if (!file.canRead()) {
                 return null;
             }
 
             InputStream in = null;
             try {
-                in = new FileInputStream(m_file);
+                in = new FileInputStream(file);
                 Properties prop = new Properties();
                 prop.load(in);
-                if (m_checkLastModify) {
-                    m_lastModify = m_file.lastModified();
-                }
                 return prop;
             } finally {
                 if (in != null) {
@@ -92,17 +136,18 @@ public class PropertiesCache {
                 }
             }
         }
-        
-        private void write() throws IOException {
-            if(!m_file.getParentFile().mkdirs()) {
-            	if(!m_file.getParentFile().exists()) {
-            		LOG.warn("Could not make directory: {}", m_file.getParentFile().getPath());
+
+        @Override
+        public void write(File file, Properties properties) throws IOException {
+            if(!file.getParentFile().mkdirs()) {
+            	if(!file.getParentFile().exists()) {
+            		LOG.warn("Could not make directory: {}", file.getParentFile().getPath());
             	}
             }
             OutputStream out = null;
             try {
-                out = new FileOutputStream(m_file);
-                m_properties.store(out, null);
+                out = new FileOutputStream(file);
+                properties.store(out, null);
             } finally {
                 if (out != null) {
                     try {
@@ -114,13 +159,61 @@ public class PropertiesCache {
             }
         }
 
+        @Override
+        public long lastModified(File file) {
+            return file.canRead() ? file.lastModified() : 0;
+        }
+
+        @Override
+        public void delete(File directory) {
+            // The files go away with the directory
+        }
+    }
+
+    private class PropertiesHolder {
+        private Properties m_properties;
+        private final File m_file;
+        private final Lock lock = new ReentrantLock();
+        private long m_lastModify = 0;
+        private boolean m_dirty = false;
+        private boolean m_evicted = false;
+
+        PropertiesHolder(File file) {
+            m_file = file;
+            m_properties = null;
+        }
+        
+        private Properties read() throws IOException {
+            final Properties prop = m_storage.read(m_file);
+            if (prop != null && m_checkLastModify) {
+                m_lastModify = m_storage.lastModified(m_file);
+            }
+            return prop;
+        }
+        
+        private void write() throws IOException {
+            if (m_writeBehind) {
+                if (!m_dirty) {
+                    m_dirty = true;
+                    m_dirtyHolders.add(this);
+                }
+            } else {
+                store();
+            }
+        }
+
+        private void store() throws IOException {
+            m_storage.write(m_file, m_properties);
+        }
+
         public Properties get() throws IOException {
             lock.lock();
             try {
                 if (m_properties == null) {
                     readWithDefault(new Properties());
-                } else {
-                    if (m_checkLastModify && m_file.canRead() && m_lastModify != m_file.lastModified()) {
+                } else if (m_checkLastModify && !m_dirty) {
+                    final long lastModify = m_storage.lastModified(m_file);
+                    if (lastModify != 0 && m_lastModify != lastModify) {
                         m_properties = read();
                     }
                 }
@@ -132,7 +225,7 @@ public class PropertiesCache {
 
         private void readWithDefault(Properties deflt) throws IOException {
             // this is
-            if (deflt == null && !m_file.canRead()) {
+            if (deflt == null && m_storage.lastModified(m_file) == 0) {
                 // nothing to load so m_properties remains null no writing necessary
                 // just return to avoid getting the write lock
                 return;
@@ -212,29 +305,259 @@ public class PropertiesCache {
         }
 
     }
-    
-    
-    private Map<String, PropertiesHolder> m_cache = new TreeMap<String, PropertiesHolder>();
-    
+
+    private interface HolderCallback<T> {
+        T call(PropertiesHolder holder) throws IOException;
+    }
+
+    private static class Stripe<T> {
+        private final Lock lock = new ReentrantLock();
+        private final LinkedHashMap<String, T> holders = new LinkedHashMap<String, T>(16, 0.75f, true);
+    }
+
+    private final Storage m_storage;
+    private final boolean m_checkLastModify = Boolean.getBoolean(CHECK_LAST_MODIFY_STRING);
+    private final boolean m_writeBehind;
+    private final int m_maxSizePerStripe;
+    private final Stripe<PropertiesHolder>[] m_stripes;
+    private final Queue<PropertiesHolder> m_dirtyHolders = new ConcurrentLinkedQueue<PropertiesHolder>();
+    private final ScheduledExecutorService m_flusher;
+    private final Thread m_shutdownHook;
+
+    /**
+     * Creates a cache of properties files configured by system properties.
+     */
+    public PropertiesCache() {
+        this(new FileStorage());
+    }
+
+    /**
+     * Creates a cache of the properties kept in the given storage, configured
+     * by system properties.
+     *
+     * @param storage a {@link Storage} object.
+     */
+    public PropertiesCache(Storage storage) {
+        this(storage, Integer.getInteger(MAX_SIZE_PROPERTY, 100000), Boolean.getBoolean(WRITE_BEHIND_PROPERTY),
+             Long.getLong(FLUSH_INTERVAL_PROPERTY, 10000));
+    }
+
+    /**
+     * <p>Constructor for PropertiesCache.</p>
+     *
+     * @param storage a {@link Storage} object.
+     * @param maxSize the number of files to keep cached, or 0 for no limit
+     * @param writeBehind whether to write updates from a background thread
+     * @param flushInterval milliseconds between background writes
+     */
+    @SuppressWarnings("unchecked")
+    public PropertiesCache(Storage storage, int maxSize, boolean writeBehind, long flushInterval) {
+        m_storage = storage;
+        m_writeBehind = writeBehind;
+        m_maxSizePerStripe = maxSize > 0 ? Math.max(1, maxSize / STRIPES) : 0;
+        m_stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            m_stripes[i] = new Stripe<PropertiesHolder>();
+        }
+
+        if (writeBehind) {
+            m_flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "PropertiesCache-Flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            m_flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+            m_shutdownHook = new Thread("PropertiesCache-Shutdown") {
+                @Override
+                public void run() {
+                    m_flusher.shutdown();
+                    flush();
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(m_shutdownHook);
+        } else {
+            m_flusher = null;
+            m_shutdownHook = null;
+        }
+    }
+
     private PropertiesHolder getHolder(File propFile) throws IOException {
         String key = propFile.getCanonicalPath();
-        synchronized (m_cache) {
-            PropertiesHolder holder = m_cache.get(key);
+        final Stripe<PropertiesHolder> stripe = m_stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+        stripe.lock.lock();
+        try {
+            PropertiesHolder holder = stripe.holders.get(key);
             if (holder == null) {
                 holder = new PropertiesHolder(propFile);
-                m_cache.put(key, holder);
+                stripe.holders.put(key, holder);
+                evict(stripe, holder);
             }
             return holder;
+        } finally {
+            stripe.lock.unlock();
         }
     }
-    
+
+    /**
+     * Evicts the least recently used holders of the stripe that are not in use
+     * until it is back within its size. Must be called with the stripe locked.
+     */
+    private void evict(Stripe<PropertiesHolder> stripe, PropertiesHolder newest) {
+        if (m_maxSizePerStripe <= 0) {
+            return;
+        }
+        final Iterator<PropertiesHolder> it = stripe.holders.values().iterator();
+        while (stripe.holders.size() > m_maxSizePerStripe && it.hasNext()) {
+            final PropertiesHolder holder = it.next();
+            if (holder == newest || !holder.lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (holder.m_dirty) {
+                    holder.store();
+                    holder.m_dirty = false;
+                }
+                holder.m_evicted = true;
+                it.remove();
+            } catch (IOException e) {
+                LOG.warn("Failed to write {}, keeping it cached", holder.m_file, e);
+            } finally {
+                holder.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Runs the callback with the holder of the given file locked, making sure
+     * the holder was not evicted in the meantime.
+     */
+    private <T> T withHolder(File propFile, HolderCallback<T> callback) throws IOException {
+        for (;;) {
+            final PropertiesHolder holder = getHolder(propFile);
+            holder.lock.lock();
+            try {
+                if (!holder.m_evicted) {
+                    return callback.call(holder);
+                }
+            } finally {
+                holder.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes out all pending updates.
+     */
+    public void flush() {
+        PropertiesHolder holder;
+        while ((holder = m_dirtyHolders.poll()) != null) {
+            holder.lock.lock();
+            try {
+                if (holder.m_dirty && !holder.m_evicted) {
+                    holder.store();
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to write {}", holder.m_file, e);
+            } finally {
+                holder.m_dirty = false;
+                holder.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes out all pending updates and stops the background writer, if
+     * there is one. Updates made afterwards are only written by
+     * {@link #flush()}.
+     */
+    public void close() {
+        if (m_flusher != null) {
+            m_flusher.shutdown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(m_shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down and the hook will flush
+            }
+        }
+        flush();
+    }
+
     /**
      * <p>clear</p>
      */
     public void clear() {
-        synchronized (m_cache) {
-            m_cache.clear();
+        flush();
+        for (final Stripe<PropertiesHolder> stripe : m_stripes) {
+            stripe.lock.lock();
+            try {
+                for (final PropertiesHolder holder : stripe.holders.values()) {
+                    holder.lock.lock();
+                    holder.m_evicted = true;
+                    holder.lock.unlock();
+                }
+                stripe.holders.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Discards the cached and stored properties of all files in or below the
+     * given directory, without writing pending updates.
+     *
+     * @param directory a {@link java.io.File} object.
+     * @throws java.io.IOException if any.
+     */
+    public void removeProperties(File directory) throws IOException {
+        final String prefix = directory.getCanonicalPath() + File.separator;
+        for (final Stripe<PropertiesHolder> stripe : m_stripes) {
+            stripe.lock.lock();
+            try {
+                final Iterator<Map.Entry<String, PropertiesHolder>> it = stripe.holders.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<String, PropertiesHolder> entry = it.next();
+                    if (entry.getKey().startsWith(prefix)) {
+                        final PropertiesHolder holder = entry.getValue();
+                        holder.lock.lock();
+                        holder.m_evicted = true;
+                        holder.m_dirty = false;
+                        holder.lock.unlock();
+                        it.remove();
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        m_storage.delete(directory);
+    }
+
+    /**
+     * Returns the number of files currently cached.
+     *
+     * @return a int.
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe<PropertiesHolder> stripe : m_stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.holders.size();
+            } finally {
+                stripe.lock.unlock();
+            }
         }
+        return size;
     }
 
     /**
@@ -245,7 +568,7 @@ public class PropertiesCache {
      * @return a {@link java.util.Properties} object.
      */
     public Properties getProperties(File propFile) throws IOException {
-        return getHolder(propFile).get();
+        return withHolder(propFile, holder -> holder.get());
     }
     
     /**
@@ -256,7 +579,7 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public Properties findProperties(File propFile) throws IOException {
-        return getHolder(propFile).find();
+        return withHolder(propFile, holder -> holder.find());
     }
     /**
      * <p>saveProperties</p>
@@ -266,7 +589,10 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public void saveProperties(final File propFile, final Properties properties) throws IOException {
-        getHolder(propFile).put(properties);
+        withHolder(propFile, holder -> {
+            holder.put(properties);
+            return null;
+        });
     }
 
     public void saveProperties(final File propFile, final Map<String, String> attributeMappings) throws IOException {
@@ -284,7 +610,10 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public void updateProperties(File propFile, Map<String, String> props) throws IOException {
-        getHolder(propFile).update(props);
+        withHolder(propFile, holder -> {
+            holder.update(props);
+            return null;
+        });
     }
     
     /**
@@ -296,7 +625,10 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public void setProperty(File propFile, String key, String value) throws IOException {
-        getHolder(propFile).setProperty(key, value);
+        withHolder(propFile, holder -> {
+            holder.setProperty(key, value);
+            return null;
+        });
     }
     
     /**
@@ -308,7 +640,7 @@ public class PropertiesCache {
      * @throws java.io.IOException if any.
      */
     public String getProperty(File propFile, String key) throws IOException {
-        return getHolder(propFile).getProperty(key);
+        return withHolder(propFile, holder -> holder.getProperty(key));
     }
 
 }
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces packets at a fixed rate. Tokens are added at <code>rate</code> per
+ * second up to <code>capacity</code>, and every packet takes one token. The
+ * bucket starts out full, so up to <code>capacity</code> packets may be sent
+ * right away. Unlike sleeping for a fixed delay after every packet, the time
+ * spent sending is not added to the delay, so the configured rate is what is
+ * actually sent.
+ */
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final double m_rate;
+
+    /**
+     * The time it takes to add one token, zero if the rate is unlimited.
+     */
+    private final double m_nanosPerToken;
+
+    private final double m_capacity;
+
+    private double m_tokens;
+
+    private long m_lastRefill;
+
+    /**
+     * <p>Constructor for TokenBucket.</p>
+     *
+     * @param rate the number of tokens added per second, zero or less for no limit
+     * @param capacity the most tokens that can accumulate
+     */
+    public TokenBucket(final double rate, final double capacity) {
+        this(rate, capacity, System.nanoTime());
+    }
+
+    /**
+     * <p>Constructor for TokenBucket.</p>
+     *
+     * @param rate the number of tokens added per second, zero or less for no limit
+     * @param capacity the most tokens that can accumulate
+     * @param nowNanos the current value of {@link System#nanoTime()}
+     */
+    public TokenBucket(final double rate, final double capacity, final long nowNanos) {
+        m_rate = Math.max(0, rate);
+        m_nanosPerToken = rate > 0 ? NANOS_PER_SECOND / rate : 0;
+        m_capacity = Math.max(1, capacity);
+        m_tokens = m_capacity;
+        m_lastRefill = nowNanos;
+    }
+
+    public boolean isUnlimited() {
+        return m_nanosPerToken == 0;
+    }
+
+    /**
+     * @return the number of tokens added per second, zero if the rate is unlimited
+     */
+    public double getRate() {
+        return m_rate;
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param nowNanos the current value of {@link System#nanoTime()}
+     * @return zero if a token was taken, otherwise the number of nanoseconds until the next token is available
+     */
+    public synchronized long tryAcquire(final long nowNanos) {
+        if (isUnlimited()) {
+            return 0;
+        }
+
+        final long elapsed = nowNanos - m_lastRefill;
+        if (elapsed > 0) {
+            m_tokens = Math.min(m_capacity, m_tokens + elapsed / m_nanosPerToken);
+            m_lastRefill = nowNanos;
+        }
+
+        if (m_tokens >= 1) {
+            m_tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long)Math.ceil((1 - m_tokens) * m_nanosPerToken));
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return true if a token was taken
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime()) == 0;
+    }
+
+    /**
+     * Waits until a token is available and takes it.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        while ((wait = tryAcquire(System.nanoTime())) > 0) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexedPropertiesStorageTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    private File m_nodeDir;
+
+    @Before
+    public void setUp() throws Exception {
+        m_nodeDir = m_tempFolder.newFolder("1");
+    }
+
+    private IndexedPropertiesStorage createStorage() {
+        // every file below the node directory shares its index
+        return new IndexedPropertiesStorage(file -> m_nodeDir, 10);
+    }
+
+    @Test
+    public void storesAllFilesInOneIndex() throws Exception {
+        final IndexedPropertiesStorage storage = createStorage();
+        final File eth0 = new File(m_nodeDir, "eth0/strings.properties");
+        final File eth1 = new File(m_nodeDir, "eth1/strings.properties");
+
+        storage.write(eth0, properties("ifAlias", "uplink"));
+        storage.write(eth1, properties("ifAlias", "a=b&c\td\n"));
+
+        assertFalse(eth0.exists());
+        assertFalse(eth1.exists());
+        assertTrue(new File(m_nodeDir, IndexedPropertiesStorage.INDEX_FILE_NAME).exists());
+
+        // a new instance has to read everything back from the index
+        final IndexedPropertiesStorage reopened = createStorage();
+        assertEquals("uplink", reopened.read(eth0).getProperty("ifAlias"));
+        assertEquals("a=b&c\td\n", reopened.read(eth1).getProperty("ifAlias"));
+        assertTrue(reopened.lastModified(eth0) > 0);
+        assertNull(reopened.read(new File(m_nodeDir, "eth2/strings.properties")));
+        assertEquals(0, reopened.lastModified(new File(m_nodeDir, "eth2/strings.properties")));
+    }
+
+    @Test
+    public void laterWritesReplaceEarlierOnes() throws Exception {
+        final IndexedPropertiesStorage storage = createStorage();
+        final File file = new File(m_nodeDir, "strings.properties");
+
+        for (int i = 0; i < 2000; i++) {
+            storage.write(file, properties("counter", Integer.toString(i)));
+        }
+        assertEquals("1999", createStorage().read(file).getProperty("counter"));
+
+        // the journal is compacted rather than growing with every write
+        assertTrue(new File(m_nodeDir, IndexedPropertiesStorage.INDEX_FILE_NAME).length() < 64 * 1024);
+    }
+
+    @Test
+    public void importsExistingFiles() throws Exception {
+        final File legacy = new File(m_nodeDir, "eth0/strings.properties");
+        legacy.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(legacy)) {
+            properties("ifAlias", "uplink").store(out, null);
+        }
+
+        assertEquals("uplink", createStorage().read(legacy).getProperty("ifAlias"));
+        assertTrue(legacy.delete());
+        assertEquals("uplink", createStorage().read(legacy).getProperty("ifAlias"));
+    }
+
+    @Test
+    public void deletesEntriesBelowADirectory() throws Exception {
+        final IndexedPropertiesStorage storage = createStorage();
+        final File eth0 = new File(m_nodeDir, "eth0/strings.properties");
+        final File eth01 = new File(m_nodeDir, "eth01/strings.properties");
+
+        storage.write(eth0, properties("ifAlias", "uplink"));
+        storage.write(eth01, properties("ifAlias", "downlink"));
+        storage.delete(new File(m_nodeDir, "eth0"));
+
+        assertNull(createStorage().read(eth0));
+        assertEquals("downlink", createStorage().read(eth01).getProperty("ifAlias"));
+    }
+
+    @Test
+    public void worksBehindAPropertiesCache() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(createStorage(), 0, false, 0);
+        final File file = new File(m_nodeDir, "eth0/strings.properties");
+
+        assertNull(cache.findProperties(file));
+        cache.setProperty(file, "ifAlias", "uplink");
+        assertEquals("uplink", new PropertiesCache(createStorage(), 0, false, 0).getProperty(file, "ifAlias"));
+    }
+
+    private static Properties properties(String key, String value) {
+        final Properties properties = new Properties();
+        properties.setProperty(key, value);
+        return properties;
+    }
+}
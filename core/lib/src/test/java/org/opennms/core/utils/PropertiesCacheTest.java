@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PropertiesCacheTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void writesThroughByDefault() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(new PropertiesCache.FileStorage(), 0, false, 0);
+        final File file = new File(m_tempFolder.getRoot(), "strings.properties");
+
+        cache.setProperty(file, "ifAlias", "uplink");
+        assertTrue(file.exists());
+        assertEquals("uplink", load(file).getProperty("ifAlias"));
+        assertEquals("uplink", cache.getProperty(file, "ifAlias"));
+    }
+
+    @Test
+    public void writesBehindUntilFlushed() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(new PropertiesCache.FileStorage(), 0, true, 3600000);
+        final File file = new File(m_tempFolder.getRoot(), "strings.properties");
+
+        cache.setProperty(file, "ifAlias", "uplink");
+        cache.setProperty(file, "ifDescr", "eth0");
+        assertFalse(file.exists());
+        assertEquals("uplink", cache.getProperty(file, "ifAlias"));
+
+        cache.flush();
+        assertEquals("uplink", load(file).getProperty("ifAlias"));
+        assertEquals("eth0", load(file).getProperty("ifDescr"));
+        cache.close();
+    }
+
+    @Test
+    public void writesPendingUpdatesWhenClosed() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(new PropertiesCache.FileStorage(), 0, true, 3600000);
+        final File file = new File(m_tempFolder.getRoot(), "strings.properties");
+
+        cache.setProperty(file, "ifAlias", "uplink");
+        assertFalse(file.exists());
+
+        cache.close();
+        assertEquals("uplink", load(file).getProperty("ifAlias"));
+
+        // closing again does no harm
+        cache.close();
+    }
+
+    @Test
+    public void flushesDirtyPropertiesWhenEvicted() throws Exception {
+        // one file per lock stripe
+        final PropertiesCache cache = new PropertiesCache(new PropertiesCache.FileStorage(), 1, true, 3600000);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.updateProperties(new File(m_tempFolder.getRoot(), i + ".properties"), Collections.singletonMap("i", Integer.toString(i)));
+        }
+        assertTrue(cache.size() <= 64);
+
+        cache.flush();
+        for (int i = 0; i < 1000; i++) {
+            final File file = new File(m_tempFolder.getRoot(), i + ".properties");
+            assertEquals(Integer.toString(i), load(file).getProperty("i"));
+            assertEquals(Integer.toString(i), cache.getProperty(file, "i"));
+        }
+        cache.close();
+    }
+
+    @Test
+    public void removesPropertiesBelowADirectory() throws Exception {
+        final PropertiesCache cache = new PropertiesCache(new PropertiesCache.FileStorage(), 0, true, 3600000);
+        final File dir = m_tempFolder.newFolder("eth0");
+        final File file = new File(dir, "strings.properties");
+
+        cache.setProperty(file, "ifAlias", "uplink");
+        cache.removeProperties(dir);
+        cache.flush();
+
+        assertFalse(file.exists());
+        assertNull(cache.findProperties(file));
+        cache.close();
+    }
+
+    private static Properties load(File file) throws Exception {
+        return new PropertiesCache.FileStorage().read(file);
+    }
+}
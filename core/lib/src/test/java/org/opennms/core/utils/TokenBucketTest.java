@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void testBurstIsAvailableRightAway() {
+        final TokenBucket bucket = new TokenBucket(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(0));
+        }
+        // the next token is due in a tenth of a second
+        assertEquals(SECOND / 10, bucket.tryAcquire(0));
+    }
+
+    @Test
+    public void testTokensAreAddedAtTheRate() {
+        final TokenBucket bucket = new TokenBucket(100, 1, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+
+        final long wait = bucket.tryAcquire(SECOND / 200);
+        assertEquals(SECOND / 200, wait);
+        assertEquals(0, bucket.tryAcquire(SECOND / 100));
+
+        // a full second adds 100 tokens, but no more than the burst are kept
+        assertEquals(0, bucket.tryAcquire(2 * SECOND));
+        assertTrue(bucket.tryAcquire(2 * SECOND) > 0);
+    }
+
+    @Test
+    public void testPacketsPerSecond() {
+        final TokenBucket bucket = new TokenBucket(1000, 10, 0);
+        int acquired = 0;
+        for (long now = 0; now <= SECOND; now += SECOND / 100000) {
+            while (bucket.tryAcquire(now) == 0) {
+                acquired++;
+            }
+        }
+        // the initial burst plus one second worth of tokens
+        assertEquals(1010, acquired);
+    }
+
+    @Test
+    public void testAcquireWaitsForTheRate() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(200, 1);
+        final long start = System.nanoTime();
+        // the first token is already in the bucket, the other 40 take a fifth of a second
+        for (int i = 0; i < 41; i++) {
+            bucket.acquire();
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertTrue("acquired 41 tokens in " + elapsed + "ns", elapsed >= SECOND / 5);
+        assertTrue("acquired 41 tokens in " + elapsed + "ns", elapsed < 2 * SECOND);
+    }
+
+    @Test
+    public void testUnlimited() {
+        final TokenBucket bucket = new TokenBucket(0, 1, 0);
+        assertTrue(bucket.isUnlimited());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(0, bucket.tryAcquire(0));
+        }
+    }
+}
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +54,8 @@ public abstract class SnmpWalker implements Closeable {
     private final CollectionTracker m_tracker;
 
     private final CountDownLatch m_signal;
+    private final AtomicBoolean m_finished = new AtomicBoolean(false);
+    private volatile SnmpWalkCallback m_callback;
 
     private final InetAddress m_address;
     private WalkerPduBuilder m_pduBuilder;
@@ -162,6 +165,29 @@ public abstract class SnmpWalker implements Closeable {
         } catch (IOException e) {
             LOG.error("{}: Unexpected Error occured closing SNMP session for: {}", getName(), m_address, e);
         }
+        notifyCallback();
+    }
+
+    private void notifyCallback() {
+        final SnmpWalkCallback callback = m_callback;
+        if (callback != null && m_finished.compareAndSet(false, true)) {
+            try {
+                callback.complete(this);
+            } catch (Throwable t) {
+                LOG.error("{}: Unexpected error in the completion callback for: {}", getName(), m_address, t);
+            }
+        }
+    }
+
+    /**
+     * Sets a callback to be notified once the walk has finished, so that
+     * callers do not need to block in {@link #waitFor()}.  It must be set
+     * before the walker is started.
+     *
+     * @param callback the callback
+     */
+    public void setCallback(final SnmpWalkCallback callback) {
+        m_callback = callback;
     }
 
     @Override
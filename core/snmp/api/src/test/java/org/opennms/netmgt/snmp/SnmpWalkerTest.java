@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SnmpWalkerTest {
+
+    private static class TestWalker extends SnmpWalker {
+        private final boolean m_failSend;
+        private int m_closed = 0;
+
+        public TestWalker(final CollectionTracker tracker, final boolean failSend) {
+            super(InetAddress.getLoopbackAddress(), "Test", 10, 2, tracker);
+            m_failSend = failSend;
+        }
+
+        @Override
+        protected WalkerPduBuilder createPduBuilder(final int maxVarsPerPdu) {
+            return new WalkerPduBuilder(maxVarsPerPdu) {
+                @Override public void reset() {}
+                @Override public void addOid(final SnmpObjId snmpObjId) {}
+                @Override public void setNonRepeaters(final int numNonRepeaters) {}
+                @Override public void setMaxRepetitions(final int maxRepetitions) {}
+            };
+        }
+
+        @Override
+        protected void sendNextPdu(final WalkerPduBuilder pduBuilder) throws IOException {
+            if (m_failSend) {
+                throw new IOException("no route to agent");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_closed++;
+        }
+    }
+
+    private static class CountingCallback implements SnmpWalkCallback {
+        private final AtomicInteger m_calls = new AtomicInteger(0);
+        private volatile SnmpWalker m_walker;
+
+        @Override
+        public void complete(final SnmpWalker walker) {
+            m_walker = walker;
+            m_calls.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testCallbackOnSuccess() throws Exception {
+        final ColumnTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.1"));
+        tracker.setFinished(true);
+        final TestWalker walker = new TestWalker(tracker, false);
+        final CountingCallback callback = new CountingCallback();
+        walker.setCallback(callback);
+
+        walker.start();
+
+        assertEquals(1, callback.m_calls.get());
+        assertSame(walker, callback.m_walker);
+        assertFalse(walker.failed());
+        assertEquals(1, walker.m_closed);
+        assertTrue(walker.waitFor(0));
+    }
+
+    @Test
+    public void testCallbackOnceOnFailure() throws Exception {
+        final TestWalker walker = new TestWalker(new ColumnTracker(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.1")), true);
+        final CountingCallback callback = new CountingCallback();
+        walker.setCallback(callback);
+
+        walker.start();
+        // a late error must not notify the callback again
+        walker.handleTimeout("late timeout");
+
+        assertEquals(1, callback.m_calls.get());
+        assertTrue(walker.failed());
+    }
+}
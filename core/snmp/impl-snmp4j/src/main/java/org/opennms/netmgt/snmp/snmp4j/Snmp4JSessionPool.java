@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.CounterEvent;
+import org.snmp4j.event.CounterListener;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.mp.CounterSupport;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * A small, fixed set of long-lived SNMP4J sessions that are shared by all
+ * SNMPv1 and SNMPv2c requests.
+ *
+ * <p>Without it every get, set and walk opens a
+ * {@link DefaultUdpTransportMapping} (a UDP socket and a listener thread) and
+ * closes it again once the response has arrived.  The sessions here are
+ * bound once and kept listening; SNMP4J already matches responses to
+ * requests by request-id, so any number of threads can have requests
+ * outstanding on the same session.</p>
+ *
+ * <p>To keep a single slow agent from tying up the shared sessions, at most
+ * <code>maxOutstandingPerAgent</code> requests (or walks) may be outstanding
+ * to one agent at a time; further callers wait for up to the agent's
+ * timeout times its number of tries and fail if no slot frees up.</p>
+ *
+ * <p>SNMPv3 requests keep using a session of their own, because the USM
+ * users are registered on the session and would otherwise clash between
+ * agents that share a security name.</p>
+ */
+public class Snmp4JSessionPool implements Snmp4JSessionPoolMBean {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    /**
+     * Set this system property to <code>true</code> to share SNMP sessions.
+     */
+    public static final String ENABLED_PROPERTY = "org.opennms.snmp.snmp4j.sharedSessions";
+
+    public static final String SESSIONS_PROPERTY = "org.opennms.snmp.snmp4j.sharedSessions.count";
+
+    public static final String MAX_OUTSTANDING_PROPERTY = "org.opennms.snmp.snmp4j.sharedSessions.maxOutstandingPerAgent";
+
+    private static final String OBJECT_NAME = "OpenNMS:Name=Snmp4JSessionPool";
+
+    private static Snmp4JSessionPool s_instance;
+
+    private final Snmp[] m_sessions;
+
+    private final AtomicInteger m_next = new AtomicInteger(0);
+
+    private final int m_maxOutstandingPerAgent;
+
+    private final ConcurrentMap<String, Semaphore> m_agentPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    private final AtomicLong m_outstanding = new AtomicLong(0);
+
+    private final AtomicLong m_requests = new AtomicLong(0);
+
+    private final AtomicLong m_retries = new AtomicLong(0);
+
+    private final AtomicLong m_timeouts = new AtomicLong(0);
+
+    private final AtomicLong m_rejected = new AtomicLong(0);
+
+    /**
+     * Returns the shared pool, creating it on first use, or
+     * <code>null</code> if sessions are not shared.
+     *
+     * @return the pool or <code>null</code>
+     */
+    public static synchronized Snmp4JSessionPool getInstance() {
+        if (s_instance == null && Boolean.getBoolean(ENABLED_PROPERTY)) {
+            try {
+                s_instance = new Snmp4JSessionPool(Integer.getInteger(SESSIONS_PROPERTY, 4), Integer.getInteger(MAX_OUTSTANDING_PROPERTY, 10));
+                s_instance.register();
+            } catch (final IOException e) {
+                LOG.error("Unable to create the shared SNMP sessions; falling back to a session per request.", e);
+                // don't try again on every request
+                System.setProperty(ENABLED_PROPERTY, "false");
+            }
+        }
+        return s_instance;
+    }
+
+    protected Snmp4JSessionPool(final int sessions, final int maxOutstandingPerAgent) throws IOException {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("at least one session is required");
+        }
+        if (maxOutstandingPerAgent < 1) {
+            throw new IllegalArgumentException("maxOutstandingPerAgent must be positive");
+        }
+        m_maxOutstandingPerAgent = maxOutstandingPerAgent;
+        m_sessions = new Snmp[sessions];
+
+        final CounterSupport counters = new CounterSupport() {};
+        counters.addCounterListener(new CounterListener() {
+            @Override
+            public void incrementCounter(final CounterEvent event) {
+                if (SnmpConstants.snmp4jStatsRequestRetries.equals(event.getOid())) {
+                    m_retries.incrementAndGet();
+                } else if (SnmpConstants.snmp4jStatsRequestTimeouts.equals(event.getOid())) {
+                    m_timeouts.incrementAndGet();
+                }
+            }
+        });
+
+        try {
+            for (int i = 0; i < sessions; i++) {
+                final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping();
+                transport.setThreadName("Snmp4JSessionPool-" + i);
+                final Snmp session = new Snmp(transport);
+                session.setCounterSupport(counters);
+                session.listen();
+                m_sessions[i] = session;
+                LOG.debug("Shared SNMP session {} listening on {}", i, transport.getListenAddress());
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (final Exception e) {
+            LOG.warn("Unable to register the shared SNMP session statistics as {}", OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Returns one of the shared sessions.  The sessions are handed out in
+     * turn so that the load is spread over their ports and listener threads.
+     *
+     * @return a listening session that must not be closed by the caller
+     */
+    public Snmp getSession() {
+        return m_sessions[(m_next.getAndIncrement() & Integer.MAX_VALUE) % m_sessions.length];
+    }
+
+    /**
+     * Reserves one of the agent's outstanding-request slots.  The slot must
+     * be given back with {@link #release(Snmp4JAgentConfig)}.
+     *
+     * @param agentConfig the agent the request is for
+     * @throws IOException if no slot became free within the agent's timeout
+     */
+    public void acquire(final Snmp4JAgentConfig agentConfig) throws IOException {
+        final long wait = Math.max(1, (long)agentConfig.getTimeout() * (Math.max(0, agentConfig.getRetries()) + 1));
+        boolean acquired = false;
+        try {
+            acquired = getPermits(agentConfig).tryAcquire(wait, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to send a request to " + agentConfig.getInetAddress(), e);
+        }
+        if (!acquired) {
+            m_rejected.incrementAndGet();
+            throw new IOException("More than " + m_maxOutstandingPerAgent + " requests outstanding for agent " + agentConfig.getInetAddress() + " after waiting " + wait + "ms");
+        }
+        m_outstanding.incrementAndGet();
+    }
+
+    /**
+     * Gives back a slot reserved by {@link #acquire(Snmp4JAgentConfig)}.
+     *
+     * @param agentConfig the agent the request was for
+     */
+    public void release(final Snmp4JAgentConfig agentConfig) {
+        m_outstanding.decrementAndGet();
+        getPermits(agentConfig).release();
+    }
+
+    /**
+     * Sends a request over one of the shared sessions and waits for the
+     * response.
+     *
+     * @param agentConfig the agent to send the request to
+     * @param pdu the request
+     * @return the response event, or <code>null</code> for requests that do
+     *         not expect a response
+     * @throws IOException if the request could not be sent
+     */
+    public ResponseEvent send(final Snmp4JAgentConfig agentConfig, final PDU pdu) throws IOException {
+        acquire(agentConfig);
+        try {
+            m_requests.incrementAndGet();
+            return getSession().send(pdu, agentConfig.getTarget());
+        } finally {
+            release(agentConfig);
+        }
+    }
+
+    /**
+     * Counts a request sent by a caller that uses {@link #getSession()}
+     * directly.
+     */
+    public void countRequest() {
+        m_requests.incrementAndGet();
+    }
+
+    private Semaphore getPermits(final Snmp4JAgentConfig agentConfig) {
+        final String key = agentConfig.getInetAddress().getHostAddress() + ":" + agentConfig.getPort();
+        Semaphore permits = m_agentPermits.get(key);
+        if (permits == null) {
+            final Semaphore newPermits = new Semaphore(m_maxOutstandingPerAgent);
+            permits = m_agentPermits.putIfAbsent(key, newPermits);
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Closes all shared sessions.
+     */
+    public void close() {
+        for (final Snmp session : m_sessions) {
+            if (session == null) {
+                continue;
+            }
+            try {
+                session.close();
+            } catch (final IOException e) {
+                LOG.warn("Error closing shared SNMP session", e);
+            }
+        }
+    }
+
+    @Override
+    public int getSessions() {
+        return m_sessions.length;
+    }
+
+    @Override
+    public int getMaxOutstandingPerAgent() {
+        return m_maxOutstandingPerAgent;
+    }
+
+    @Override
+    public long getOutstandingRequests() {
+        return m_outstanding.get();
+    }
+
+    @Override
+    public long getRequests() {
+        return m_requests.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return m_retries.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return m_timeouts.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return m_rejected.get();
+    }
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+/**
+ * Statistics of the shared SNMP4J sessions.
+ */
+public interface Snmp4JSessionPoolMBean {
+
+    /**
+     * @return The number of shared sessions (and local UDP ports)
+     */
+    public int getSessions();
+
+    /**
+     * @return The maximum number of requests outstanding to a single agent
+     */
+    public int getMaxOutstandingPerAgent();
+
+    /**
+     * @return The number of requests currently waiting for a response
+     */
+    public long getOutstandingRequests();
+
+    /**
+     * @return The number of requests sent over the shared sessions
+     */
+    public long getRequests();
+
+    /**
+     * @return The number of requests that were retried after a timeout
+     */
+    public long getRetries();
+
+    /**
+     * @return The number of requests that timed out after all retries
+     */
+    public long getTimeouts();
+
+    /**
+     * @return The number of requests that were not sent because the agent
+     * already had too many outstanding requests
+     */
+    public long getRejected();
+}
@@ -242,6 +242,11 @@ public class Snmp4JStrategy implements SnmpStrategy {
      * adapted from default SnmpAgentConfig values to those compatible with the SNMP4J library.
      */
     protected SnmpValue[] send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse) {
+        final Snmp4JSessionPool sessionPool = agentConfig.isSnmpV3() ? null : Snmp4JSessionPool.getInstance();
+        if (sessionPool != null) {
+            return sendShared(sessionPool, agentConfig, pdu, expectResponse);
+        }
+
         Snmp session;
 
         try {
@@ -280,7 +285,28 @@ public class Snmp4JStrategy implements SnmpStrategy {
             closeQuietly(session);
         }
     }
-    
+
+    /**
+     * Sends the request over one of the shared sessions rather than opening
+     * a session of its own.
+     */
+    private static SnmpValue[] sendShared(Snmp4JSessionPool sessionPool, Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse) {
+        try {
+            final ResponseEvent responseEvent = sessionPool.send(agentConfig, pdu);
+
+            if (expectResponse) {
+                return processResponse(agentConfig, responseEvent);
+            } else {
+                return null;
+            }
+        } catch (final IOException e) {
+            LOG.error("send: error during SNMP operation", e);
+            return new SnmpValue[] { null };
+        } catch (final RuntimeException e) {
+            LOG.error("send: unexpected error during SNMP operation", e);
+            return new SnmpValue[] { null };
+        }
+    }
 
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
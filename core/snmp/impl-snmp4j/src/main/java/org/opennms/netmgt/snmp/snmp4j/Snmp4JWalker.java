@@ -164,7 +164,13 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            // use the event's session, close() may already have dropped ours
+            ((Snmp) responseEvent.getSource()).cancel(responseEvent.getRequest(), this);
+            synchronized (m_sessionPoolLock) {
+                if (m_outstandingRequest == responseEvent.getRequest()) {
+                    m_outstandingRequest = null;
+                }
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -186,6 +192,10 @@ public class Snmp4JWalker extends SnmpWalker {
     }
     
     private Snmp m_session;
+    private Snmp4JSessionPool m_sessionPool;
+    private PDU m_outstandingRequest;
+    private volatile boolean m_closed = false;
+    private final Object m_sessionPoolLock = new Object();
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
@@ -218,12 +228,41 @@ public class Snmp4JWalker extends SnmpWalker {
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         if (m_session == null) {
-            m_session = m_agentConfig.createSnmpSession();
-            m_session.listen();
+            if (m_closed) {
+                throw new IOException("The walker for " + getAddress() + " has already been closed");
+            }
+            final Snmp4JSessionPool sessionPool = m_agentConfig.isSnmpV3() ? null : Snmp4JSessionPool.getInstance();
+            if (sessionPool != null) {
+                // a walk holds one of the agent's slots until it is closed
+                sessionPool.acquire(m_agentConfig);
+                synchronized (m_sessionPoolLock) {
+                    if (m_closed) {
+                        sessionPool.release(m_agentConfig);
+                        throw new IOException("The walker for " + getAddress() + " has already been closed");
+                    }
+                    m_sessionPool = sessionPool;
+                    m_session = sessionPool.getSession();
+                }
+            } else {
+                m_session = m_agentConfig.createSnmpSession();
+                m_session.listen();
+            }
         }
         
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
-        m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+        final PDU pdu = snmp4JPduBuilder.getPdu();
+        final Snmp session;
+        synchronized (m_sessionPoolLock) {
+            if (m_sessionPool != null) {
+                m_sessionPool.countRequest();
+            }
+            session = m_session;
+            m_outstandingRequest = pdu;
+        }
+        if (session == null) {
+            throw new IOException("The walker for " + getAddress() + " has already been closed");
+        }
+        session.send(pdu, m_tgt, null, m_listener);
     }
     
     protected int getVersion() {
@@ -232,7 +271,28 @@ public class Snmp4JWalker extends SnmpWalker {
 
     @Override
     public void close() throws IOException {
-        if (m_session != null) {
+        m_closed = true;
+        final Snmp4JSessionPool sessionPool;
+        final Snmp sharedSession;
+        final PDU outstandingRequest;
+        synchronized (m_sessionPoolLock) {
+            sessionPool = m_sessionPool;
+            m_sessionPool = null;
+            sharedSession = sessionPool == null ? null : m_session;
+            if (sessionPool != null) {
+                m_session = null;
+            }
+            outstandingRequest = m_outstandingRequest;
+            m_outstandingRequest = null;
+        }
+        if (sessionPool != null) {
+            // the session is shared and outlives this walker, so drop our pending request from it
+            if (sharedSession != null && outstandingRequest != null) {
+                sharedSession.cancel(outstandingRequest, m_listener);
+            }
+            // only give back the agent's slot
+            sessionPool.release(m_agentConfig);
+        } else if (m_session != null) {
             m_session.close();
             m_session = null;
         }
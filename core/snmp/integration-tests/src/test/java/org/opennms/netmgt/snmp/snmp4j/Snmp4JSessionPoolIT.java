@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+
+public class Snmp4JSessionPoolIT extends MockSnmpAgentITCase {
+
+    private Snmp4JSessionPool m_pool;
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        m_pool = new Snmp4JSessionPool(2, 1);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        m_pool.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testSendOverSharedSessions() throws Exception {
+        final Snmp4JStrategy strategy = new Snmp4JStrategy();
+        final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(getAgentConfig());
+
+        for (int i = 0; i < 4; i++) {
+            final PDU pdu = strategy.buildPdu(agentConfig, PDU.GET, new SnmpObjId[] { SnmpObjId.get(".1.3.5.1.1.3.0") }, null);
+            final ResponseEvent responseEvent = m_pool.send(agentConfig, pdu);
+            assertNotNull("response should not be null", responseEvent.getResponse());
+            assertEquals(1, responseEvent.getResponse().size());
+            final SnmpValue value = new Snmp4JValue(responseEvent.getResponse().get(0).getVariable());
+            assertEquals(SnmpValue.SNMP_INT32, value.getType());
+            assertEquals(42, value.toInt());
+        }
+
+        assertEquals(4, m_pool.getRequests());
+        assertEquals(0, m_pool.getOutstandingRequests());
+        assertEquals(0, m_pool.getTimeouts());
+    }
+
+    @Test
+    public void testSessionsAreReused() throws Exception {
+        final Snmp first = m_pool.getSession();
+        final Snmp second = m_pool.getSession();
+        assertNotSame(first, second);
+        assertSame(first, m_pool.getSession());
+        assertSame(second, m_pool.getSession());
+    }
+
+    @Test
+    public void testOutstandingRequestsPerAgentAreLimited() throws Exception {
+        final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(getAgentConfig());
+
+        m_pool.acquire(agentConfig);
+        try {
+            m_pool.acquire(agentConfig);
+            fail("the second request should have been rejected");
+        } catch (final IOException e) {
+            // expected
+        } finally {
+            m_pool.release(agentConfig);
+        }
+
+        assertEquals(1, m_pool.getRejected());
+        assertEquals(0, m_pool.getOutstandingRequests());
+    }
+}
@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 
@@ -33,6 +34,7 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpRequestWrapper;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
@@ -49,6 +51,7 @@ import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.LaxRedirectStrategy;
 import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
@@ -72,6 +75,8 @@ public class HttpClientWrapper implements Closeable {
     private Integer m_socketTimeout;
     private Integer m_connectionTimeout;
     private Integer m_retries;
+    private Integer m_maxConnectionsPerRoute;
+    private HttpClientConnectionManager m_connectionManager;
     private Map<String,SSLContext> m_sslContext = new HashMap<>();
 
     private Set<HttpRequestInterceptor> m_requestInterceptors = new LinkedHashSet<>();
@@ -150,6 +155,18 @@ public class HttpClientWrapper implements Closeable {
         return this;
     }
 
+    /**
+     * Keep up to <code>maxConnectionsPerRoute</code> connections per host open in a pool,
+     * so that the client can be shared by several threads and repeated requests to the same
+     * host re-use the established (keep-alive) connections instead of connecting again.
+     */
+    public HttpClientWrapper usePooledConnections(final int maxConnectionsPerRoute) {
+        LOG.debug("usePooledConnections: maxConnectionsPerRoute={}", maxConnectionsPerRoute);
+        assertNotInitialized();
+        m_maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
     /**
      * Configure HttpClient to honor the system java proxy settings (-Dhttp.proxyHost= -Dhttp.proxyPort=)
      */
@@ -298,6 +315,17 @@ public class HttpClientWrapper implements Closeable {
         }
     }
 
+    /**
+     * Close the connections that are idle for longer than the given time, and the
+     * connections that have expired.  This is only useful for long-lived wrappers.
+     */
+    public void closeIdleConnections(final long idleTime, final TimeUnit timeUnit) {
+        if (m_connectionManager != null) {
+            m_connectionManager.closeExpiredConnections();
+            m_connectionManager.closeIdleConnections(idleTime, timeUnit);
+        }
+    }
+
     /**
      * Execute the given HTTP method, returning an HTTP response.
      * 
@@ -343,6 +371,7 @@ public class HttpClientWrapper implements Closeable {
         ret.m_socketTimeout = m_socketTimeout;
         ret.m_connectionTimeout = m_connectionTimeout;
         ret.m_retries = m_retries;
+        ret.m_maxConnectionsPerRoute = m_maxConnectionsPerRoute;
         for (final Map.Entry<String,SSLContext> entry : ret.m_sslContext.entrySet()) {
             ret.m_sslContext.put(entry.getKey(), entry.getValue());
         }
@@ -390,7 +419,9 @@ public class HttpClientWrapper implements Closeable {
             if (m_retries != null) {
                 httpClientBuilder.setRetryHandler(new DefaultHttpRequestRetryHandler(m_retries, false));
             }
-            if (m_sslContext.size() != 0) {
+            if (m_maxConnectionsPerRoute != null) {
+                configurePooledConnections(httpClientBuilder);
+            } else if (m_sslContext.size() != 0) {
                 configureSSLContext(httpClientBuilder);
             }
             for (final HttpRequestInterceptor interceptor : m_requestInterceptors) {
@@ -455,6 +486,20 @@ public class HttpClientWrapper implements Closeable {
     }
 
     protected void configureSSLContext(final HttpClientBuilder builder) {
+        final HttpClientConnectionManager ccm = new BasicHttpClientConnectionManager(getSocketFactoryRegistry());
+        m_connectionManager = ccm;
+        builder.setConnectionManager(ccm);
+    }
+
+    protected void configurePooledConnections(final HttpClientBuilder builder) {
+        final PoolingHttpClientConnectionManager ccm = new PoolingHttpClientConnectionManager(getSocketFactoryRegistry());
+        ccm.setDefaultMaxPerRoute(m_maxConnectionsPerRoute);
+        ccm.setMaxTotal(Math.max(ccm.getMaxTotal(), m_maxConnectionsPerRoute));
+        m_connectionManager = ccm;
+        builder.setConnectionManager(ccm);
+    }
+
+    private Registry<ConnectionSocketFactory> getSocketFactoryRegistry() {
         final RegistryBuilder<ConnectionSocketFactory> registryBuilder = RegistryBuilder.<ConnectionSocketFactory>create();
         for (final Map.Entry<String,SSLContext> entry : m_sslContext.entrySet()) {
             final SSLConnectionSocketFactory sslConnectionFactory = new SSLConnectionSocketFactory(entry.getValue(), SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
@@ -466,9 +511,7 @@ public class HttpClientWrapper implements Closeable {
         if (!m_sslContext.containsKey("https")) {
             registryBuilder.register("https", SSLConnectionSocketFactory.getSystemSocketFactory());
         }
-
-        final HttpClientConnectionManager ccm = new BasicHttpClientConnectionManager(registryBuilder.build());
-        builder.setConnectionManager(ccm);
+        return registryBuilder.build();
     }
 
     @Override
@@ -483,6 +526,7 @@ public class HttpClientWrapper implements Closeable {
                 + ", socketTimeout=" + m_socketTimeout
                 + ", connectionTimeout=" + m_connectionTimeout
                 + ", retries=" + m_retries
+                + ", maxConnectionsPerRoute=" + m_maxConnectionsPerRoute
                 + ", sslContext=" + m_sslContext
                 + ", requestInterceptors=" + m_requestInterceptors
                 + ", responseInterceptors=" + m_responseInterceptors
@@ -33,7 +33,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -53,6 +52,7 @@ import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUpdateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
@@ -83,6 +83,12 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
     /** Constant <code>MAX_DS_NAME_LENGTH=19</code> */
     public static final int MAX_DS_NAME_LENGTH = 19;
 
+    /**
+     * Integers above this magnitude, like large Counter64 values, cannot be
+     * represented exactly as a double.
+     */
+    private static final double MAX_EXACT_INTEGER = 9007199254740992.0; // 2^53
+
     /**
      * <p>Constructor for PersistOperationBuilder.</p>
      *
@@ -211,7 +217,11 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
             List<RrdDataSource> dataSources = getDataSources();
             if (dataSources != null && dataSources.size() > 0) {
                 createRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, getRepository().getStep(), dataSources, getRepository().getRraList(), m_metaData);
-                updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+                if (hasExactDoubleValues()) {
+                    updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues(), null);
+                } else {
+                    updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), null, getStringValues());
+                }
             }
         } catch (FileNotFoundException e) {
             LoggerFactory.getLogger(getClass()).warn("Could not get resource directory: " + e.getMessage(), e);
@@ -221,22 +231,66 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         }
     }
 
-    private String getValues() {
-        boolean first = true;
-        StringBuffer values = new StringBuffer();
-        for (Iterator<CollectionAttributeType> iter = m_declarations.keySet().iterator(); iter.hasNext();) {
-        	CollectionAttributeType attrDef = iter.next();
-            Number value = m_declarations.get(attrDef);
-            if (!first) {
+    /**
+     * Checks whether a collected value can be handed to the RRD strategy as
+     * a double without losing precision.
+     *
+     * @param num the collected value, may be null
+     * @return false for integers too large to be represented exactly as a double
+     */
+    public static boolean isExactDoubleValue(Number num) {
+        if (num == null || num instanceof Double || num instanceof Float) {
+            return true;
+        }
+        return Math.abs(num.doubleValue()) < MAX_EXACT_INTEGER;
+    }
+
+    private boolean hasExactDoubleValues() {
+        for (Number value : m_declarations.values()) {
+            if (!isExactDoubleValue(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getStringValues() {
+        final StringBuilder values = new StringBuilder();
+        for (Number value : m_declarations.values()) {
+            if (values.length() > 0) {
                 values.append(':');
-            } else {
-                first = false;
             }
             values.append(mapValue(value));
         }
         return values.toString();
     }
 
+    private double[] getValues() {
+        final double[] values = new double[m_declarations.size()];
+        int i = 0;
+        for (Number value : m_declarations.values()) {
+            values[i++] = mapDoubleValue(value);
+        }
+        return values;
+    }
+
+    /**
+     * Maps a collected value to the value handed to the RRD strategy, using
+     * {@link Double#NaN} for values that {@link #mapValue(Number)} renders
+     * as <code>U</code>.
+     *
+     * @param num the collected value, may be null
+     * @return the value to store
+     */
+    public static double mapDoubleValue(Number num) {
+        if (num == null) {
+            return Double.NaN;
+        }
+
+        final double value = num.doubleValue();
+        return Double.isFinite(value) ? value : Double.NaN;
+    }
+
     private List<RrdDataSource> getDataSources() {
         List<RrdDataSource> dataSources = new ArrayList<RrdDataSource>(m_declarations.size());
         for (CollectionAttributeType attrDef : m_declarations.keySet()) {
@@ -299,25 +353,33 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
      * @param rrdName the name for the rrd file.
      * @param timestamp the timestamp in millis to use for the rrd update (this
      * gets rounded to the nearest second)
+     * @param values the updates for the datasources of this rrd, in datasource
+     * order, {@link Double#NaN} for unknown values, or null to use <code>val</code>
      * @param val a colon separated list of values representing the updates for
-     * datasources for this rrd
+     * datasources for this rrd, used for values that cannot be passed as doubles
+     * without losing precision
      * @throws org.opennms.netmgt.rrd.RrdException if any.
      */
-    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, String val) throws RrdException {
+    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, double[] values, String val) throws RrdException {
         // Issue the RRD update
         String rrdFile = repositoryDir + File.separator + rrdName + rrdStrategy.getDefaultFileExtension();
         long time = (timestamp + 500L) / 1000L;
 
-        String updateVal = Long.toString(time) + ":" + val;
-
-        LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, updateVal);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, formatUpdate(time, values, val));
+        }
 
         RrdStrategy<Object, Object> strategy = toGenericType(rrdStrategy);
         Object rrd = null;
         try {
             rrd = strategy.openFile(rrdFile);
-            strategy.updateFile(rrd, owner, updateVal);
+            if (values != null) {
+                strategy.updateFile(rrd, owner, time, values);
+            } else {
+                strategy.updateFile(rrd, owner, Long.toString(time) + ":" + val);
+            }
         } catch (Throwable e) {
+            final String updateVal = formatUpdate(time, values, val);
             LOG.error("updateRRD: Error updating RRD file {} with values '{}'", rrdFile, updateVal, e);
             throw new org.opennms.netmgt.rrd.RrdException("Error updating RRD file " + rrdFile + " with values '" + updateVal + "': " + e, e);
         } finally {
@@ -334,6 +396,10 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         LOG.debug("updateRRD: RRD update command completed.");
     }
 
+    private static String formatUpdate(long time, double[] values, String val) {
+        return values != null ? RrdUpdateUtils.formatUpdate(time, values) : Long.toString(time) + ":" + val;
+    }
+
     @SuppressWarnings("unchecked")
     private static RrdStrategy<Object, Object> toGenericType(RrdStrategy<?, ?> rrdStrategy) {
         Assert.notNull(rrdStrategy);
@@ -29,7 +29,10 @@
 package org.opennms.features.collection.persistence.rrd;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.math.BigInteger;
 import java.text.NumberFormat;
 import java.util.Locale;
 
@@ -51,6 +54,30 @@ public class RrdPersistOperationBuilderTest {
         assertEquals("U", RrdPersistOperationBuilder.mapValue(Double.POSITIVE_INFINITY));
     }
 
+    @Test
+    public void canMapDoubleValues() {
+        assertEquals(2147483647d, RrdPersistOperationBuilder.mapDoubleValue(Integer.MAX_VALUE), 0);
+        assertEquals(2.0001d, RrdPersistOperationBuilder.mapDoubleValue(2.0001d), 0);
+
+        assertTrue(Double.isNaN(RrdPersistOperationBuilder.mapDoubleValue(null)));
+        assertTrue(Double.isNaN(RrdPersistOperationBuilder.mapDoubleValue(Double.NaN)));
+        assertTrue(Double.isNaN(RrdPersistOperationBuilder.mapDoubleValue(Double.POSITIVE_INFINITY)));
+    }
+
+    @Test
+    public void keepsLargeCountersExact() {
+        assertTrue(RrdPersistOperationBuilder.isExactDoubleValue(null));
+        assertTrue(RrdPersistOperationBuilder.isExactDoubleValue(Integer.MAX_VALUE));
+        assertTrue(RrdPersistOperationBuilder.isExactDoubleValue(9007199254740991L));
+        assertTrue(RrdPersistOperationBuilder.isExactDoubleValue(1e20d));
+
+        // Counter64 values past 2^53 have to go through the string update
+        assertFalse(RrdPersistOperationBuilder.isExactDoubleValue(9007199254740993L));
+        assertFalse(RrdPersistOperationBuilder.isExactDoubleValue(Long.MAX_VALUE));
+        assertFalse(RrdPersistOperationBuilder.isExactDoubleValue(new BigInteger("18446744073709551615")));
+        assertEquals("18446744073709551615", RrdPersistOperationBuilder.mapValue(new BigInteger("18446744073709551615")));
+    }
+
     @Test
     public void canMapNumberToStringWithLocaleThatUsesCommasForDecimals() {
         Locale defaultLocale = Locale.getDefault();
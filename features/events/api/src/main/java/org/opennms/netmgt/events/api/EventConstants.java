@@ -146,6 +146,12 @@ public abstract class EventConstants {
      */
     public static final String DISCOVERYCONFIG_CHANGED_EVENT_UEI = "uei.opennms.org/internal/discoveryConfigChange";
 
+    /**
+     * The restart SCM event UEI, sent by the web UI after it changes which
+     * interfaces and services are managed.
+     */
+    public static final String RESTART_SCM_EVENT_UEI = "uei.opennms.org/internal/restartSCM";
+
     /**
      * The update server event UEI.
      */
@@ -57,6 +57,10 @@ import org.springframework.util.Assert;
  * passed to the handlers. Based upon the action of the handlers an event receipt
  * is generated and sent to the remote client.
  *
+ * In streaming mode all of the connections are served by a single selector
+ * thread instead, and each event is decoded and passed to the handlers by a
+ * small pool of worker threads as soon as it has been received.
+ *
  * @author <a href="mailto:weave@oculan.com">Brian Weaver </a>
  * @author <a href="http;//www.opennms.org">OpenNMS </a>
  */
@@ -69,6 +73,17 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
      */
     public static final int UNLIMITED_EVENTS = -1;
 
+    /**
+     * The system property that enables the streaming server by default.
+     */
+    public static final String STREAMING_PROPERTY = "org.opennms.netmgt.eventd.tcp.streaming";
+
+    /**
+     * The system property with the default number of event processing
+     * threads of the streaming server.
+     */
+    public static final String WORKER_THREADS_PROPERTY = "org.opennms.netmgt.eventd.tcp.workerThreads";
+
     /**
      * The main server thread. This thread of execution is used to handle all
      * incoming connection requests.
@@ -78,7 +93,7 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
     /**
      * The server socket
      */
-    private TcpServer m_server;
+    private TcpEventServer m_server;
 
     /**
      * The registered list of event handlers. Each incoming event will be
@@ -113,6 +128,17 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
      */
     private String m_ipAddress;
 
+    /**
+     * When set the events are parsed and dispatched one at a time as they
+     * arrive, from a single selector thread and a pool of workers.
+     */
+    private boolean m_streaming;
+
+    /**
+     * The number of event processing threads of the streaming server.
+     */
+    private int m_workerThreads;
+
     /**
      * Constructs a new TCP/IP event receiver on the default TCP/IP port. The
      * server socket allocation is delayed until the fiber is actually started.
@@ -141,6 +167,8 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
         m_worker = null;
         m_logPrefix = null;
         m_recsPerConn = UNLIMITED_EVENTS;
+        m_streaming = Boolean.getBoolean(STREAMING_PROPERTY);
+        m_workerThreads = Integer.getInteger(WORKER_THREADS_PROPERTY, 4);
     }
 
     /**
@@ -162,7 +190,11 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
         m_status = STARTING;
         try {
             InetAddress address = "*".equals(m_ipAddress) ? null : InetAddressUtils.addr(m_ipAddress);
-            m_server = new TcpServer(this, m_eventHandlers, m_tcpPort, address);
+            if (m_streaming) {
+                m_server = new TcpStreamingServer(this, m_eventHandlers, m_tcpPort, address, m_workerThreads);
+            } else {
+                m_server = new TcpServer(this, m_eventHandlers, m_tcpPort, address);
+            }
             if (m_logPrefix != null) {
                 m_server.setLogPrefix(m_logPrefix);
             }
@@ -387,6 +419,40 @@ public final class TcpEventReceiver implements EventReceiver, TcpEventReceiverMB
         m_recsPerConn = number.intValue();
     }
 
+    /**
+     * <p>isStreaming</p>
+     *
+     * @return a boolean.
+     */
+    public boolean isStreaming() {
+        return m_streaming;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void setStreaming(final Boolean streaming) {
+        assertNotRunning();
+
+        m_streaming = streaming.booleanValue();
+    }
+
+    /**
+     * <p>getWorkerThreads</p>
+     *
+     * @return a {@link java.lang.Integer} object.
+     */
+    public Integer getWorkerThreads() {
+        return m_workerThreads;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void setWorkerThreads(final Integer workerThreads) {
+        assertNotRunning();
+
+        m_workerThreads = workerThreads.intValue();
+    }
+
     private void assertNotRunning() {
         Assert.state(m_status == START_PENDING || m_status == STOPPED, "The fiber is already running and cannot be modified or started");
     }
@@ -103,4 +103,25 @@ public interface TcpEventReceiverMBean extends BaseOnmsMBean{
      *            The number of event records.
      */
     void setEventsPerConnection(Integer number);
+
+    /**
+     * Enables the streaming server, which dispatches each event as soon as
+     * it has been received rather than once the whole document has been
+     * read, using a selector thread and a pool of workers instead of threads
+     * per connection. This can only be done prior to starting the managed
+     * bean.
+     *
+     * @param streaming
+     *            True to use the streaming server.
+     */
+    void setStreaming(Boolean streaming);
+
+    /**
+     * Sets the number of threads the streaming server uses to process
+     * events. This can only be done prior to starting the managed bean.
+     *
+     * @param workerThreads
+     *            The number of worker threads.
+     */
+    void setWorkerThreads(Integer workerThreads);
 }
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+/**
+ * The server side of the TCP event receiver. An implementation accepts
+ * connections on the listening socket from within its {@link #run()} method
+ * and dispatches the received events to the registered event handlers.
+ */
+interface TcpEventServer extends Runnable {
+    /**
+     * Stops the server and all of its connections. Once called the object
+     * cannot be reused in another thread.
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    void stop() throws InterruptedException;
+
+    /**
+     * Returns true if the server is executing.
+     *
+     * @return a boolean.
+     */
+    boolean isAlive();
+
+    /**
+     * <p>setLogPrefix</p>
+     *
+     * @param prefix a {@link java.lang.String} object.
+     */
+    void setLogPrefix(String prefix);
+
+    /**
+     * <p>setEventsPerConnection</p>
+     *
+     * @param number a int.
+     */
+    void setEventsPerConnection(int number);
+}
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits an incoming stream of event log documents into individual
+ * <code>&lt;event&gt;</code> elements without waiting for the enclosing
+ * <code>&lt;log&gt;</code> document to complete. The tokenizer is fed with
+ * whatever bytes have arrived on the socket and it never blocks, so it can be
+ * driven directly from a selector thread.
+ *
+ * Every event element is handed to the callback as a small, self-contained
+ * log document made of the XML declaration, the <code>&lt;log&gt;</code> and
+ * <code>&lt;events&gt;</code> start tags of the enclosing document (so that
+ * the namespace and encoding declarations stay in scope) and the event itself.
+ * The end of each enclosing log document is reported separately.
+ *
+ * Instances are not thread safe, there is one tokenizer per connection.
+ */
+final class TcpEventTokenizer {
+    /**
+     * Receives the records produced by the tokenizer.
+     */
+    interface Callback {
+        /**
+         * Called with a log document that contains exactly one event.
+         */
+        void onEvent(byte[] document);
+
+        /**
+         * Called when the closing tag of the current log document is seen.
+         */
+        void onEndOfLog();
+    }
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final byte[] COMMENT_START = "<!--".getBytes(ISO_8859_1);
+
+    private static final byte[] CDATA_START = "<![CDATA[".getBytes(ISO_8859_1);
+
+    private static final int TEXT = 0;
+
+    private static final int TAG = 1;
+
+    private static final int COMMENT = 2;
+
+    private static final int CDATA = 3;
+
+    private final Callback m_callback;
+
+    private int m_state = TEXT;
+
+    /**
+     * The quote character of the attribute value being scanned, or zero.
+     */
+    private byte m_quote = 0;
+
+    /**
+     * The markup (tag, comment, CDATA section...) currently being scanned.
+     */
+    private byte[] m_markup = new byte[256];
+
+    private int m_markupLength = 0;
+
+    /**
+     * The event element being captured, null when outside of an event.
+     */
+    private ByteArrayOutputStream m_event = null;
+
+    private int m_eventDepth = 0;
+
+    private byte[] m_declaration = null;
+
+    private byte[] m_logTag = null;
+
+    private String m_logName = null;
+
+    private byte[] m_eventsTag = null;
+
+    private String m_eventsName = null;
+
+    TcpEventTokenizer(final Callback callback) {
+        m_callback = callback;
+    }
+
+    /**
+     * Consumes all of the remaining bytes in the buffer.
+     */
+    void update(final ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            next(buffer.get());
+        }
+    }
+
+    /**
+     * Returns true if the tokenizer is in the middle of a log document.
+     */
+    boolean isInDocument() {
+        return m_logTag != null;
+    }
+
+    private void next(final byte b) {
+        switch (m_state) {
+        case TEXT:
+            if (b == '<') {
+                m_markupLength = 0;
+                m_quote = 0;
+                append(b);
+                m_state = TAG;
+            } else if (m_event != null) {
+                m_event.write(b);
+            }
+            break;
+
+        case TAG:
+            append(b);
+            if (m_quote != 0) {
+                if (b == m_quote) {
+                    m_quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                m_quote = b;
+            } else if (b == '>') {
+                m_state = TEXT;
+                onMarkup();
+            } else if (m_markupLength == COMMENT_START.length && markupStartsWith(COMMENT_START)) {
+                m_state = COMMENT;
+            } else if (m_markupLength == CDATA_START.length && markupStartsWith(CDATA_START)) {
+                m_state = CDATA;
+            }
+            break;
+
+        case COMMENT:
+            append(b);
+            if (b == '>' && markupEndsWith('-', COMMENT_START.length + 3)) {
+                m_state = TEXT;
+                onMarkup();
+            }
+            break;
+
+        case CDATA:
+            append(b);
+            if (b == '>' && markupEndsWith(']', CDATA_START.length + 3)) {
+                m_state = TEXT;
+                onMarkup();
+            }
+            break;
+
+        default:
+            throw new IllegalStateException("Unknown tokenizer state " + m_state);
+        }
+    }
+
+    private void onMarkup() {
+        final boolean endTag = m_markup[1] == '/';
+        final boolean startTag = !endTag && m_markup[1] != '?' && m_markup[1] != '!';
+        final String name = (startTag || endTag) ? getTagName(endTag ? 2 : 1) : null;
+        final String localName = name == null ? null : name.substring(name.indexOf(':') + 1);
+
+        if (m_event != null) {
+            m_event.write(m_markup, 0, m_markupLength);
+            if (startTag && "event".equals(localName) && !isSelfClosing()) {
+                m_eventDepth++;
+            } else if (endTag && "event".equals(localName) && --m_eventDepth == 0) {
+                final byte[] event = m_event.toByteArray();
+                m_event = null;
+                emit(event);
+            }
+            return;
+        }
+
+        if (endTag) {
+            if ("log".equals(localName) && m_logTag != null) {
+                endOfLog();
+            }
+        } else if (startTag) {
+            if ("log".equals(localName)) {
+                m_logTag = copyMarkup();
+                m_logName = name;
+                m_eventsTag = null;
+                m_eventsName = null;
+                if (isSelfClosing()) {
+                    endOfLog();
+                }
+            } else if (m_logTag == null) {
+                // not inside of a log document, ignore it
+            } else if ("events".equals(localName)) {
+                if (!isSelfClosing()) {
+                    m_eventsTag = copyMarkup();
+                    m_eventsName = name;
+                }
+            } else if ("event".equals(localName)) {
+                if (isSelfClosing()) {
+                    emit(copyMarkup());
+                } else {
+                    m_event = new ByteArrayOutputStream(1024);
+                    m_event.write(m_markup, 0, m_markupLength);
+                    m_eventDepth = 1;
+                }
+            }
+        } else if (m_logTag == null && name == null && m_markupLength > 5 && m_markup[1] == '?' && "xml".equals(getTagName(2))) {
+            m_declaration = copyMarkup();
+        }
+    }
+
+    private void endOfLog() {
+        m_declaration = null;
+        m_logTag = null;
+        m_logName = null;
+        m_eventsTag = null;
+        m_eventsName = null;
+        m_callback.onEndOfLog();
+    }
+
+    private void emit(final byte[] event) {
+        final String prefix = m_logName.substring(0, m_logName.indexOf(':') + 1);
+        final String eventsName = m_eventsName == null ? prefix + "events" : m_eventsName;
+
+        final ByteArrayOutputStream document = new ByteArrayOutputStream(event.length + m_logTag.length + 128);
+        if (m_declaration != null) {
+            document.write(m_declaration, 0, m_declaration.length);
+        }
+        document.write(m_logTag, 0, m_logTag.length);
+        final byte[] eventsTag = m_eventsTag == null ? ("<" + eventsName + ">").getBytes(ISO_8859_1) : m_eventsTag;
+        document.write(eventsTag, 0, eventsTag.length);
+        document.write(event, 0, event.length);
+        final byte[] trailer = ("</" + eventsName + "></" + m_logName + ">").getBytes(ISO_8859_1);
+        document.write(trailer, 0, trailer.length);
+
+        m_callback.onEvent(document.toByteArray());
+    }
+
+    private void append(final byte b) {
+        if (m_markupLength == m_markup.length) {
+            m_markup = Arrays.copyOf(m_markup, m_markup.length * 2);
+        }
+        m_markup[m_markupLength++] = b;
+    }
+
+    private byte[] copyMarkup() {
+        return Arrays.copyOf(m_markup, m_markupLength);
+    }
+
+    private boolean markupStartsWith(final byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (m_markup[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the two bytes preceding the final '&gt;' of the markup, the
+     * minimum length keeps them from overlapping the opening sequence.
+     */
+    private boolean markupEndsWith(final char b, final int minLength) {
+        return m_markupLength >= minLength && m_markup[m_markupLength - 2] == b && m_markup[m_markupLength - 3] == b;
+    }
+
+    private boolean isSelfClosing() {
+        int i = m_markupLength - 2;
+        while (i > 0 && isWhitespace(m_markup[i])) {
+            i--;
+        }
+        return m_markup[i] == '/';
+    }
+
+    private String getTagName(final int offset) {
+        int end = offset;
+        while (end < m_markupLength && !isWhitespace(m_markup[end]) && m_markup[end] != '/' && m_markup[end] != '>' && m_markup[end] != '?') {
+            end++;
+        }
+        return new String(m_markup, offset, end - offset, ISO_8859_1);
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
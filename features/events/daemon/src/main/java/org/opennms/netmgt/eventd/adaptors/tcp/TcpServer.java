@@ -53,7 +53,7 @@ import org.slf4j.LoggerFactory;
  * @author <a href="http;//www.opennms.org">OpenNMS </a>
  * 
  */
-final class TcpServer implements Runnable {
+final class TcpServer implements TcpEventServer {
     
     private static final Logger LOG = LoggerFactory.getLogger(TcpServer.class);
     
@@ -178,6 +178,7 @@ final class TcpServer implements Runnable {
      *
      * @throws java.lang.InterruptedException if any.
      */
+    @Override
     public void stop() throws InterruptedException {
         LOG.debug("stop method invoked");
 
@@ -221,6 +222,7 @@ final class TcpServer implements Runnable {
      *
      * @return a boolean.
      */
+    @Override
     public boolean isAlive() {
         boolean rc = false;
         if (m_context != null) {
@@ -376,6 +378,7 @@ final class TcpServer implements Runnable {
      *
      * @param prefix a {@link java.lang.String} object.
      */
+    @Override
     public void setLogPrefix(String prefix) {
         m_logPrefix = prefix;
     }
@@ -385,6 +388,7 @@ final class TcpServer implements Runnable {
      *
      * @param number a int.
      */
+    @Override
     public void setEventsPerConnection(int number) {
         m_recsPerConn = number;
     }
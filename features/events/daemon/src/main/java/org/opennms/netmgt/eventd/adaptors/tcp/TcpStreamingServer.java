@@ -0,0 +1,702 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.eventd.adaptors.EventHandler;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.EventReceipt;
+import org.opennms.netmgt.xml.event.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+/**
+ * A TCP event server that processes all of its connections from a single
+ * NIO selector thread and a small pool of worker threads instead of using two
+ * threads per connection like {@link TcpServer}.
+ *
+ * The selector thread reads whatever is available from each socket and uses a
+ * {@link TcpEventTokenizer} to cut the incoming log documents into single
+ * events. Each event is unmarshalled and passed to the event handlers as soon
+ * as it is complete, so neither the latency nor the memory used by a
+ * connection grows with the size of the log document. The events of one
+ * connection are processed in the order they were received, one at a time.
+ *
+ * The acknowledgement protocol is the same as with {@link TcpServer}: once the
+ * closing tag of a log document is received, an event receipt with the UUIDs
+ * of all the events in the document that were accepted by at least one
+ * handler is sent to the client. Unlike {@link TcpServer}, events are handled
+ * in the order they appear in the document instead of being sorted by time,
+ * and the events of a document that is cut short are still delivered (without
+ * a receipt).
+ */
+final class TcpStreamingServer implements TcpEventServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpStreamingServer.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The number of unprocessed events a connection may have queued before
+     * the server stops reading from its socket.
+     */
+    private static final int MAX_PENDING_RECORDS = 256;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Marks the end of a log document in a connection's record queue.
+     */
+    private static final Object END_OF_LOG = new Object();
+
+    /**
+     * Marks the end of the input in a connection's record queue.
+     */
+    private static final Object END_OF_STREAM = new Object();
+
+    private final int m_tcpPort;
+
+    private final InetAddress m_ipAddress;
+
+    private final ServerSocketChannel m_serverChannel;
+
+    private final Selector m_selector;
+
+    /**
+     * When set true the server thread will exit.
+     */
+    private volatile boolean m_stop;
+
+    /**
+     * The thread which is executing the server context
+     */
+    private Thread m_context;
+
+    /**
+     * The parent fiber.
+     */
+    private final Fiber m_parent;
+
+    /**
+     * The list of event handlers
+     */
+    private final List<EventHandler> m_handlers;
+
+    /**
+     * The logging context
+     */
+    private String m_logPrefix;
+
+    /**
+     * the events per connection
+     */
+    private int m_recsPerConn;
+
+    /**
+     * The number of threads used to process events
+     */
+    private final int m_workerThreads;
+
+    private ExecutorService m_executor;
+
+    /**
+     * The open connections, only accessed by the selector thread.
+     */
+    private final Set<StreamConnection> m_connections = new HashSet<StreamConnection>();
+
+    /**
+     * Connections whose interest set must be recomputed by the selector
+     * thread.
+     */
+    private final ConcurrentLinkedQueue<StreamConnection> m_pendingUpdates = new ConcurrentLinkedQueue<StreamConnection>();
+
+    /**
+     * Constructs a new instance of a server to handle incoming TCP
+     * connections.
+     *
+     * @param parent
+     *            The parent fiber
+     * @param handlers
+     *            The list of event handlers.
+     * @param port
+     *            The port to listen on.
+     * @param address
+     *            The address to listen on, or null for all addresses.
+     * @param workerThreads
+     *            The number of threads used to process events.
+     * @throws java.io.IOException if any.
+     */
+    TcpStreamingServer(final Fiber parent, final List<EventHandler> handlers, final int port, final InetAddress address, final int workerThreads) throws IOException {
+        m_parent = parent;
+        m_handlers = handlers;
+        m_tcpPort = port;
+        m_ipAddress = address;
+        m_workerThreads = Math.max(1, workerThreads);
+        m_stop = false;
+        m_context = null;
+        m_logPrefix = org.opennms.netmgt.eventd.Eventd.LOG4J_CATEGORY;
+        m_recsPerConn = TcpEventReceiver.UNLIMITED_EVENTS;
+
+        try {
+            m_serverChannel = ServerSocketChannel.open();
+            m_serverChannel.socket().setReuseAddress(true);
+            m_serverChannel.socket().bind(new InetSocketAddress(m_ipAddress, m_tcpPort));
+            m_serverChannel.configureBlocking(false);
+            m_selector = Selector.open();
+        } catch (IOException e) {
+            IOException n = new IOException("Could not create listening TCP socket on " + m_ipAddress + ":" + m_tcpPort + ": " + e);
+            n.initCause(e);
+            throw n;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void stop() throws InterruptedException {
+        LOG.debug("stop method invoked");
+
+        m_stop = true;
+        m_selector.wakeup();
+        if (m_context != null) {
+            LOG.debug("Joining context thread {}", m_context.getName());
+
+            m_context.join();
+
+            LOG.debug("Thread context stopped and joined {}", m_context.getName());
+
+            m_context = null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isAlive() {
+        boolean rc = false;
+        if (m_context != null) {
+            rc = m_context.isAlive();
+        }
+
+        return rc;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setLogPrefix(final String prefix) {
+        m_logPrefix = prefix;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setEventsPerConnection(final int number) {
+        m_recsPerConn = number;
+    }
+
+    /**
+     * The selector loop. All socket I/O is done from this thread, the events
+     * are handed off to the worker pool.
+     */
+    @Override
+    public void run() {
+        m_context = Thread.currentThread();
+        synchronized (m_context) {
+            m_context.notifyAll();
+        }
+
+        Logging.putPrefix(m_logPrefix);
+
+        if (m_stop) {
+            LOG.debug("Stop flag set on thread startup");
+            closeServer();
+            LOG.debug("Thread exiting");
+            return;
+        }
+
+        // threads are created on demand from this thread, so they inherit its log prefix
+        m_executor = Executors.newFixedThreadPool(m_workerThreads, new LogPreservingThreadFactory(getClass().getSimpleName(), m_workerThreads));
+
+        try {
+            m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+        } catch (final IOException e) {
+            LOG.warn("Unable to register the server socket with the selector", e);
+            closeServer();
+            return;
+        }
+
+        LOG.debug("Streaming server connection processor started on {}:{} with {} worker threads", m_ipAddress, m_tcpPort, m_workerThreads);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        while (m_parent.getStatus() != Fiber.STOPPED && m_parent.getStatus() != Fiber.STOP_PENDING && !m_stop) {
+            try {
+                m_selector.select(500);
+            } catch (final IOException e) {
+                LOG.error("Selector I/O Error", e);
+                break;
+            }
+
+            StreamConnection updated;
+            while ((updated = m_pendingUpdates.poll()) != null) {
+                updated.updateInterest();
+            }
+
+            final Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+
+                if (key.isAcceptable()) {
+                    try {
+                        accept();
+                    } catch (final IOException e) {
+                        LOG.error("Server Socket I/O Error", e);
+                    }
+                    continue;
+                }
+
+                final StreamConnection connection = (StreamConnection) key.attachment();
+                if (key.isWritable()) {
+                    connection.flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.read(buffer);
+                }
+            }
+        }
+
+        closeServer();
+
+        LOG.debug("TCP Server Shutdown");
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = m_serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        final StreamConnection connection = new StreamConnection(channel);
+        connection.m_key = channel.register(m_selector, SelectionKey.OP_READ, connection);
+        m_connections.add(connection);
+
+        LOG.debug("New connection accepted from {}", connection);
+
+        if (m_recsPerConn == 0) {
+            connection.close();
+        }
+    }
+
+    private void closeServer() {
+        try {
+            LOG.debug("closing the server socket connection");
+            m_serverChannel.close();
+        } catch (final Throwable t) {
+            LOG.error("An I/O Error Occcured Closing the Server Socket", t);
+        }
+
+        if (m_executor != null) {
+            LOG.debug("Attempting to stop the event workers");
+            m_executor.shutdown();
+            try {
+                if (!m_executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    LOG.warn("The event workers did not stop in time, interrupting them");
+                    m_executor.shutdownNow();
+                }
+            } catch (final InterruptedException e) {
+                LOG.warn("The thread was interrupted while waiting for the event workers", e);
+                m_executor.shutdownNow();
+            }
+        }
+
+        LOG.debug("There are {} connections to close", m_connections.size());
+        for (final StreamConnection connection : new ArrayList<StreamConnection>(m_connections)) {
+            connection.closeChannel();
+        }
+
+        try {
+            m_selector.close();
+        } catch (final IOException e) {
+            LOG.warn("An I/O Error occured closing the selector", e);
+        }
+    }
+
+    /**
+     * The state of a single client connection. Socket I/O and tokenizing are
+     * done by the selector thread, the queued records are processed by at
+     * most one worker thread at a time.
+     */
+    private final class StreamConnection implements Runnable, TcpEventTokenizer.Callback {
+        private final SocketChannel m_channel;
+
+        private final String m_name;
+
+        private final TcpEventTokenizer m_tokenizer;
+
+        private SelectionKey m_key;
+
+        /**
+         * The events and markers waiting to be processed.
+         */
+        private final LinkedList<Object> m_records = new LinkedList<Object>();
+
+        /**
+         * The receipts waiting to be written to the socket.
+         */
+        private final LinkedList<ByteBuffer> m_output = new LinkedList<ByteBuffer>();
+
+        /**
+         * Set while a worker owns the record queue.
+         */
+        private boolean m_scheduled = false;
+
+        private boolean m_readSuspended = false;
+
+        private boolean m_eof = false;
+
+        /**
+         * Set once no more input will be processed, the channel is closed as
+         * soon as the pending output has been written.
+         */
+        private boolean m_closing = false;
+
+        /**
+         * The remaining number of log documents, only used by the worker.
+         */
+        private int m_remaining;
+
+        /**
+         * The receipt for the current log document, only used by the worker.
+         */
+        private EventReceipt m_receipt = new EventReceipt();
+
+        private int m_eventCount = 0;
+
+        StreamConnection(final SocketChannel channel) {
+            m_channel = channel;
+            m_name = InetAddressUtils.str(channel.socket().getInetAddress()) + ":" + channel.socket().getPort();
+            m_tokenizer = new TcpEventTokenizer(this);
+            m_remaining = m_recsPerConn;
+        }
+
+        /**
+         * Reads what is available from the socket, called by the selector.
+         */
+        void read(final ByteBuffer buffer) {
+            buffer.clear();
+            int count;
+            try {
+                count = m_channel.read(buffer);
+            } catch (final IOException e) {
+                LOG.warn("An I/O error occured reading from the remote host {}.", m_name, e);
+                count = -1;
+            }
+
+            if (count < 0) {
+                synchronized (this) {
+                    m_eof = true;
+                }
+                enqueue(END_OF_STREAM);
+            } else if (count > 0) {
+                buffer.flip();
+                m_tokenizer.update(buffer);
+            }
+            updateInterest();
+        }
+
+        /**
+         * Writes the pending receipts, called by the selector.
+         */
+        void flush() {
+            synchronized (this) {
+                try {
+                    while (!m_output.isEmpty()) {
+                        final ByteBuffer data = m_output.getFirst();
+                        m_channel.write(data);
+                        if (data.hasRemaining()) {
+                            break;
+                        }
+                        m_output.removeFirst();
+                    }
+                } catch (final IOException e) {
+                    LOG.warn("Failed to send event-receipt XML document to {}.", m_name, e);
+                    m_output.clear();
+                    m_records.clear();
+                    m_closing = true;
+                }
+            }
+            updateInterest();
+        }
+
+        /**
+         * Recomputes the interest set of the channel and closes it once it
+         * has nothing left to do, called by the selector.
+         */
+        void updateInterest() {
+            if (!m_key.isValid()) {
+                return;
+            }
+
+            synchronized (this) {
+                if (m_closing && m_output.isEmpty()) {
+                    closeChannel();
+                    return;
+                }
+
+                int ops = 0;
+                if (!m_closing && !m_readSuspended && !m_eof) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                if (!m_output.isEmpty()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+                m_key.interestOps(ops);
+            }
+        }
+
+        void closeChannel() {
+            m_key.cancel();
+            m_connections.remove(this);
+            try {
+                m_channel.close();
+                LOG.debug("connection {} closed", m_name);
+            } catch (final IOException e) {
+                LOG.warn("An I/O exception occured while closing the TCP/IP connection.", e);
+            }
+        }
+
+        /**
+         * Asks the selector thread to update the interest set.
+         */
+        private void requestUpdate() {
+            m_pendingUpdates.add(this);
+            m_selector.wakeup();
+        }
+
+        /**
+         * Stops processing input, the channel is closed by the selector once
+         * the queued receipts have been sent.
+         */
+        void close() {
+            synchronized (this) {
+                m_closing = true;
+                m_records.clear();
+            }
+            requestUpdate();
+        }
+
+        @Override
+        public void onEvent(final byte[] document) {
+            enqueue(document);
+        }
+
+        @Override
+        public void onEndOfLog() {
+            enqueue(END_OF_LOG);
+        }
+
+        private void enqueue(final Object record) {
+            synchronized (this) {
+                if (m_closing) {
+                    return;
+                }
+                m_records.add(record);
+                if (m_records.size() >= MAX_PENDING_RECORDS) {
+                    m_readSuspended = true;
+                }
+                if (m_scheduled) {
+                    return;
+                }
+                m_scheduled = true;
+            }
+
+            try {
+                m_executor.execute(this);
+            } catch (final RejectedExecutionException e) {
+                LOG.debug("The event workers are shutting down, discarding the input from {}", m_name);
+                synchronized (this) {
+                    m_scheduled = false;
+                }
+            }
+        }
+
+        /**
+         * Processes the queued records, run by a worker thread.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                final Object record;
+                boolean resume = false;
+                synchronized (this) {
+                    if (m_records.isEmpty() || m_stop) {
+                        m_scheduled = false;
+                        return;
+                    }
+                    record = m_records.removeFirst();
+                    if (m_readSuspended && m_records.size() < MAX_PENDING_RECORDS / 2) {
+                        m_readSuspended = false;
+                        resume = true;
+                    }
+                }
+
+                if (resume) {
+                    requestUpdate();
+                }
+
+                if (record == END_OF_LOG) {
+                    endOfLog();
+                } else if (record == END_OF_STREAM) {
+                    close();
+                } else {
+                    processEvent((byte[]) record);
+                }
+            }
+        }
+
+        private void processEvent(final byte[] document) {
+            final Event event;
+            try {
+                final Log log = JaxbUtils.unmarshal(Log.class, new InputSource(new ByteArrayInputStream(document)));
+                event = log.getEvents().getEvent(0);
+                LOG.debug("Event record converted");
+            } catch (final Exception e) {
+                LOG.error("Could not unmarshall the XML record.", e);
+                return;
+            }
+
+            m_eventCount++;
+            boolean ok = false;
+            synchronized (m_handlers) {
+                for (final EventHandler hdl : m_handlers) {
+                    try {
+                        LOG.debug("handling event: {}", event);
+
+                        if (hdl.processEvent(event)) {
+                            ok = true;
+                        }
+                    } catch (final Throwable t) {
+                        LOG.warn("An exception occured while processing an event.", t);
+                    }
+                }
+            }
+
+            if (ok && event.getUuid() != null) {
+                m_receipt.addUuid(event.getUuid());
+            }
+        }
+
+        private void endOfLog() {
+            final EventReceipt receipt = m_receipt;
+            m_receipt = new EventReceipt();
+            if (m_eventCount == 0) {
+                LOG.debug("The agent sent an empty event stream");
+            }
+            m_eventCount = 0;
+            m_remaining -= (m_remaining > 0 ? 1 : 0);
+
+            if (receipt.getUuidCount() > 0) {
+                sendReceipt(receipt);
+            }
+
+            if (m_remaining == 0) {
+                close();
+            }
+        }
+
+        private void sendReceipt(final EventReceipt receipt) {
+            final String xml;
+            try {
+                final StringWriter writer = new StringWriter();
+                JaxbUtils.marshal(receipt, writer);
+                xml = writer.toString();
+            } catch (final Throwable t) {
+                LOG.warn("Failed to marshal the event-receipt XML document.", t);
+                close();
+                return;
+            }
+
+            synchronized (this) {
+                if (m_closing) {
+                    return;
+                }
+                m_output.add(ByteBuffer.wrap(xml.getBytes(UTF_8)));
+            }
+            requestUpdate();
+
+            synchronized (m_handlers) {
+                for (final EventHandler hdl : m_handlers) {
+                    try {
+                        hdl.receiptSent(receipt);
+                    } catch (final Throwable t) {
+                        LOG.warn("An exception occured while processing an event receipt.", t);
+                    }
+                }
+            }
+
+            LOG.debug("Sent Event Receipt {");
+            LOG.debug(xml);
+            LOG.debug("}");
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+}
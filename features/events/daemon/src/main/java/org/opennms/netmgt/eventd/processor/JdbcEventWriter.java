@@ -30,11 +30,18 @@ package org.opennms.netmgt.eventd.processor;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.opennms.core.utils.DBUtils;
 import org.opennms.netmgt.dao.util.AutoAction;
@@ -51,8 +58,10 @@ import org.opennms.netmgt.xml.event.Header;
 import org.opennms.netmgt.xml.event.Operaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.dao.DataAccessException;
+import org.springframework.util.Assert;
 
 /**
  * EventWriter loads the information in each 'Event' into the database.
@@ -80,8 +89,109 @@ import org.springframework.dao.DataAccessException;
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
-public final class JdbcEventWriter extends AbstractJdbcPersister implements EventProcessor, InitializingBean {
+public final class JdbcEventWriter extends AbstractJdbcPersister implements EventProcessor, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcEventWriter.class);
+
+    private static final Pattern SELECT_WITHOUT_FROM = Pattern.compile("^\\s*select\\s+(?:(?!\\bfrom\\b).)*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * The default for {@link #setBatchSize(int)}.
+     */
+    public static final String BATCH_SIZE_PROPERTY = "org.opennms.netmgt.eventd.jdbcEventWriter.batchSize";
+
+    /**
+     * The default for {@link #setBatchLingerMillis(long)}.
+     */
+    public static final String BATCH_LINGER_MILLIS_PROPERTY = "org.opennms.netmgt.eventd.jdbcEventWriter.batchLingerMillis";
+
+    private int m_batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, 1);
+
+    private long m_batchLingerMillis = Long.getLong(BATCH_LINGER_MILLIS_PROPERTY, 0L);
+
+    private String m_getNextIdRangeString;
+
+    private volatile BatchWriter m_batchWriter;
+
+    /**
+     * {@inheritDoc}
+     *
+     * Starts the batch writer when batching is enabled.
+     */
+    @Override
+    public void afterPropertiesSet() throws SQLException {
+        super.afterPropertiesSet();
+        Assert.state(m_batchSize > 0, "property batchSize must be positive");
+        Assert.state(m_batchLingerMillis >= 0, "property batchLingerMillis must not be negative");
+
+        if (m_getNextIdRangeString == null && SELECT_WITHOUT_FROM.matcher(getGetNextIdString()).matches()) {
+            // "SELECT nextval('eventsNxtId')" becomes one round trip for a whole batch
+            m_getNextIdRangeString = getGetNextIdString().trim() + " FROM generate_series(1, ?)";
+        }
+
+        if (m_batchSize > 1) {
+            m_batchWriter = new BatchWriter();
+            m_batchWriter.start();
+        }
+    }
+
+    /**
+     * <p>destroy</p>
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (m_batchWriter != null) {
+            m_batchWriter.shutdown();
+            m_batchWriter = null;
+        }
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    /**
+     * The largest number of events written in one transaction. The default
+     * of 1 inserts each event on the calling thread as it arrives.
+     *
+     * @param batchSize a int.
+     */
+    public void setBatchSize(final int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public long getBatchLingerMillis() {
+        return m_batchLingerMillis;
+    }
+
+    /**
+     * How long the batch writer waits for a batch to fill up before writing
+     * it anyway. With the default of 0 a batch holds whatever queued up while
+     * the previous batch was being written.
+     *
+     * @param batchLingerMillis a long.
+     */
+    public void setBatchLingerMillis(final long batchLingerMillis) {
+        m_batchLingerMillis = batchLingerMillis;
+    }
+
+    public String getGetNextIdRangeString() {
+        return m_getNextIdRangeString;
+    }
+
+    /**
+     * A query that takes a row count as its only parameter and returns that
+     * many new event ids. If it is not set and
+     * {@link #getGetNextIdString()} is a plain <code>SELECT nextval(...)</code>,
+     * a <code>generate_series</code> query is derived from it; otherwise the
+     * ids for a batch are fetched one at a time.
+     *
+     * @param getNextIdRangeString a {@link java.lang.String} object.
+     */
+    public void setGetNextIdRangeString(final String getNextIdRangeString) {
+        m_getNextIdRangeString = getNextIdRangeString;
+    }
     /**
      * {@inheritDoc}
      *
@@ -95,6 +205,17 @@ public final class JdbcEventWriter extends AbstractJdbcPersister implements Even
 
         LOG.debug("JdbcEventWriter: processing {} nodeid: {} ipaddr: {} serviceid: {} time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
 
+        final BatchWriter batchWriter = m_batchWriter;
+        if (batchWriter == null) {
+            processDirect(eventHeader, event);
+        } else {
+            processBatched(batchWriter, eventHeader, event);
+        }
+
+        LOG.debug("EventWriter finished for : {}", event.getUei());
+    }
+
+    private void processDirect(final Header eventHeader, final Event event) throws EventProcessorException {
         Connection connection;
         try {
             connection = getDataSource().getConnection();
@@ -111,21 +232,11 @@ public final class JdbcEventWriter extends AbstractJdbcPersister implements Even
                 connection.commit();
             } catch (final SQLException e) {
                 LOG.warn("Error inserting event into the datastore.", e);
-                try {
-                    connection.rollback();
-                } catch (final Throwable e2) {
-                    LOG.warn("Rollback of transaction failed.", e2);
-                }
-
+                rollback(connection);
                 throw e;
             } catch (final DataAccessException e) {
                 LOG.warn("Error inserting event into the datastore.", e);
-                try {
-                    connection.rollback();
-                } catch (final Throwable e2) {
-                    LOG.warn("Rollback of transaction failed.", e2);
-                }
-
+                rollback(connection);
                 throw e;
             }
         } catch (final DataAccessException e) {
@@ -133,14 +244,34 @@ public final class JdbcEventWriter extends AbstractJdbcPersister implements Even
         } catch (SQLException e) {
             throw new EventProcessorException(e);
         } finally {
-            try {
-                connection.close();
-            } catch (final SQLException e) {
-                LOG.warn("SQLException while closing database connection.", e);
-            }
+            close(connection);
         }
+    }
 
-        LOG.debug("EventWriter finished for : {}", event.getUei());
+    /**
+     * Hands the event to the batch writer and waits for the batch holding it
+     * to commit, so that the processors after this one only ever see a dbid
+     * that is really in the database.
+     */
+    private void processBatched(final BatchWriter batchWriter, final Header eventHeader, final Event event) throws EventProcessorException {
+        // do the lookups here so that they run in parallel on the eventd threads
+        final PendingEvent pending = new PendingEvent(eventHeader, event, getEventHost(event), getEventServiceId(event));
+
+        try {
+            batchWriter.enqueue(pending);
+            pending.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException(e);
+        }
+
+        if (pending.getFailure() != null) {
+            throw new EventProcessorException(pending.getFailure());
+        }
+
+        synchronized (event) {
+            event.setDbid(pending.getId());
+        }
     }
 
     /**
@@ -168,184 +299,189 @@ public final class JdbcEventWriter extends AbstractJdbcPersister implements Even
             final PreparedStatement insStmt = connection.prepareStatement(EventdConstants.SQL_DB_INS_EVENT);
             d.watch(insStmt);
 
-            // eventID
-            insStmt.setInt(1, eventID);
+            setEventValues(insStmt, eventHeader, event, eventID, getEventHost(event), getEventServiceId(event));
 
-            // eventUEI
-            insStmt.setString(2, EventDatabaseConstants.format(event.getUei(), EVENT_UEI_FIELD_SIZE));
+            // execute
+            insStmt.executeUpdate();
+        } finally {
+            d.cleanUp();
+        }
 
-            // nodeID
-            final Long nodeid = event.getNodeid();
-            set(insStmt, 3, event.hasNodeid() ? nodeid.intValue() : -1);
+        LOG.debug("SUCCESSFULLY added {} related  data into the EVENTS table.", event.getUei());
+    }
 
-            // eventTime
-            insStmt.setTimestamp(4, getEventTime(event));
+    /**
+     * Sets every parameter of {@link EventdConstants#SQL_DB_INS_EVENT} for
+     * one event.
+     */
+    private static void setEventValues(final PreparedStatement insStmt, final Header eventHeader, final Event event, final int eventID, final String hostname, final int serviceId) throws SQLException {
+        // eventID
+        insStmt.setInt(1, eventID);
 
-            // Resolve the event host to a hostname using the ipInterface table
-            String hostname = getEventHost(event);
+        // eventUEI
+        insStmt.setString(2, EventDatabaseConstants.format(event.getUei(), EVENT_UEI_FIELD_SIZE));
 
-            // eventHost
-            set(insStmt, 5, EventDatabaseConstants.format(hostname, EVENT_HOST_FIELD_SIZE));
+        // nodeID
+        final Long nodeid = event.getNodeid();
+        set(insStmt, 3, event.hasNodeid() ? nodeid.intValue() : -1);
 
-            // ipAddr
-            set(insStmt, 6, EventDatabaseConstants.format(event.getInterface(), EVENT_INTERFACE_FIELD_SIZE));
+        // eventTime
+        insStmt.setTimestamp(4, getEventTime(event));
 
-            // systemId
-            String systemId = "localhost";
-            if (eventHeader != null && eventHeader.getDpName() != null) {
-                systemId = eventHeader.getDpName();
-            } else if (event.getDistPoller() != null) {
-                systemId = event.getDistPoller();
-            }
-            insStmt.setString(7, systemId);
+        // eventHost
+        set(insStmt, 5, EventDatabaseConstants.format(hostname, EVENT_HOST_FIELD_SIZE));
 
-            // eventSnmpHost
-            set(insStmt, 8, EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
+        // ipAddr
+        set(insStmt, 6, EventDatabaseConstants.format(event.getInterface(), EVENT_INTERFACE_FIELD_SIZE));
 
-            // service identifier - convert the service name to a service id
-            set(insStmt, 9, getEventServiceId(event));
+        // systemId
+        String systemId = "localhost";
+        if (eventHeader != null && eventHeader.getDpName() != null) {
+            systemId = eventHeader.getDpName();
+        } else if (event.getDistPoller() != null) {
+            systemId = event.getDistPoller();
+        }
+        insStmt.setString(7, systemId);
 
-            // eventSnmp
-            if (event.getSnmp() != null) {
-                insStmt.setString(10, SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
-            } else {
-                insStmt.setNull(10, Types.VARCHAR);
-            }
+        // eventSnmpHost
+        set(insStmt, 8, EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
 
-            // eventParms
-
-            // Replace any null bytes with a space, otherwise postgres will complain about encoding in UNICODE 
-            final String parametersString=EventParameterUtils.format(event);
-            set(insStmt, 11, EventDatabaseConstants.format(parametersString, 0));
-
-            // eventCreateTime
-            final Timestamp eventCreateTime = new Timestamp(System.currentTimeMillis());
-            insStmt.setTimestamp(12, eventCreateTime);
-
-            // eventDescr
-            set(insStmt, 13, EventDatabaseConstants.format(event.getDescr(), 0));
-
-            // eventLoggroup
-            set(insStmt, 14, (event.getLoggroupCount() > 0) ? EventDatabaseConstants.format(event.getLoggroup(), EVENT_LOGGRP_FIELD_SIZE) : null);
-
-            // eventLogMsg
-            // eventLog
-            // eventDisplay
-            if (event.getLogmsg() != null) {
-                // set log message
-                set(insStmt, 15, EventDatabaseConstants.format(event.getLogmsg().getContent(), 0));
-                String logdest = event.getLogmsg().getDest();
-                if (logdest.equals("logndisplay")) {
-                    // if 'logndisplay' set both log and display column to yes
-                    set(insStmt, 16, MSG_YES);
-                    set(insStmt, 17, MSG_YES);
-                } else if (logdest.equals("logonly")) {
-                    // if 'logonly' set log column to true
-                    set(insStmt, 16, MSG_YES);
-                    set(insStmt, 17, MSG_NO);
-                } else if (logdest.equals("displayonly")) {
-                    // if 'displayonly' set display column to true
-                    set(insStmt, 16, MSG_NO);
-                    set(insStmt, 17, MSG_YES);
-                } else if (logdest.equals("suppress")) {
-                    // if 'suppress' set both log and display to false
-                    set(insStmt, 16, MSG_NO);
-                    set(insStmt, 17, MSG_NO);
-                }
-            } else {
-                insStmt.setNull(15, Types.VARCHAR);
-
-                /*
-                 * If this is an event that had no match in the event conf
-                 * mark it as to be logged and displayed so that there
-                 * are no events that slip through the system
-                 * without the user knowing about them
-                 */
-                set(insStmt, 17, MSG_YES);
-            }
+        // service identifier - convert the service name to a service id
+        set(insStmt, 9, serviceId);
 
-            // eventSeverity
-            set(insStmt, 18, OnmsSeverity.get(event.getSeverity()).getId());
+        // eventSnmp
+        if (event.getSnmp() != null) {
+            insStmt.setString(10, SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
+        } else {
+            insStmt.setNull(10, Types.VARCHAR);
+        }
 
-            // eventPathOutage
-            set(insStmt, 19, (event.getPathoutage() != null) ? EventDatabaseConstants.format(event.getPathoutage(), EVENT_PATHOUTAGE_FIELD_SIZE) : null);
+        // eventParms
 
-            // eventCorrelation
-            set(insStmt, 20, (event.getCorrelation() != null) ? org.opennms.netmgt.dao.util.Correlation.format(event.getCorrelation(), EVENT_CORRELATION_FIELD_SIZE) : null);
+        // Replace any null bytes with a space, otherwise postgres will complain about encoding in UNICODE 
+        final String parametersString=EventParameterUtils.format(event);
+        set(insStmt, 11, EventDatabaseConstants.format(parametersString, 0));
 
-            // eventSuppressedCount
-            insStmt.setNull(21, Types.INTEGER);
+        // eventCreateTime
+        final Timestamp eventCreateTime = new Timestamp(System.currentTimeMillis());
+        insStmt.setTimestamp(12, eventCreateTime);
 
-            // eventOperInstruct
-            set(insStmt, 22, EventDatabaseConstants.format(event.getOperinstruct(), 0)); // the field should be text on the DB
+        // eventDescr
+        set(insStmt, 13, EventDatabaseConstants.format(event.getDescr(), 0));
 
-            // eventAutoAction
-            set(insStmt, 23, (event.getAutoactionCount() > 0) ? AutoAction.format(event.getAutoaction(), EVENT_AUTOACTION_FIELD_SIZE) : null);
+        // eventLoggroup
+        set(insStmt, 14, (event.getLoggroupCount() > 0) ? EventDatabaseConstants.format(event.getLoggroup(), EVENT_LOGGRP_FIELD_SIZE) : null);
 
-            // eventOperAction / eventOperActionMenuText
-            if (event.getOperactionCount() > 0) {
-                final List<Operaction> a = new ArrayList<Operaction>();
-                final List<String> b = new ArrayList<String>();
+        // eventLogMsg
+        // eventLog
+        // eventDisplay
+        if (event.getLogmsg() != null) {
+            // set log message
+            set(insStmt, 15, EventDatabaseConstants.format(event.getLogmsg().getContent(), 0));
+            String logdest = event.getLogmsg().getDest();
+            if (logdest.equals("logndisplay")) {
+                // if 'logndisplay' set both log and display column to yes
+                set(insStmt, 16, MSG_YES);
+                set(insStmt, 17, MSG_YES);
+            } else if (logdest.equals("logonly")) {
+                // if 'logonly' set log column to true
+                set(insStmt, 16, MSG_YES);
+                set(insStmt, 17, MSG_NO);
+            } else if (logdest.equals("displayonly")) {
+                // if 'displayonly' set display column to true
+                set(insStmt, 16, MSG_NO);
+                set(insStmt, 17, MSG_YES);
+            } else if (logdest.equals("suppress")) {
+                // if 'suppress' set both log and display to false
+                set(insStmt, 16, MSG_NO);
+                set(insStmt, 17, MSG_NO);
+            }
+        } else {
+            insStmt.setNull(15, Types.VARCHAR);
+
+            /*
+             * If this is an event that had no match in the event conf
+             * mark it as to be logged and displayed so that there
+             * are no events that slip through the system
+             * without the user knowing about them
+             */
+            set(insStmt, 17, MSG_YES);
+        }
 
-                for (final Operaction eoa : event.getOperactionCollection()) {
-                    a.add(eoa);
-                    b.add(eoa.getMenutext());
-                }
+        // eventSeverity
+        set(insStmt, 18, OnmsSeverity.get(event.getSeverity()).getId());
 
-                set(insStmt, 24, OperatorAction.format(a, EVENT_OPERACTION_FIELD_SIZE));
-                set(insStmt, 25, EventDatabaseConstants.format(b, EVENT_OPERACTION_MENU_FIELD_SIZE));
-            } else {
-                insStmt.setNull(24, Types.VARCHAR);
-                insStmt.setNull(25, Types.VARCHAR);
-            }
+        // eventPathOutage
+        set(insStmt, 19, (event.getPathoutage() != null) ? EventDatabaseConstants.format(event.getPathoutage(), EVENT_PATHOUTAGE_FIELD_SIZE) : null);
 
-            // eventNotification, this column no longer needed
-            insStmt.setNull(26, Types.VARCHAR);
+        // eventCorrelation
+        set(insStmt, 20, (event.getCorrelation() != null) ? org.opennms.netmgt.dao.util.Correlation.format(event.getCorrelation(), EVENT_CORRELATION_FIELD_SIZE) : null);
 
-            // eventTroubleTicket / eventTroubleTicket state
-            if (event.getTticket() != null) {
-                set(insStmt, 27, EventDatabaseConstants.format(event.getTticket().getContent(), EVENT_TTICKET_FIELD_SIZE));
-                set(insStmt, 28, event.getTticket().getState().equals("on") ? 1 : 0);
-            } else {
-                insStmt.setNull(27, Types.VARCHAR);
-                insStmt.setNull(28, Types.INTEGER);
-            }
+        // eventSuppressedCount
+        insStmt.setNull(21, Types.INTEGER);
 
-            // eventForward
-            set(insStmt, 29, (event.getForwardCount() > 0) ? org.opennms.netmgt.dao.util.Forward.format(event.getForward(), EVENT_FORWARD_FIELD_SIZE) : null);
+        // eventOperInstruct
+        set(insStmt, 22, EventDatabaseConstants.format(event.getOperinstruct(), 0)); // the field should be text on the DB
 
-            // eventmouseOverText
-            set(insStmt, 30, EventDatabaseConstants.format(event.getMouseovertext(), EVENT_MOUSEOVERTEXT_FIELD_SIZE));
+        // eventAutoAction
+        set(insStmt, 23, (event.getAutoactionCount() > 0) ? AutoAction.format(event.getAutoaction(), EVENT_AUTOACTION_FIELD_SIZE) : null);
 
-            // eventAckUser
-            if (event.getAutoacknowledge() != null && event.getAutoacknowledge().getState().equals("on")) {
-                set(insStmt, 31, EventDatabaseConstants.format(event.getAutoacknowledge().getContent(), EVENT_ACKUSER_FIELD_SIZE));
+        // eventOperAction / eventOperActionMenuText
+        if (event.getOperactionCount() > 0) {
+            final List<Operaction> a = new ArrayList<Operaction>();
+            final List<String> b = new ArrayList<String>();
 
-                // eventAckTime - if autoacknowledge is present,
-                // set time to event create time
-                set(insStmt, 32, eventCreateTime);
-            } else {
-                insStmt.setNull(31, Types.INTEGER);
-                insStmt.setNull(32, Types.TIMESTAMP);
+            for (final Operaction eoa : event.getOperactionCollection()) {
+                a.add(eoa);
+                b.add(eoa.getMenutext());
             }
 
-            // eventSource
-            set(insStmt, 33, EventDatabaseConstants.format(event.getSource(), EVENT_SOURCE_FIELD_SIZE));
+            set(insStmt, 24, OperatorAction.format(a, EVENT_OPERACTION_FIELD_SIZE));
+            set(insStmt, 25, EventDatabaseConstants.format(b, EVENT_OPERACTION_MENU_FIELD_SIZE));
+        } else {
+            insStmt.setNull(24, Types.VARCHAR);
+            insStmt.setNull(25, Types.VARCHAR);
+        }
 
-            // ifindex
-            if (event.hasIfIndex()) {
-                set(insStmt, 34, event.getIfIndex());
-            } else {
-                insStmt.setNull(34, Types.INTEGER);
-            }
-            
-            // execute
-            insStmt.executeUpdate();
-        } finally {
-            d.cleanUp();
+        // eventNotification, this column no longer needed
+        insStmt.setNull(26, Types.VARCHAR);
+
+        // eventTroubleTicket / eventTroubleTicket state
+        if (event.getTticket() != null) {
+            set(insStmt, 27, EventDatabaseConstants.format(event.getTticket().getContent(), EVENT_TTICKET_FIELD_SIZE));
+            set(insStmt, 28, event.getTticket().getState().equals("on") ? 1 : 0);
+        } else {
+            insStmt.setNull(27, Types.VARCHAR);
+            insStmt.setNull(28, Types.INTEGER);
         }
 
-        LOG.debug("SUCCESSFULLY added {} related  data into the EVENTS table.", event.getUei());
+        // eventForward
+        set(insStmt, 29, (event.getForwardCount() > 0) ? org.opennms.netmgt.dao.util.Forward.format(event.getForward(), EVENT_FORWARD_FIELD_SIZE) : null);
+
+        // eventmouseOverText
+        set(insStmt, 30, EventDatabaseConstants.format(event.getMouseovertext(), EVENT_MOUSEOVERTEXT_FIELD_SIZE));
+
+        // eventAckUser
+        if (event.getAutoacknowledge() != null && event.getAutoacknowledge().getState().equals("on")) {
+            set(insStmt, 31, EventDatabaseConstants.format(event.getAutoacknowledge().getContent(), EVENT_ACKUSER_FIELD_SIZE));
+
+            // eventAckTime - if autoacknowledge is present,
+            // set time to event create time
+            set(insStmt, 32, eventCreateTime);
+        } else {
+            insStmt.setNull(31, Types.INTEGER);
+            insStmt.setNull(32, Types.TIMESTAMP);
+        }
+
+        // eventSource
+        set(insStmt, 33, EventDatabaseConstants.format(event.getSource(), EVENT_SOURCE_FIELD_SIZE));
+
+        // ifindex
+        if (event.hasIfIndex()) {
+            set(insStmt, 34, event.getIfIndex());
+        } else {
+            insStmt.setNull(34, Types.INTEGER);
+        }
     }
 
     /**
@@ -390,4 +526,308 @@ public final class JdbcEventWriter extends AbstractJdbcPersister implements Even
             return event.getHost();
         }
     }
+
+    private static void rollback(final Connection connection) {
+        try {
+            connection.rollback();
+        } catch (final Throwable e) {
+            LOG.warn("Rollback of transaction failed.", e);
+        }
+    }
+
+    private static void close(final Connection connection) {
+        try {
+            connection.close();
+        } catch (final SQLException e) {
+            LOG.warn("SQLException while closing database connection.", e);
+        }
+    }
+
+    /**
+     * Fetches a new id for every event in the batch, in one round trip when
+     * there is a range query.
+     */
+    private void allocateIds(final Connection connection, final List<PendingEvent> batch) throws SQLException {
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            if (m_getNextIdRangeString != null) {
+                final PreparedStatement stmt = connection.prepareStatement(m_getNextIdRangeString);
+                d.watch(stmt);
+                stmt.setInt(1, batch.size());
+                final ResultSet rs = stmt.executeQuery();
+                d.watch(rs);
+                for (final PendingEvent pending : batch) {
+                    if (!rs.next()) {
+                        throw new SQLException("Expected " + batch.size() + " ids from '" + m_getNextIdRangeString + "'");
+                    }
+                    pending.setId(rs.getInt(1));
+                }
+            } else {
+                final PreparedStatement stmt = connection.prepareStatement(getGetNextIdString());
+                d.watch(stmt);
+                for (final PendingEvent pending : batch) {
+                    final ResultSet rs = stmt.executeQuery();
+                    d.watch(rs);
+                    if (!rs.next()) {
+                        throw new SQLException("No id returned by '" + getGetNextIdString() + "'");
+                    }
+                    pending.setId(rs.getInt(1));
+                }
+            }
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * Inserts the events with a single batch. An event whose values cannot
+     * be bound is failed and removed from <code>batch</code>, so that it does
+     * not take the others down with it.
+     */
+    private void insertBatch(final Connection connection, final List<PendingEvent> batch) throws SQLException {
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final PreparedStatement insStmt = connection.prepareStatement(EventdConstants.SQL_DB_INS_EVENT);
+            d.watch(insStmt);
+            for (final Iterator<PendingEvent> it = batch.iterator(); it.hasNext();) {
+                final PendingEvent pending = it.next();
+                try {
+                    setEventValues(insStmt, pending.getHeader(), pending.getEvent(), pending.getId(), pending.getHostname(), pending.getServiceId());
+                } catch (final RuntimeException e) {
+                    LOG.warn("Unable to insert event {} into the datastore.", pending.getEvent().getUei(), e);
+                    insStmt.clearParameters();
+                    pending.fail(e);
+                    it.remove();
+                    continue;
+                }
+                insStmt.addBatch();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            insStmt.executeBatch();
+        } finally {
+            d.cleanUp();
+        }
+    }
+
+    /**
+     * Writes one batch in a single transaction. If that fails, the events are
+     * retried one transaction each so that a single bad event only fails
+     * itself.
+     */
+    private void writeBatch(final List<PendingEvent> batch) {
+        final Connection connection;
+        try {
+            connection = getDataSource().getConnection();
+        } catch (final SQLException e) {
+            for (final PendingEvent pending : batch) {
+                pending.fail(e);
+            }
+            return;
+        }
+
+        // the events still waiting for a result
+        final List<PendingEvent> remaining = new ArrayList<PendingEvent>(batch);
+        try {
+            allocateIds(connection, batch);
+            connection.setAutoCommit(false);
+
+            try {
+                insertBatch(connection, remaining);
+                connection.commit();
+                for (final PendingEvent pending : remaining) {
+                    pending.complete();
+                }
+                LOG.debug("SUCCESSFULLY added a batch of {} events into the EVENTS table.", remaining.size());
+                return;
+            } catch (final SQLException e) {
+                LOG.warn("Error inserting a batch of {} events into the datastore; retrying them one at a time.", remaining.size(), e);
+                rollback(connection);
+            } catch (final RuntimeException e) {
+                LOG.warn("Error inserting a batch of {} events into the datastore; retrying them one at a time.", remaining.size(), e);
+                rollback(connection);
+            }
+
+            for (final PendingEvent pending : remaining) {
+                try {
+                    final List<PendingEvent> single = new ArrayList<PendingEvent>(1);
+                    single.add(pending);
+                    insertBatch(connection, single);
+                    if (single.isEmpty()) {
+                        // already failed while binding its values
+                        continue;
+                    }
+                    connection.commit();
+                    pending.complete();
+                } catch (final SQLException e) {
+                    LOG.warn("Error inserting event into the datastore.", e);
+                    rollback(connection);
+                    pending.fail(e);
+                } catch (final RuntimeException e) {
+                    LOG.warn("Error inserting event into the datastore.", e);
+                    rollback(connection);
+                    pending.fail(e);
+                }
+            }
+        } catch (final SQLException e) {
+            LOG.warn("Error preparing a batch of {} events for the datastore.", batch.size(), e);
+            for (final PendingEvent pending : remaining) {
+                pending.fail(e);
+            }
+        } finally {
+            close(connection);
+        }
+    }
+
+    /**
+     * An event waiting for its batch to be written.
+     */
+    private static final class PendingEvent {
+        private final Header m_header;
+        private final Event m_event;
+        private final String m_hostname;
+        private final int m_serviceId;
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private int m_id;
+        private Exception m_failure;
+
+        PendingEvent(final Header header, final Event event, final String hostname, final int serviceId) {
+            m_header = header;
+            m_event = event;
+            m_hostname = hostname;
+            m_serviceId = serviceId;
+        }
+
+        Header getHeader() {
+            return m_header;
+        }
+
+        Event getEvent() {
+            return m_event;
+        }
+
+        String getHostname() {
+            return m_hostname;
+        }
+
+        int getServiceId() {
+            return m_serviceId;
+        }
+
+        int getId() {
+            return m_id;
+        }
+
+        void setId(final int id) {
+            m_id = id;
+        }
+
+        Exception getFailure() {
+            return m_failure;
+        }
+
+        void complete() {
+            m_done.countDown();
+        }
+
+        void fail(final Exception failure) {
+            // a failure before the batch committed must not leak an id downstream
+            m_failure = failure;
+            m_done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            m_done.await();
+        }
+    }
+
+    /**
+     * The thread that gathers events from the eventd handler threads into
+     * batches of up to {@link #getBatchSize()} and writes them.
+     */
+    private final class BatchWriter extends Thread {
+        private final BlockingQueue<PendingEvent> m_queue = new LinkedBlockingQueue<PendingEvent>(m_batchSize * 4);
+
+        private volatile boolean m_stopped = false;
+
+        BatchWriter() {
+            super("JdbcEventWriter-BatchWriter");
+            setDaemon(true);
+        }
+
+        void enqueue(final PendingEvent pending) throws InterruptedException {
+            if (m_stopped) {
+                pending.fail(new IllegalStateException("The event writer has been stopped"));
+                return;
+            }
+            // blocks the eventd threads when the database falls behind
+            m_queue.put(pending);
+
+            // shutdown() may have drained the queue between the check and the put
+            if (m_stopped) {
+                failRemaining();
+            }
+        }
+
+        void shutdown() throws InterruptedException {
+            m_stopped = true;
+            interrupt();
+            join();
+            failRemaining();
+        }
+
+        /**
+         * Fails the events nobody is going to write any more. drainTo removes
+         * each of them exactly once, so concurrent callers never fail the same
+         * event twice.
+         */
+        private void failRemaining() {
+            final List<PendingEvent> remaining = new ArrayList<PendingEvent>();
+            m_queue.drainTo(remaining);
+            for (final PendingEvent pending : remaining) {
+                pending.fail(new IllegalStateException("The event writer has been stopped"));
+            }
+        }
+
+        @Override
+        public void run() {
+            final List<PendingEvent> batch = new ArrayList<PendingEvent>(m_batchSize);
+            while (!m_stopped) {
+                try {
+                    batch.add(m_queue.take());
+                    m_queue.drainTo(batch, m_batchSize - batch.size());
+
+                    if (m_batchLingerMillis > 0) {
+                        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_batchLingerMillis);
+                        long remaining;
+                        while (batch.size() < m_batchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                            final PendingEvent pending = m_queue.poll(remaining, TimeUnit.NANOSECONDS);
+                            if (pending == null) {
+                                break;
+                            }
+                            batch.add(pending);
+                            m_queue.drainTo(batch, m_batchSize - batch.size());
+                        }
+                    }
+                } catch (final InterruptedException e) {
+                    if (!m_stopped) {
+                        LOG.warn("Batch writer interrupted while waiting for events.", e);
+                    }
+                }
+
+                if (!batch.isEmpty()) {
+                    try {
+                        writeBatch(batch);
+                    } catch (final Throwable t) {
+                        LOG.warn("Unexpected error writing a batch of {} events.", batch.size(), t);
+                        for (final PendingEvent pending : batch) {
+                            pending.fail(new EventProcessorException(t));
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+import org.xml.sax.InputSource;
+
+public class TcpEventTokenizerTest {
+
+    private final List<Object> m_records = new ArrayList<Object>();
+
+    private final TcpEventTokenizer m_tokenizer = new TcpEventTokenizer(new TcpEventTokenizer.Callback() {
+        @Override
+        public void onEvent(final byte[] document) {
+            final Log log = JaxbUtils.unmarshal(Log.class, new InputSource(new ByteArrayInputStream(document)));
+            assertEquals(1, log.getEvents().getEventCount());
+            m_records.add(log.getEvents().getEvent(0));
+        }
+
+        @Override
+        public void onEndOfLog() {
+            m_records.add("end");
+        }
+    });
+
+    /**
+     * Feeds the document in small chunks so that tags are split between
+     * reads.
+     */
+    private void feed(final String xml, final int chunkSize) throws Exception {
+        final byte[] bytes = xml.getBytes("UTF-8");
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            m_tokenizer.update(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+        }
+    }
+
+    @Test
+    public void testEventsAreEmittedOneAtATime() throws Exception {
+        feed("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<log xmlns=\"http://xmlns.opennms.org/xsd/event\">"
+                + "<header><ver>1.0</ver><created>now</created></header>"
+                + "<events>"
+                + "<event uuid=\"1\"><uei>uei.opennms.org/test/one</uei><source>test</source></event>\n"
+                + "<event uuid=\"2\"><uei>uei.opennms.org/test/two</uei><source>test</source></event>"
+                + "</events></log>", 3);
+
+        assertEquals(3, m_records.size());
+        assertEquals("uei.opennms.org/test/one", ((Event)m_records.get(0)).getUei());
+        assertEquals("2", ((Event)m_records.get(1)).getUuid());
+        assertEquals("end", m_records.get(2));
+    }
+
+    @Test
+    public void testMarkupInsideEvents() throws Exception {
+        feed("<e:log xmlns:e=\"http://xmlns.opennms.org/xsd/event\"><e:events>"
+                + "<e:event><e:uei>uei.opennms.org/test/one</e:uei><e:source>a>b</e:source><!-- </e:event> --></e:event>"
+                + "<e:event><e:uei>uei.opennms.org/test/two</e:uei><e:descr><![CDATA[</e:event></e:log>]]></e:descr></e:event>"
+                + "</e:events></e:log>"
+                + "<log xmlns=\"http://xmlns.opennms.org/xsd/event\"><events><event><uei>uei.opennms.org/test/three</uei></event></events></log>", 1);
+
+        assertEquals(5, m_records.size());
+        assertEquals("a>b", ((Event)m_records.get(0)).getSource());
+        assertEquals("</e:event></e:log>", ((Event)m_records.get(1)).getDescr());
+        assertEquals("end", m_records.get(2));
+        assertEquals("uei.opennms.org/test/three", ((Event)m_records.get(3)).getUei());
+        assertEquals("end", m_records.get(4));
+    }
+
+    @Test
+    public void testEmptyLog() throws Exception {
+        feed("<log xmlns=\"http://xmlns.opennms.org/xsd/event\"><events/></log>", 64);
+
+        assertEquals(1, m_records.size());
+        assertEquals("end", m_records.get(0));
+    }
+}
@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.adaptors.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.eventd.adaptors.EventHandler;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.EventReceipt;
+
+public class TcpStreamingServerTest {
+
+    private static final Pattern RECEIPT_END = Pattern.compile("</(\\w+:)?event-receipt>$");
+
+    private static final String LOG_HEADER = "<log xmlns=\"http://xmlns.opennms.org/xsd/event\"><events>";
+
+    private static final String LOG_FOOTER = "</events></log>";
+
+    private final Fiber m_parent = new Fiber() {
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public String getName() {
+            return "TcpStreamingServerTest";
+        }
+
+        @Override
+        public int getStatus() {
+            return RUNNING;
+        }
+    };
+
+    private final RecordingHandler m_handler = new RecordingHandler();
+
+    private TcpStreamingServer m_server;
+
+    private int m_port;
+
+    /**
+     * Accepts every event whose UUID does not start with "reject" and blocks
+     * while the gate is closed.
+     */
+    private static class RecordingHandler implements EventHandler {
+        private final List<String> m_uuids = Collections.synchronizedList(new ArrayList<String>());
+        private final List<List<String>> m_receipts = Collections.synchronizedList(new ArrayList<List<String>>());
+        private volatile CountDownLatch m_gate = new CountDownLatch(0);
+
+        @Override
+        public boolean processEvent(final Event event) {
+            try {
+                m_gate.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            m_uuids.add(event.getUuid());
+            return !event.getUuid().startsWith("reject");
+        }
+
+        @Override
+        public void receiptSent(final EventReceipt receipt) {
+            m_receipts.add(Arrays.asList(receipt.getUuid()));
+        }
+    }
+
+    private void startServer(final int workerThreads, final int eventsPerConnection) throws Exception {
+        final ServerSocket socket = new ServerSocket(0);
+        m_port = socket.getLocalPort();
+        socket.close();
+
+        m_server = new TcpStreamingServer(m_parent, Collections.<EventHandler>singletonList(m_handler), m_port, InetAddress.getLoopbackAddress(), workerThreads);
+        m_server.setEventsPerConnection(eventsPerConnection);
+        new Thread(m_server, "TcpStreamingServerTest-Selector").start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_handler.m_gate.countDown();
+        if (m_server != null) {
+            m_server.stop();
+        }
+    }
+
+    @Test
+    public void testOneReceiptPerLogWithTheAcceptedEvents() throws Exception {
+        startServer(2, TcpEventReceiver.UNLIMITED_EVENTS);
+
+        try (final Socket socket = connect()) {
+            send(socket, log("a1", "reject1", "a2") + log("reject2") + log("b1"));
+
+            final Reader in = new InputStreamReader(socket.getInputStream(), "UTF-8");
+            assertEquals(Arrays.asList("a1", "a2"), Arrays.asList(readReceipt(in).getUuid()));
+            // the log without accepted events gets no receipt
+            assertEquals(Arrays.asList("b1"), Arrays.asList(readReceipt(in).getUuid()));
+        }
+
+        waitFor(m_handler.m_receipts, 2);
+        assertEquals(Arrays.asList(Arrays.asList("a1", "a2"), Arrays.asList("b1")), new ArrayList<List<String>>(m_handler.m_receipts));
+        assertEquals(Arrays.asList("a1", "reject1", "a2", "reject2", "b1"), new ArrayList<String>(m_handler.m_uuids));
+    }
+
+    @Test
+    public void testEventsPerConnectionClosesTheConnection() throws Exception {
+        startServer(2, 2);
+
+        try (final Socket socket = connect()) {
+            send(socket, log("c1") + log("c2") + log("c3"));
+
+            final Reader in = new InputStreamReader(socket.getInputStream(), "UTF-8");
+            assertEquals(Arrays.asList("c1"), Arrays.asList(readReceipt(in).getUuid()));
+            assertEquals(Arrays.asList("c2"), Arrays.asList(readReceipt(in).getUuid()));
+            assertClosed(in);
+        }
+
+        assertEquals(Arrays.asList("c1", "c2"), new ArrayList<String>(m_handler.m_uuids));
+    }
+
+    @Test
+    public void testReadingIsSuspendedWhileEventsArePending() throws Exception {
+        startServer(1, TcpEventReceiver.UNLIMITED_EVENTS);
+        m_handler.m_gate = new CountDownLatch(1);
+
+        // far more than the socket buffers and MAX_PENDING_RECORDS events hold together
+        final int count = 10000;
+        final char[] padding = new char[4096];
+        Arrays.fill(padding, 'x');
+        final String descr = new String(padding);
+
+        try (final Socket socket = connect()) {
+            final CountDownLatch written = new CountDownLatch(1);
+            final Thread writer = new Thread("TcpStreamingServerTest-Writer") {
+                @Override
+                public void run() {
+                    try {
+                        final OutputStream out = socket.getOutputStream();
+                        out.write(LOG_HEADER.getBytes("UTF-8"));
+                        for (int i = 0; i < count; i++) {
+                            out.write(event("e" + i, descr).getBytes("UTF-8"));
+                        }
+                        out.write(LOG_FOOTER.getBytes("UTF-8"));
+                        out.flush();
+                        written.countDown();
+                    } catch (final IOException e) {
+                        // the test fails on the missing countdown
+                    }
+                }
+            };
+            writer.start();
+
+            assertFalse("the server kept reading while its handler was blocked", written.await(3, TimeUnit.SECONDS));
+
+            m_handler.m_gate.countDown();
+            assertTrue("the server did not resume reading", written.await(60, TimeUnit.SECONDS));
+
+            final EventReceipt receipt = readReceipt(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            assertEquals(count, receipt.getUuidCount());
+        }
+
+        assertEquals(count, m_handler.m_uuids.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("e" + i, m_handler.m_uuids.get(i));
+        }
+    }
+
+    @Test
+    public void testEventsOfEachConnectionAreDeliveredInOrder() throws Exception {
+        startServer(4, TcpEventReceiver.UNLIMITED_EVENTS);
+
+        final int connections = 8;
+        final int logs = 20;
+        final int eventsPerLog = 10;
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Thread> clients = new ArrayList<Thread>();
+        for (int c = 0; c < connections; c++) {
+            final String prefix = "conn" + c + "-";
+            final Thread client = new Thread("TcpStreamingServerTest-Client-" + c) {
+                @Override
+                public void run() {
+                    try (final Socket socket = connect()) {
+                        final StringBuilder data = new StringBuilder();
+                        for (int l = 0; l < logs; l++) {
+                            final String[] uuids = new String[eventsPerLog];
+                            for (int e = 0; e < eventsPerLog; e++) {
+                                uuids[e] = prefix + (l * eventsPerLog + e);
+                            }
+                            data.append(log(uuids));
+                        }
+                        send(socket, data.toString());
+
+                        final Reader in = new InputStreamReader(socket.getInputStream(), "UTF-8");
+                        for (int l = 0; l < logs; l++) {
+                            final String[] uuids = readReceipt(in).getUuid();
+                            assertEquals(eventsPerLog, uuids.length);
+                            assertEquals(prefix + (l * eventsPerLog), uuids[0]);
+                        }
+                    } catch (final Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            clients.add(client);
+            client.start();
+        }
+        for (final Thread client : clients) {
+            client.join(60000);
+        }
+        assertEquals(Collections.emptyList(), failures);
+
+        final int[] next = new int[connections];
+        synchronized (m_handler.m_uuids) {
+            assertEquals(connections * logs * eventsPerLog, m_handler.m_uuids.size());
+            for (final String uuid : m_handler.m_uuids) {
+                final int dash = uuid.indexOf('-');
+                final int connection = Integer.parseInt(uuid.substring(4, dash));
+                assertEquals(uuid, next[connection]++, Integer.parseInt(uuid.substring(dash + 1)));
+            }
+        }
+    }
+
+    private static String event(final String uuid, final String descr) {
+        return "<event uuid=\"" + uuid + "\"><uei>uei.opennms.org/test</uei><source>TcpStreamingServerTest</source>"
+                + (descr == null ? "" : "<descr>" + descr + "</descr>") + "</event>";
+    }
+
+    private static String log(final String... uuids) {
+        final StringBuilder sb = new StringBuilder(LOG_HEADER);
+        for (final String uuid : uuids) {
+            sb.append(event(uuid, null));
+        }
+        return sb.append(LOG_FOOTER).toString();
+    }
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(), m_port);
+        socket.setSoTimeout(60000);
+        return socket;
+    }
+
+    private static void send(final Socket socket, final String data) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write(data.getBytes("UTF-8"));
+        out.flush();
+    }
+
+    private static EventReceipt readReceipt(final Reader in) throws IOException {
+        final StringBuilder xml = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            xml.append((char) c);
+            if (c == '>' && RECEIPT_END.matcher(xml.subSequence(Math.max(0, xml.length() - 32), xml.length())).find()) {
+                return JaxbUtils.unmarshal(EventReceipt.class, xml.toString().trim());
+            }
+        }
+        fail("The connection was closed before a receipt was received: " + xml);
+        return null;
+    }
+
+    private static void assertClosed(final Reader in) throws IOException {
+        try {
+            int c;
+            do {
+                c = in.read();
+            } while (c != -1 && Character.isWhitespace(c));
+            assertEquals(-1, c);
+        } catch (final SocketException e) {
+            // a reset is fine as well
+        }
+    }
+
+    private static void waitFor(final List<?> list, final int size) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (list.size() < size && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, list.size());
+    }
+}
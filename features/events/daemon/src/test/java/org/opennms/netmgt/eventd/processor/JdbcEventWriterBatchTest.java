@@ -0,0 +1,460 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.EventdServiceManager;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Tests the batching of {@link JdbcEventWriter} against a fake database
+ * which records the rows of every statement.
+ */
+public class JdbcEventWriterBatchTest {
+    private static final String GOOD_UEI = "uei.opennms.org/test/good";
+
+    private static final String BAD_UEI = "uei.opennms.org/test/bad";
+
+    private final FakeDatabase m_database = new FakeDatabase();
+
+    private final ExecutorService m_executor = Executors.newCachedThreadPool();
+
+    private JdbcEventWriter m_writer;
+
+    @After
+    public void tearDown() throws Exception {
+        m_executor.shutdownNow();
+        if (m_writer != null) {
+            m_writer.destroy();
+        }
+    }
+
+    private JdbcEventWriter createWriter(final int batchSize, final long lingerMillis) throws Exception {
+        final EventdServiceManager serviceManager = EasyMock.createNiceMock(EventdServiceManager.class);
+        final EventUtil eventUtil = EasyMock.createNiceMock(EventUtil.class);
+        EasyMock.replay(serviceManager, eventUtil);
+
+        m_writer = new JdbcEventWriter();
+        m_writer.setDataSource(m_database.getDataSource());
+        m_writer.setEventdServiceManager(serviceManager);
+        m_writer.setEventUtil(eventUtil);
+        m_writer.setGetNextIdString("SELECT nextval('eventsNxtId')");
+        m_writer.setBatchSize(batchSize);
+        m_writer.setBatchLingerMillis(lingerMillis);
+        m_writer.afterPropertiesSet();
+        return m_writer;
+    }
+
+    private static Event createEvent(final String uei) {
+        final EventBuilder builder = new EventBuilder(uei, "JdbcEventWriterBatchTest");
+        builder.setLogDest("logndisplay");
+        builder.setLogMessage("test");
+        return builder.getEvent();
+    }
+
+    /**
+     * Processes the events on their own threads, like the eventd handler threads do.
+     */
+    private List<Future<Event>> processConcurrently(final Event... events) {
+        final List<Future<Event>> futures = new ArrayList<Future<Event>>();
+        for (final Event event : events) {
+            futures.add(m_executor.submit(new Callable<Event>() {
+                @Override
+                public Event call() throws Exception {
+                    m_writer.process(null, event);
+                    return event;
+                }
+            }));
+        }
+        return futures;
+    }
+
+    @Test
+    public void testRangeQueryIsDerived() throws Exception {
+        createWriter(10, 0);
+        assertEquals("SELECT nextval('eventsNxtId') FROM generate_series(1, ?)", m_writer.getGetNextIdRangeString());
+    }
+
+    @Test
+    public void testFullBatchIsFlushedWithoutWaitingForTheLinger() throws Exception {
+        createWriter(3, TimeUnit.MINUTES.toMillis(5));
+
+        final long start = System.nanoTime();
+        final List<Future<Event>> futures = processConcurrently(createEvent(GOOD_UEI), createEvent(GOOD_UEI), createEvent(GOOD_UEI));
+        for (final Future<Event> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        assertTrue("a full batch must not wait for the linger", System.nanoTime() - start < TimeUnit.MINUTES.toNanos(1));
+
+        assertEquals(Collections.singletonList(3), m_database.getBatchSizes());
+        assertEquals(3, m_database.getCommittedIds().size());
+    }
+
+    @Test
+    public void testLingerGathersEventsIntoOneBatch() throws Exception {
+        createWriter(10, 2000);
+
+        final List<Future<Event>> futures = processConcurrently(createEvent(GOOD_UEI), createEvent(GOOD_UEI), createEvent(GOOD_UEI), createEvent(GOOD_UEI));
+        final List<Integer> dbids = new ArrayList<Integer>();
+        for (final Future<Event> future : futures) {
+            dbids.add(future.get(30, TimeUnit.SECONDS).getDbid());
+        }
+
+        // the events arrived well within the linger, so they were written together
+        assertEquals(Collections.singletonList(4), m_database.getBatchSizes());
+        // one round trip for all of the ids
+        assertEquals(1, m_database.getIdQueries());
+
+        // every event got the id of its committed row
+        Collections.sort(dbids);
+        final List<Integer> committed = new ArrayList<Integer>(m_database.getCommittedIds());
+        Collections.sort(committed);
+        assertEquals(committed, dbids);
+        assertEquals(4, m_database.getCommittedIds().size());
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedOneEventAtATime() throws Exception {
+        createWriter(10, 2000);
+
+        final Event good1 = createEvent(GOOD_UEI);
+        final Event bad = createEvent(BAD_UEI);
+        final Event good2 = createEvent(GOOD_UEI);
+        final List<Future<Event>> futures = processConcurrently(good1, bad, good2);
+
+        int failures = 0;
+        for (final Future<Event> future : futures) {
+            try {
+                future.get(30, TimeUnit.SECONDS);
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof EventProcessorException);
+                failures++;
+            }
+        }
+        assertEquals(1, failures);
+
+        // the whole batch, then each event on its own
+        assertEquals(3, m_database.getBatchSizes().get(0).intValue());
+        assertEquals(4, m_database.getBatchSizes().size());
+
+        // only the good events are in the database, and only they got a dbid
+        assertEquals(2, m_database.getCommittedIds().size());
+        assertTrue(m_database.getCommittedIds().contains(good1.getDbid()));
+        assertTrue(m_database.getCommittedIds().contains(good2.getDbid()));
+        assertFalse(bad.hasDbid());
+    }
+
+    /**
+     * An event that cannot even be bound to the insert statement must only
+     * fail itself, not the rest of its batch.
+     */
+    @Test
+    public void testMalformedEventOnlyFailsItself() throws Exception {
+        createWriter(10, 2000);
+
+        final Event good1 = createEvent(GOOD_UEI);
+        // binding an event without a time throws a NullPointerException
+        final Event malformed = createEvent(GOOD_UEI);
+        malformed.setTime(null);
+        final Event good2 = createEvent(GOOD_UEI);
+        final List<Future<Event>> futures = processConcurrently(good1, malformed, good2);
+
+        int failures = 0;
+        for (final Future<Event> future : futures) {
+            try {
+                future.get(30, TimeUnit.SECONDS);
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof EventProcessorException);
+                assertTrue(e.getCause().getCause() instanceof NullPointerException);
+                failures++;
+            }
+        }
+        assertEquals(1, failures);
+
+        // the other events were still written together
+        assertEquals(Collections.singletonList(2), m_database.getBatchSizes());
+        assertEquals(2, m_database.getCommittedIds().size());
+        assertTrue(m_database.getCommittedIds().contains(good1.getDbid()));
+        assertTrue(m_database.getCommittedIds().contains(good2.getDbid()));
+        assertFalse(malformed.hasDbid());
+    }
+
+    @Test
+    public void testConnectionFailureFailsTheBatch() throws Exception {
+        createWriter(10, 0);
+        m_database.setConnectionFailure(new SQLException("no connection"));
+
+        try {
+            m_writer.process(null, createEvent(GOOD_UEI));
+            fail("expected an EventProcessorException");
+        } catch (final EventProcessorException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        assertTrue(m_database.getCommittedIds().isEmpty());
+    }
+
+    /**
+     * Events which are still queued when the writer shuts down must fail
+     * rather than leave their eventd threads waiting forever.
+     */
+    @Test
+    public void testShutdownFailsQueuedEvents() throws Exception {
+        createWriter(2, 0);
+        final CountDownLatch gate = m_database.closeGate();
+
+        // the first event holds the batch writer in getConnection()
+        final List<Future<Event>> futures = new ArrayList<Future<Event>>(processConcurrently(createEvent(GOOD_UEI)));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (m_database.getConnectionAttempts() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, m_database.getConnectionAttempts());
+
+        // these wait in the queue
+        futures.addAll(processConcurrently(createEvent(GOOD_UEI), createEvent(GOOD_UEI)));
+        Thread.sleep(200);
+
+        m_writer.destroy();
+        gate.countDown();
+
+        for (final Future<Event> future : futures) {
+            try {
+                future.get(30, TimeUnit.SECONDS);
+                fail("expected an EventProcessorException");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof EventProcessorException);
+            }
+        }
+        assertTrue(m_database.getCommittedIds().isEmpty());
+        m_writer = null;
+    }
+
+    /**
+     * Just enough of a JDBC driver for the statements of the event writer.
+     * Inserts of rows with {@link #BAD_UEI} fail.
+     */
+    private static class FakeDatabase {
+        private final List<Integer> m_committedIds = new ArrayList<Integer>();
+        private final List<Integer> m_batchSizes = new ArrayList<Integer>();
+        private int m_nextId = 1;
+        private int m_idQueries = 0;
+        private SQLException m_connectionFailure;
+        private CountDownLatch m_gate;
+        private int m_connectionAttempts = 0;
+
+        synchronized List<Integer> getCommittedIds() {
+            return new ArrayList<Integer>(m_committedIds);
+        }
+
+        synchronized List<Integer> getBatchSizes() {
+            return new ArrayList<Integer>(m_batchSizes);
+        }
+
+        synchronized int getIdQueries() {
+            return m_idQueries;
+        }
+
+        synchronized void setConnectionFailure(final SQLException failure) {
+            m_connectionFailure = failure;
+        }
+
+        synchronized int getConnectionAttempts() {
+            return m_connectionAttempts;
+        }
+
+        /**
+         * Makes getConnection() wait until the returned latch is released.
+         */
+        synchronized CountDownLatch closeGate() {
+            m_gate = new CountDownLatch(1);
+            return m_gate;
+        }
+
+        DataSource getDataSource() {
+            return proxy(DataSource.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    if ("getConnection".equals(method.getName())) {
+                        final CountDownLatch gate;
+                        synchronized (FakeDatabase.this) {
+                            m_connectionAttempts++;
+                            if (m_connectionFailure != null) {
+                                throw m_connectionFailure;
+                            }
+                            gate = m_gate;
+                        }
+                        if (gate != null && !gate.await(30, TimeUnit.SECONDS)) {
+                            throw new SQLException("gate was never opened");
+                        }
+                        return createConnection();
+                    }
+                    return defaultValue(method);
+                }
+            });
+        }
+
+        private Connection createConnection() {
+            final List<Integer> uncommitted = new ArrayList<Integer>();
+            return proxy(Connection.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    final String name = method.getName();
+                    if ("prepareStatement".equals(name)) {
+                        return createStatement((String)args[0], uncommitted);
+                    } else if ("commit".equals(name)) {
+                        synchronized (FakeDatabase.this) {
+                            m_committedIds.addAll(uncommitted);
+                        }
+                        uncommitted.clear();
+                    } else if ("rollback".equals(name)) {
+                        uncommitted.clear();
+                    }
+                    return defaultValue(method);
+                }
+            });
+        }
+
+        private PreparedStatement createStatement(final String sql, final List<Integer> uncommitted) {
+            final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+            final List<Map<Integer, Object>> batch = new ArrayList<Map<Integer, Object>>();
+            return proxy(PreparedStatement.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    final String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+                        parameters.put((Integer)args[0], args[1]);
+                    } else if ("executeQuery".equals(name)) {
+                        final int count = sql.contains("generate_series") ? (Integer)parameters.get(1) : 1;
+                        return createIdResultSet(count);
+                    } else if ("addBatch".equals(name)) {
+                        batch.add(new HashMap<Integer, Object>(parameters));
+                    } else if ("executeBatch".equals(name)) {
+                        synchronized (FakeDatabase.this) {
+                            m_batchSizes.add(batch.size());
+                        }
+                        try {
+                            for (final Map<Integer, Object> row : batch) {
+                                insert(row, uncommitted);
+                            }
+                        } finally {
+                            batch.clear();
+                        }
+                        return new int[0];
+                    } else if ("executeUpdate".equals(name)) {
+                        insert(parameters, uncommitted);
+                        return 1;
+                    }
+                    return defaultValue(method);
+                }
+            });
+        }
+
+        private static void insert(final Map<Integer, Object> row, final List<Integer> uncommitted) throws SQLException {
+            if (BAD_UEI.equals(row.get(2))) {
+                throw new BatchUpdateException("bad event", new int[0]);
+            }
+            uncommitted.add((Integer)row.get(1));
+        }
+
+        private ResultSet createIdResultSet(final int count) {
+            final List<Integer> ids = new ArrayList<Integer>();
+            synchronized (this) {
+                m_idQueries++;
+                for (int i = 0; i < count; i++) {
+                    ids.add(m_nextId++);
+                }
+            }
+            return proxy(ResultSet.class, new InvocationHandler() {
+                private int m_row = -1;
+
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    final String name = method.getName();
+                    if ("next".equals(name)) {
+                        return ++m_row < ids.size();
+                    } else if ("getInt".equals(name) || "getObject".equals(name)) {
+                        return ids.get(m_row);
+                    }
+                    return defaultValue(method);
+                }
+            });
+        }
+
+        private static Object defaultValue(final Method method) {
+            final Class<?> type = method.getReturnType();
+            if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (type.isPrimitive() && type != void.class) {
+                return 0;
+            }
+            return null;
+        }
+
+        private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[] { type }, handler));
+        }
+    }
+}
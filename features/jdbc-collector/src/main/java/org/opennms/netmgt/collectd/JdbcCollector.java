@@ -31,12 +31,24 @@ package org.opennms.netmgt.collectd;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opennms.core.db.DataSourceFactory;
 import org.opennms.core.spring.BeanUtils;
@@ -45,6 +57,8 @@ import org.opennms.netmgt.collectd.jdbc.JdbcAgentState;
 import org.opennms.netmgt.collectd.jdbc.JdbcCollectionAttributeType;
 import org.opennms.netmgt.collectd.jdbc.JdbcCollectionResource;
 import org.opennms.netmgt.collectd.jdbc.JdbcCollectionSet;
+import org.opennms.netmgt.collectd.jdbc.JdbcCollectorException;
+import org.opennms.netmgt.collectd.jdbc.JdbcConnectionPool;
 import org.opennms.netmgt.collectd.jdbc.JdbcMultiInstanceCollectionResource;
 import org.opennms.netmgt.collectd.jdbc.JdbcSingleInstanceCollectionResource;
 import org.opennms.netmgt.collection.api.AttributeGroupType;
@@ -64,6 +78,25 @@ import org.slf4j.LoggerFactory;
 public class JdbcCollector implements ServiceCollector {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcCollector.class);
 
+    /**
+     * The maximum number of queries per agent which may run at the same time.
+     * With the default of 1 the queries are run one after the other.
+     */
+    public static final String MAX_CONCURRENT_QUERIES_PROPERTY = "org.opennms.netmgt.collectd.JdbcCollector.maxConcurrentQueries";
+
+    private static final ExecutorService QUERY_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger m_threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "JdbcCollector-Query-" + m_threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final int m_maxConcurrentQueries = Math.max(1, Integer.getInteger(MAX_CONCURRENT_QUERIES_PROPERTY, 1));
+
     private JdbcDataCollectionConfigDao m_jdbcCollectionDao;
     private final Map<Integer, JdbcAgentState> m_scheduledNodes = new HashMap<Integer, JdbcAgentState>();
     private Map<String, AttributeGroupType> m_groupTypeList = new HashMap<String, AttributeGroupType>();
@@ -126,6 +159,9 @@ public class JdbcCollector implements ServiceCollector {
 
     @Override
     public void release() {
+        for (JdbcAgentState agentState : m_scheduledNodes.values()) {
+            agentState.closeConnectionPool();
+        }
         m_scheduledNodes.clear();
     }
 
@@ -160,6 +196,7 @@ public class JdbcCollector implements ServiceCollector {
         JdbcAgentState nodeState = m_scheduledNodes.get(scheduledNodeKey);
         if (nodeState != null) {
             m_scheduledNodes.remove(scheduledNodeKey);
+            nodeState.closeConnectionPool();
         }
     }
 
@@ -170,121 +207,254 @@ public class JdbcCollector implements ServiceCollector {
             LOG.error("Null parameters is now allowed in JdbcCollector!!");
         }
         
-        Connection con = null;
-        ResultSet results = null;
-        Statement stmt = null;
-        
-        try {
-            String collectionName = ParameterMap.getKeyedString(parameters, "collection", null);
-            if (collectionName == null) {
-                //Look for the old configuration style:
-                collectionName = ParameterMap.getKeyedString(parameters, "jdbc-collection", null);
-            }
+        String collectionName = ParameterMap.getKeyedString(parameters, "collection", null);
+        if (collectionName == null) {
+            //Look for the old configuration style:
+            collectionName = ParameterMap.getKeyedString(parameters, "jdbc-collection", null);
+        }
         
-            JdbcDataCollection collection = m_jdbcCollectionDao.getDataCollectionByName(collectionName);
+        JdbcDataCollection collection = m_jdbcCollectionDao.getDataCollectionByName(collectionName);
         
-            agentState = m_scheduledNodes.get(agent.getNodeId());
-            agentState.setupDatabaseConnections(parameters);
+        agentState = m_scheduledNodes.get(agent.getNodeId());
+        agentState.setupDatabaseConnections(parameters);
         
-            // Load the attribute group types.
-            loadAttributeGroupList(collection);
+        // Load the attribute group types.
+        loadAttributeGroupList(collection);
 
-            // Load the attribute types.
-            loadAttributeTypeList(collection);
+        // Load the attribute types.
+        loadAttributeTypeList(collection);
         
-            // Create a new collection set.
-            JdbcCollectionSet collectionSet = new JdbcCollectionSet();
-            collectionSet.setCollectionTimestamp(new Date());
+        // Create a new collection set.
+        JdbcCollectionSet collectionSet = new JdbcCollectionSet();
+        collectionSet.setCollectionTimestamp(new Date());
 
-            // Creating a single resource object, because all node-level metric must belong to the exact same resource.
-            final JdbcSingleInstanceCollectionResource nodeResource = new JdbcSingleInstanceCollectionResource(agent);
+        // Creating a single resource object, because all node-level metric must belong to the exact same resource.
+        final JdbcSingleInstanceCollectionResource nodeResource = new JdbcSingleInstanceCollectionResource(agent);
         
-            // Cycle through all of the queries for this collection
-            for(JdbcQuery query : collection.getQueries()) {
-                // Verify if we should check for availability of a query.
-                if (agentState.shouldCheckAvailability(query.getQueryName(), query.getRecheckInterval())) {
-                    // Check to see if the query is available.
-                    if (!isGroupAvailable(agentState, query)) {
-                        LOG.warn("Group is not available.");
-                        continue;
-                    }
+        // Cycle through all of the queries for this collection and find the available ones
+        final List<JdbcQuery> queries = new ArrayList<JdbcQuery>();
+        for(JdbcQuery query : collection.getQueries()) {
+            // Verify if we should check for availability of a query.
+            if (agentState.shouldCheckAvailability(query.getQueryName(), query.getRecheckInterval())) {
+                // Check to see if the query is available.
+                if (!isGroupAvailable(agentState, query)) {
+                    LOG.warn("Group is not available.");
+                    continue;
+                }
+            }
+
+            // If the query is available, lets collect it.
+            if (agentState.groupIsAvailable(query.getQueryName())) {
+                queries.add(query);
+            }
+        }
+
+        // Keep up to m_maxConcurrentQueries queries running, the results are processed in order
+        final LinkedList<Future<QueryResult>> pending = new LinkedList<Future<QueryResult>>();
+        try {
+            int nextQuery = 0;
+            for (JdbcQuery query : queries) {
+                while (nextQuery < queries.size() && pending.size() < m_maxConcurrentQueries) {
+                    pending.add(submit(new QueryTask(agentState, queries.get(nextQuery++))));
                 }
-                
+
+                final QueryResult result;
                 try {
-                    // If the query is available, lets collect it.
-                    if (agentState.groupIsAvailable(query.getQueryName())) {
-                        if(agentState.getUseDataSourceName()) {
-                            initDatabaseConnectionFactory(agentState.getDataSourceName());
-                            con = DataSourceFactory.getInstance(agentState.getDataSourceName()).getConnection();
-                        } else {
-                            con = agentState.getJdbcConnection();
-                        }
-                        stmt = agentState.createStatement(con);
-                        results = agentState.executeJdbcQuery(stmt, query);
-                    
-                        // Determine if there were any results for this query to                    
-                        if (results.isBeforeFirst() && results.isAfterLast()) {
-                            LOG.warn("Query '{}' returned no results.", query.getQueryName());
-                            // Close the statement, but retain the connection.
-                            agentState.closeResultSet(results);
-                            agentState.closeStmt(stmt);
-                            continue;
-                        }
-                        
-                        // Determine if there are results and how many.
-                        results.last();
-                        boolean singleInstance = (results.getRow()==1)?true:false;
-                        results.beforeFirst();
-                        
-                        // Iterate through each row.
-                        while(results.next() ) {
-                            JdbcCollectionResource resource = null;
-                            
-                            // Create the appropriate resource container.
-                            if(singleInstance) {
-                                resource = nodeResource;
-                            } else {
-                                // Retrieve the name of the column to use as the instance key for multi-row queries.
-                                String instance = results.getString(query.getInstanceColumn());
-                                resource = new JdbcMultiInstanceCollectionResource(agent,instance, query.getResourceType());
-                            }
-                            
-                            for(JdbcColumn curColumn : query.getJdbcColumns()) {
-                                String columnName = null;
-                                if(curColumn.getDataSourceName() != null && curColumn.getDataSourceName().length() != 0) {
-                                    columnName = curColumn.getDataSourceName();
-                                } else {
-                                    columnName = curColumn.getColumnName();
-                                }
-                                
-                                JdbcCollectionAttributeType attribType = m_attribTypeList.get(curColumn.getColumnName());
-                                resource.setAttributeValue(attribType, results.getString(columnName));
-                            }
-
-                            collectionSet.getCollectionResources().add(resource);
-                        }
-                    }
+                    result = getResult(pending.removeFirst());
                 } catch(SQLException e) {
-                    // Close the statement but retain the connection, log the exception and continue to the next query.
+                    // Log the exception and continue to the next query.
                     LOG.warn("There was a problem executing query '{}' Please review the query or configuration. Reason: {}", query.getQueryName(), e.getMessage());
-                    agentState.closeResultSet(results);
-                    agentState.closeStmt(stmt);
-                    agentState.closeConnection(con);
                     continue;
                 }
+
+                // Determine if there were any results for this query to
+                if (result.getRows().isEmpty()) {
+                    LOG.warn("Query '{}' returned no results.", query.getQueryName());
+                    continue;
+                }
+
+                // Iterate through each row.
+                for (String[] row : result.getRows()) {
+                    JdbcCollectionResource resource = null;
+
+                    // Create the appropriate resource container.
+                    if (result.isSingleInstance()) {
+                        resource = nodeResource;
+                    } else {
+                        resource = new JdbcMultiInstanceCollectionResource(agent, row[0], query.getResourceType());
+                    }
+
+                    int i = 1;
+                    for(JdbcColumn curColumn : query.getJdbcColumns()) {
+                        JdbcCollectionAttributeType attribType = m_attribTypeList.get(curColumn.getColumnName());
+                        resource.setAttributeValue(attribType, row[i++]);
+                    }
+
+                    collectionSet.getCollectionResources().add(resource);
+                }
             }
-            collectionSet.setStatus(ServiceCollector.COLLECTION_SUCCEEDED);
-            return collectionSet;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CollectionException("Interrupted while collecting " + collectionName + " from " + agentState.getAddress(), e);
         } finally {
-            // Make sure that when we're done we close all results, statements and connections.
-            agentState.closeResultSet(results);
-            agentState.closeStmt(stmt);
-            agentState.closeConnection(con);
-            
-            if(agentState != null) {
-                //agentState.closeAgentConnection();
+            for (Future<QueryResult> future : pending) {
+                future.cancel(true);
             }
         }
+        collectionSet.setStatus(ServiceCollector.COLLECTION_SUCCEEDED);
+        return collectionSet;
+    }
+
+    /**
+     * Starts running the given query. Without fan-out the query is run right away in the calling thread.
+     */
+    private Future<QueryResult> submit(QueryTask task) {
+        if (m_maxConcurrentQueries <= 1) {
+            final FutureTask<QueryResult> future = new FutureTask<QueryResult>(task);
+            future.run();
+            return future;
+        }
+        return QUERY_EXECUTOR.submit(task);
+    }
+
+    private static QueryResult getResult(Future<QueryResult> future) throws SQLException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private Connection getConnection(JdbcAgentState agentState) throws SQLException {
+        if(agentState.getUseDataSourceName()) {
+            initDatabaseConnectionFactory(agentState.getDataSourceName());
+            return DataSourceFactory.getInstance(agentState.getDataSourceName()).getConnection();
+        } else {
+            return agentState.getJdbcConnection();
+        }
+    }
+
+    /**
+     * The rows returned by a query. The first value of a row is the instance, followed by the
+     * values of the query's columns.
+     */
+    private static class QueryResult {
+        private final boolean m_singleInstance;
+        private final List<String[]> m_rows;
+
+        public QueryResult(boolean singleInstance, List<String[]> rows) {
+            m_singleInstance = singleInstance;
+            m_rows = rows;
+        }
+
+        public boolean isSingleInstance() {
+            return m_singleInstance;
+        }
+
+        public List<String[]> getRows() {
+            return m_rows;
+        }
+    }
+
+    /**
+     * Runs a query, using a pooled connection and a cached prepared statement if the
+     * agent's connections are pooled.
+     */
+    private class QueryTask implements Callable<QueryResult> {
+        private final JdbcAgentState m_agentState;
+        private final JdbcQuery m_query;
+
+        public QueryTask(JdbcAgentState agentState, JdbcQuery query) {
+            m_agentState = agentState;
+            m_query = query;
+        }
+
+        @Override
+        public QueryResult call() throws SQLException {
+            final JdbcConnectionPool pool = m_agentState.getConnectionPool();
+            if (pool != null) {
+                final JdbcConnectionPool.PooledConnection pooled;
+                try {
+                    pooled = pool.getConnection();
+                } catch (SQLException e) {
+                    throw new JdbcCollectorException("Unable to connect to JDBC URL: '" + pool.getName() + "'", e);
+                }
+                ResultSet results = null;
+                try {
+                    final PreparedStatement stmt = pooled.prepareStatement(m_query.getJdbcStatement().getJdbcQuery());
+                    results = m_agentState.executeJdbcQuery(stmt, m_query);
+                    return readResults(results);
+                } catch (SQLException e) {
+                    pooled.setSuspect();
+                    throw e;
+                } catch (RuntimeException e) {
+                    pooled.setSuspect();
+                    throw e;
+                } finally {
+                    m_agentState.closeResultSet(results);
+                    pool.release(pooled);
+                }
+            }
+
+            Connection con = null;
+            Statement stmt = null;
+            ResultSet results = null;
+            try {
+                con = getConnection(m_agentState);
+                stmt = m_agentState.createStatement(con);
+                results = m_agentState.executeJdbcQuery(stmt, m_query);
+                return readResults(results);
+            } finally {
+                // Make sure that when we're done we close all results, statements and connections.
+                m_agentState.closeResultSet(results);
+                m_agentState.closeStmt(stmt);
+                m_agentState.closeConnection(con);
+            }
+        }
+
+        private QueryResult readResults(ResultSet results) throws SQLException {
+            final List<String[]> rows = new ArrayList<String[]>();
+            // Determine if there were any results for this query to
+            if (results.isBeforeFirst() && results.isAfterLast()) {
+                return new QueryResult(true, rows);
+            }
+
+            // Determine if there are results and how many.
+            results.last();
+            boolean singleInstance = (results.getRow()==1)?true:false;
+            results.beforeFirst();
+
+            // Iterate through each row.
+            while(results.next()) {
+                final List<JdbcColumn> columns = m_query.getJdbcColumns();
+                final String[] row = new String[columns.size() + 1];
+                if (!singleInstance) {
+                    // Retrieve the name of the column to use as the instance key for multi-row queries.
+                    row[0] = results.getString(m_query.getInstanceColumn());
+                }
+
+                int i = 1;
+                for(JdbcColumn curColumn : columns) {
+                    String columnName = null;
+                    if(curColumn.getDataSourceName() != null && curColumn.getDataSourceName().length() != 0) {
+                        columnName = curColumn.getDataSourceName();
+                    } else {
+                        columnName = curColumn.getColumnName();
+                    }
+                    row[i++] = results.getString(columnName);
+                }
+                rows.add(row);
+            }
+            return new QueryResult(singleInstance, rows);
+        }
     }
     
     
@@ -294,13 +464,15 @@ public class JdbcCollector implements ServiceCollector {
         boolean status = false;
         ResultSet resultset = null;
         Connection con = null;
+        final JdbcConnectionPool pool = agentState.getConnectionPool();
+        JdbcConnectionPool.PooledConnection pooled = null;
         
         try {
-            if(agentState.getUseDataSourceName()) {
-                initDatabaseConnectionFactory(agentState.getDataSourceName());
-                con = DataSourceFactory.getInstance(agentState.getDataSourceName()).getConnection();
+            if (pool != null) {
+                pooled = pool.getConnection();
+                con = pooled.getConnection();
             } else {
-                con = agentState.getJdbcConnection();
+                con = getConnection(agentState);
             }
             
             DatabaseMetaData metadata = con.getMetaData();
@@ -317,9 +489,16 @@ public class JdbcCollector implements ServiceCollector {
             LOG.warn("Error checking group ({}) availability", query.getQueryName(), sqlEx);
             agentState.setGroupIsAvailable(query.getQueryName(), status);
             status=false;
+            if (pooled != null) {
+                pooled.invalidate();
+            }
         } finally {
             agentState.closeResultSet(resultset);
-            agentState.closeConnection(con);
+            if (pooled != null) {
+                pool.release(pooled);
+            } else {
+                agentState.closeConnection(con);
+            }
         }
         LOG.debug("Group {} is {} available", query.getQueryName(), (status ? "" : "not"));
         agentState.setGroupIsAvailable(query.getQueryName(), status);
@@ -31,6 +31,7 @@ package org.opennms.netmgt.collectd.jdbc;
 import java.net.InetAddress;
 import java.sql.Connection;
 import java.sql.Driver;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -57,6 +58,9 @@ public class JdbcAgentState {
     
     Driver m_driver = null;
     Properties m_dbProps = null;
+
+    private JdbcConnectionPool m_connectionPool = null;
+    private String m_connectionPoolKey = null;
     
     private String m_address;
     private Map<String, JdbcGroupState> m_groupStates = new HashMap<String, JdbcGroupState>();
@@ -83,6 +87,8 @@ public class JdbcAgentState {
             // The 'data-source' parameter was set in the configuration file.
             m_useDataSourceName = true;
             m_dataSourceName = dataSourceName;
+            // the data sources are pooled by the DataSourceFactory
+            closeConnectionPool();
         }
     }
     
@@ -109,6 +115,49 @@ public class JdbcAgentState {
         m_dbProps = new Properties();
         m_dbProps.setProperty("user", dbUser);
         m_dbProps.setProperty("password", dbPass);
+
+        if (JdbcConnectionPool.isEnabled()) {
+            setupConnectionPool(m_driver.getClass().getName() + "|" + m_dbUrl + "|" + dbUser + "|" + dbPass);
+        }
+    }
+
+    /**
+     * Keeps the connection pool as long as the connection settings do not change.
+     */
+    private synchronized void setupConnectionPool(final String key) {
+        if (m_connectionPool != null && key.equals(m_connectionPoolKey)) {
+            return;
+        }
+        closeConnectionPool();
+
+        final Driver driver = m_driver;
+        final String dbUrl = m_dbUrl;
+        final Properties dbProps = m_dbProps;
+        m_connectionPool = new JdbcConnectionPool(dbUrl, new JdbcConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection connect() throws SQLException {
+                return driver.connect(dbUrl, dbProps);
+            }
+        });
+        m_connectionPoolKey = key;
+    }
+
+    /**
+     * Returns the pool of connections to the agent, or null if the connections are not pooled.
+     */
+    public synchronized JdbcConnectionPool getConnectionPool() {
+        return m_connectionPool;
+    }
+
+    /**
+     * Closes the pooled connections to the agent.
+     */
+    public synchronized void closeConnectionPool() {
+        if (m_connectionPool != null) {
+            m_connectionPool.close();
+            m_connectionPool = null;
+            m_connectionPoolKey = null;
+        }
     }
     
     public Connection getJdbcConnection() throws JdbcCollectorException {
@@ -142,6 +191,14 @@ public class JdbcAgentState {
         }
     }
     
+    public ResultSet executeJdbcQuery(PreparedStatement stmt, JdbcQuery query) {
+        try {
+            return stmt.executeQuery();
+        } catch(SQLException e) {
+            throw new JdbcCollectorException("Unable to execute query '" + query.getQueryName() + "'! Check your jdbc-datacollection-config.xml configuration!", e);
+        }
+    }
+
     public void closeConnection(Connection con) {
         if (con == null) return;
         try {
@@ -0,0 +1,347 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of JDBC connections to a single collection target.
+ * <p/>
+ * At most <code>maxConnections</code> connections are handed out at the same time, further
+ * callers wait for a connection to be released, so the collector never opens more than that
+ * many connections to a database. Released connections are kept open and handed out again,
+ * most recently used first. A connection is validated before it is handed out again if it
+ * has been idle for a while or if the last user ran into an error, and connections that are
+ * idle for longer than the idle timeout are closed.
+ * <p/>
+ * Every pooled connection caches up to <code>maxStatements</code> prepared statements by SQL.
+ * The cached statements are owned by the pool and must not be closed by the caller.
+ */
+public class JdbcConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcConnectionPool.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.netmgt.collectd.JdbcCollector.pooledConnections";
+
+    public static final String MAX_CONNECTIONS_PROPERTY = "org.opennms.netmgt.collectd.JdbcCollector.maxConnectionsPerAgent";
+
+    public static final String IDLE_TIMEOUT_PROPERTY = "org.opennms.netmgt.collectd.JdbcCollector.idleTimeout";
+
+    public static final String MAX_STATEMENTS_PROPERTY = "org.opennms.netmgt.collectd.JdbcCollector.maxStatementsPerConnection";
+
+    /**
+     * Connections which have been idle for longer than this are validated before they are used.
+     */
+    private static final long VALIDATE_AFTER_IDLE = 10000L;
+
+    /**
+     * The number of seconds to wait for a connection to be validated.
+     */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    /**
+     * The maximum time to wait for a connection to be released by another collection.
+     */
+    private static final long CHECKOUT_TIMEOUT = 60000L;
+
+    /**
+     * Opens the connections of the pool.
+     */
+    public interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    private final String m_name;
+
+    private final ConnectionFactory m_connectionFactory;
+
+    private final int m_maxStatements;
+
+    private final long m_idleTimeout;
+
+    private final Semaphore m_permits;
+
+    // guarded by this, the most recently used connection is first
+    private final Deque<PooledConnection> m_idle = new ArrayDeque<PooledConnection>();
+
+    // guarded by this
+    private boolean m_closed = false;
+
+    /**
+     * Creates a pool configured by the system properties.
+     *
+     * @param name the name of the pool used in log messages, must not contain credentials
+     */
+    public JdbcConnectionPool(final String name, final ConnectionFactory connectionFactory) {
+        this(name, connectionFactory,
+             Integer.getInteger(MAX_CONNECTIONS_PROPERTY, 2),
+             Integer.getInteger(MAX_STATEMENTS_PROPERTY, 20),
+             Long.getLong(IDLE_TIMEOUT_PROPERTY, 600000L));
+    }
+
+    public JdbcConnectionPool(final String name, final ConnectionFactory connectionFactory, final int maxConnections, final int maxStatements, final long idleTimeout) {
+        m_name = name;
+        m_connectionFactory = connectionFactory;
+        m_permits = new Semaphore(Math.max(1, maxConnections), true);
+        m_maxStatements = Math.max(1, maxStatements);
+        m_idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return true if the JDBC collector should pool its connections.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Returns a connection, waiting for one to be released if the maximum number of connections
+     * is in use. The connection has to be given back with {@link #release(PooledConnection)}.
+     */
+    public PooledConnection getConnection() throws SQLException {
+        closeIdleConnections();
+
+        try {
+            if (!m_permits.tryAcquire(CHECKOUT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a connection to " + m_name);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + m_name, e);
+        }
+
+        boolean acquired = false;
+        try {
+            PooledConnection pooled;
+            while (true) {
+                synchronized (this) {
+                    if (m_closed) {
+                        throw new SQLException("The connection pool for " + m_name + " is closed");
+                    }
+                    pooled = m_idle.pollFirst();
+                }
+                if (pooled == null || pooled.validate()) {
+                    break;
+                }
+                LOG.debug("Closing broken connection to {}", m_name);
+                pooled.close();
+            }
+            if (pooled == null) {
+                LOG.debug("Opening a new connection to {}", m_name);
+                pooled = new PooledConnection(m_connectionFactory.connect());
+            }
+            acquired = true;
+            return pooled;
+        } finally {
+            if (!acquired) {
+                m_permits.release();
+            }
+        }
+    }
+
+    /**
+     * Gives a connection back to the pool.
+     */
+    public void release(final PooledConnection pooled) {
+        boolean keep = false;
+        synchronized (this) {
+            if (!m_closed && !pooled.m_broken) {
+                pooled.m_lastReleased = System.currentTimeMillis();
+                m_idle.addFirst(pooled);
+                keep = true;
+            }
+        }
+        if (!keep) {
+            pooled.close();
+        }
+        m_permits.release();
+    }
+
+    /**
+     * @return the number of connections which are open but not in use.
+     */
+    public synchronized int getIdleCount() {
+        return m_idle.size();
+    }
+
+    /**
+     * Closes the connections which are not in use, connections in use are closed when they are released.
+     */
+    public void close() {
+        final List<PooledConnection> closed;
+        synchronized (this) {
+            m_closed = true;
+            closed = new ArrayList<PooledConnection>(m_idle);
+            m_idle.clear();
+        }
+        for (final PooledConnection pooled : closed) {
+            pooled.close();
+        }
+    }
+
+    private void closeIdleConnections() {
+        final long idleSince = System.currentTimeMillis() - m_idleTimeout;
+        final List<PooledConnection> closed = new ArrayList<PooledConnection>();
+        synchronized (this) {
+            final Iterator<PooledConnection> it = m_idle.descendingIterator();
+            while (it.hasNext()) {
+                final PooledConnection pooled = it.next();
+                if (pooled.m_lastReleased > idleSince) {
+                    break;
+                }
+                it.remove();
+                closed.add(pooled);
+            }
+        }
+        if (!closed.isEmpty()) {
+            LOG.debug("Closing {} idle connections to {}", closed.size(), m_name);
+        }
+        for (final PooledConnection pooled : closed) {
+            pooled.close();
+        }
+    }
+
+    /**
+     * A connection of the pool together with its prepared statements.
+     */
+    public class PooledConnection {
+        private final Connection m_connection;
+
+        private final Map<String, PreparedStatement> m_statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = -1858263286406066398L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > m_maxStatements) {
+                    closeStatement(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        private long m_lastReleased = System.currentTimeMillis();
+
+        private boolean m_broken = false;
+
+        private boolean m_suspect = false;
+
+        private PooledConnection(final Connection connection) {
+            m_connection = connection;
+        }
+
+        public Connection getConnection() {
+            return m_connection;
+        }
+
+        /**
+         * Returns the cached statement for the given SQL, or prepares a new scrollable, read-only
+         * statement. The statement must not be closed.
+         */
+        public PreparedStatement prepareStatement(final String sql) throws SQLException {
+            PreparedStatement statement = m_statements.get(sql);
+            if (statement == null) {
+                statement = m_connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
+                m_statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Requests that the connection is validated before it is used again, callers should
+         * do so whenever they run into an error.
+         */
+        public void setSuspect() {
+            m_suspect = true;
+        }
+
+        /**
+         * Marks the connection as broken, it is closed when it is released.
+         */
+        public void invalidate() {
+            m_broken = true;
+        }
+
+        private boolean validate() {
+            if (!m_suspect && System.currentTimeMillis() - m_lastReleased < VALIDATE_AFTER_IDLE) {
+                return true;
+            }
+            try {
+                if (m_connection.isValid(VALIDATION_TIMEOUT)) {
+                    m_suspect = false;
+                    return true;
+                }
+            } catch (final SQLException e) {
+                LOG.debug("Failed to validate connection to {}: {}", m_name, e.getMessage());
+            } catch (final AbstractMethodError e) {
+                // a pre-JDBC 4 driver, assume the connection is fine unless the last user had an error
+                return !m_suspect;
+            }
+            return false;
+        }
+
+        private void close() {
+            for (final PreparedStatement statement : m_statements.values()) {
+                closeStatement(statement);
+            }
+            m_statements.clear();
+            try {
+                m_connection.close();
+            } catch (final SQLException e) {
+                LOG.debug("Failed to close connection to {}: {}", m_name, e.getMessage());
+            }
+        }
+
+        private void closeStatement(final PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (final SQLException e) {
+                LOG.debug("Failed to close statement: {}", e.getMessage());
+            }
+        }
+    }
+}
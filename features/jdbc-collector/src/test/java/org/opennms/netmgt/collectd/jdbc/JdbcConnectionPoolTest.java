@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class JdbcConnectionPoolTest {
+
+    /**
+     * A fake connection which counts the statements it prepares.
+     */
+    private static class FakeConnection implements InvocationHandler {
+        private boolean m_valid = true;
+        private boolean m_closed = false;
+        private int m_prepared = 0;
+        private final List<FakeStatement> m_statements = new ArrayList<FakeStatement>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("close".equals(method.getName())) {
+                m_closed = true;
+                return null;
+            } else if ("isValid".equals(method.getName())) {
+                return m_valid && !m_closed;
+            } else if ("prepareStatement".equals(method.getName())) {
+                m_prepared++;
+                final FakeStatement statement = new FakeStatement();
+                m_statements.add(statement);
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, statement);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private static class FakeStatement implements InvocationHandler {
+        private boolean m_closed = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("close".equals(method.getName())) {
+                m_closed = true;
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private final List<FakeConnection> m_connections = new ArrayList<FakeConnection>();
+
+    private JdbcConnectionPool.ConnectionFactory m_factory;
+
+    @Before
+    public void setUp() {
+        m_factory = new JdbcConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection connect() throws SQLException {
+                final FakeConnection connection = new FakeConnection();
+                m_connections.add(connection);
+                return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, connection);
+            }
+        };
+    }
+
+    @Test
+    public void testReusesConnectionsAndStatements() throws Exception {
+        final JdbcConnectionPool pool = new JdbcConnectionPool("test", m_factory, 2, 2, 60000);
+
+        JdbcConnectionPool.PooledConnection pooled = pool.getConnection();
+        final PreparedStatement statement = pooled.prepareStatement("SELECT 1");
+        assertSame(statement, pooled.prepareStatement("SELECT 1"));
+        pool.release(pooled);
+        assertEquals(1, pool.getIdleCount());
+
+        pooled = pool.getConnection();
+        assertSame(statement, pooled.prepareStatement("SELECT 1"));
+        assertEquals(1, m_connections.size());
+        assertEquals(1, m_connections.get(0).m_prepared);
+
+        // the least recently used statement is closed when the cache is full
+        pooled.prepareStatement("SELECT 2");
+        pooled.prepareStatement("SELECT 1");
+        pooled.prepareStatement("SELECT 3");
+        assertFalse(m_connections.get(0).m_statements.get(0).m_closed);
+        assertTrue(m_connections.get(0).m_statements.get(1).m_closed);
+        pool.release(pooled);
+
+        pool.close();
+        assertTrue(m_connections.get(0).m_closed);
+        assertTrue(m_connections.get(0).m_statements.get(0).m_closed);
+    }
+
+    @Test
+    public void testLimitsConnections() throws Exception {
+        final JdbcConnectionPool pool = new JdbcConnectionPool("test", m_factory, 1, 10, 60000);
+
+        final JdbcConnectionPool.PooledConnection first = pool.getConnection();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pool.release(pool.getConnection());
+                    acquired.countDown();
+                } catch (SQLException e) {
+                    // the test fails on the latch
+                }
+            }
+        };
+        waiter.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        pool.release(first);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, m_connections.size());
+    }
+
+    @Test
+    public void testReplacesBrokenConnections() throws Exception {
+        final JdbcConnectionPool pool = new JdbcConnectionPool("test", m_factory, 2, 10, 60000);
+
+        JdbcConnectionPool.PooledConnection pooled = pool.getConnection();
+        pooled.invalidate();
+        pool.release(pooled);
+        assertTrue(m_connections.get(0).m_closed);
+        assertEquals(0, pool.getIdleCount());
+
+        // a suspect connection is validated before it is handed out again
+        final JdbcConnectionPool.PooledConnection second = pool.getConnection();
+        second.setSuspect();
+        pool.release(second);
+        m_connections.get(1).m_valid = false;
+
+        pooled = pool.getConnection();
+        assertNotSame(second, pooled);
+        assertTrue(m_connections.get(1).m_closed);
+        assertEquals(3, m_connections.size());
+        pool.release(pooled);
+    }
+
+    @Test
+    public void testClosesIdleConnections() throws Exception {
+        final JdbcConnectionPool pool = new JdbcConnectionPool("test", m_factory, 2, 10, 0);
+
+        pool.release(pool.getConnection());
+        Thread.sleep(10);
+        pool.release(pool.getConnection());
+        assertTrue(m_connections.get(0).m_closed);
+        assertEquals(2, m_connections.size());
+    }
+
+    @Test
+    public void testClosedPool() throws Exception {
+        final JdbcConnectionPool pool = new JdbcConnectionPool("test", m_factory, 2, 10, 60000);
+        final JdbcConnectionPool.PooledConnection pooled = pool.getConnection();
+        pool.close();
+        pool.release(pooled);
+        assertTrue(m_connections.get(0).m_closed);
+
+        try {
+            pool.getConnection();
+            fail("a closed pool should not hand out connections");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+}
@@ -68,14 +68,22 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
         final Map<String, Object> constants = Maps.newHashMap();
 
         final Map<Source, String> rrdsBySource = Maps.newHashMap();
-        
+
+        // Graphs commonly reference several attributes of the same resource, so
+        // each resource and its string properties are only looked up once per request
+        final Map<String, OnmsResource> resourcesById = Maps.newHashMap();
+        final Map<String, Map<String, Object>> propertiesById = Maps.newHashMap();
+
         for (final Source source : sources) {
             // Grab the resource
-            final OnmsResource resource = m_resourceDao.getResourceById(source
-                    .getResourceId());
+            OnmsResource resource = resourcesById.get(source.getResourceId());
             if (resource == null) {
-                LOG.error("No resource with id: {}", source.getResourceId());
-                return null;
+                resource = m_resourceDao.getResourceById(source.getResourceId());
+                if (resource == null) {
+                    LOG.error("No resource with id: {}", source.getResourceId());
+                    return null;
+                }
+                resourcesById.put(source.getResourceId(), resource);
             }
 
             // Grab the attribute
@@ -87,19 +95,14 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
             }
 
             // Gather the values from strings.properties
-            for (final Map.Entry<String, String> propertyEntry : resource.getStringPropertyAttributes().entrySet()) {
-                final String propertyName = propertyEntry.getKey();
-
-                // Attempt to cast the value as a double, fall back to keeping it as a string
-                Object propertyValue;
-                try {
-                    propertyValue = Utils.toDouble(propertyEntry.getValue());
-                } catch (Throwable t) {
-                    propertyValue = propertyEntry.getValue();
-                }
-
-                constants.put(String.format("%s.%s", source.getLabel(), propertyName),
-                        propertyValue);
+            Map<String, Object> properties = propertiesById.get(source.getResourceId());
+            if (properties == null) {
+                properties = getStringProperties(resource);
+                propertiesById.put(source.getResourceId(), properties);
+            }
+            for (final Map.Entry<String, Object> propertyEntry : properties.entrySet()) {
+                constants.put(String.format("%s.%s", source.getLabel(), propertyEntry.getKey()),
+                        propertyEntry.getValue());
             }
 
             // Build the path to the archive
@@ -113,6 +116,21 @@ public abstract class AbstractRrdBasedFetchStrategy implements MeasurementFetchS
         return fetchMeasurements(start, end, step, maxrows, rrdsBySource, constants);
     }
 
+    private static Map<String, Object> getStringProperties(final OnmsResource resource) {
+        final Map<String, Object> properties = Maps.newHashMap();
+        for (final Map.Entry<String, String> propertyEntry : resource.getStringPropertyAttributes().entrySet()) {
+            // Attempt to cast the value as a double, fall back to keeping it as a string
+            Object propertyValue;
+            try {
+                propertyValue = Utils.toDouble(propertyEntry.getValue());
+            } catch (Throwable t) {
+                propertyValue = propertyEntry.getValue();
+            }
+            properties.put(propertyEntry.getKey(), propertyValue);
+        }
+        return properties;
+    }
+
     /**
      * Performs the actual retrieval of the values from the RRD/JRB files.
      */
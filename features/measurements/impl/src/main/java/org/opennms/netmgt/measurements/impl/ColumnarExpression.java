@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+
+/**
+ * A compiled expression that is evaluated over whole columns of values at a
+ * time instead of row by row.
+ *
+ * Each node knows whether JEXL would treat its value as an integer or as a
+ * floating point number, so that the compiler can refuse the constructs
+ * where the two differ (integer division, for instance) and leave them to
+ * {@link JEXLExpressionEngine}.
+ */
+abstract class ColumnarExpression {
+
+    /**
+     * @return true if JEXL would evaluate this node to an integer type
+     */
+    abstract boolean isInteger();
+
+    /**
+     * @return true if JEXL would evaluate this node to a {@link Float}
+     */
+    boolean isFloat() {
+        return false;
+    }
+
+    /**
+     * @return true if this node evaluates to the same value on every row
+     */
+    boolean isScalar() {
+        return false;
+    }
+
+    /**
+     * @return the value of a scalar node
+     */
+    double getScalar() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Evaluates the node for the first <code>n</code> rows.
+     *
+     * @return the values, which must not be modified by the caller unless
+     *         {@link #ownsResult()} is true
+     */
+    abstract double[] evaluate(int n);
+
+    /**
+     * @return true if the array returned by {@link #evaluate(int)} is freshly
+     *         allocated and can be reused by the caller
+     */
+    boolean ownsResult() {
+        return true;
+    }
+
+    static class Scalar extends ColumnarExpression {
+        private final double m_value;
+        private final boolean m_integer;
+        private final boolean m_float;
+
+        Scalar(double value, boolean integer) {
+            m_value = value;
+            m_integer = integer;
+            m_float = false;
+        }
+
+        /**
+         * Creates a scalar for a float. JEXL arithmetic widens floats by way
+         * of their decimal representation, so 0.1f becomes 0.1 and not
+         * 0.10000000149011612.
+         */
+        Scalar(float value) {
+            m_value = Double.parseDouble(Float.toString(value));
+            m_integer = false;
+            m_float = true;
+        }
+
+        @Override
+        boolean isInteger() {
+            return m_integer;
+        }
+
+        @Override
+        boolean isFloat() {
+            return m_float;
+        }
+
+        @Override
+        boolean isScalar() {
+            return true;
+        }
+
+        @Override
+        double getScalar() {
+            return m_value;
+        }
+
+        @Override
+        double[] evaluate(int n) {
+            final double[] values = new double[n];
+            Arrays.fill(values, m_value);
+            return values;
+        }
+    }
+
+    static class Column extends ColumnarExpression {
+        private final double[] m_values;
+        private final boolean m_integer;
+
+        Column(double[] values, boolean integer) {
+            m_values = values;
+            m_integer = integer;
+        }
+
+        @Override
+        boolean isInteger() {
+            return m_integer;
+        }
+
+        @Override
+        double[] evaluate(int n) {
+            return m_values;
+        }
+
+        @Override
+        boolean ownsResult() {
+            return false;
+        }
+    }
+
+    /**
+     * A reference to the result of an earlier expression in the same query,
+     * which is only known once that expression has been evaluated.
+     */
+    static class Result extends ColumnarExpression {
+        private double[] m_values;
+
+        void setValues(double[] values) {
+            m_values = values;
+        }
+
+        @Override
+        boolean isInteger() {
+            // results are always stored as doubles
+            return false;
+        }
+
+        @Override
+        double[] evaluate(int n) {
+            return m_values;
+        }
+
+        @Override
+        boolean ownsResult() {
+            return false;
+        }
+    }
+
+    static class Negate extends ColumnarExpression {
+        private final ColumnarExpression m_operand;
+
+        Negate(ColumnarExpression operand) {
+            m_operand = operand;
+        }
+
+        @Override
+        boolean isInteger() {
+            return m_operand.isInteger();
+        }
+
+        @Override
+        double[] evaluate(int n) {
+            final double[] values = m_operand.evaluate(n);
+            final double[] result = m_operand.ownsResult() ? values : new double[n];
+            for (int i = 0; i < n; i++) {
+                result[i] = -values[i];
+            }
+            return result;
+        }
+    }
+
+    enum Operator {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO;
+
+        /**
+         * Division and modulo by zero evaluate to 0 like they do in a
+         * lenient JEXL engine.
+         */
+        double apply(double a, double b) {
+            switch (this) {
+            case ADD:
+                return a + b;
+            case SUBTRACT:
+                return a - b;
+            case MULTIPLY:
+                return a * b;
+            case DIVIDE:
+                return b == 0.0 ? 0.0 : a / b;
+            default:
+                return b == 0.0 ? 0.0 : a % b;
+            }
+        }
+    }
+
+    static class Binary extends ColumnarExpression {
+        private final Operator m_operator;
+        private final ColumnarExpression m_left;
+        private final ColumnarExpression m_right;
+
+        Binary(Operator operator, ColumnarExpression left, ColumnarExpression right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean isInteger() {
+            return m_left.isInteger() && m_right.isInteger();
+        }
+
+        @Override
+        double[] evaluate(int n) {
+            final double[] left = m_left.evaluate(n);
+            final double[] result = m_left.ownsResult() ? left : new double[n];
+
+            if (m_right.isScalar()) {
+                final double b = m_right.getScalar();
+                switch (m_operator) {
+                case ADD:
+                    for (int i = 0; i < n; i++) {
+                        result[i] = left[i] + b;
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < n; i++) {
+                        result[i] = left[i] - b;
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < n; i++) {
+                        result[i] = left[i] * b;
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < n; i++) {
+                        result[i] = m_operator.apply(left[i], b);
+                    }
+                }
+                return result;
+            }
+
+            final double[] right = m_right.evaluate(n);
+            switch (m_operator) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    result[i] = left[i] + right[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < n; i++) {
+                    result[i] = left[i] - right[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < n; i++) {
+                    result[i] = left[i] * right[i];
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    result[i] = m_operator.apply(left[i], right[i]);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The functions of {@link Math} and {@link StrictMath} that take and
+     * return doubles, as made available to JEXL under the <code>math</code>
+     * and <code>strictmath</code> namespaces.
+     */
+    enum Function {
+        SIN(1), COS(1), TAN(1), ASIN(1), ACOS(1), ATAN(1), SINH(1), COSH(1), TANH(1),
+        EXP(1), EXPM1(1), LOG(1), LOG10(1), LOG1P(1), SQRT(1), CBRT(1),
+        ABS(1), CEIL(1), FLOOR(1), RINT(1), SIGNUM(1), TODEGREES(1), TORADIANS(1),
+        ATAN2(2), POW(2), HYPOT(2), MAX(2), MIN(2), IEEEREMAINDER(2);
+
+        private final int m_arity;
+
+        private Function(int arity) {
+            m_arity = arity;
+        }
+
+        int getArity() {
+            return m_arity;
+        }
+
+        /**
+         * @return the function with the given name, or null if there is no
+         *         such function
+         */
+        static Function forName(String name) {
+            for (Function function : values()) {
+                if (function.getMethodName().equals(name)) {
+                    return function;
+                }
+            }
+            return null;
+        }
+
+        String getMethodName() {
+            switch (this) {
+            case EXPM1:
+                return "expm1";
+            case LOG10:
+                return "log10";
+            case LOG1P:
+                return "log1p";
+            case TODEGREES:
+                return "toDegrees";
+            case TORADIANS:
+                return "toRadians";
+            case IEEEREMAINDER:
+                return "IEEEremainder";
+            default:
+                return name().toLowerCase();
+            }
+        }
+
+        double apply(double a, double b, boolean strict) {
+            switch (this) {
+            case SIN: return strict ? StrictMath.sin(a) : Math.sin(a);
+            case COS: return strict ? StrictMath.cos(a) : Math.cos(a);
+            case TAN: return strict ? StrictMath.tan(a) : Math.tan(a);
+            case ASIN: return strict ? StrictMath.asin(a) : Math.asin(a);
+            case ACOS: return strict ? StrictMath.acos(a) : Math.acos(a);
+            case ATAN: return strict ? StrictMath.atan(a) : Math.atan(a);
+            case SINH: return strict ? StrictMath.sinh(a) : Math.sinh(a);
+            case COSH: return strict ? StrictMath.cosh(a) : Math.cosh(a);
+            case TANH: return strict ? StrictMath.tanh(a) : Math.tanh(a);
+            case EXP: return strict ? StrictMath.exp(a) : Math.exp(a);
+            case EXPM1: return strict ? StrictMath.expm1(a) : Math.expm1(a);
+            case LOG: return strict ? StrictMath.log(a) : Math.log(a);
+            case LOG10: return strict ? StrictMath.log10(a) : Math.log10(a);
+            case LOG1P: return strict ? StrictMath.log1p(a) : Math.log1p(a);
+            case SQRT: return strict ? StrictMath.sqrt(a) : Math.sqrt(a);
+            case CBRT: return strict ? StrictMath.cbrt(a) : Math.cbrt(a);
+            case ABS: return strict ? StrictMath.abs(a) : Math.abs(a);
+            case CEIL: return strict ? StrictMath.ceil(a) : Math.ceil(a);
+            case FLOOR: return strict ? StrictMath.floor(a) : Math.floor(a);
+            case RINT: return strict ? StrictMath.rint(a) : Math.rint(a);
+            case SIGNUM: return strict ? StrictMath.signum(a) : Math.signum(a);
+            case TODEGREES: return strict ? StrictMath.toDegrees(a) : Math.toDegrees(a);
+            case TORADIANS: return strict ? StrictMath.toRadians(a) : Math.toRadians(a);
+            case ATAN2: return strict ? StrictMath.atan2(a, b) : Math.atan2(a, b);
+            case POW: return strict ? StrictMath.pow(a, b) : Math.pow(a, b);
+            case HYPOT: return strict ? StrictMath.hypot(a, b) : Math.hypot(a, b);
+            case MAX: return strict ? StrictMath.max(a, b) : Math.max(a, b);
+            case MIN: return strict ? StrictMath.min(a, b) : Math.min(a, b);
+            default: return strict ? StrictMath.IEEEremainder(a, b) : Math.IEEEremainder(a, b);
+            }
+        }
+
+        /**
+         * Whether the result keeps the integer type of integer arguments,
+         * because JEXL picks the <code>int</code> or <code>long</code>
+         * overload.
+         */
+        boolean preservesInteger() {
+            return this == ABS || this == MAX || this == MIN;
+        }
+    }
+
+    static class Call extends ColumnarExpression {
+        private final Function m_function;
+        private final boolean m_strict;
+        private final ColumnarExpression[] m_arguments;
+
+        Call(Function function, boolean strict, ColumnarExpression[] arguments) {
+            m_function = function;
+            m_strict = strict;
+            m_arguments = arguments;
+        }
+
+        @Override
+        boolean isInteger() {
+            if (!m_function.preservesInteger()) {
+                return false;
+            }
+            for (ColumnarExpression argument : m_arguments) {
+                if (!argument.isInteger()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        double[] evaluate(int n) {
+            final double[] a = m_arguments[0].evaluate(n);
+            final double[] result = m_arguments[0].ownsResult() ? a : new double[n];
+            if (m_arguments.length == 1) {
+                for (int i = 0; i < n; i++) {
+                    result[i] = m_function.apply(a[i], 0.0, m_strict);
+                }
+            } else {
+                final double[] b = m_arguments[1].evaluate(n);
+                for (int i = 0; i < n; i++) {
+                    result[i] = m_function.apply(a[i], b[i], m_strict);
+                }
+            }
+            return result;
+        }
+    }
+}
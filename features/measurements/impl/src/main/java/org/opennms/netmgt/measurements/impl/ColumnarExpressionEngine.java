@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.ExpressionException;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionParser.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An expression engine that compiles the expressions once and evaluates
+ * each of them over the whole columns in the {@link FetchResults}, instead of
+ * building a context and interpreting the expression for every row.
+ *
+ * Only the arithmetic subset of JEXL is compiled, see
+ * {@link ColumnarExpressionParser}. When a request uses anything else all of
+ * its expressions are evaluated by the {@link JEXLExpressionEngine} instead,
+ * so the results are always the same as those from JEXL.
+ */
+public class ColumnarExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarExpressionEngine.class);
+
+    private final ExpressionEngine m_fallback;
+
+    public ColumnarExpressionEngine() {
+        this(new JEXLExpressionEngine());
+    }
+
+    public ColumnarExpressionEngine(ExpressionEngine fallback) {
+        m_fallback = Preconditions.checkNotNull(fallback, "fallback argument");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        // Don't do anything if there are no expressions
+        if (request.getExpressions().size() < 1) {
+            return;
+        }
+
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = results.getTimestamps().length;
+
+        final List<ColumnarExpression> compiled = Lists.newArrayListWithCapacity(request.getExpressions().size());
+        final List<ColumnarExpression.Result> resultNodes = Lists.newArrayListWithCapacity(request.getExpressions().size());
+        try {
+            final Map<String, ColumnarExpression> variables = getVariables(results);
+            for (final Expression e : request.getExpressions()) {
+                compiled.add(ColumnarExpressionParser.compile(e.getExpression(), variables));
+
+                // The JEXL engine would let the sources and the timestamp win
+                // over an expression with the same label, and lets an
+                // expression see its own value from the previous row
+                if (variables.containsKey(e.getLabel())) {
+                    throw new UnsupportedExpressionException("label '" + e.getLabel() + "' is already in use");
+                }
+
+                // Later expressions can reference the result of this one
+                final ColumnarExpression.Result result = new ColumnarExpression.Result();
+                variables.put(e.getLabel(), result);
+                resultNodes.add(result);
+            }
+        } catch (UnsupportedExpressionException ex) {
+            LOG.debug("Evaluating the expressions with JEXL: {}", ex.getMessage());
+            m_fallback.applyExpressions(request, results);
+            return;
+        }
+
+        // Evaluate the expressions in the order in which they appeared in the query
+        final Map<String, double[]> values = Maps.newLinkedHashMap();
+        int k = 0;
+        for (final Expression e : request.getExpressions()) {
+            double[] derived = compiled.get(k).evaluate(numRows);
+            if (!compiled.get(k).ownsResult()) {
+                // Don't share the array with a source or another expression
+                derived = derived.clone();
+            }
+            resultNodes.get(k).setValues(derived);
+            if (!e.getTransient()) {
+                values.put(e.getLabel(), derived);
+            }
+            k++;
+        }
+
+        // Store the results
+        columns.putAll(values);
+    }
+
+    private static Map<String, ColumnarExpression> getVariables(final FetchResults results) {
+        final Map<String, ColumnarExpression> variables = Maps.newHashMap();
+
+        // Add constants (i.e. values from strings.properties)
+        // retrieved by the fetch operation. Those that aren't plain numbers
+        // are left out, so expressions that use them go to JEXL.
+        for (final Map.Entry<String, Object> constant : results.getConstants().entrySet()) {
+            final ColumnarExpression scalar = toScalar(constant.getValue());
+            if (scalar != null) {
+                variables.put(constant.getKey(), scalar);
+            }
+        }
+
+        // Add some additional constants for ease of use
+        variables.put("__inf", new ColumnarExpression.Scalar(Double.POSITIVE_INFINITY, false));
+        variables.put("__neg_inf", new ColumnarExpression.Scalar(Double.NEGATIVE_INFINITY, false));
+
+        final long[] timestamps = results.getTimestamps();
+        final double[] timestampValues = new double[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestampValues[i] = timestamps[i];
+        }
+        variables.put("timestamp", new ColumnarExpression.Column(timestampValues, true));
+
+        for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            variables.put(column.getKey(), new ColumnarExpression.Column(column.getValue(), false));
+        }
+        return variables;
+    }
+
+    private static ColumnarExpression toScalar(final Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return new ColumnarExpression.Scalar(((Number)value).doubleValue(), true);
+        } else if (value instanceof Float) {
+            return new ColumnarExpression.Scalar(((Float)value).floatValue());
+        } else if (value instanceof Double) {
+            return new ColumnarExpression.Scalar(((Double)value).doubleValue(), false);
+        }
+        // JEXL has its own rules for strings and big numbers
+        return null;
+    }
+}
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opennms.netmgt.measurements.impl.ColumnarExpression.Operator;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Compiles the arithmetic subset of the JEXL expression language into
+ * {@link ColumnarExpression}s.
+ *
+ * The supported constructs are numeric literals, variables, parentheses,
+ * unary minus, the <code>+ - * / %</code> operators and calls to the
+ * functions in {@link ColumnarExpression.Function}. Anything else, and any
+ * construct whose result would differ from what JEXL computes, is rejected
+ * with an {@link UnsupportedExpressionException} so that the expression can
+ * be handed to JEXL instead.
+ */
+class ColumnarExpressionParser {
+
+    /**
+     * Thrown when an expression cannot be compiled into a columnar form.
+     */
+    static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 3817519260371738102L;
+
+        public UnsupportedExpressionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Words that have a meaning of their own in JEXL and can't be used as
+     * variable names.
+     */
+    private static final Set<String> RESERVED_WORDS = new HashSet<String>(Arrays.asList(
+            "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "not",
+            "null", "true", "false", "new", "empty", "size", "if", "else", "for",
+            "foreach", "while", "var", "function", "return"));
+
+    private final String m_expression;
+    private final Map<String, ColumnarExpression> m_variables;
+    private int m_pos = 0;
+
+    private ColumnarExpressionParser(String expression, Map<String, ColumnarExpression> variables) {
+        m_expression = expression;
+        m_variables = variables;
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @param expression the JEXL expression
+     * @param variables the variables the expression may reference, by name
+     * @return the compiled expression
+     * @throws UnsupportedExpressionException if the expression uses anything
+     *         outside of the supported subset
+     */
+    static ColumnarExpression compile(String expression, Map<String, ColumnarExpression> variables) throws UnsupportedExpressionException {
+        if (expression == null) {
+            throw new UnsupportedExpressionException("no expression");
+        }
+        final ColumnarExpressionParser parser = new ColumnarExpressionParser(expression, variables);
+        final ColumnarExpression compiled = parser.parseAdditive();
+        parser.skipWhitespace();
+        if (parser.m_pos != expression.length()) {
+            throw parser.unsupported();
+        }
+        return compiled;
+    }
+
+    private ColumnarExpression parseAdditive() throws UnsupportedExpressionException {
+        ColumnarExpression left = parseMultiplicative();
+        while (true) {
+            if (accept('+')) {
+                left = binary(Operator.ADD, left, parseMultiplicative());
+            } else if (accept('-')) {
+                left = binary(Operator.SUBTRACT, left, parseMultiplicative());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private ColumnarExpression parseMultiplicative() throws UnsupportedExpressionException {
+        ColumnarExpression left = parseUnary();
+        while (true) {
+            if (accept('*')) {
+                left = binary(Operator.MULTIPLY, left, parseUnary());
+            } else if (accept('/')) {
+                left = binary(Operator.DIVIDE, left, parseUnary());
+            } else if (accept('%')) {
+                left = binary(Operator.MODULO, left, parseUnary());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private ColumnarExpression parseUnary() throws UnsupportedExpressionException {
+        if (accept('-')) {
+            final ColumnarExpression operand = parseUnary();
+            if (operand.isFloat()) {
+                return new ColumnarExpression.Scalar(-(float)operand.getScalar());
+            } else if (operand.isScalar()) {
+                return new ColumnarExpression.Scalar(-operand.getScalar(), operand.isInteger());
+            }
+            return new ColumnarExpression.Negate(operand);
+        }
+        return parsePrimary();
+    }
+
+    private ColumnarExpression parsePrimary() throws UnsupportedExpressionException {
+        skipWhitespace();
+        if (m_pos >= m_expression.length()) {
+            throw unsupported();
+        }
+
+        final char c = m_expression.charAt(m_pos);
+        if (accept('(')) {
+            final ColumnarExpression inner = parseAdditive();
+            if (!accept(')')) {
+                throw unsupported();
+            }
+            return inner;
+        } else if (Character.isDigit(c)) {
+            return parseNumber();
+        } else if (isIdentifierStart(c)) {
+            final String name = parseIdentifier();
+            if (accept(':')) {
+                return parseCall(name, parseIdentifier());
+            }
+            final ColumnarExpression variable = m_variables.get(name);
+            if (variable == null) {
+                throw new UnsupportedExpressionException("unknown variable '" + name + "'");
+            }
+            return variable;
+        }
+        throw unsupported();
+    }
+
+    private ColumnarExpression parseCall(String namespace, String name) throws UnsupportedExpressionException {
+        final boolean strict;
+        if ("math".equals(namespace)) {
+            strict = false;
+        } else if ("strictmath".equals(namespace)) {
+            strict = true;
+        } else {
+            throw new UnsupportedExpressionException("unknown namespace '" + namespace + "'");
+        }
+
+        final ColumnarExpression.Function function = ColumnarExpression.Function.forName(name);
+        if (function == null) {
+            throw new UnsupportedExpressionException("unsupported function '" + namespace + ":" + name + "'");
+        }
+
+        if (!accept('(')) {
+            throw unsupported();
+        }
+        final List<ColumnarExpression> arguments = Lists.newArrayList();
+        if (!accept(')')) {
+            do {
+                arguments.add(parseAdditive());
+            } while (accept(','));
+            if (!accept(')')) {
+                throw unsupported();
+            }
+        }
+        if (arguments.size() != function.getArity()) {
+            throw new UnsupportedExpressionException("wrong number of arguments for '" + namespace + ":" + name + "'");
+        }
+        for (ColumnarExpression argument : arguments) {
+            if (argument.isFloat()) {
+                // Reflection widens floats differently than the arithmetic does
+                throw new UnsupportedExpressionException("float argument to '" + namespace + ":" + name + "'");
+            }
+        }
+
+        final ColumnarExpression call = new ColumnarExpression.Call(function, strict, arguments.toArray(new ColumnarExpression[arguments.size()]));
+        for (ColumnarExpression argument : arguments) {
+            if (!argument.isScalar()) {
+                return call;
+            }
+        }
+        return new ColumnarExpression.Scalar(call.evaluate(1)[0], call.isInteger());
+    }
+
+    private ColumnarExpression parseNumber() throws UnsupportedExpressionException {
+        final int start = m_pos;
+        while (m_pos < m_expression.length() && Character.isDigit(m_expression.charAt(m_pos))) {
+            m_pos++;
+        }
+
+        boolean real = false;
+        if (m_pos + 1 < m_expression.length() && m_expression.charAt(m_pos) == '.' && Character.isDigit(m_expression.charAt(m_pos + 1))) {
+            real = true;
+            m_pos++;
+            while (m_pos < m_expression.length() && Character.isDigit(m_expression.charAt(m_pos))) {
+                m_pos++;
+            }
+        }
+        final String digits = m_expression.substring(start, m_pos);
+
+        char suffix = 0;
+        if (m_pos < m_expression.length() && Character.isLetter(m_expression.charAt(m_pos))) {
+            suffix = m_expression.charAt(m_pos++);
+        }
+        if (m_pos < m_expression.length() && isIdentifierPart(m_expression.charAt(m_pos))) {
+            throw unsupported();
+        }
+
+        if (real) {
+            switch (suffix) {
+            case 'd':
+            case 'D':
+                return new ColumnarExpression.Scalar(Double.parseDouble(digits), false);
+            case 0:
+            case 'f':
+            case 'F':
+                // JEXL reads unqualified decimals as floats
+                return new ColumnarExpression.Scalar(Float.parseFloat(digits));
+            default:
+                throw unsupported();
+            }
+        }
+
+        // leading zeros mean octal in JEXL
+        if (digits.length() > 1 && digits.charAt(0) == '0') {
+            throw unsupported();
+        }
+        switch (suffix) {
+        case 0:
+        case 'l':
+        case 'L':
+            try {
+                return new ColumnarExpression.Scalar(Long.parseLong(digits), true);
+            } catch (NumberFormatException e) {
+                throw unsupported();
+            }
+        default:
+            throw unsupported();
+        }
+    }
+
+    private String parseIdentifier() throws UnsupportedExpressionException {
+        skipWhitespace();
+        final int start = m_pos;
+        if (m_pos >= m_expression.length() || !isIdentifierStart(m_expression.charAt(m_pos))) {
+            throw unsupported();
+        }
+        while (m_pos < m_expression.length() && isIdentifierPart(m_expression.charAt(m_pos))) {
+            m_pos++;
+        }
+        final String name = m_expression.substring(start, m_pos);
+        if (RESERVED_WORDS.contains(name)) {
+            throw new UnsupportedExpressionException("reserved word '" + name + "'");
+        }
+        return name;
+    }
+
+    private static ColumnarExpression binary(Operator operator, ColumnarExpression left, ColumnarExpression right) throws UnsupportedExpressionException {
+        if ((operator == Operator.DIVIDE || operator == Operator.MODULO) && left.isInteger() && right.isInteger()) {
+            // JEXL uses integer arithmetic here
+            throw new UnsupportedExpressionException("integer division");
+        }
+        if (left.isScalar() && right.isScalar()) {
+            return new ColumnarExpression.Scalar(operator.apply(left.getScalar(), right.getScalar()), left.isInteger() && right.isInteger());
+        }
+        if (left.isScalar() && (operator == Operator.ADD || operator == Operator.MULTIPLY)) {
+            // keep the scalar on the right where it is cheapest
+            return new ColumnarExpression.Binary(operator, right, left);
+        }
+        return new ColumnarExpression.Binary(operator, left, right);
+    }
+
+    private boolean accept(char c) {
+        skipWhitespace();
+        if (m_pos < m_expression.length() && m_expression.charAt(m_pos) == c) {
+            m_pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (m_pos < m_expression.length() && Character.isWhitespace(m_expression.charAt(m_pos))) {
+            m_pos++;
+        }
+    }
+
+    private UnsupportedExpressionException unsupported() {
+        return new UnsupportedExpressionException("unsupported syntax at position " + m_pos + " of '" + m_expression + "'");
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+}
@@ -29,23 +29,63 @@
 package org.opennms.netmgt.measurements.impl;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.FetchData;
+import org.jrobin.core.FetchRequest;
 import org.jrobin.core.RrdException;
 import org.jrobin.data.DataProcessor;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.model.Source;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * Used to fetch measurements from JRB files.
  *
+ * The files are read concurrently on a shared, bounded pool of threads, and
+ * through a shared pool of read-only {@link org.jrobin.core.RrdDb} handles.
+ * Once all of the data has been fetched, the consolidation is done by a
+ * {@link DataProcessor} in the calling thread.
+ *
  * @author Jesse White <jesse@opennms.org>
  * @author Dustin Frisch <fooker@lab.sh>
  */
 public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
 
+    /**
+     * Maximum number of files read concurrently, across all requests.
+     */
+    private static final int FETCH_THREADS = Integer.getInteger("org.opennms.measurements.jrobin.fetchThreads", 8);
+
+    /**
+     * Maximum number of unused file handles kept open between requests.
+     */
+    private static final int MAX_CACHED_HANDLES = Integer.getInteger("org.opennms.measurements.jrobin.maxCachedFiles", 256);
+
+    private static final RrdDbHandlePool HANDLES = new RrdDbHandlePool(MAX_CACHED_HANDLES);
+
+    private static final ThreadPoolExecutor EXECUTOR;
+    static {
+        // When the queue is full, the requesting thread reads the file itself
+        EXECUTOR = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(FETCH_THREADS * 32),
+                new LogPreservingThreadFactory("JrobinFetchStrategy", FETCH_THREADS),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -68,12 +108,51 @@ public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
         }
         dproc.setFetchRequestResolution(stepInSeconds);
 
+        // Group the sources by file, so that each file is only opened once
+        final Map<String, List<Source>> sourcesByFile = Maps.newLinkedHashMap();
         for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
-            final Source source = entry.getKey();
-            final String rrdFile = entry.getValue();
+            List<Source> sourcesInFile = sourcesByFile.get(entry.getValue());
+            if (sourcesInFile == null) {
+                sourcesInFile = Lists.newArrayList();
+                sourcesByFile.put(entry.getValue(), sourcesInFile);
+            }
+            sourcesInFile.add(entry.getKey());
+        }
+
+        final List<Map<Source, FetchData>> fetched = Lists.newArrayListWithCapacity(sourcesByFile.size());
+        if (sourcesByFile.size() == 1) {
+            final Map.Entry<String, List<Source>> entry = sourcesByFile.entrySet().iterator().next();
+            fetched.add(fetchFile(entry.getKey(), entry.getValue(), startInSeconds, endInSeconds, stepInSeconds));
+        } else {
+            final List<Future<Map<Source, FetchData>>> futures = Lists.newArrayListWithCapacity(sourcesByFile.size());
+            try {
+                for (final Map.Entry<String, List<Source>> entry : sourcesByFile.entrySet()) {
+                    futures.add(EXECUTOR.submit(new FileFetcher(entry.getKey(), entry.getValue(),
+                            startInSeconds, endInSeconds, stepInSeconds)));
+                }
+                for (final Future<Map<Source, FetchData>> future : futures) {
+                    fetched.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RrdException("Interrupted while fetching JRB files.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RrdException) {
+                    throw (RrdException)e.getCause();
+                }
+                throw new RrdException("JRB processing failed.", e.getCause());
+            } finally {
+                for (final Future<Map<Source, FetchData>> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
 
-            dproc.addDatasource(source.getLabel(), rrdFile, source.getAttribute(),
-                    source.getAggregation());
+        for (final Map<Source, FetchData> fetchDataBySource : fetched) {
+            for (final Map.Entry<Source, FetchData> entry : fetchDataBySource.entrySet()) {
+                final Source source = entry.getKey();
+                dproc.addDatasource(source.getLabel(), source.getAttribute(), entry.getValue());
+            }
         }
 
         try {
@@ -96,4 +175,71 @@ public class JrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
 
         return new FetchResults(timestamps, columns, dproc.getStep() * 1000, constants);
     }
+
+    /**
+     * Fetches the values of the given sources from a single file, with one
+     * fetch request per consolidation function, the same way
+     * {@link DataProcessor} would.
+     */
+    private static Map<Source, FetchData> fetchFile(final String rrdFile, final List<Source> sources,
+            final long startInSeconds, final long endInSeconds, final long stepInSeconds) throws RrdException {
+
+        final Map<String, Set<String>> dsNamesByConsolFun = Maps.newHashMap();
+        for (final Source source : sources) {
+            Set<String> dsNames = dsNamesByConsolFun.get(source.getAggregation());
+            if (dsNames == null) {
+                dsNames = Sets.newHashSet();
+                dsNamesByConsolFun.put(source.getAggregation(), dsNames);
+            }
+            dsNames.add(source.getAttribute());
+        }
+
+        final RrdDbHandlePool.Handle handle;
+        try {
+            handle = HANDLES.acquire(rrdFile);
+        } catch (IOException e) {
+            throw new RrdException("Failed to open " + rrdFile + ".", e);
+        }
+
+        try {
+            final Map<String, FetchData> fetchDataByConsolFun = Maps.newHashMapWithExpectedSize(dsNamesByConsolFun.size());
+            for (final Map.Entry<String, Set<String>> entry : dsNamesByConsolFun.entrySet()) {
+                final FetchRequest request = handle.getRrdDb().createFetchRequest(entry.getKey(),
+                        startInSeconds, endInSeconds, stepInSeconds);
+                request.setFilter(entry.getValue());
+                fetchDataByConsolFun.put(entry.getKey(), request.fetchData());
+            }
+
+            final Map<Source, FetchData> fetchDataBySource = Maps.newHashMapWithExpectedSize(sources.size());
+            for (final Source source : sources) {
+                fetchDataBySource.put(source, fetchDataByConsolFun.get(source.getAggregation()));
+            }
+            return fetchDataBySource;
+        } catch (IOException e) {
+            throw new RrdException("Failed to fetch data from " + rrdFile + ".", e);
+        } finally {
+            HANDLES.release(handle);
+        }
+    }
+
+    private static class FileFetcher implements Callable<Map<Source, FetchData>> {
+        private final String m_rrdFile;
+        private final List<Source> m_sources;
+        private final long m_startInSeconds;
+        private final long m_endInSeconds;
+        private final long m_stepInSeconds;
+
+        public FileFetcher(String rrdFile, List<Source> sources, long startInSeconds, long endInSeconds, long stepInSeconds) {
+            m_rrdFile = rrdFile;
+            m_sources = sources;
+            m_startInSeconds = startInSeconds;
+            m_endInSeconds = endInSeconds;
+            m_stepInSeconds = stepInSeconds;
+        }
+
+        @Override
+        public Map<Source, FetchData> call() throws RrdException {
+            return fetchFile(m_rrdFile, m_sources, m_startInSeconds, m_endInSeconds, m_stepInSeconds);
+        }
+    }
 }
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps read-only {@link RrdDb} handles open between fetch requests so that
+ * graphs which are refreshed or shared between pages do not reopen and parse
+ * the same files over and over.
+ *
+ * JRobin caches header values such as the last update time in the
+ * {@link RrdDb}, so a cached handle is only reused while the modification
+ * time of its file is unchanged. Handles are only cached when the file was
+ * last modified at least a second before it was opened, since coarser file
+ * system timestamps could otherwise hide a write made right after opening.
+ *
+ * At most {@code maxCached} unused handles are kept open. Handles that are
+ * still in use by a request are closed when they are released.
+ */
+public class RrdDbHandlePool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RrdDbHandlePool.class);
+
+    /**
+     * Coarsest file system timestamp resolution we need to account for.
+     */
+    private static final long TIMESTAMP_RESOLUTION_MS = 1000;
+
+    private final int m_maxCached;
+
+    /**
+     * Handles by path, in access order.
+     */
+    private final LinkedHashMap<String, Handle> m_handles = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+
+    public RrdDbHandlePool(int maxCached) {
+        m_maxCached = maxCached;
+    }
+
+    /**
+     * Returns an open handle to the given file. The handle must be given back
+     * with {@link #release(Handle)} once the caller is done with it.
+     */
+    public Handle acquire(final String path) throws IOException, RrdException {
+        final long lastModified = new File(path).lastModified();
+
+        synchronized (this) {
+            final Handle handle = m_handles.get(path);
+            if (handle != null) {
+                if (handle.m_lastModified == lastModified) {
+                    handle.m_references++;
+                    return handle;
+                }
+                // The file was updated since it was opened
+                retire(handle);
+            }
+        }
+
+        // Open outside of the lock so that different files are opened concurrently
+        final long openedAt = System.currentTimeMillis();
+        final Handle opened = new Handle(path, new RrdDb(path, true), lastModified);
+        if (m_maxCached < 1 || lastModified <= 0 || openedAt - lastModified < TIMESTAMP_RESOLUTION_MS) {
+            opened.m_retired = true;
+            return opened;
+        }
+
+        final Handle existing;
+        synchronized (this) {
+            existing = m_handles.get(path);
+            if (existing != null && existing.m_lastModified == lastModified) {
+                // Another request opened the same file in the meantime
+                existing.m_references++;
+            } else {
+                if (existing != null) {
+                    retire(existing);
+                }
+                m_handles.put(path, opened);
+                evictIdle();
+                return opened;
+            }
+        }
+        close(opened);
+        return existing;
+    }
+
+    /**
+     * Gives back a handle obtained from {@link #acquire(String)}.
+     */
+    public void release(final Handle handle) {
+        final boolean close;
+        synchronized (this) {
+            handle.m_references--;
+            close = handle.m_retired && handle.m_references == 0;
+            if (!close) {
+                evictIdle();
+            }
+        }
+        if (close) {
+            close(handle);
+        }
+    }
+
+    /**
+     * Closes all unused handles.
+     */
+    public void clear() {
+        synchronized (this) {
+            for (final Handle handle : m_handles.values()) {
+                retireLater(handle);
+            }
+            m_handles.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return m_handles.size();
+    }
+
+    private void retire(final Handle handle) {
+        m_handles.remove(handle.m_path);
+        retireLater(handle);
+    }
+
+    private void retireLater(final Handle handle) {
+        handle.m_retired = true;
+        if (handle.m_references == 0) {
+            close(handle);
+        }
+    }
+
+    private void evictIdle() {
+        final Iterator<Handle> it = m_handles.values().iterator();
+        int excess = m_handles.size() - m_maxCached;
+        while (excess > 0 && it.hasNext()) {
+            final Handle handle = it.next();
+            if (handle.m_references == 0) {
+                it.remove();
+                handle.m_retired = true;
+                close(handle);
+                excess--;
+            }
+        }
+    }
+
+    private static void close(final Handle handle) {
+        try {
+            handle.m_rrdDb.close();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close {}.", handle.m_path, e);
+        }
+    }
+
+    /**
+     * An open, read-only {@link RrdDb}.
+     */
+    public static class Handle {
+        private final String m_path;
+        private final RrdDb m_rrdDb;
+        private final long m_lastModified;
+        private int m_references = 1;
+        private boolean m_retired = false;
+
+        private Handle(final String path, final RrdDb rrdDb, final long lastModified) {
+            m_path = path;
+            m_rrdDb = rrdDb;
+            m_lastModified = lastModified;
+        }
+
+        public RrdDb getRrdDb() {
+            return m_rrdDb;
+        }
+    }
+}
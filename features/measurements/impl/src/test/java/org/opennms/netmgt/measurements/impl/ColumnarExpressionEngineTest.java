@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.ExpressionException;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ColumnarExpressionEngineTest {
+
+    /**
+     * Counts the requests that are handed to JEXL.
+     */
+    private static class CountingEngine implements ExpressionEngine {
+        private final ExpressionEngine m_delegate = new JEXLExpressionEngine();
+        private int m_count = 0;
+
+        @Override
+        public void applyExpressions(QueryRequest request, FetchResults results) throws ExpressionException {
+            m_count++;
+            m_delegate.applyExpressions(request, results);
+        }
+    }
+
+    private final CountingEngine m_jexl = new CountingEngine();
+
+    private final ExpressionEngine m_columnar = new ColumnarExpressionEngine(m_jexl);
+
+    @Test
+    public void matchesJexl() throws ExpressionException {
+        for (String expression : new String[] {
+                "x * 5 + 7",
+                "x * 8 / 1000000",
+                "-x - -1",
+                "(x + y) * (x - y)",
+                "100 - y",
+                "1 / x",
+                "x / 0",
+                "x % 3.5",
+                "y % x",
+                "x / 0.62137",
+                "x * -0.1 + 0.2",
+                "x * ratio",
+                "math:sin(0.1d) * x",
+                "timestamp / 125.0d",
+                "timestamp * 2 + 1",
+                "speed * x",
+                "speed / 0.62137",
+                "__inf * x",
+                "math:sin(x)",
+                "math:max(x, y) + math:pow(x, 2)",
+                "strictmath:sqrt(x * y)",
+                "math:abs(-speed) * 2",
+        }) {
+            final double[] expected = evaluate(new JEXLExpressionEngine(), expression);
+            final int fallbacks = m_jexl.m_count;
+            final double[] actual = evaluate(m_columnar, expression);
+            assertEquals("'" + expression + "' should not use JEXL", fallbacks, m_jexl.m_count);
+            assertArrayEquals(expression, expected, actual, 0.0);
+        }
+    }
+
+    @Test
+    public void fallsBackToJexl() throws ExpressionException {
+        for (String expression : new String[] {
+                // integer division
+                "speed / 2",
+                "timestamp % 7",
+                // comparisons and logic
+                "x > 2 ? 1 : 0",
+                "x div 2",
+                // string constants and dotted names
+                "x.y + 1",
+                // unknown variables and functions
+                "z + 1",
+                "math:round(x)",
+                // floats passed to functions
+                "math:sin(0.1)",
+                // octal literals
+                "010 * x",
+        }) {
+            final double[] expected = evaluate(new JEXLExpressionEngine(), expression);
+            final int fallbacks = m_jexl.m_count;
+            final double[] actual = evaluate(m_columnar, expression);
+            assertEquals("'" + expression + "' should use JEXL", fallbacks + 1, m_jexl.m_count);
+            assertArrayEquals(expression, expected, actual, 0.0);
+        }
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
+        evaluate(m_columnar, "/");
+    }
+
+    @Test
+    public void canReferenceEarlierExpressions() throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        request.setSources(Lists.newArrayList(source("x")));
+
+        final Expression bits = expression("bits", "x * 8");
+        bits.setTransient(true);
+        request.setExpressions(Lists.newArrayList(bits, expression("kbits", "bits / 1000"), expression("copy", "x")));
+
+        final FetchResults results = getResults();
+        m_columnar.applyExpressions(request, results);
+
+        assertEquals(0, m_jexl.m_count);
+        assertNull(results.getColumns().get("bits"));
+        assertEquals(0.8, results.getColumns().get("kbits")[100], 0.0001);
+
+        // results don't share their values with the sources
+        final double[] x = results.getColumns().get("x");
+        final double[] copy = results.getColumns().get("copy");
+        assertArrayEquals(x, copy, 0.0);
+        assertFalse(x == copy);
+    }
+
+    @Test
+    public void usesJexlWhenLabelsCollide() throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        request.setSources(Lists.newArrayList(source("x")));
+        request.setExpressions(Lists.newArrayList(expression("x", "x * 2")));
+
+        final FetchResults results = getResults();
+        final double[] x = results.getColumns().get("x");
+        m_columnar.applyExpressions(request, results);
+
+        assertEquals(1, m_jexl.m_count);
+        assertTrue(results.getColumns().get("x") != x);
+        assertEquals(2.0, results.getColumns().get("x")[1], 0.0);
+    }
+
+    @Test
+    public void doesNothingWithoutExpressions() throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        request.setSources(Lists.newArrayList(source("x")));
+        final FetchResults results = getResults();
+        final Map<String, double[]> columns = results.getColumns();
+
+        m_columnar.applyExpressions(request, results);
+
+        assertSame(columns, results.getColumns());
+        assertEquals(2, columns.size());
+    }
+
+    private static Source source(String label) {
+        final Source source = new Source();
+        source.setLabel(label);
+        return source;
+    }
+
+    private static Expression expression(String label, String expression) {
+        final Expression exp = new Expression();
+        exp.setLabel(label);
+        exp.setExpression(expression);
+        return exp;
+    }
+
+    private static FetchResults getResults() {
+        final int N = 1000;
+        final long timestamps[] = new long[N];
+        final double xValues[] = new double[N];
+        final double yValues[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = 1420070400000L + i * 300000L;
+            xValues[i] = i;
+            yValues[i] = i % 7 == 0 ? Double.NaN : Math.sqrt(i) - 5;
+        }
+        final Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        values.put("y", yValues);
+
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("ratio", 0.3f);
+        constants.put("name", "eth0");
+        return new FetchResults(timestamps, values, 300000L, constants);
+    }
+
+    private static double[] evaluate(ExpressionEngine engine, String expression) throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        final List<Source> sources = Lists.newArrayList(source("x"), source("y"));
+        request.setSources(sources);
+        request.setExpressions(Lists.newArrayList(expression("result", expression)));
+
+        final FetchResults results = getResults();
+        engine.applyExpressions(request, results);
+        return results.getColumns().get("result");
+    }
+}
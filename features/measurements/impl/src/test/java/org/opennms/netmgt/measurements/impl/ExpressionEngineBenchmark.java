@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.ExpressionException;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the {@link ColumnarExpressionEngine} with the row by row
+ * {@link JEXLExpressionEngine} on a dashboard-like query: a dozen sources
+ * and a few expressions that convert and combine them, over a varying
+ * number of rows.
+ *
+ * <p>This is not run as part of the unit tests. Run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.measurements.impl.ExpressionEngineBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionEngineBenchmark {
+
+    private static final int NUM_SOURCES = 12;
+
+    /**
+     * One day at 5 minutes, one month at 5 minutes, one year at 5 minutes.
+     */
+    @Param({"288", "8640", "105120"})
+    public int rows;
+
+    private final ExpressionEngine m_jexl = new JEXLExpressionEngine();
+
+    private final ExpressionEngine m_columnar = new ColumnarExpressionEngine();
+
+    private QueryRequest m_request;
+
+    private long[] m_timestamps;
+
+    private Map<String, double[]> m_columns;
+
+    @Setup
+    public void setUp() {
+        final List<Source> sources = Lists.newArrayList();
+        m_columns = Maps.newHashMap();
+        m_timestamps = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            m_timestamps[i] = 1420070400000L + i * 300000L;
+        }
+        for (int s = 0; s < NUM_SOURCES; s++) {
+            final Source source = new Source();
+            source.setLabel("ds" + s);
+            sources.add(source);
+
+            final double[] values = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = (s + 1) * 1000.0 + Math.sin(i / 100.0) * 500.0;
+            }
+            m_columns.put(source.getLabel(), values);
+        }
+
+        m_request = new QueryRequest();
+        m_request.setSources(sources);
+        m_request.setExpressions(Lists.newArrayList(
+                expression("inBits", "ds0 * 8", true),
+                expression("outBits", "ds1 * 8", true),
+                expression("inMbps", "inBits / 1000000", false),
+                expression("outMbps", "-outBits / 1000000", false),
+                expression("utilization", "(inBits + outBits) * 100 / (ds2 * 1000000)", false),
+                expression("total", "ds3 + ds4 + ds5 + ds6 + ds7 + ds8 + ds9 + ds10 + ds11", false),
+                expression("rms", "math:sqrt((ds3 * ds3 + ds4 * ds4) / 2)", false)));
+    }
+
+    private static Expression expression(String label, String expression, boolean isTransient) {
+        final Expression e = new Expression();
+        e.setLabel(label);
+        e.setExpression(expression);
+        e.setTransient(isTransient);
+        return e;
+    }
+
+    private FetchResults getResults() {
+        // The engines add their results to the columns
+        return new FetchResults(m_timestamps, Maps.newHashMap(m_columns), 300000L, Maps.<String, Object>newHashMap());
+    }
+
+    @Benchmark
+    public FetchResults jexl() throws ExpressionException {
+        final FetchResults results = getResults();
+        m_jexl.applyExpressions(m_request, results);
+        return results;
+    }
+
+    @Benchmark
+    public FetchResults columnar() throws ExpressionException {
+        final FetchResults results = getResults();
+        m_columnar.applyExpressions(m_request, results);
+        return results;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ExpressionEngineBenchmark.class.getSimpleName()).build()).run();
+    }
+}
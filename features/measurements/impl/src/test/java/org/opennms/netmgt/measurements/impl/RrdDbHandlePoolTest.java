@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdDbHandlePoolTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void reusesHandlesForUnmodifiedFiles() throws Exception {
+        final RrdDbHandlePool pool = new RrdDbHandlePool(10);
+        final String path = createRrd("a.jrb", 60000);
+
+        final RrdDbHandlePool.Handle first = pool.acquire(path);
+        pool.release(first);
+        final RrdDbHandlePool.Handle second = pool.acquire(path);
+        assertSame(first, second);
+        pool.release(second);
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void reopensModifiedFiles() throws Exception {
+        final RrdDbHandlePool pool = new RrdDbHandlePool(10);
+        final String path = createRrd("a.jrb", 60000);
+
+        final RrdDbHandlePool.Handle first = pool.acquire(path);
+        pool.release(first);
+        assertTrue(new File(path).setLastModified(System.currentTimeMillis() - 30000));
+        final RrdDbHandlePool.Handle second = pool.acquire(path);
+        assertNotSame(first, second);
+        assertTrue(first.getRrdDb().isClosed());
+        pool.release(second);
+    }
+
+    @Test
+    public void doesNotCacheRecentlyModifiedFiles() throws Exception {
+        final RrdDbHandlePool pool = new RrdDbHandlePool(10);
+        final String path = createRrd("a.jrb", 0);
+
+        final RrdDbHandlePool.Handle handle = pool.acquire(path);
+        assertEquals(0, pool.size());
+        pool.release(handle);
+        assertTrue(handle.getRrdDb().isClosed());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedHandles() throws Exception {
+        final RrdDbHandlePool pool = new RrdDbHandlePool(2);
+        final String a = createRrd("a.jrb", 60000);
+        final String b = createRrd("b.jrb", 60000);
+        final String c = createRrd("c.jrb", 60000);
+
+        final RrdDbHandlePool.Handle handleA = pool.acquire(a);
+        pool.release(handleA);
+        pool.release(pool.acquire(b));
+        pool.release(pool.acquire(c));
+
+        assertEquals(2, pool.size());
+        assertTrue(handleA.getRrdDb().isClosed());
+    }
+
+    private String createRrd(final String name, final long ageInMs) throws Exception {
+        final File file = new File(m_tempFolder.getRoot(), name);
+        final RrdDef rrdDef = new RrdDef(file.getAbsolutePath(), 300);
+        rrdDef.addDatasource("x", "GAUGE", 600, Double.NaN, Double.NaN);
+        rrdDef.addArchive("AVERAGE", 0.5, 1, 100);
+        new RrdDb(rrdDef).close();
+        assertTrue(file.setLastModified(System.currentTimeMillis() - ageInMs));
+        return file.getAbsolutePath();
+    }
+}
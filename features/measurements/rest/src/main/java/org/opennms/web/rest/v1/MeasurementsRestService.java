@@ -38,7 +38,7 @@ import org.opennms.netmgt.measurements.api.ExpressionEngine;
 import org.opennms.netmgt.measurements.api.ExpressionException;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.MeasurementFetchStrategy;
-import org.opennms.netmgt.measurements.impl.JEXLExpressionEngine;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionEngine;
 import org.opennms.netmgt.measurements.model.Expression;
 import org.opennms.netmgt.measurements.model.QueryRequest;
 import org.opennms.netmgt.measurements.model.QueryResponse;
@@ -92,7 +92,7 @@ public class MeasurementsRestService {
     @Autowired
     private MeasurementFetchStrategy m_fetchStrategy;
 
-    private final ExpressionEngine expressionEngine = new JEXLExpressionEngine();
+    private final ExpressionEngine expressionEngine = new ColumnarExpressionEngine();
 
     /**
      * Retrieves the measurements for a single attribute.
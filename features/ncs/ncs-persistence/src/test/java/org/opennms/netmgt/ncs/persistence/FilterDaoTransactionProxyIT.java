@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.ncs.persistence;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.spring.BeanUtils;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.dao.DatabasePopulator;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventIpcManager;
+import org.opennms.netmgt.filter.CachingFilterDao;
+import org.opennms.netmgt.filter.JdbcFilterDao;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.ContextHierarchy;
+
+/**
+ * The <code>&lt;tx:annotation-driven/&gt;</code> in this module's
+ * component-dao.xml wraps the transactional filter DAO in a JDK proxy when
+ * it shares the DAO context, as it does in the full assembly.  Check that
+ * eventd's context still subscribes the DAO to the events which invalidate
+ * its cached rule results.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextHierarchy({
+    @ContextConfiguration(locations={
+            "classpath:/META-INF/opennms/applicationContext-soa.xml",
+            "classpath:/META-INF/opennms/applicationContext-dao.xml",
+            "classpath:/META-INF/opennms/applicationContext-databasePopulator.xml",
+            "classpath:/META-INF/opennms/applicationContext-setupIpLike-enabled.xml",
+            "classpath*:/META-INF/opennms/component-dao.xml",
+            "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+            "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml"
+    }),
+    @ContextConfiguration(locations={
+            "classpath:/META-INF/opennms/applicationContext-eventDaemon.xml"
+    })
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase
+public class FilterDaoTransactionProxyIT implements InitializingBean {
+    private static final long SLEEP_TIME = 50;
+
+    @Autowired
+    private FilterDao m_filterDao;
+
+    @Autowired
+    private EventIpcManager m_eventIpcManager;
+
+    @Autowired
+    private DatabasePopulator m_databasePopulator;
+
+    @Autowired
+    private DataSource m_dataSource;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        BeanUtils.assertAutowiring(this);
+    }
+
+    @Before
+    public void setUp() {
+        m_databasePopulator.populateDatabase();
+        m_filterDao.flushActiveIpAddressListCache();
+    }
+
+    @After
+    public void tearDown() {
+        m_databasePopulator.resetDatabase();
+    }
+
+    @Test
+    public void testProxiedFilterDaoIsSubscribed() {
+        assertTrue("the filter DAO should be wrapped in a proxy", AopUtils.isAopProxy(m_filterDao));
+        assertFalse("the proxy should not be a JdbcFilterDao", m_filterDao instanceof JdbcFilterDao);
+        assertTrue("the proxy should be a caching filter DAO", m_filterDao instanceof CachingFilterDao);
+        assertSame(m_eventIpcManager, ((CachingFilterDao)m_filterDao).getEventSubscriptionService());
+    }
+
+    @Test(timeout=30000)
+    public void testUnmanagingAnInterfaceInvalidatesCachedRule() throws Exception {
+        final String rule = "ipaddr == '192.168.1.1' & isManaged == 'M'";
+        assertTrue(m_filterDao.isValid("192.168.1.1", rule));
+
+        // what the web UI does when an interface is unmanaged
+        new JdbcTemplate(m_dataSource).update("UPDATE ipInterface SET isManaged = 'U' WHERE ipAddr = '192.168.1.1'");
+        assertTrue("the cached result should still be used", m_filterDao.isValid("192.168.1.1", rule));
+
+        m_eventIpcManager.broadcastNow(new EventBuilder(EventConstants.RESTART_SCM_EVENT_UEI, "web ui").getEvent());
+
+        // Listeners are called on their own thread
+        while (m_filterDao.isValid("192.168.1.1", rule)) {
+            Thread.sleep(SLEEP_TIME);
+        }
+        assertFalse(m_filterDao.isValid("192.168.1.1", rule));
+    }
+}
@@ -29,7 +29,6 @@
 package org.opennms.netmgt.jasper.helper;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Properties;
@@ -37,6 +36,7 @@ import java.util.Properties;
 import net.sf.jasperreports.engine.util.JRProperties;
 
 import org.opennms.core.utils.RrdLabelUtils;
+import org.opennms.netmgt.rrd.RrdPropertiesCache;
 
 public class JRobinDirectoryUtil {
 
@@ -121,12 +121,8 @@ public class JRobinDirectoryUtil {
     }
 
     private boolean checkDsPropertyFileFor(String ifOctetsDS, String directory) throws IOException {
-        File f = new File(directory, "ds.properties");
-        if (f.exists()) {
-            Properties prop = new Properties();
-            FileInputStream fis = new FileInputStream(f);
-            prop.load(fis);
-            fis.close();
+        Properties prop = RrdPropertiesCache.getInstance().findProperties(new File(directory, "ds.properties"));
+        if (prop != null) {
             return prop.get(ifOctetsDS) != null ? true : false;
         } else {
             return false;
@@ -194,13 +190,8 @@ public class JRobinDirectoryUtil {
     }
 
     private void appendStoreByGroup(StringBuffer directory) throws FileNotFoundException, IOException {
-        File f = new File(directory.toString() + "" + File.separator + "ds.properties");
-        if (f.exists()) {
-            Properties prop = new Properties();
-            FileInputStream fis = new FileInputStream(f);
-            prop.load(fis);
-            fis.close();
-
+        Properties prop = RrdPropertiesCache.getInstance().findProperties(new File(directory.toString(), "ds.properties"));
+        if (prop != null) {
             if (prop.get("ifHCInOctets") != null) {
                 directory.append(File.separator).append((String) prop.get("ifHCInOctets")).append(getExtension());
             } else {
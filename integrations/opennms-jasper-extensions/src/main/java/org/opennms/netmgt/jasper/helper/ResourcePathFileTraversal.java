@@ -29,13 +29,14 @@
 package org.opennms.netmgt.jasper.helper;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import org.opennms.netmgt.rrd.RrdPropertiesCache;
+
 public class ResourcePathFileTraversal{
     
     private final File m_file;
@@ -112,20 +113,8 @@ public class ResourcePathFileTraversal{
     }
 
     private boolean validateDataSource(File f) throws IOException {
-        FilenameFilter dsFilenameFilter = new FilenameFilter() {
-
-            @Override
-            public boolean accept(File dir, String name) {
-                return name.equals("ds.properties");
-            }
-        };
-            
-        if(f.list(dsFilenameFilter).length > 0) {
-            Properties prop = new Properties();
-            FileInputStream fis = new FileInputStream(f.getAbsolutePath() + "/ds.properties");
-            prop.load(fis);
-            fis.close();
-            
+        Properties prop = RrdPropertiesCache.getInstance().findProperties(new File(f, "ds.properties"));
+        if(prop != null) {
             for(String datasource : m_dataSourceFilterList) {
                 if(prop.get(datasource) == null) {
                     return false;
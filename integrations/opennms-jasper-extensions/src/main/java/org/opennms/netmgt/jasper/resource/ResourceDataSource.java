@@ -29,9 +29,6 @@
 package org.opennms.netmgt.jasper.resource;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -43,6 +40,7 @@ import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.JRField;
 
 import org.opennms.netmgt.jasper.helper.ResourcePathFileTraversal;
+import org.opennms.netmgt.rrd.RrdPropertiesCache;
 
 public class ResourceDataSource implements JRDataSource {
     
@@ -68,26 +66,12 @@ public class ResourceDataSource implements JRDataSource {
         
         private String getStringsPropertyValue(String fieldName, String curPath) {
             File curDir = new File(curPath);
-            FilenameFilter filter = new FilenameFilter() {
-
-                @Override
-                public boolean accept(File f, String name) {
-                    return name.matches("strings.properties");
-                }
-                
-            };
-            
-            File[] strFiles = curDir.listFiles(filter);
-            if(curDir.exists() && strFiles.length == 1) {
-                File strPropFile = strFiles[0];
-                Properties props = new Properties();
+            if(curDir.exists()) {
                 try {
-                    FileInputStream fis = new FileInputStream(strPropFile);
-                    props.load(fis);
-                    return props.getProperty(fieldName);
-                } catch (FileNotFoundException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
+                    Properties props = RrdPropertiesCache.getInstance().findProperties(new File(curDir, "strings.properties"));
+                    if(props != null) {
+                        return props.getProperty(fieldName);
+                    }
                 } catch (IOException e) {
                     // TODO Auto-generated catch block
                     e.printStackTrace();
@@ -100,38 +84,22 @@ public class ResourceDataSource implements JRDataSource {
 
         private String getFilenameForField(String dsName, String curPath) {
             File curDir = new File(curPath);
-            FilenameFilter filter = new FilenameFilter() {
-
-                @Override
-                public boolean accept(File file, String name) {
-                    return name.matches("ds.properties");
+            if(curDir.exists()) {
+                try {
+                    Properties props = RrdPropertiesCache.getInstance().findProperties(new File(curDir, "ds.properties"));
+                    if(props != null) {
+                        return curDir.getAbsolutePath() + File.separator + props.getProperty(dsName) + getFileExtension();
+                    }
+                } catch (IOException e) {
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
+                    return curDir.getAbsolutePath() + File.separator + getFileExtension();
                 }
-            };
-            if(curDir.exists() && curDir.list(filter).length > 0) {
-                return getFilenameFromDSfile(new File(curDir.getAbsoluteFile() + "" + File.separator + "ds.properties"), dsName);
-            }else {
-                return curDir.getAbsolutePath() + File.separator + dsName + getFileExtension();
             }
+            return curDir.getAbsolutePath() + File.separator + dsName + getFileExtension();
             
         }
 
-        private String getFilenameFromDSfile(File file, String dsName) {
-            Properties props = new Properties();
-            String filename = "";
-            try {
-                FileInputStream fis = new FileInputStream(file);
-                props.load(fis);
-                filename = props.getProperty(dsName);
-            } catch (FileNotFoundException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
-            return file.getParent() + File.separator + filename + "" + getFileExtension();
-        }
-
         private String getFileExtension() {
             String jniStrategy = System.getProperty("org.opennms.rrd.strategyClass");
             String rrdFileExtension = System.getProperty("org.opennms.rrd.fileExtension");
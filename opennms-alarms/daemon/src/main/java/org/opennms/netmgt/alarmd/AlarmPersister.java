@@ -44,7 +44,8 @@ public interface AlarmPersister {
      * <p>persist</p>
      *
      * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
-     * @return 
+     * @return the new or reduced alarm, or null if the event is not an alarm
+     *         or its reduction has been deferred
      */
     @Transactional
     public abstract OnmsAlarm persist(Event event);
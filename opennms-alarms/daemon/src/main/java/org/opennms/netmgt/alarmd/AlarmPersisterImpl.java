@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.alarmd;
 
+import javax.sql.DataSource;
+
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.model.OnmsAlarm;
@@ -37,6 +39,12 @@ import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.UpdateField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 
 /**
@@ -45,11 +53,62 @@ import org.springframework.util.Assert;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
     private AlarmDao m_alarmDao;
     private EventDao m_eventDao;
+    private DataSource m_dataSource;
+    private PlatformTransactionManager m_transactionManager;
+
+    private int m_reductionKeyCacheSize = 10000;
+    private long m_reductionKeyCacheTtl = 300000;
+    private long m_reductionWriteBehindMillis = 0;
+
+    private ReductionKeyCache m_reductionKeyCache = new ReductionKeyCache(m_reductionKeyCacheSize, m_reductionKeyCacheTtl);
+    private AlarmReductionCoalescer m_coalescer;
+
+    /**
+     * <p>afterPropertiesSet</p>
+     */
+    @Override
+    public void afterPropertiesSet() {
+        m_reductionKeyCache = new ReductionKeyCache(m_reductionKeyCacheSize, m_reductionKeyCacheTtl);
+
+        // reductions go through Hibernate unless the write-behind is turned on
+        if (m_reductionWriteBehindMillis > 0) {
+            Assert.state(m_dataSource != null, "property dataSource must be set when reductionWriteBehindMillis is set");
+            Assert.state(m_transactionManager != null, "property transactionManager must be set when reductionWriteBehindMillis is set");
+
+            final TransactionTemplate transactionTemplate = new TransactionTemplate(m_transactionManager);
+            final AlarmReductionCoalescer.Replayer replayer = new AlarmReductionCoalescer.Replayer() {
+                @Override
+                public void replay(final Event event) {
+                    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                        @Override
+                        protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                            addOrReduceEventAsAlarm(event, false);
+                        }
+                    });
+                }
+            };
+            m_coalescer = new AlarmReductionCoalescer(m_dataSource, m_reductionWriteBehindMillis, m_reductionKeyCache, replayer);
+            m_coalescer.start();
+        }
+    }
+
+    /**
+     * <p>destroy</p>
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (m_coalescer != null) {
+            m_coalescer.stop();
+            m_coalescer = null;
+        }
+    }
 
     /** {@inheritDoc} 
      * @return */
@@ -60,22 +119,49 @@ public class AlarmPersisterImpl implements AlarmPersister {
         }
         LOG.debug("process: {}; nodeid: {}; ipaddr: {}; serviceid: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService());
 
-        return addOrReduceEventAsAlarm(event);
+        return addOrReduceEventAsAlarm(event, true);
     }
 
-    private OnmsAlarm addOrReduceEventAsAlarm(Event event) {
+    /**
+     * @param direct whether a reduction onto a cached alarm may be deferred
+     *        to the write-behind; false when replaying such reductions
+     */
+    private OnmsAlarm addOrReduceEventAsAlarm(Event event, boolean direct) {
         //TODO: Understand why we use Assert
         Assert.notNull(event, "Incoming event was null, aborting"); 
         Assert.isTrue(event.getDbid() > 0, "Incoming event has an illegal dbid (" + event.getDbid() + "), aborting");
-        
-        
+
+        String reductionKey = event.getAlarmData().getReductionKey();
+        Integer cachedAlarmId = m_reductionKeyCache.get(reductionKey);
+
+        if (m_coalescer != null && direct && cachedAlarmId != null && !event.getAlarmData().hasUpdateFields()) {
+            LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} cached, deferring reduction onto alarm {}", reductionKey, cachedAlarmId);
+            m_coalescer.add(cachedAlarmId, reductionKey, event);
+            return null;
+        }
+
+        if (m_coalescer != null) {
+            // make sure the deferred reductions land before this one reads the alarm
+            m_coalescer.flush(reductionKey);
+        }
+
         //for some reason when we get here the event from the DB doesn't have the LogMsg (in my tests anyway)
         OnmsEvent e = m_eventDao.get(event.getDbid());
         Assert.notNull(e, "Event was deleted before we could retrieve it and create an alarm.");
-    
-        String reductionKey = event.getAlarmData().getReductionKey();
-        LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
-        OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
+
+        OnmsAlarm alarm = null;
+        if (cachedAlarmId != null) {
+            alarm = m_alarmDao.get(cachedAlarmId);
+            if (alarm == null || !reductionKey.equals(alarm.getReductionKey())) {
+                LOG.debug("addOrReduceEventAsAlarm: cached alarm {} for reduction key {} is gone", cachedAlarmId, reductionKey);
+                m_reductionKeyCache.remove(reductionKey);
+                alarm = null;
+            }
+        }
+        if (alarm == null) {
+            LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
+            alarm = m_alarmDao.findByReductionKey(reductionKey);
+        }
     
         if (alarm == null) {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} not found, instantiating new alarm", reductionKey);
@@ -84,6 +170,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
             //FIXME: this should be a cascaded save
             m_alarmDao.save(alarm);
             m_eventDao.saveOrUpdate(e);
+            m_reductionKeyCache.put(reductionKey, alarm.getId());
         } else {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found, reducing event to existing alarm: {}", reductionKey, alarm.getIpAddr());
             reduceEvent(e, alarm, event);
@@ -93,6 +180,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
             if (event.getAlarmData().isAutoClean()) {
                 m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), e);
             }
+            m_reductionKeyCache.put(reductionKey, alarm.getId());
         }
         
         return alarm;
@@ -254,4 +342,59 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return m_eventDao;
     }
 
+    /**
+     * <p>setDataSource</p>
+     *
+     * @param dataSource the data source used to write coalesced reductions
+     */
+    public void setDataSource(DataSource dataSource) {
+        m_dataSource = dataSource;
+    }
+
+    /**
+     * <p>setTransactionManager</p>
+     *
+     * @param transactionManager used when coalesced reductions have to be persisted again
+     */
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        m_transactionManager = transactionManager;
+    }
+
+    /**
+     * The number of reduction keys whose alarm ids are remembered; 0 turns
+     * the cache off.
+     *
+     * @param reductionKeyCacheSize a int.
+     */
+    public void setReductionKeyCacheSize(int reductionKeyCacheSize) {
+        m_reductionKeyCacheSize = reductionKeyCacheSize;
+    }
+
+    /**
+     * How long, in milliseconds, a cached reduction key is trusted before the
+     * alarm is looked up by key again; 0 means until it is evicted.
+     *
+     * @param reductionKeyCacheTtl a long.
+     */
+    public void setReductionKeyCacheTtl(long reductionKeyCacheTtl) {
+        m_reductionKeyCacheTtl = reductionKeyCacheTtl;
+    }
+
+    /**
+     * When greater than 0, reductions onto a cached alarm that carry no
+     * update fields are gathered for this many milliseconds and written as a
+     * single update per alarm. {@link #persist(Event)} returns null for
+     * those events, so they are not passed on to northbound interfaces one
+     * by one. Defaults to 0, which reduces every event through the DAOs in
+     * the caller's transaction.
+     *
+     * @param reductionWriteBehindMillis a long.
+     */
+    public void setReductionWriteBehindMillis(long reductionWriteBehindMillis) {
+        m_reductionWriteBehindMillis = reductionWriteBehindMillis;
+    }
+
+    public long getReductionWriteBehindMillis() {
+        return m_reductionWriteBehindMillis;
+    }
 }
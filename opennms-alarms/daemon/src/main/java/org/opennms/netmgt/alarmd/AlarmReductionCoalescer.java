@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind for the common case of an event reducing onto an alarm that
+ * already exists: instead of loading and saving the alarm and the event for
+ * every reduction, the counter increment and the latest event details are
+ * gathered per alarm and written every few hundred milliseconds, as one
+ * <code>UPDATE</code> of the alarm plus one batch linking the events to it.
+ *
+ * The last event details are copied from the row eventd persisted, so the
+ * alarm ends up with the same log message and parameters as when the
+ * reduction goes through Hibernate.
+ *
+ * If the alarm was deleted in the meantime, the gathered events are handed
+ * back to {@link AlarmPersisterImpl} to be persisted one by one, which
+ * creates a new alarm just as it would have done without the write-behind.
+ *
+ * @see AlarmPersisterImpl#setReductionWriteBehindMillis(long)
+ */
+final class AlarmReductionCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmReductionCoalescer.class);
+
+    private static final String UPDATE_ALARM = "UPDATE alarms SET counter = alarms.counter + ?, lastEventId = events.eventId, lastEventTime = events.eventTime, logMsg = events.eventLogMsg, eventParms = events.eventParms"
+            + " FROM events WHERE alarms.alarmId = ? AND alarms.reductionKey = ? AND events.eventId = ?";
+
+    private static final String LINK_EVENT = "UPDATE events SET alarmId = ? WHERE eventId = ?";
+
+    private static final String DELETE_PREVIOUS_EVENTS = "DELETE FROM events WHERE alarmId = ? AND eventId != ?";
+
+    /**
+     * Persists events one at a time, for when the alarm they reduced onto
+     * has gone.
+     */
+    interface Replayer {
+        void replay(Event event);
+    }
+
+    private static final class PendingReduction {
+        private final Integer m_alarmId;
+        private final String m_reductionKey;
+        private final List<Event> m_events = new ArrayList<Event>();
+        private boolean m_autoClean = false;
+
+        PendingReduction(final Integer alarmId, final String reductionKey) {
+            m_alarmId = alarmId;
+            m_reductionKey = reductionKey;
+        }
+
+        void add(final Event event) {
+            m_events.add(event);
+            m_autoClean |= event.getAlarmData().isAutoClean();
+        }
+
+        Event getLastEvent() {
+            return m_events.get(m_events.size() - 1);
+        }
+    }
+
+    private final DataSource m_dataSource;
+    private final long m_windowMillis;
+    private final ReductionKeyCache m_reductionKeyCache;
+    private final Replayer m_replayer;
+
+    /**
+     * Serializes writes, so that flushing one alarm on demand cannot
+     * overtake a write of the same alarm in progress on the flusher thread.
+     */
+    private final ReentrantLock m_writeLock = new ReentrantLock();
+
+    private final Map<String, PendingReduction> m_pending = new LinkedHashMap<String, PendingReduction>();
+
+    private volatile ScheduledExecutorService m_flusher;
+
+    AlarmReductionCoalescer(final DataSource dataSource, final long windowMillis, final ReductionKeyCache reductionKeyCache, final Replayer replayer) {
+        m_dataSource = dataSource;
+        m_windowMillis = windowMillis;
+        m_reductionKeyCache = reductionKeyCache;
+        m_replayer = replayer;
+    }
+
+    synchronized void start() {
+        if (m_flusher != null) {
+            return;
+        }
+        m_flusher = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("AlarmReductionCoalescer", 1));
+        m_flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushAll();
+                } catch (final Throwable t) {
+                    LOG.warn("Unexpected error writing coalesced alarm reductions.", t);
+                }
+            }
+        }, m_windowMillis, m_windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() throws InterruptedException {
+        final ScheduledExecutorService flusher;
+        synchronized (this) {
+            flusher = m_flusher;
+            m_flusher = null;
+        }
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(m_windowMillis + 10000, TimeUnit.MILLISECONDS);
+        }
+        flushAll();
+    }
+
+    /**
+     * Records a reduction of <code>event</code> onto the alarm, to be
+     * written with the next flush.
+     */
+    void add(final Integer alarmId, final String reductionKey, final Event event) {
+        synchronized (m_pending) {
+            PendingReduction pending = m_pending.get(reductionKey);
+            if (pending == null || !pending.m_alarmId.equals(alarmId)) {
+                if (pending != null) {
+                    // the key moved to a new alarm; keep the old alarm's reductions apart
+                    flushLater(pending);
+                }
+                pending = new PendingReduction(alarmId, reductionKey);
+                m_pending.put(reductionKey, pending);
+            }
+            pending.add(event);
+        }
+    }
+
+    private void flushLater(final PendingReduction pending) {
+        final ScheduledExecutorService flusher = m_flusher;
+        if (flusher == null) {
+            write(pending);
+            return;
+        }
+        flusher.execute(new Runnable() {
+            @Override
+            public void run() {
+                m_writeLock.lock();
+                try {
+                    write(pending);
+                } finally {
+                    m_writeLock.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of alarms with unwritten reductions
+     */
+    int getPendingCount() {
+        synchronized (m_pending) {
+            return m_pending.size();
+        }
+    }
+
+    /**
+     * Writes any pending reductions for the given reduction key now, before
+     * its alarm is read and changed some other way.
+     */
+    void flush(final String reductionKey) {
+        m_writeLock.lock();
+        try {
+            final PendingReduction pending;
+            synchronized (m_pending) {
+                pending = m_pending.remove(reductionKey);
+            }
+            if (pending != null) {
+                write(pending);
+            }
+        } finally {
+            m_writeLock.unlock();
+        }
+    }
+
+    void flushAll() {
+        m_writeLock.lock();
+        try {
+            final List<PendingReduction> pending;
+            synchronized (m_pending) {
+                if (m_pending.isEmpty()) {
+                    return;
+                }
+                pending = new ArrayList<PendingReduction>(m_pending.values());
+                m_pending.clear();
+            }
+            LOG.debug("flushAll: writing coalesced reductions for {} alarms", pending.size());
+            for (final PendingReduction reduction : pending) {
+                write(reduction);
+            }
+        } finally {
+            m_writeLock.unlock();
+        }
+    }
+
+    private void write(final PendingReduction pending) {
+        final boolean written;
+        try {
+            written = update(pending);
+        } catch (final SQLException e) {
+            LOG.warn("Unable to write {} reductions for alarm {}; persisting them one at a time.", pending.m_events.size(), pending.m_alarmId, e);
+            replay(pending);
+            return;
+        }
+
+        if (!written) {
+            LOG.debug("write: alarm {} for reduction key {} has been deleted; persisting its {} events again", pending.m_alarmId, pending.m_reductionKey, pending.m_events.size());
+            replay(pending);
+        }
+    }
+
+    private void replay(final PendingReduction pending) {
+        m_reductionKeyCache.removeAlarm(pending.m_alarmId);
+        for (final Event event : pending.m_events) {
+            try {
+                m_replayer.replay(event);
+            } catch (final Throwable t) {
+                LOG.warn("Unable to persist event {} as an alarm.", event.getDbid(), t);
+            }
+        }
+    }
+
+    /**
+     * @return false if the alarm no longer exists or no longer has the
+     *         reduction key, in which case nothing was written
+     */
+    private boolean update(final PendingReduction pending) throws SQLException {
+        final Event last = pending.getLastEvent();
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final Connection connection = m_dataSource.getConnection();
+            d.watch(connection);
+            connection.setAutoCommit(false);
+
+            try {
+                final PreparedStatement alarmStmt = connection.prepareStatement(UPDATE_ALARM);
+                d.watch(alarmStmt);
+                alarmStmt.setInt(1, pending.m_events.size());
+                alarmStmt.setInt(2, pending.m_alarmId);
+                alarmStmt.setString(3, pending.m_reductionKey);
+                alarmStmt.setInt(4, last.getDbid());
+
+                if (alarmStmt.executeUpdate() == 0) {
+                    connection.rollback();
+                    return false;
+                }
+
+                final PreparedStatement linkStmt = connection.prepareStatement(LINK_EVENT);
+                d.watch(linkStmt);
+                for (final Event event : pending.m_events) {
+                    linkStmt.setInt(1, pending.m_alarmId);
+                    linkStmt.setInt(2, event.getDbid());
+                    linkStmt.addBatch();
+                }
+                linkStmt.executeBatch();
+
+                if (pending.m_autoClean) {
+                    final PreparedStatement deleteStmt = connection.prepareStatement(DELETE_PREVIOUS_EVENTS);
+                    d.watch(deleteStmt);
+                    deleteStmt.setInt(1, pending.m_alarmId);
+                    deleteStmt.setInt(2, last.getDbid());
+                    deleteStmt.executeUpdate();
+                }
+
+                connection.commit();
+                return true;
+            } catch (final SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (final Throwable e2) {
+                    LOG.warn("Rollback of transaction failed.", e2);
+                }
+                throw e;
+            }
+        } finally {
+            d.cleanUp();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used map of reduction keys to alarm ids, so that
+ * reducing an event onto an existing alarm can look the alarm up by primary
+ * key rather than querying on the reduction key every time.
+ *
+ * Alarms can be deleted or changed behind alarmd's back by vacuumd and the
+ * web UI, so an id from this cache is only a hint: callers must check that
+ * the alarm still exists and still has the key, and {@link #remove} it when
+ * it does not. Entries also expire after a configurable time to live.
+ *
+ * @see AlarmPersisterImpl
+ */
+final class ReductionKeyCache {
+
+    private static final class Entry {
+        final Integer m_alarmId;
+        final long m_expires;
+
+        Entry(final Integer alarmId, final long expires) {
+            m_alarmId = alarmId;
+            m_expires = expires;
+        }
+    }
+
+    private final int m_maxSize;
+    private final long m_ttlMillis;
+    private final LinkedHashMap<String, Entry> m_entries;
+
+    /**
+     * @param maxSize the largest number of keys to remember; 0 disables the cache
+     * @param ttlMillis how long an entry is trusted for; 0 means forever
+     */
+    ReductionKeyCache(final int maxSize, final long ttlMillis) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must not be negative: " + ttlMillis);
+        }
+        m_maxSize = maxSize;
+        m_ttlMillis = ttlMillis;
+        m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > m_maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached alarm id for the key, or null if there is none or it has expired
+     */
+    synchronized Integer get(final String reductionKey) {
+        final Entry entry = m_entries.get(reductionKey);
+        if (entry == null) {
+            return null;
+        }
+        if (m_ttlMillis > 0 && System.currentTimeMillis() >= entry.m_expires) {
+            m_entries.remove(reductionKey);
+            return null;
+        }
+        return entry.m_alarmId;
+    }
+
+    synchronized void put(final String reductionKey, final Integer alarmId) {
+        if (m_maxSize == 0 || reductionKey == null || alarmId == null) {
+            return;
+        }
+        m_entries.put(reductionKey, new Entry(alarmId, m_ttlMillis > 0 ? System.currentTimeMillis() + m_ttlMillis : Long.MAX_VALUE));
+    }
+
+    synchronized void remove(final String reductionKey) {
+        m_entries.remove(reductionKey);
+    }
+
+    /**
+     * Forgets every key that maps to the given alarm.
+     */
+    synchronized void removeAlarm(final Integer alarmId) {
+        for (final Iterator<Entry> it = m_entries.values().iterator(); it.hasNext(); ) {
+            if (it.next().m_alarmId.equals(alarmId)) {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        m_entries.clear();
+    }
+
+    synchronized int size() {
+        return m_entries.size();
+    }
+}
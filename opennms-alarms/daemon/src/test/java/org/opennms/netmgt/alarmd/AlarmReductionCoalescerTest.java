@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Tests {@link AlarmReductionCoalescer} against a fake database which
+ * records the committed alarm updates and event links.
+ */
+public class AlarmReductionCoalescerTest {
+    private final FakeDatabase m_database = new FakeDatabase();
+
+    private final ReductionKeyCache m_cache = new ReductionKeyCache(100, 0);
+
+    private final List<Integer> m_replayed = new ArrayList<Integer>();
+
+    private AlarmReductionCoalescer m_coalescer;
+
+    @Before
+    public void setUp() {
+        // the flusher thread is not started, so nothing is written until a flush
+        m_coalescer = new AlarmReductionCoalescer(m_database.getDataSource(), 60000, m_cache, new AlarmReductionCoalescer.Replayer() {
+            @Override
+            public void replay(final Event event) {
+                m_replayed.add(event.getDbid());
+            }
+        });
+    }
+
+    private static Event createEvent(final int dbid, final String reductionKey, final boolean autoClean) {
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setAlarmType(1);
+        alarmData.setReductionKey(reductionKey);
+        alarmData.setAutoClean(autoClean);
+
+        final Event event = new Event();
+        event.setUei("uei.opennms.org/test");
+        event.setDbid(dbid);
+        event.setTime(new Date());
+        event.setAlarmData(alarmData);
+        return event;
+    }
+
+    private void add(final int alarmId, final int dbid, final String reductionKey) {
+        m_coalescer.add(alarmId, reductionKey, createEvent(dbid, reductionKey, false));
+    }
+
+    @Test
+    public void testReductionsAreCoalescedPerAlarm() {
+        add(1, 101, "a");
+        add(2, 102, "b");
+        add(1, 103, "a");
+        add(1, 104, "a");
+        assertEquals(2, m_coalescer.getPendingCount());
+        assertTrue(m_database.getAlarmUpdates().isEmpty());
+
+        m_coalescer.flushAll();
+
+        assertEquals(0, m_coalescer.getPendingCount());
+        // one update per alarm, adding the number of events and pointing at the last one
+        assertEquals(Arrays.asList("alarm 1 key a +3 last 104", "alarm 2 key b +1 last 102"), m_database.getAlarmUpdates());
+        assertEquals(Arrays.asList("101->1", "103->1", "104->1", "102->2"), m_database.getEventLinks());
+        assertEquals(2, m_database.getCommits());
+        assertTrue(m_database.getDeletes().isEmpty());
+        assertTrue(m_replayed.isEmpty());
+    }
+
+    @Test
+    public void testAutoCleanDeletesPreviousEvents() {
+        add(1, 101, "a");
+        m_coalescer.add(1, "a", createEvent(102, "a", true));
+        m_coalescer.flushAll();
+
+        assertEquals(Arrays.asList("alarm 1 keep 102"), m_database.getDeletes());
+    }
+
+    @Test
+    public void testFlushOrdering() {
+        add(1, 101, "a");
+        add(2, 102, "b");
+        add(3, 103, "c");
+
+        // flushing one key writes just that key
+        m_coalescer.flush("b");
+        assertEquals(Arrays.asList("alarm 2 key b +1 last 102"), m_database.getAlarmUpdates());
+        assertEquals(2, m_coalescer.getPendingCount());
+
+        // the key moving to a new alarm writes the old alarm's reductions first
+        add(4, 104, "a");
+        assertEquals(Arrays.asList("alarm 2 key b +1 last 102", "alarm 1 key a +1 last 101"), m_database.getAlarmUpdates());
+
+        // the rest are written in the order their keys were first seen since the last flush
+        add(2, 105, "b");
+        m_coalescer.flushAll();
+        assertEquals(Arrays.asList("alarm 2 key b +1 last 102", "alarm 1 key a +1 last 101",
+                                   "alarm 4 key a +1 last 104", "alarm 3 key c +1 last 103", "alarm 2 key b +1 last 105"), m_database.getAlarmUpdates());
+        assertTrue(m_replayed.isEmpty());
+    }
+
+    @Test
+    public void testDeletedAlarmIsReplayed() {
+        m_cache.put("a", 1);
+        m_cache.put("b", 2);
+        m_database.deleteAlarm(1);
+
+        add(1, 101, "a");
+        add(2, 102, "b");
+        add(1, 103, "a");
+        m_coalescer.flushAll();
+
+        // the events of the deleted alarm are persisted again one by one, in order
+        assertEquals(Arrays.asList(101, 103), m_replayed);
+        assertNull(m_cache.get("a"));
+        assertEquals(Integer.valueOf(2), m_cache.get("b"));
+
+        assertEquals(Arrays.asList("alarm 2 key b +1 last 102"), m_database.getAlarmUpdates());
+        assertEquals(Arrays.asList("102->2"), m_database.getEventLinks());
+        assertEquals(1, m_database.getRollbacks());
+    }
+
+    @Test
+    public void testSQLExceptionFallsBackToReplay() {
+        m_cache.put("a", 1);
+        m_database.failLinks(new SQLException("link failed"));
+
+        add(1, 101, "a");
+        add(1, 102, "a");
+        m_coalescer.flushAll();
+
+        // nothing of the failed transaction is kept, and the events go through the normal path
+        assertTrue(m_database.getAlarmUpdates().isEmpty());
+        assertTrue(m_database.getEventLinks().isEmpty());
+        assertEquals(1, m_database.getRollbacks());
+        assertEquals(Arrays.asList(101, 102), m_replayed);
+        assertNull(m_cache.get("a"));
+    }
+
+    private static class FakeDatabase {
+        private final Set<Integer> m_deletedAlarms = new HashSet<Integer>();
+        private final List<String> m_alarmUpdates = new ArrayList<String>();
+        private final List<String> m_eventLinks = new ArrayList<String>();
+        private final List<String> m_deletes = new ArrayList<String>();
+        private SQLException m_linkFailure;
+        private int m_commits = 0;
+        private int m_rollbacks = 0;
+
+        synchronized void deleteAlarm(final int alarmId) {
+            m_deletedAlarms.add(alarmId);
+        }
+
+        synchronized void failLinks(final SQLException failure) {
+            m_linkFailure = failure;
+        }
+
+        synchronized List<String> getAlarmUpdates() {
+            return new ArrayList<String>(m_alarmUpdates);
+        }
+
+        synchronized List<String> getEventLinks() {
+            return new ArrayList<String>(m_eventLinks);
+        }
+
+        synchronized List<String> getDeletes() {
+            return new ArrayList<String>(m_deletes);
+        }
+
+        synchronized int getCommits() {
+            return m_commits;
+        }
+
+        synchronized int getRollbacks() {
+            return m_rollbacks;
+        }
+
+        DataSource getDataSource() {
+            return proxy(DataSource.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    if ("getConnection".equals(method.getName())) {
+                        return createConnection();
+                    }
+                    return defaultValue(method);
+                }
+            });
+        }
+
+        private Connection createConnection() {
+            final List<String> alarmUpdates = new ArrayList<String>();
+            final List<String> eventLinks = new ArrayList<String>();
+            final List<String> deletes = new ArrayList<String>();
+            return proxy(Connection.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    final String name = method.getName();
+                    if ("prepareStatement".equals(name)) {
+                        return createStatement((String)args[0], alarmUpdates, eventLinks, deletes);
+                    } else if ("commit".equals(name)) {
+                        synchronized (FakeDatabase.this) {
+                            m_commits++;
+                            m_alarmUpdates.addAll(alarmUpdates);
+                            m_eventLinks.addAll(eventLinks);
+                            m_deletes.addAll(deletes);
+                        }
+                        alarmUpdates.clear();
+                        eventLinks.clear();
+                        deletes.clear();
+                    } else if ("rollback".equals(name)) {
+                        synchronized (FakeDatabase.this) {
+                            m_rollbacks++;
+                        }
+                        alarmUpdates.clear();
+                        eventLinks.clear();
+                        deletes.clear();
+                    }
+                    return defaultValue(method);
+                }
+            });
+        }
+
+        private PreparedStatement createStatement(final String sql, final List<String> alarmUpdates, final List<String> eventLinks, final List<String> deletes) {
+            final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+            final List<Map<Integer, Object>> batch = new ArrayList<Map<Integer, Object>>();
+            return proxy(PreparedStatement.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                    final String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+                        parameters.put((Integer)args[0], args[1]);
+                    } else if ("addBatch".equals(name)) {
+                        batch.add(new HashMap<Integer, Object>(parameters));
+                    } else if ("executeBatch".equals(name)) {
+                        synchronized (FakeDatabase.this) {
+                            if (m_linkFailure != null) {
+                                throw m_linkFailure;
+                            }
+                        }
+                        for (final Map<Integer, Object> row : batch) {
+                            eventLinks.add(row.get(2) + "->" + row.get(1));
+                        }
+                        final int[] counts = new int[batch.size()];
+                        Arrays.fill(counts, 1);
+                        batch.clear();
+                        return counts;
+                    } else if ("executeUpdate".equals(name)) {
+                        if (sql.startsWith("UPDATE alarms")) {
+                            synchronized (FakeDatabase.this) {
+                                if (m_deletedAlarms.contains(parameters.get(2))) {
+                                    return 0;
+                                }
+                            }
+                            alarmUpdates.add("alarm " + parameters.get(2) + " key " + parameters.get(3) + " +" + parameters.get(1) + " last " + parameters.get(4));
+                        } else if (sql.startsWith("DELETE FROM events")) {
+                            deletes.add("alarm " + parameters.get(1) + " keep " + parameters.get(2));
+                        } else {
+                            throw new SQLException("unexpected statement: " + sql);
+                        }
+                        return 1;
+                    }
+                    return defaultValue(method);
+                }
+            });
+        }
+
+        private static Object defaultValue(final Method method) {
+            final Class<?> type = method.getReturnType();
+            if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (type.isPrimitive() && type != void.class) {
+                return 0;
+            }
+            return null;
+        }
+
+        private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[] { type }, handler));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ReductionKeyCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final ReductionKeyCache cache = new ReductionKeyCache(2, 0);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+
+        cache.put("c", 3);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        final ReductionKeyCache cache = new ReductionKeyCache(10, 50);
+        cache.put("a", 1);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemoveAlarm() {
+        final ReductionKeyCache cache = new ReductionKeyCache(10, 0);
+        cache.put("a", 1);
+        cache.put("b", 1);
+        cache.put("c", 2);
+        cache.removeAlarm(1);
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(2), cache.get("c"));
+    }
+
+    @Test
+    public void testDisabled() {
+        final ReductionKeyCache cache = new ReductionKeyCache(0, 0);
+        cache.put("a", 1);
+        assertNull(cache.get("a"));
+    }
+}
@@ -530,6 +530,38 @@ public class VacuumdIT implements TemporaryDatabaseAware<MockDatabase>, Initiali
         assertEquals("alarms with severity > 2", 2L, (long)m_jdbcTemplate.queryForObject("select count(*) from alarms where severity > 2", Long.class));
     }
 
+    /**
+     * Runs the cosmicClear automation with its action statements sent in JDBC batches.
+     * @throws InterruptedException 
+     */
+    @Test(timeout=30000)
+    @JUnitTemporaryDatabase(dirtiesContext=true,tempDbClass=MockDatabase.class)
+    public final void testBatchedCosmicClearAutomation() throws InterruptedException {
+        bringNodeDownCreatingEvent(1);
+        bringNodeDownCreatingEvent(2);
+        Thread.sleep(1000);
+        bringNodeUpCreatingEvent(1);
+
+        while (m_jdbcTemplate.queryForObject("select count(*) from alarms", Long.class) != 3) {
+            Thread.sleep(100);
+        }
+
+        System.setProperty(AutomationProcessor.BATCH_SIZE_PROPERTY, "100");
+        try {
+            AutomationProcessor ap = new AutomationProcessor(VacuumdConfigFactory.getInstance().getAutomation("cosmicClear"));
+            ap.run();
+
+            assertEquals("alarms with severity == 2", 1L, (long)m_jdbcTemplate.queryForObject("select count(*) from alarms where severity = 2", Long.class));
+            assertEquals("alarms with severity > 2", 2L, (long)m_jdbcTemplate.queryForObject("select count(*) from alarms where severity > 2", Long.class));
+
+            assertEquals(1L, ap.getRuns());
+            assertEquals(1L, ap.getTriggerRows());
+            assertEquals(1L, ap.getRowsUpdated());
+        } finally {
+            System.clearProperty(AutomationProcessor.BATCH_SIZE_PROPERTY);
+        }
+    }
+
     /**
      * @throws InterruptedException 
      */
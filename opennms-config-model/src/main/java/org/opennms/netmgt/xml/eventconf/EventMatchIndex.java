@@ -0,0 +1,442 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.xml.event.Snmp;
+
+/**
+ * An immutable lookup structure over every event definition reachable from a
+ * root {@link Events} object, including all of its loaded event files.
+ *
+ * <p>All event definitions are merged into a single list ordered by their
+ * {@link EventOrdering} and then bucketed by the most selective mask element
+ * they carry: exact enterprise id, exact UEI, enterprise id prefix ("foo%")
+ * or UEI prefix.  Definitions that use regular expressions for both the id
+ * and UEI (or that have neither) end up in a single wildcard bucket.  Each
+ * bucket is further split on an exact SNMP specific type so that vendor MIBs
+ * with hundreds of traps under one enterprise id only check the definitions
+ * for the trap that actually arrived.</p>
+ *
+ * <p>A lookup consults only the buckets the incoming event can possibly fall
+ * into and returns the candidate with the lowest priority that matches, which
+ * is exactly the definition a linear scan in load order would have found.
+ * Lookups do not allocate.</p>
+ */
+final class EventMatchIndex {
+
+    private static final int[] EMPTY_INT_ARRAY = new int[0];
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    private final Map<String, Bucket> m_idBuckets;
+    private final Map<String, Bucket> m_ueiBuckets;
+    private final PrefixNode m_idPrefixes;
+    private final PrefixNode m_ueiPrefixes;
+    private final Bucket m_wildcards;
+    private final int m_size;
+
+    private EventMatchIndex(final Builder builder) {
+        m_idBuckets = Builder.build(builder.m_idBuckets);
+        m_ueiBuckets = Builder.build(builder.m_ueiBuckets);
+        m_idPrefixes = builder.m_idPrefixes.build();
+        m_ueiPrefixes = builder.m_ueiPrefixes.build();
+        m_wildcards = builder.m_wildcards.build();
+        m_size = builder.m_size;
+    }
+
+    /**
+     * Builds an index over all events reachable from the given root.  The
+     * events must already have been initialized so that their ordering
+     * indexes and matchers are set.
+     */
+    public static EventMatchIndex build(final Events events) {
+        final List<Event> allEvents = events.forEachEvent(new ArrayList<Event>(), new Events.EventCallback<List<Event>>() {
+            @Override
+            public List<Event> process(final List<Event> accum, final Event event) {
+                accum.add(event);
+                return accum;
+            }
+        });
+        Collections.sort(allEvents);
+
+        final Builder builder = new Builder();
+        for (int priority = 0; priority < allEvents.size(); priority++) {
+            builder.add(allEvents.get(priority), priority);
+        }
+        return new EventMatchIndex(builder);
+    }
+
+    /**
+     * @return the number of event definitions covered by this index
+     */
+    public int size() {
+        return m_size;
+    }
+
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final Snmp snmp = matchingEvent.getSnmp();
+        final boolean hasSpecific = snmp != null && snmp.hasSpecific();
+        final int specific = hasSpecific ? snmp.getSpecific() : 0;
+
+        Match best = Match.NONE;
+        best = m_wildcards.findFirstMatch(matchingEvent, hasSpecific, specific, best);
+
+        final String id = snmp == null ? null : snmp.getId();
+        if (id != null) {
+            best = find(m_idBuckets.get(id), matchingEvent, hasSpecific, specific, best);
+            best = m_idPrefixes.findFirstMatch(id, matchingEvent, hasSpecific, specific, best);
+        }
+
+        final String uei = matchingEvent.getUei();
+        if (uei != null) {
+            best = find(m_ueiBuckets.get(uei), matchingEvent, hasSpecific, specific, best);
+            best = m_ueiPrefixes.findFirstMatch(uei, matchingEvent, hasSpecific, specific, best);
+        }
+
+        return best.m_event;
+    }
+
+    private static Match find(final Bucket bucket, final org.opennms.netmgt.xml.event.Event matchingEvent, final boolean hasSpecific, final int specific, final Match best) {
+        return bucket == null ? best : bucket.findFirstMatch(matchingEvent, hasSpecific, specific, best);
+    }
+
+    /**
+     * The result of a lookup.  Candidate lists are preallocated with one
+     * instance per event definition so that returning one allocates nothing.
+     */
+    private static final class Match {
+        private static final Match NONE = new Match(null, NO_MATCH);
+
+        private final Event m_event;
+        private final int m_priority;
+
+        private Match(final Event event, final int priority) {
+            m_event = event;
+            m_priority = priority;
+        }
+    }
+
+    /**
+     * A priority ordered list of candidate event definitions.
+     */
+    private static final class Candidates {
+        private static final Candidates EMPTY = new Candidates(Collections.<Match>emptyList());
+
+        private final Match[] m_matches;
+
+        private Candidates(final List<Match> matches) {
+            m_matches = matches.toArray(new Match[matches.size()]);
+            Arrays.sort(m_matches, new Comparator<Match>() {
+                @Override
+                public int compare(final Match a, final Match b) {
+                    return a.m_priority < b.m_priority ? -1 : (a.m_priority == b.m_priority ? 0 : 1);
+                }
+            });
+        }
+
+        /**
+         * Returns the first candidate that matches and has a lower priority
+         * than the current best match, or the current best if none does.
+         */
+        private Match findFirstMatch(final org.opennms.netmgt.xml.event.Event matchingEvent, final Match best) {
+            for (final Match candidate : m_matches) {
+                if (candidate.m_priority >= best.m_priority) {
+                    // everything after this point loses to what we already have
+                    return best;
+                }
+                if (candidate.m_event.matches(matchingEvent)) {
+                    return candidate;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Candidates that share a single index key, split by SNMP specific type.
+     */
+    private static final class Bucket {
+        private static final Bucket EMPTY = new Bucket(Candidates.EMPTY, EMPTY_INT_ARRAY, new Candidates[0]);
+
+        private final Candidates m_anySpecific;
+        private final int[] m_specifics;
+        private final Candidates[] m_bySpecific;
+
+        private Bucket(final Candidates anySpecific, final int[] specifics, final Candidates[] bySpecific) {
+            m_anySpecific = anySpecific;
+            m_specifics = specifics;
+            m_bySpecific = bySpecific;
+        }
+
+        private Match findFirstMatch(final org.opennms.netmgt.xml.event.Event matchingEvent, final boolean hasSpecific, final int specific, final Match best) {
+            Match result = m_anySpecific.findFirstMatch(matchingEvent, best);
+            if (hasSpecific) {
+                final int idx = Arrays.binarySearch(m_specifics, specific);
+                if (idx >= 0) {
+                    result = m_bySpecific[idx].findFirstMatch(matchingEvent, result);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A character trie of value prefixes.  Every node on the path spelled by
+     * the value being looked up holds the candidates whose prefix ends there.
+     */
+    private static final class PrefixNode {
+        private static final PrefixNode EMPTY = new PrefixNode(new char[0], new PrefixNode[0], null);
+
+        private final char[] m_keys;
+        private final PrefixNode[] m_children;
+        private final Bucket m_bucket;
+
+        private PrefixNode(final char[] keys, final PrefixNode[] children, final Bucket bucket) {
+            m_keys = keys;
+            m_children = children;
+            m_bucket = bucket;
+        }
+
+        private Match findFirstMatch(final String value, final org.opennms.netmgt.xml.event.Event matchingEvent, final boolean hasSpecific, final int specific, final Match best) {
+            Match result = best;
+            PrefixNode node = this;
+            int pos = 0;
+            while (node != null) {
+                if (node.m_bucket != null) {
+                    result = node.m_bucket.findFirstMatch(matchingEvent, hasSpecific, specific, result);
+                }
+                if (pos >= value.length()) {
+                    break;
+                }
+                final int idx = Arrays.binarySearch(node.m_keys, value.charAt(pos++));
+                node = idx < 0 ? null : node.m_children[idx];
+            }
+            return result;
+        }
+    }
+
+    private static final class BucketBuilder {
+        private final List<Match> m_anySpecific = new ArrayList<Match>();
+        private final Map<Integer, List<Match>> m_bySpecific = new TreeMap<Integer, List<Match>>();
+
+        private void add(final Match match, final List<Integer> specifics) {
+            if (specifics == null) {
+                addOnce(m_anySpecific, match);
+                return;
+            }
+            for (final Integer specific : specifics) {
+                List<Match> matches = m_bySpecific.get(specific);
+                if (matches == null) {
+                    matches = new ArrayList<Match>(1);
+                    m_bySpecific.put(specific, matches);
+                }
+                addOnce(matches, match);
+            }
+        }
+
+        /**
+         * Events are added in priority order, so a duplicate (from a mask
+         * element listing the same value twice) is always the last entry.
+         */
+        private static void addOnce(final List<Match> matches, final Match match) {
+            if (matches.isEmpty() || matches.get(matches.size() - 1) != match) {
+                matches.add(match);
+            }
+        }
+
+        private Bucket build() {
+            if (m_anySpecific.isEmpty() && m_bySpecific.isEmpty()) {
+                return Bucket.EMPTY;
+            }
+            final int[] specifics = new int[m_bySpecific.size()];
+            final Candidates[] bySpecific = new Candidates[m_bySpecific.size()];
+            int i = 0;
+            for (final Map.Entry<Integer, List<Match>> entry : m_bySpecific.entrySet()) {
+                specifics[i] = entry.getKey();
+                bySpecific[i] = new Candidates(entry.getValue());
+                i++;
+            }
+            return new Bucket(m_anySpecific.isEmpty() ? Candidates.EMPTY : new Candidates(m_anySpecific), specifics, bySpecific);
+        }
+    }
+
+    private static final class PrefixNodeBuilder {
+        private final TreeMap<Character, PrefixNodeBuilder> m_children = new TreeMap<Character, PrefixNodeBuilder>();
+        private BucketBuilder m_bucket;
+
+        private BucketBuilder bucket(final String prefix) {
+            PrefixNodeBuilder node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                final Character c = prefix.charAt(i);
+                PrefixNodeBuilder child = node.m_children.get(c);
+                if (child == null) {
+                    child = new PrefixNodeBuilder();
+                    node.m_children.put(c, child);
+                }
+                node = child;
+            }
+            if (node.m_bucket == null) {
+                node.m_bucket = new BucketBuilder();
+            }
+            return node.m_bucket;
+        }
+
+        private PrefixNode build() {
+            if (m_children.isEmpty() && m_bucket == null) {
+                return PrefixNode.EMPTY;
+            }
+            final char[] keys = new char[m_children.size()];
+            final PrefixNode[] children = new PrefixNode[m_children.size()];
+            int i = 0;
+            for (final Map.Entry<Character, PrefixNodeBuilder> entry : m_children.entrySet()) {
+                keys[i] = entry.getKey();
+                children[i] = entry.getValue().build();
+                i++;
+            }
+            return new PrefixNode(keys, children, m_bucket == null ? null : m_bucket.build());
+        }
+    }
+
+    private static final class Builder {
+        private final Map<String, BucketBuilder> m_idBuckets = new HashMap<String, BucketBuilder>();
+        private final Map<String, BucketBuilder> m_ueiBuckets = new HashMap<String, BucketBuilder>();
+        private final PrefixNodeBuilder m_idPrefixes = new PrefixNodeBuilder();
+        private final PrefixNodeBuilder m_ueiPrefixes = new PrefixNodeBuilder();
+        private final BucketBuilder m_wildcards = new BucketBuilder();
+        private int m_size = 0;
+
+        private void add(final Event event, final int priority) {
+            m_size++;
+
+            final Mask mask = event.getMask();
+            if (mask == null || mask.getMaskelementCount() <= 0) {
+                // matched on the UEI alone; without one the event never matches
+                if (event.getUei() != null) {
+                    bucket(m_ueiBuckets, event.getUei()).add(new Match(event, priority), null);
+                }
+                return;
+            }
+
+            final Match match = new Match(event, priority);
+            final List<Integer> specifics = exactSpecifics(mask.getMaskElementValues(TAG_SNMP_SPECIFIC));
+
+            final List<String> ids = mask.getMaskElementValues(TAG_SNMP_EID);
+            if (isIndexable(ids)) {
+                addValues(ids, m_idBuckets, m_idPrefixes, match, specifics);
+                return;
+            }
+
+            final List<String> ueis = mask.getMaskElementValues(TAG_UEI);
+            if (isIndexable(ueis)) {
+                addValues(ueis, m_ueiBuckets, m_ueiPrefixes, match, specifics);
+                return;
+            }
+
+            m_wildcards.add(match, specifics);
+        }
+
+        private static void addValues(final List<String> values, final Map<String, BucketBuilder> exact, final PrefixNodeBuilder prefixes, final Match match, final List<Integer> specifics) {
+            for (final String value : values) {
+                if (value == null) continue;
+                // the starts-with matcher also accepts the literal value, so
+                // prefixes are registered as exact values as well
+                bucket(exact, value).add(match, specifics);
+                if (value.endsWith("%")) {
+                    prefixes.bucket(value.substring(0, value.length() - 1)).add(match, specifics);
+                }
+            }
+        }
+
+        /**
+         * A mask element can be used as an index key if it has at least one
+         * value and none of them are regular expressions.
+         */
+        private static boolean isIndexable(final List<String> values) {
+            if (values == null) return false;
+            boolean hasValue = false;
+            for (final String value : values) {
+                if (value == null) continue;
+                if (value.startsWith("~")) return false;
+                hasValue = true;
+            }
+            return hasValue;
+        }
+
+        /**
+         * @return the specific types required by the mask, or null if the
+         *         mask does not restrict the specific type to exact values
+         */
+        private static List<Integer> exactSpecifics(final List<String> values) {
+            if (!isIndexable(values)) return null;
+            final List<Integer> specifics = new ArrayList<Integer>(values.size());
+            for (final String value : values) {
+                if (value == null) continue;
+                try {
+                    final Integer specific = Integer.valueOf(value);
+                    // the matcher compares strings, so "07" never matches 7
+                    if (!specific.toString().equals(value)) return null;
+                    specifics.add(specific);
+                } catch (final NumberFormatException e) {
+                    return null;
+                }
+            }
+            return specifics;
+        }
+
+        private static BucketBuilder bucket(final Map<String, BucketBuilder> buckets, final String key) {
+            BucketBuilder bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new BucketBuilder();
+                buckets.put(key, bucket);
+            }
+            return bucket;
+        }
+
+        private static Map<String, Bucket> build(final Map<String, BucketBuilder> builders) {
+            final Map<String, Bucket> buckets = new HashMap<String, Bucket>(builders.size() * 2);
+            for (final Map.Entry<String, BucketBuilder> entry : builders.entrySet()) {
+                buckets.put(entry.getKey(), entry.getValue().build());
+            }
+            return buckets;
+        }
+    }
+
+}
@@ -115,6 +115,14 @@ public class Events implements Serializable {
         
 	@XmlTransient
 	private EventOrdering m_ordering;
+
+	/**
+	 * Lookup index over this and all loaded event files.  Rebuilt by
+	 * {@link #initialize(Partition, EventOrdering)} and replaced as a whole
+	 * so readers never see a partially built index.
+	 */
+	@XmlTransient
+	private transient volatile EventMatchIndex m_matchIndex;
 	
 	public EventOrdering getOrdering() {
 	    return m_ordering;
@@ -418,6 +426,19 @@ public class Events implements Serializable {
 	}
 	
 	public Event findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
+		final EventMatchIndex matchIndex = m_matchIndex;
+		if (matchIndex == null) {
+			return findFirstMatchingEventUnindexed(matchingEvent);
+		}
+		return matchIndex.findFirstMatchingEvent(matchingEvent);
+	}
+
+	/**
+	 * Searches the partitioned events of this and each loaded event file in
+	 * turn.  This is the original lookup strategy; it is kept as the reference
+	 * the {@link EventMatchIndex} is tested and benchmarked against.
+	 */
+	Event findFirstMatchingEventUnindexed(org.opennms.netmgt.xml.event.Event matchingEvent) {
 		String key = m_partition.group(matchingEvent);
 		SortedSet<Event> potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
 		if (key != null) {
@@ -426,8 +447,6 @@ public class Events implements Serializable {
 			    potentialMatches.addAll(events);
 			}
 		}
-			
-			
 		
 		for(Event event : potentialMatches) {
 			if (event.matches(matchingEvent)) {
@@ -437,7 +456,7 @@ public class Events implements Serializable {
 		
 		for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
 			Events subEvents = loadedEvents.getValue();
-			Event event = subEvents.findFirstMatchingEvent(matchingEvent);
+			Event event = subEvents.findFirstMatchingEventUnindexed(matchingEvent);
 			if (event != null) {
 				return event;
 			}
@@ -496,6 +515,7 @@ public class Events implements Serializable {
 			events.initialize(partition, m_ordering.subsequence());
 		}
 
+		m_matchIndex = EventMatchIndex.build(this);
 	}
 
 	public Events getLoadEventsByFile(String relativePath) {
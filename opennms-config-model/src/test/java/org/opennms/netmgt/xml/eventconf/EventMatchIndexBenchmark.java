@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the indexed event definition lookup with the original partitioned
+ * lookup over a synthetic configuration shaped like a large set of vendor
+ * trap definitions.
+ *
+ * <p>This is not run as part of the unit tests. Run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.xml.eventconf.EventMatchIndexBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventMatchIndexBenchmark {
+
+    private static final int EVENT_COUNT = 1024;
+
+    @Param({"1000", "10000"})
+    public int definitions;
+
+    private Events m_events;
+    private org.opennms.netmgt.xml.event.Event[] m_incoming;
+    private int m_next = 0;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(5813);
+        m_events = new Events();
+        final int files = Math.max(1, definitions / 200);
+        for (int file = 0; file < files; file++) {
+            final Events events = new Events();
+            for (int i = 0; i < definitions / files; i++) {
+                events.addEvent(EventMatchIndexTest.randomEventConf(random, file, i));
+            }
+            m_events.addLoadedEventFile("events/file" + file + ".xml", events);
+        }
+        m_events.initialize(new EventMatchIndexTest.WildcardAwarePartition(), new EventOrdering());
+
+        m_incoming = new org.opennms.netmgt.xml.event.Event[EVENT_COUNT];
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            m_incoming[i] = EventMatchIndexTest.randomEvent(random);
+        }
+    }
+
+    private org.opennms.netmgt.xml.event.Event nextEvent() {
+        m_next = (m_next + 1) & (EVENT_COUNT - 1);
+        return m_incoming[m_next];
+    }
+
+    @Benchmark
+    public Event indexed() {
+        return m_events.findFirstMatchingEvent(nextEvent());
+    }
+
+    @Benchmark
+    public Event unindexed() {
+        return m_events.findFirstMatchingEventUnindexed(nextEvent());
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EventMatchIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.event.Value;
+
+public class EventMatchIndexTest {
+
+    /**
+     * Same partitioning as the one DefaultEventConfDao uses.
+     */
+    static class WildcardAwarePartition implements Partition {
+        private final Field m_field = EventMatchers.field("id");
+
+        @Override
+        public List<String> group(final Event eventConf) {
+            final List<String> keys = eventConf.getMaskElementValues("id");
+            if (keys == null) return null;
+            for (final String key : keys) {
+                if (key.endsWith("%") || key.startsWith("~")) return null;
+            }
+            return keys;
+        }
+
+        @Override
+        public String group(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            return m_field.get(matchingEvent);
+        }
+    }
+
+    private Events m_root;
+    private Events m_vendor;
+
+    @Before
+    public void setUp() {
+        m_root = new Events();
+        m_root.addEvent(eventConf("uei.opennms.org/internal/rootEvent", null, null));
+
+        m_vendor = new Events();
+        m_vendor.addEvent(eventConf("uei.opennms.org/vendor/cisco/trap1", ".1.3.6.1.4.1.9.9.41.2", "1"));
+        m_vendor.addEvent(eventConf("uei.opennms.org/vendor/cisco/trap2", ".1.3.6.1.4.1.9.9.41.2", "2"));
+        m_vendor.addEvent(eventConf("uei.opennms.org/vendor/cisco/anyTrap", ".1.3.6.1.4.1.9.9.41.2", null));
+        m_vendor.addEvent(eventConf("uei.opennms.org/vendor/cisco/prefix", ".1.3.6.1.4.1.9%", null));
+        m_root.addLoadedEventFile("events/vendor.events.xml", m_vendor);
+
+        final Events defaults = new Events();
+        defaults.addEvent(eventConf("uei.opennms.org/default/trap", "~^\\..*", null));
+        m_root.addLoadedEventFile("events/default.events.xml", defaults);
+
+        m_root.initialize(new WildcardAwarePartition(), new EventOrdering());
+    }
+
+    @Test
+    public void testExactUei() {
+        assertMatch("uei.opennms.org/internal/rootEvent", event("uei.opennms.org/internal/rootEvent", null, null));
+    }
+
+    @Test
+    public void testSpecificBeatsLaterDefinitions() {
+        assertMatch("uei.opennms.org/vendor/cisco/trap1", event(null, ".1.3.6.1.4.1.9.9.41.2", 1));
+        assertMatch("uei.opennms.org/vendor/cisco/trap2", event(null, ".1.3.6.1.4.1.9.9.41.2", 2));
+    }
+
+    @Test
+    public void testFallsThroughToLessSpecificDefinitions() {
+        assertMatch("uei.opennms.org/vendor/cisco/anyTrap", event(null, ".1.3.6.1.4.1.9.9.41.2", 3));
+        assertMatch("uei.opennms.org/vendor/cisco/prefix", event(null, ".1.3.6.1.4.1.9.9.43", 3));
+        assertMatch("uei.opennms.org/default/trap", event(null, ".1.3.6.1.4.1.11", 3));
+    }
+
+    @Test
+    public void testEarlierWildcardWinsOverLaterExact() {
+        final Events root = new Events();
+        root.addEvent(eventConf("uei.opennms.org/wildcard", "~.*", null));
+        root.addEvent(eventConf("uei.opennms.org/exact", ".1.3.6.1.4.1.5813", "1"));
+        root.initialize(new WildcardAwarePartition(), new EventOrdering());
+
+        assertEquals("uei.opennms.org/wildcard", root.findFirstMatchingEvent(event(null, ".1.3.6.1.4.1.5813", 1)).getUei());
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertNull(m_root.findFirstMatchingEvent(event("uei.opennms.org/unknown", null, null)));
+    }
+
+    @Test
+    public void testReinitializePicksUpNewEvents() {
+        assertNull(m_root.findFirstMatchingEvent(event("uei.opennms.org/internal/added", null, null)));
+
+        m_root.addEvent(eventConf("uei.opennms.org/internal/added", null, null));
+        m_root.initialize(new WildcardAwarePartition(), new EventOrdering());
+
+        assertMatch("uei.opennms.org/internal/added", event("uei.opennms.org/internal/added", null, null));
+    }
+
+    @Test
+    public void testMatchesUnindexedLookup() {
+        final Random random = new Random(5813);
+        final Events root = new Events();
+        for (int file = 0; file < 10; file++) {
+            final Events events = new Events();
+            for (int i = 0; i < 200; i++) {
+                events.addEvent(randomEventConf(random, file, i));
+            }
+            root.addLoadedEventFile("events/file" + file + ".xml", events);
+        }
+        root.initialize(new WildcardAwarePartition(), new EventOrdering());
+
+        for (int i = 0; i < 5000; i++) {
+            final org.opennms.netmgt.xml.event.Event e = randomEvent(random);
+            assertSame(root.findFirstMatchingEventUnindexed(e), root.findFirstMatchingEvent(e));
+        }
+    }
+
+    private void assertMatch(final String expectedUei, final org.opennms.netmgt.xml.event.Event e) {
+        final Event match = m_root.findFirstMatchingEvent(e);
+        assertEquals(expectedUei, match == null ? null : match.getUei());
+        assertSame(m_root.findFirstMatchingEventUnindexed(e), match);
+    }
+
+    static Event randomEventConf(final Random random, final int file, final int i) {
+        final String enterprise = ".1.3.6.1.4.1." + random.nextInt(20);
+        final String uei = "uei.opennms.org/test/" + file + "/" + i;
+        switch (random.nextInt(6)) {
+        case 0:
+            return eventConf(uei, null, null);
+        case 1:
+            return eventConf(uei, enterprise + "%", null);
+        case 2:
+            return eventConf(uei, "~^" + enterprise.replace(".", "\\.") + "\\..*", Integer.toString(random.nextInt(5)));
+        case 3:
+            final Event event = eventConf(uei, enterprise, Integer.toString(random.nextInt(5)));
+            final Varbind varbind = new Varbind();
+            varbind.setVbnumber(1);
+            varbind.addVbvalue(Integer.toString(random.nextInt(3)));
+            event.getMask().addVarbind(varbind);
+            return event;
+        default:
+            return eventConf(uei, enterprise, Integer.toString(random.nextInt(5)));
+        }
+    }
+
+    static org.opennms.netmgt.xml.event.Event randomEvent(final Random random) {
+        final org.opennms.netmgt.xml.event.Event e;
+        if (random.nextInt(10) == 0) {
+            e = event("uei.opennms.org/test/" + random.nextInt(10) + "/" + random.nextInt(200), null, null);
+        } else {
+            e = event(null, ".1.3.6.1.4.1." + random.nextInt(25) + (random.nextBoolean() ? "" : ".1"), random.nextInt(6));
+        }
+        final Parm parm = new Parm();
+        parm.setParmName(".1.3.6.1.2.1.1.1.0");
+        parm.setValue(new Value(Integer.toString(random.nextInt(3))));
+        e.addParm(parm);
+        return e;
+    }
+
+    static Event eventConf(final String uei, final String id, final String specific) {
+        final Event event = new Event();
+        event.setUei(uei);
+        if (id != null) {
+            final Mask mask = new Mask();
+            mask.addMaskelement(maskelement("id", id));
+            if (specific != null) {
+                mask.addMaskelement(maskelement("generic", "6"));
+                mask.addMaskelement(maskelement("specific", specific));
+            }
+            event.setMask(mask);
+        }
+        return event;
+    }
+
+    static org.opennms.netmgt.xml.event.Event event(final String uei, final String id, final Integer specific) {
+        final org.opennms.netmgt.xml.event.Event e = new org.opennms.netmgt.xml.event.Event();
+        e.setUei(uei);
+        if (id != null) {
+            final Snmp snmp = new Snmp();
+            snmp.setId(id);
+            snmp.setGeneric(6);
+            if (specific != null) {
+                snmp.setSpecific(specific);
+            }
+            e.setSnmp(snmp);
+        }
+        return e;
+    }
+
+    private static Maskelement maskelement(final String name, final String value) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        element.addMevalue(value);
+        return element;
+    }
+}
@@ -525,6 +525,20 @@ public class DiscoveryConfigFactory implements DiscoveryConfigurationFactory {
         }
     }
 
+    /**
+     * <p>getPacketsPerSecond</p>
+     *
+     * @return a int.
+     */
+    public int getPacketsPerSecond() {
+        getReadLock().lock();
+        try {
+            return getConfiguration().getPacketsPerSecond();
+        } finally {
+            getReadLock().unlock();
+        }
+    }
+
     /**
      * <p>getExcludingInterator</p>
      *
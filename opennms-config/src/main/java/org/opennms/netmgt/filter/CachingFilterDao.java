@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.filter.api.FilterDao;
+
+/**
+ * A {@link FilterDao} which caches rule results and relies on events to
+ * tell it when they have gone stale.
+ *
+ * The DAO is usually wrapped in a transactional proxy, so the event
+ * subscription service has to be handed to it through this interface
+ * rather than through its implementation class.
+ */
+public interface CachingFilterDao extends FilterDao {
+
+    /**
+     * Set the service used to subscribe to the events which invalidate
+     * cached rule results, or <code>null</code> to unsubscribe.  Without it,
+     * no rule results are cached.
+     *
+     * @param eventSubscriptionService a {@link org.opennms.netmgt.events.api.EventSubscriptionService} object.
+     */
+    void setEventSubscriptionService(EventSubscriptionService eventSubscriptionService);
+
+    /**
+     * <p>getEventSubscriptionService</p>
+     *
+     * @return a {@link org.opennms.netmgt.events.api.EventSubscriptionService} object.
+     */
+    EventSubscriptionService getEventSubscriptionService();
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Subscribes a {@link CachingFilterDao} to the events which invalidate its
+ * cached rule results.
+ *
+ * The filter DAO is created by the DAO context, which is shared with the
+ * webapp and many tools that have no {@link EventSubscriptionService}, and
+ * before the event daemon that provides one.  This bean is declared on the
+ * event daemon side and hands the service to the DAO once both exist.  The
+ * DAO is reached through {@link CachingFilterDao} since it is normally
+ * wrapped in a transactional proxy.  Any other {@link FilterDao}
+ * implementation is left alone.
+ */
+public class FilterDaoEventSubscriber implements InitializingBean, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterDaoEventSubscriber.class);
+
+    private FilterDao m_filterDao;
+    private EventSubscriptionService m_eventSubscriptionService;
+
+    /**
+     * <p>setFilterDao</p>
+     *
+     * @param filterDao a {@link org.opennms.netmgt.filter.api.FilterDao} object.
+     */
+    public void setFilterDao(final FilterDao filterDao) {
+        m_filterDao = filterDao;
+    }
+
+    /**
+     * <p>setEventSubscriptionService</p>
+     *
+     * @param eventSubscriptionService a {@link org.opennms.netmgt.events.api.EventSubscriptionService} object.
+     */
+    public void setEventSubscriptionService(final EventSubscriptionService eventSubscriptionService) {
+        m_eventSubscriptionService = eventSubscriptionService;
+    }
+
+    /**
+     * <p>afterPropertiesSet</p>
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Assert.state(m_filterDao != null, "property filterDao cannot be null");
+        Assert.state(m_eventSubscriptionService != null, "property eventSubscriptionService cannot be null");
+
+        if (m_filterDao instanceof CachingFilterDao) {
+            LOG.debug("Subscribing {} to rule cache invalidation events", m_filterDao);
+            ((CachingFilterDao)m_filterDao).setEventSubscriptionService(m_eventSubscriptionService);
+        } else {
+            LOG.debug("Filter DAO {} does not cache rule results; not subscribing it to events", m_filterDao);
+        }
+    }
+
+    /**
+     * <p>destroy</p>
+     */
+    @Override
+    public void destroy() {
+        if (m_filterDao instanceof CachingFilterDao) {
+            ((CachingFilterDao)m_filterDao).setEventSubscriptionService(null);
+        }
+    }
+}
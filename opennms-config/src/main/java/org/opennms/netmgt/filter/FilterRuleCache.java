@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.events.api.EventConstants;
+
+/**
+ * Holds the results of filter rule evaluations for {@link JdbcFilterDao}.
+ *
+ * Results are keyed on the kind of lookup and the normalized rule, and
+ * each result remembers the database tables its query read from.  Entries
+ * are dropped when an event reports a change to one of those tables, so a
+ * storm of <code>nodeGainedService</code> events only throws away the
+ * rules that actually look at services.
+ *
+ * Results are only cached if every table they read from is covered by
+ * one of those events; a rule on any other table, such as the applications,
+ * is evaluated against the database every time.
+ *
+ * To keep a slow query from caching a result that an invalidation has
+ * already made stale, callers take the {@link #getGeneration()} before
+ * running the query and hand it back to {@link #put(Kind, String, Collection, Object, long)}.
+ */
+final class FilterRuleCache {
+
+    enum Kind {
+        NODE_MAP,
+        IP_SERVICE_MAP,
+        IP_LIST,
+        ACTIVE_IP_LIST,
+        ACTIVE_IP_SET
+    }
+
+    private static final Set<String> NODE_TABLES = tables("node");
+    private static final Set<String> ASSET_TABLES = tables("assets");
+    private static final Set<String> CATEGORY_TABLES = tables("categories", "category_node");
+    private static final Set<String> INTERFACE_TABLES = tables("ipInterface", "snmpInterface");
+    private static final Set<String> SERVICE_TABLES = tables("ifServices", "service");
+    private static final Set<String> ALL_NODE_TABLES = tables("node", "assets", "category_node", "ipInterface", "snmpInterface", "ifServices");
+
+    private static final Set<String> MANAGED_TABLES = tables("ipInterface", "ifServices");
+
+    private static final Map<String, Set<String>> TABLES_CHANGED_BY_UEI = new HashMap<String, Set<String>>();
+
+    /**
+     * The tables that some event reports changes to.
+     */
+    private static final Set<String> COVERED_TABLES = new HashSet<String>();
+
+    static {
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_ADDED_EVENT_UEI, NODE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_UPDATED_EVENT_UEI, NODE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_INFO_CHANGED_EVENT_UEI, NODE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_LABEL_CHANGED_EVENT_UEI, NODE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_LABEL_SOURCE_CHANGED_EVENT_UEI, NODE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_DELETED_EVENT_UEI, ALL_NODE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.DUP_NODE_DELETED_EVENT_UEI, ALL_NODE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.ASSET_INFO_CHANGED_EVENT_UEI, ASSET_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI, CATEGORY_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI, INTERFACE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.INTERFACE_DELETED_EVENT_UEI, INTERFACE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.INTERFACE_REPARENTED_EVENT_UEI, INTERFACE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.INTERFACE_INDEX_CHANGED_EVENT_UEI, INTERFACE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.INTERFACE_IP_HOSTNAME_CHANGED_EVENT_UEI, INTERFACE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI, INTERFACE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.REINITIALIZE_PRIMARY_SNMP_INTERFACE_EVENT_UEI, INTERFACE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.NODE_GAINED_SERVICE_EVENT_UEI, SERVICE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.SERVICE_DELETED_EVENT_UEI, SERVICE_TABLES);
+        TABLES_CHANGED_BY_UEI.put(EventConstants.SERVICE_UNMANAGED_EVENT_UEI, SERVICE_TABLES);
+        // the web UI updates ipInterface.isManaged and ifServices.status directly and only tells the daemons to reload
+        TABLES_CHANGED_BY_UEI.put(EventConstants.RESTART_SCM_EVENT_UEI, MANAGED_TABLES);
+
+        for (final Set<String> tables : TABLES_CHANGED_BY_UEI.values()) {
+            COVERED_TABLES.addAll(tables);
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> m_entries = new ConcurrentHashMap<String, Entry>();
+
+    private final AtomicLong m_generation = new AtomicLong();
+
+    private static final class Entry {
+        private final Set<String> m_tables;
+        private final Object m_value;
+
+        private Entry(final Set<String> tables, final Object value) {
+            m_tables = tables;
+            m_value = value;
+        }
+    }
+
+    /**
+     * The UEIs of the events that can change the result of a filter rule.
+     *
+     * @return a {@link java.util.Collection} of UEIs.
+     */
+    static Collection<String> getInvalidatingUeis() {
+        return Collections.unmodifiableSet(TABLES_CHANGED_BY_UEI.keySet());
+    }
+
+    /**
+     * The (lower-case) names of the tables an event with the given UEI
+     * reports a change to.
+     *
+     * @param uei the event UEI
+     * @return the tables, or <code>null</code> if the event does not affect filter results
+     */
+    static Set<String> getTablesChangedBy(final String uei) {
+        return uei == null ? null : TABLES_CHANGED_BY_UEI.get(uei);
+    }
+
+    /**
+     * Strip the insignificant whitespace from a rule so that rules which only
+     * differ in spacing share a cache entry.  Quoted strings are left alone.
+     *
+     * @param rule the filter rule
+     * @return the normalized rule
+     */
+    static String normalize(final String rule) {
+        final StringBuilder sb = new StringBuilder(rule.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < rule.length(); i++) {
+            final char c = rule.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                space = false;
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The current generation; it changes whenever entries are invalidated.
+     *
+     * @return a long.
+     */
+    long getGeneration() {
+        return m_generation.get();
+    }
+
+    /**
+     * Get a cached result.
+     *
+     * @param kind the kind of lookup
+     * @param rule the filter rule
+     * @return the cached result, or <code>null</code> if there is none
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(final Kind kind, final String rule) {
+        final Entry entry = m_entries.get(key(kind, rule));
+        return entry == null ? null : (T)entry.m_value;
+    }
+
+    /**
+     * Cache a result, unless entries have been invalidated since the given
+     * generation was taken or it read from a table no event reports changes
+     * to.
+     *
+     * @param kind the kind of lookup
+     * @param rule the filter rule
+     * @param tables the tables the lookup read from
+     * @param value the result
+     * @param generation the generation taken before the lookup ran
+     */
+    void put(final Kind kind, final String rule, final Collection<String> tables, final Object value, final long generation) {
+        final Set<String> lowerCaseTables = new HashSet<String>(tables.size());
+        for (final String table : tables) {
+            lowerCaseTables.add(table.toLowerCase(Locale.ENGLISH));
+        }
+        if (!COVERED_TABLES.containsAll(lowerCaseTables)) {
+            return;
+        }
+
+        final String key = key(kind, rule);
+        final Entry entry = new Entry(lowerCaseTables, value);
+        m_entries.put(key, entry);
+
+        // an invalidation may have raced with the lookup; if so, the result may already be stale
+        if (m_generation.get() != generation) {
+            m_entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * Drop every result that read from any of the given tables.
+     *
+     * @param tables the (lower-case) names of the changed tables
+     * @return the number of entries dropped
+     */
+    int invalidate(final Collection<String> tables) {
+        m_generation.incrementAndGet();
+
+        int count = 0;
+        for (final Iterator<Entry> it = m_entries.values().iterator(); it.hasNext(); ) {
+            if (!Collections.disjoint(it.next().m_tables, tables)) {
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drop all results.
+     */
+    void clear() {
+        m_generation.incrementAndGet();
+        m_entries.clear();
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of cached results.
+     */
+    int size() {
+        return m_entries.size();
+    }
+
+    private static String key(final Kind kind, final String rule) {
+        return kind.name() + ':' + normalize(rule);
+    }
+
+    private static Set<String> tables(final String... names) {
+        final Set<String> tables = new HashSet<String>();
+        for (final String name : Arrays.asList(names)) {
+            tables.add(name.toLowerCase(Locale.ENGLISH));
+        }
+        return Collections.unmodifiableSet(tables);
+    }
+}
@@ -37,7 +37,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -53,24 +55,33 @@ import org.opennms.core.utils.DBUtils;
 import org.opennms.core.utils.InetAddressComparator;
 import org.opennms.netmgt.config.api.DatabaseSchemaConfig;
 import org.opennms.netmgt.config.filter.Table;
-import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.filter.FilterRuleCache.Kind;
 import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
 /**
  * <p>JdbcFilterDao class.</p>
  *
+ * <p>When an {@link EventSubscriptionService} is available to deliver the
+ * events which report changes to the node, interface and service tables,
+ * node maps, IP address lists and IP/service maps are cached until
+ * {@link #flushActiveIpAddressListCache()} is called or an event changes one
+ * of the tables the rule reads from.  Without one, nothing is cached.</p>
+ *
  * @author <a href="mailto:dj@opennms.org">DJ Gregor</a>
  * @version $Id: $
  */
 @Transactional
-public class JdbcFilterDao implements FilterDao, InitializingBean {
+public class JdbcFilterDao implements CachingFilterDao, EventListener, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcFilterDao.class);
     private static final Pattern SQL_KEYWORD_PATTERN = Pattern.compile("\\s+(?:AND|OR|(?:NOT )?(?:LIKE|IN)|IS (?:NOT )?DISTINCT FROM)\\s+|(?:\\s+IS (?:NOT )?NULL|::(?:TIMESTAMP|INET))(?!\\w)|(?<!\\w)(?:NOT\\s+|IPLIKE(?=\\())", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
     private static final Pattern SQL_QUOTE_PATTERN = Pattern.compile("'(?:[^']|'')*'|\"(?:[^\"]|\"\")*\"");
@@ -78,9 +89,13 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 	private static final Pattern SQL_VALUE_COLUMN_PATTERN = Pattern.compile("[a-zA-Z0-9_\\-]*[a-zA-Z][a-zA-Z0-9_\\-]*");
 	private static final Pattern SQL_IPLIKE_PATTERN = Pattern.compile("(\\w+)\\s+IPLIKE\\s+([0-9a-f.:*,-]+|###@\\d+@###)", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
 	private static final String SQL_IPLIKE6_RHS_REGEX = "^[0-9A-Fa-f:*,-]+$";
+	private static final String NOTIS_SUBSELECT_TABLES = "FROM ifServices, service";
+	private static final String CATINC_SUBSELECT_TABLES = "FROM category_node, categories";
 
 	private DataSource m_dataSource;
     private DatabaseSchemaConfig m_databaseSchemaConfigFactory;
+    private volatile EventSubscriptionService m_eventSubscriptionService;
+    private final FilterRuleCache m_cache = new FilterRuleCache();
 
     /**
      * <p>setDataSource</p>
@@ -118,6 +133,41 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         return m_databaseSchemaConfigFactory;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The listener is moved from any previously set service to the new one,
+     * and everything cached so far is dropped since changes made in between
+     * may have gone unnoticed.  The DAO is created before the event
+     * subscription service is, so this is called by
+     * {@link FilterDaoEventSubscriber} once both exist.  This does not touch
+     * the database, so it does not need a transaction.
+     */
+    @Override
+    @Transactional(propagation=Propagation.SUPPORTS)
+    public synchronized void setEventSubscriptionService(final EventSubscriptionService eventSubscriptionService) {
+        if (m_eventSubscriptionService == eventSubscriptionService) {
+            return;
+        }
+        if (m_eventSubscriptionService != null) {
+            m_eventSubscriptionService.removeEventListener(this, FilterRuleCache.getInvalidatingUeis());
+        }
+        m_eventSubscriptionService = eventSubscriptionService;
+        m_cache.clear();
+        if (eventSubscriptionService != null) {
+            eventSubscriptionService.addEventListener(this, FilterRuleCache.getInvalidatingUeis());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional(propagation=Propagation.SUPPORTS)
+    public EventSubscriptionService getEventSubscriptionService() {
+        return m_eventSubscriptionService;
+    }
+
     /**
      * <p>afterPropertiesSet</p>
      */
@@ -127,6 +177,39 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         Assert.state(m_databaseSchemaConfigFactory != null, "property databaseSchemaConfigFactory cannot be null");
     }
 
+    /**
+     * <p>destroy</p>
+     */
+    @Override
+    public void destroy() {
+        setEventSubscriptionService(null);
+    }
+
+    /**
+     * <p>getName</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return "JdbcFilterDao";
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Drop the cached results of every rule that reads from a table the
+     * event reports a change to.
+     */
+    @Override
+    public void onEvent(final Event e) {
+        final Set<String> tables = FilterRuleCache.getTablesChangedBy(e.getUei());
+        if (tables != null) {
+            final int count = m_cache.invalidate(tables);
+            LOG.debug("onEvent: {} invalidated {} cached filter results for tables {}", e.getUei(), count, tables);
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -138,6 +221,12 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      */
     @Override
     public SortedMap<Integer, String> getNodeMap(final String rule) throws FilterParseException {
+        final SortedMap<Integer, String> cachedMap = getCachedResult(Kind.NODE_MAP, rule);
+        if (cachedMap != null) {
+            return cachedMap;
+        }
+        final long generation = m_cache.getGeneration();
+
     	final SortedMap<Integer, String> resultMap = new TreeMap<Integer, String>();
         String sqlString;
 
@@ -179,12 +268,20 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             d.cleanUp();
         }
 
-        return Collections.unmodifiableSortedMap(resultMap);
+        final SortedMap<Integer, String> nodeMap = Collections.unmodifiableSortedMap(resultMap);
+        putCachedResult(Kind.NODE_MAP, rule, generation, nodeMap, "nodeID", "nodeLabel");
+        return nodeMap;
     }
 
     /** {@inheritDoc} */
     @Override
     public Map<InetAddress, Set<String>> getIPAddressServiceMap(final String rule) throws FilterParseException {
+        final Map<InetAddress, Set<String>> cachedServices = getCachedResult(Kind.IP_SERVICE_MAP, rule);
+        if (cachedServices != null) {
+            return copyIPAddressServiceMap(cachedServices);
+        }
+        final long generation = m_cache.getGeneration();
+
         final Map<InetAddress, Set<String>> ipServices = new TreeMap<InetAddress, Set<String>>(new InetAddressComparator());
         String sqlString;
 
@@ -239,20 +336,36 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             d.cleanUp();
         }
 
+        if (isCaching()) {
+            putCachedResult(Kind.IP_SERVICE_MAP, rule, generation, copyIPAddressServiceMap(ipServices), "ipAddr", "serviceName");
+        }
         return ipServices;
     }
 
+    private static Map<InetAddress, Set<String>> copyIPAddressServiceMap(final Map<InetAddress, Set<String>> ipServices) {
+        final Map<InetAddress, Set<String>> copy = new TreeMap<InetAddress, Set<String>>(new InetAddressComparator());
+        for (final Map.Entry<InetAddress, Set<String>> entry : ipServices.entrySet()) {
+            copy.put(entry.getKey(), new TreeSet<String>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Despite the name, this drops every cached rule result.
+     */
     @Override
-    @CacheEvict(value="activeIpAddressList", allEntries=true)
-    public void flushActiveIpAddressListCache() {}
+    public void flushActiveIpAddressListCache() {
+        m_cache.clear();
+    }
 
     /**
      * {@inheritDoc}
      */
-    @Cacheable("activeIpAddressList")
     @Override
     public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
-    	return getIPAddressList(rule, true);
+    	return getCachedIPAddressList(Kind.ACTIVE_IP_LIST, rule, true);
     }
 
     /**
@@ -260,7 +373,82 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      */
     @Override
     public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
-    	return getIPAddressList(rule, false);
+    	return getCachedIPAddressList(Kind.IP_LIST, rule, false);
+    }
+
+    private List<InetAddress> getCachedIPAddressList(final Kind kind, final String rule, final boolean filterDeleted) throws FilterParseException {
+        final List<InetAddress> cachedList = getCachedResult(kind, rule);
+        if (cachedList != null) {
+            return new ArrayList<InetAddress>(cachedList);
+        }
+        final long generation = m_cache.getGeneration();
+
+        final List<InetAddress> resultList = getIPAddressList(rule, filterDeleted);
+        if (isCaching()) {
+            putCachedResult(kind, rule, generation, Collections.unmodifiableList(new ArrayList<InetAddress>(resultList)), "ipAddr");
+        }
+        return resultList;
+    }
+
+    /**
+     * Get the active IP addresses of a rule as a set, so that a single address
+     * can be checked against the rule without going to the database.
+     */
+    private Set<InetAddress> getActiveIPAddressSet(final String rule) throws FilterParseException {
+        final Set<InetAddress> cachedSet = getCachedResult(Kind.ACTIVE_IP_SET, rule);
+        if (cachedSet != null) {
+            return cachedSet;
+        }
+        final long generation = m_cache.getGeneration();
+
+        final Set<InetAddress> addressSet = Collections.unmodifiableSet(new HashSet<InetAddress>(getActiveIPAddressList(rule)));
+        putCachedResult(Kind.ACTIVE_IP_SET, rule, generation, addressSet, "ipAddr");
+        return addressSet;
+    }
+
+    /**
+     * Results are only cached while there is an event subscription to keep
+     * them current.
+     */
+    private boolean isCaching() {
+        return m_eventSubscriptionService != null;
+    }
+
+    private <T> T getCachedResult(final Kind kind, final String rule) {
+        if (rule == null || !isCaching()) {
+            return null;
+        }
+        return m_cache.get(kind, rule);
+    }
+
+    private void putCachedResult(final Kind kind, final String rule, final long generation, final Object result, final String... columns) {
+        if (rule == null || !isCaching()) {
+            return;
+        }
+        m_cache.put(kind, rule, getRuleTables(rule, columns), result, generation);
+    }
+
+    /**
+     * Get the tables the query for a rule reads from, including the tables
+     * of the sub-selects that "notis" and "catinc" prefixed values expand to.
+     */
+    private Collection<String> getRuleTables(final String rule, final String... columns) throws FilterParseException {
+        final List<Table> tables = new ArrayList<Table>();
+        for (final String column : columns) {
+            m_databaseSchemaConfigFactory.addColumn(tables, column);
+        }
+        final String where = parseRule(tables, rule);
+
+        final Set<String> ruleTables = new HashSet<String>(m_databaseSchemaConfigFactory.getJoinTables(tables));
+        if (where.contains(NOTIS_SUBSELECT_TABLES)) {
+            ruleTables.add("ifServices");
+            ruleTables.add("service");
+        }
+        if (where.contains(CATINC_SUBSELECT_TABLES)) {
+            ruleTables.add("category_node");
+            ruleTables.add("categories");
+        }
+        return ruleTables;
     }
 
     private List<InetAddress> getIPAddressList(final String rule, final boolean filterDeleted) throws FilterParseException {
@@ -332,10 +520,11 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             return true;
         } else {
             /*
-             * see if the ip address is contained in the list that the
+             * see if the ip address is contained in the set that the
              * rule returns
              */
-            return getActiveIPAddressList(rule).contains(addr(addr));
+            final InetAddress address = addr(addr);
+            return address != null && getActiveIPAddressSet(rule).contains(address);
         }
     }
 
@@ -635,9 +824,9 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
                 if (regex.group().startsWith("is")) {
                     regex.appendReplacement(tempStringBuff, m_databaseSchemaConfigFactory.addColumn(tables, "serviceName") + " = '" + regex.group().substring(2) + "'");
                 } else if (regex.group().startsWith("notis")) {
-                    regex.appendReplacement(tempStringBuff, m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr") + " NOT IN (SELECT ifServices.ipAddr FROM ifServices, service WHERE service.serviceName ='" + regex.group().substring(5) + "' AND service.serviceID = ifServices.serviceID)");
+                    regex.appendReplacement(tempStringBuff, m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr") + " NOT IN (SELECT ifServices.ipAddr " + NOTIS_SUBSELECT_TABLES + " WHERE service.serviceName ='" + regex.group().substring(5) + "' AND service.serviceID = ifServices.serviceID)");
                 } else if (regex.group().startsWith("catinc")) {
-                    regex.appendReplacement(tempStringBuff, m_databaseSchemaConfigFactory.addColumn(tables, "nodeID") + " IN (SELECT category_node.nodeID FROM category_node, categories WHERE categories.categoryID = category_node.categoryID AND categories.categoryName = '" + regex.group().substring(6) + "')");
+                    regex.appendReplacement(tempStringBuff, m_databaseSchemaConfigFactory.addColumn(tables, "nodeID") + " IN (SELECT category_node.nodeID " + CATINC_SUBSELECT_TABLES + " WHERE categories.categoryID = category_node.categoryID AND categories.categoryName = '" + regex.group().substring(6) + "')");
                 } else if (regex.group().matches(SQL_IPLIKE6_RHS_REGEX)) {
                     // Do nothing, it's apparently an IPv6 IPLIKE expression right-hand side
                 } else {
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.filter.FilterRuleCache.Kind;
+
+public class FilterRuleCacheTest {
+
+    @Test
+    public void canNormalizeRules() {
+        assertEquals("ipaddr IPLIKE *.*.*.* & isICMP", FilterRuleCache.normalize("  ipaddr  IPLIKE *.*.*.*\n&\tisICMP "));
+        assertEquals("nodeLabel == 'a  b'", FilterRuleCache.normalize("nodeLabel  ==   'a  b'"));
+        assertEquals("nodeLabel == \"a  'b\"", FilterRuleCache.normalize("nodeLabel == \"a  'b\""));
+    }
+
+    @Test
+    public void canCacheResultsPerKind() {
+        final FilterRuleCache cache = new FilterRuleCache();
+        cache.put(Kind.IP_LIST, "isICMP", Arrays.asList("ipInterface", "ifServices", "service"), "ips", cache.getGeneration());
+
+        assertEquals("ips", cache.get(Kind.IP_LIST, " isICMP "));
+        assertNull(cache.get(Kind.ACTIVE_IP_LIST, "isICMP"));
+    }
+
+    @Test
+    public void canInvalidateOnlyAffectedResults() {
+        final FilterRuleCache cache = new FilterRuleCache();
+        cache.put(Kind.IP_LIST, "isICMP", Arrays.asList("ipInterface", "ifServices", "service"), "services", cache.getGeneration());
+        cache.put(Kind.NODE_MAP, "nodeLabel == 'a'", Arrays.asList("ipInterface", "node"), "labels", cache.getGeneration());
+        cache.put(Kind.IP_LIST, "catincRouters", Arrays.asList("ipInterface", "node", "category_node", "categories"), "categories", cache.getGeneration());
+
+        assertEquals(1, cache.invalidate(FilterRuleCache.getTablesChangedBy(EventConstants.NODE_GAINED_SERVICE_EVENT_UEI)));
+        assertNull(cache.get(Kind.IP_LIST, "isICMP"));
+        assertNotNull(cache.get(Kind.NODE_MAP, "nodeLabel == 'a'"));
+
+        assertEquals(1, cache.invalidate(FilterRuleCache.getTablesChangedBy(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI)));
+        assertNull(cache.get(Kind.IP_LIST, "catincRouters"));
+
+        assertEquals(1, cache.invalidate(FilterRuleCache.getTablesChangedBy(EventConstants.INTERFACE_DELETED_EVENT_UEI)));
+        assertEquals(0, cache.size());
+
+        assertNull(FilterRuleCache.getTablesChangedBy(EventConstants.NODE_DOWN_EVENT_UEI));
+    }
+
+    @Test
+    public void doesNotCacheResultsFromTablesWithoutEvents() {
+        final FilterRuleCache cache = new FilterRuleCache();
+        cache.put(Kind.IP_LIST, "ipaddr IPLIKE *.*.*.*", Arrays.asList("ipInterface"), "ips", cache.getGeneration());
+        cache.put(Kind.IP_LIST, "applicationName == 'a'", Arrays.asList("ipInterface", "ifServices", "application_service_map", "applications"), "applications", cache.getGeneration());
+
+        assertEquals("ips", cache.get(Kind.IP_LIST, "ipaddr IPLIKE *.*.*.*"));
+        assertNull(cache.get(Kind.IP_LIST, "applicationName == 'a'"));
+    }
+
+    @Test
+    public void canInvalidateManagedInterfaces() {
+        final FilterRuleCache cache = new FilterRuleCache();
+        cache.put(Kind.ACTIVE_IP_LIST, "ipaddr IPLIKE *.*.*.*", Arrays.asList("ipInterface"), "ips", cache.getGeneration());
+
+        // sent by the web UI after it changes ipInterface.isManaged
+        assertEquals(1, cache.invalidate(FilterRuleCache.getTablesChangedBy(EventConstants.RESTART_SCM_EVENT_UEI)));
+        assertNull(cache.get(Kind.ACTIVE_IP_LIST, "ipaddr IPLIKE *.*.*.*"));
+    }
+
+    @Test
+    public void doesNotCacheResultsFromBeforeAnInvalidation() {
+        final FilterRuleCache cache = new FilterRuleCache();
+        final long generation = cache.getGeneration();
+        cache.invalidate(Arrays.asList("node"));
+
+        cache.put(Kind.NODE_MAP, "nodeLabel == 'a'", Arrays.asList("ipInterface", "node"), "labels", generation);
+        assertNull(cache.get(Kind.NODE_MAP, "nodeLabel == 'a'"));
+    }
+}
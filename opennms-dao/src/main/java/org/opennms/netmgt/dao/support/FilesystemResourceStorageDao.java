@@ -151,7 +151,9 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     @Override
     public boolean delete(ResourcePath path) {
-        return FileUtils.deleteQuietly(toFile(path));
+        final File dir = toFile(path);
+        RrdResourceAttributeUtils.deleteProperties(dir);
+        return FileUtils.deleteQuietly(dir);
     }
 
     private boolean exists(Path root, int depth) {
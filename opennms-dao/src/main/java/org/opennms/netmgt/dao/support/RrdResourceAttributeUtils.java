@@ -43,6 +43,7 @@ import org.opennms.netmgt.model.OnmsAttribute;
 import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.model.StringPropertyAttribute;
+import org.opennms.netmgt.rrd.RrdPropertiesCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessResourceFailureException;
@@ -62,7 +63,7 @@ public abstract class RrdResourceAttributeUtils {
      */
     public static final String STRINGS_PROPERTIES_FILE_NAME = "strings.properties";
 
-    private static final PropertiesCache s_cache = new PropertiesCache();
+    private static final PropertiesCache s_cache = RrdPropertiesCache.getInstance();
 
     /**
      * <p>getAttributesAtRelativePath</p>
@@ -255,4 +256,18 @@ public abstract class RrdResourceAttributeUtils {
             throw new DataAccessResourceFailureException(message, e);
         }
     }
+
+    /**
+     * Forgets the string, data source and meta data properties of all
+     * resources in or below the given directory.
+     *
+     * @param resourceDir a {@link java.io.File} object.
+     */
+    protected static void deleteProperties(File resourceDir) {
+        try {
+            s_cache.removeProperties(resourceDir);
+        } catch (IOException e) {
+            LOG.warn("Unable to remove the properties below {}", resourceDir, e);
+        }
+    }
 }
@@ -54,6 +54,7 @@ import org.opennms.netmgt.dao.DatabasePopulator;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.ServiceTypeDao;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.filter.FilterDaoFactory;
 import org.opennms.netmgt.filter.JdbcFilterDao;
 import org.opennms.netmgt.model.AbstractEntityVisitor;
@@ -61,6 +62,7 @@ import org.opennms.netmgt.model.EntityVisitor;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsServiceType;
+import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.opennms.test.ThrowableAnticipator;
 import org.springframework.beans.factory.InitializingBean;
@@ -273,6 +275,30 @@ public class JdbcFilterDaoIT implements InitializingBean {
         });
     }
 
+    @Test
+    @JUnitTemporaryDatabase // This test manages its own transactions so use a fresh database
+    public void testActiveIPListIsCachedUntilInterfaceChanges() throws Exception {
+        assertTrue(m_dao.isValid("192.168.1.1", "ipaddr == '192.168.1.1'"));
+
+        m_transTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            public void doInTransactionWithoutResult(TransactionStatus status) {
+                final OnmsIpInterface iface = m_interfaceDao.findByIpAddress("192.168.1.1").get(0);
+                iface.setIsManaged("D");
+                m_interfaceDao.save(iface);
+                m_interfaceDao.flush();
+            }
+        });
+
+        assertTrue("the cached result should still be used", m_dao.isValid("192.168.1.1", "ipaddr  ==  '192.168.1.1'"));
+
+        m_dao.onEvent(new EventBuilder(EventConstants.NODE_LABEL_CHANGED_EVENT_UEI, "test").getEvent());
+        assertTrue("a node label change does not affect an ipaddr rule", m_dao.isValid("192.168.1.1", "ipaddr == '192.168.1.1'"));
+
+        m_dao.onEvent(new EventBuilder(EventConstants.INTERFACE_DELETED_EVENT_UEI, "test").getEvent());
+        assertFalse("an interface change should invalidate the cached result", m_dao.isValid("192.168.1.1", "ipaddr == '192.168.1.1'"));
+    }
+
     @Test
     @Transactional
     public void testIsValid() throws Exception {
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the response times of pinging a number of hosts, one response
+ * (or error or timeout) is expected for every host.
+ */
+public class BulkPingResponseCallback implements PingResponseCallback {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkPingResponseCallback.class);
+
+    private final CountDownLatch m_latch;
+
+    /**
+     * Value of round-trip-time for the ping packets in microseconds by address, guarded by itself.
+     */
+    private final Map<InetAddress, Number> m_responseTimes = new LinkedHashMap<InetAddress, Number>();
+
+    /**
+     * <p>Constructor for BulkPingResponseCallback.</p>
+     *
+     * @param hosts the hosts to ping, duplicates are ignored
+     */
+    public BulkPingResponseCallback(Collection<InetAddress> hosts) {
+        for (InetAddress host : hosts) {
+            m_responseTimes.put(host, null);
+        }
+        m_latch = new CountDownLatch(m_responseTimes.size());
+    }
+
+    /**
+     * @return the distinct hosts to ping, one response is expected for each of them.
+     */
+    public Collection<InetAddress> getHosts() {
+        return Collections.unmodifiableCollection(m_responseTimes.keySet());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handleError(InetAddress address, EchoPacket request, Throwable t) {
+        LOG.debug("Error pinging {}: {}", address, t.getMessage());
+        m_latch.countDown();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handleResponse(InetAddress address, EchoPacket response) {
+        try {
+            if (response != null) {
+                synchronized (m_responseTimes) {
+                    m_responseTimes.put(address, response.elapsedTime(TimeUnit.MICROSECONDS));
+                }
+            }
+        } finally {
+            m_latch.countDown();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handleTimeout(InetAddress address, EchoPacket request) {
+        m_latch.countDown();
+    }
+
+    /**
+     * <p>waitFor</p>
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    public void waitFor() throws InterruptedException {
+        m_latch.await();
+    }
+
+    /**
+     * <p>getResponseTimes</p>
+     *
+     * @return the response times in microseconds by address, null for the hosts which did not respond.
+     */
+    public Map<InetAddress, Number> getResponseTimes() {
+        synchronized (m_responseTimes) {
+            return new LinkedHashMap<InetAddress, Number>(m_responseTimes);
+        }
+    }
+}
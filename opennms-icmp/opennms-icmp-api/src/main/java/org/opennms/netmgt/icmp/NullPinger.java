@@ -1,7 +1,9 @@
 package org.opennms.netmgt.icmp;
 
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +48,12 @@ public class NullPinger implements Pinger {
         throw UNSUPPORTED;
     }
 
+    @Override
+    public Map<InetAddress, Number> ping(Collection<InetAddress> hosts, long timeout, int retries, int packetsize) throws Exception {
+        LOG.trace("bulk-ping: hosts={}, timeout={}, retries={}, packetsize={}", hosts.size(), timeout, retries, packetsize);
+        throw UNSUPPORTED;
+    }
+
     @Override
     public void initialize4() throws Exception {
         LOG.info("initialize4() called.");
@@ -30,7 +30,9 @@ package org.opennms.netmgt.icmp;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>Pinger class.</p>
@@ -117,6 +119,20 @@ public interface Pinger {
 	 *     echo reply, it will contain a number, otherwise a null value.
 	 */
 	public List<Number> parallelPing(InetAddress host, int count, long timeout, long pingInterval) throws Exception;
+
+	/**
+	 * Ping a number of remote hosts at once, and then return the response times
+	 * by address.  Implementations may pace the echo requests rather than sending
+	 * them all at the same time, so large batches do not flood the network.
+	 *
+     * @param hosts The {@link java.net.InetAddress} addresses to poll.
+     * @param timeout The time to wait between each retry.
+     * @param retries The number of times to retry.
+     * @param packetsize The size in byte of the ICMP packet.
+	 * @return a {@link java.util.Map} of response times in microseconds, in the iteration order of the hosts.
+	 *     If a host is reachable and has responded with an echo reply, it will contain a number, otherwise a null value.
+	 */
+	public Map<InetAddress, Number> ping(Collection<InetAddress> hosts, long timeout, int retries, int packetsize) throws Exception;
 	
 	/**
 	 * Initialize IPv4 in this Pinger implementation.  If unable to do so, implementations should throw an exception.
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.TokenBucket;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pings many hosts at once. All of the echo requests are sent by a single
+ * thread which paces them with a {@link TokenBucket}, so a large batch does
+ * not flood the network or overflow the socket buffers. The outstanding
+ * requests are kept in a table keyed by the thread id carried in the echo
+ * payload, and the replies are matched without going through the request
+ * tracker.
+ *
+ * The thread ids of the bulk requests have {@link #BULK_THREAD_ID} set so
+ * that {@link JnaIcmpMessenger} can tell their replies apart.
+ */
+class JnaBulkPinger implements Runnable, PingReplyListener {
+    private static final Logger LOG = LoggerFactory.getLogger(JnaBulkPinger.class);
+
+    /**
+     * Marks the thread ids of bulk requests, the ids handed out by
+     * {@link JnaPingRequest#getNextTID()} never get this large.
+     */
+    static final long BULK_THREAD_ID = 1L << 62;
+
+    /**
+     * Added to the time a batch should take before its callers stop waiting.
+     */
+    private static final long WAIT_MARGIN = TimeUnit.SECONDS.toNanos(5);
+
+    private final JnaIcmpMessenger m_messenger;
+
+    private final ReentrantLock m_lock = new ReentrantLock();
+
+    /**
+     * Signalled when attempts are queued for sending.
+     */
+    private final Condition m_queued = m_lock.newCondition();
+
+    /**
+     * The following fields are guarded by m_lock.
+     */
+    private final TokenBucket m_bucket;
+
+    private final ArrayDeque<Attempt> m_sendQueue = new ArrayDeque<Attempt>();
+
+    private final PriorityQueue<Attempt> m_deadlines = new PriorityQueue<Attempt>(64, new Comparator<Attempt>() {
+        @Override
+        public int compare(final Attempt a, final Attempt b) {
+            return Long.compare(a.m_deadline - b.m_deadline, 0);
+        }
+    });
+
+    private final LongObjectHashMap<Attempt> m_outstanding = new LongObjectHashMap<Attempt>(1024);
+
+    private long m_nextThreadId = 0;
+
+    private Thread m_thread = null;
+
+    JnaBulkPinger(final JnaIcmpMessenger messenger, final double rate, final int burst) {
+        m_messenger = messenger;
+        m_bucket = new TokenBucket(rate, burst, System.nanoTime());
+    }
+
+    static boolean isBulkThreadId(final long threadId) {
+        return (threadId & BULK_THREAD_ID) != 0;
+    }
+
+    void start(final String name) {
+        m_lock.lock();
+        try {
+            if (m_thread != null) return;
+            m_messenger.setBulkPingReplyListener(this);
+            m_thread = new Thread(this, name);
+            m_thread.setDaemon(true);
+            m_thread.start();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Pings the hosts and waits until each of them has either replied or
+     * run out of retries. If the batch takes much longer than its timeouts
+     * and the packet rate allow, the hosts which are still pending are
+     * given up on and reported as not responding.
+     *
+     * @return the response times in microseconds by address, null for the hosts which did not respond.
+     */
+    Map<InetAddress, Number> ping(final Collection<InetAddress> hosts, final long timeout, final int retries, final int packetSize) throws InterruptedException {
+        final Batch batch = new Batch(new LinkedHashSet<InetAddress>(hosts), timeout, packetSize);
+        if (batch.m_hosts.length > 0) {
+            m_lock.lock();
+            try {
+                for (int i = 0; i < batch.m_hosts.length; i++) {
+                    m_sendQueue.add(new Attempt(batch, i, retries));
+                }
+                m_queued.signal();
+            } finally {
+                m_lock.unlock();
+            }
+
+            boolean done = false;
+            try {
+                done = batch.m_latch.await(getMaxWait(batch.m_hosts.length, timeout, retries), TimeUnit.NANOSECONDS);
+            } finally {
+                if (!done) {
+                    cancel(batch);
+                }
+            }
+            if (!done) {
+                LOG.warn("Bulk ping of {} hosts did not finish in time, {} hosts are reported as not responding.", batch.m_hosts.length, batch.m_latch.getCount());
+            }
+        }
+
+        final Map<InetAddress, Number> responseTimes = new LinkedHashMap<InetAddress, Number>();
+        for (int i = 0; i < batch.m_hosts.length; i++) {
+            responseTimes.put(batch.m_hosts[i], batch.m_responseTimes[i]);
+        }
+        return responseTimes;
+    }
+
+    /**
+     * The longest a batch should take: every attempt timing out, plus the
+     * time it takes to send all of the attempts at the configured rate.
+     */
+    private long getMaxWait(final int hosts, final long timeout, final int retries) {
+        final long attempts = (long)hosts * (retries + 1);
+        long wait = (retries + 1) * TimeUnit.MILLISECONDS.toNanos(timeout) + WAIT_MARGIN;
+        if (!m_bucket.isUnlimited()) {
+            wait += (long)Math.ceil(attempts * TimeUnit.SECONDS.toNanos(1) / m_bucket.getRate());
+        }
+        return wait;
+    }
+
+    /**
+     * Drops the queued and outstanding attempts of a batch which is no
+     * longer waited for.
+     */
+    private void cancel(final Batch batch) {
+        m_lock.lock();
+        try {
+            for (final Iterator<Attempt> it = m_sendQueue.iterator(); it.hasNext();) {
+                if (it.next().m_batch == batch) {
+                    it.remove();
+                }
+            }
+            for (final Iterator<Attempt> it = m_deadlines.iterator(); it.hasNext();) {
+                final Attempt attempt = it.next();
+                if (attempt.m_batch == batch) {
+                    it.remove();
+                    m_outstanding.remove(attempt.m_threadId);
+                }
+            }
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        Logging.putPrefix("icmp");
+        try {
+            while (true) {
+                final Attempt attempt = nextAttempt();
+                try {
+                    m_messenger.sendEcho(attempt.getHost(), attempt.m_index & 0xffff, attempt.m_threadId, attempt.m_batch.m_packetSize);
+                } catch (final InterruptedException e) {
+                    throw e;
+                } catch (final Throwable t) {
+                    LOG.debug("Error pinging {}: {}", attempt.getHost(), t.getMessage());
+                    if (complete(attempt)) {
+                        attempt.m_batch.complete(attempt.m_index, null);
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            LOG.debug("Bulk ping sender interrupted, exiting.");
+        }
+    }
+
+    /**
+     * Waits until an attempt is queued and a token is available, and then
+     * registers the attempt as outstanding. The expired attempts are retried
+     * or timed out while waiting.
+     */
+    private Attempt nextAttempt() throws InterruptedException {
+        m_lock.lock();
+        try {
+            while (true) {
+                final long now = System.nanoTime();
+                expire(now);
+
+                long wait = Long.MAX_VALUE;
+                if (!m_sendQueue.isEmpty()) {
+                    wait = m_bucket.tryAcquire(now);
+                    if (wait == 0) {
+                        final Attempt attempt = m_sendQueue.poll();
+                        attempt.m_threadId = BULK_THREAD_ID | (m_nextThreadId++ & (BULK_THREAD_ID - 1));
+                        attempt.m_deadline = now + attempt.m_batch.m_timeoutNanos;
+                        m_outstanding.put(attempt.m_threadId, attempt);
+                        m_deadlines.add(attempt);
+                        return attempt;
+                    }
+                }
+                if (!m_deadlines.isEmpty()) {
+                    wait = Math.min(wait, Math.max(1, m_deadlines.peek().m_deadline - now));
+                }
+
+                if (wait == Long.MAX_VALUE) {
+                    m_queued.await();
+                } else {
+                    m_queued.awaitNanos(wait);
+                }
+            }
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Retries or times out the outstanding attempts which are past their deadline.
+     */
+    private void expire(final long now) {
+        Attempt attempt;
+        while ((attempt = m_deadlines.peek()) != null && attempt.m_deadline - now <= 0) {
+            m_deadlines.poll();
+            if (m_outstanding.remove(attempt.m_threadId) == null) {
+                // already answered
+                continue;
+            }
+            if (attempt.m_retries > 0) {
+                LOG.debug("Retrying ping of {}", attempt.getHost());
+                m_sendQueue.addFirst(new Attempt(attempt.m_batch, attempt.m_index, attempt.m_retries - 1));
+            } else {
+                LOG.debug("Ping of {} timed out", attempt.getHost());
+                attempt.m_batch.complete(attempt.m_index, null);
+            }
+        }
+    }
+
+    /**
+     * Removes the attempt from the outstanding table.
+     *
+     * @return true if the attempt was still outstanding
+     */
+    private boolean complete(final Attempt attempt) {
+        m_lock.lock();
+        try {
+            return m_outstanding.remove(attempt.m_threadId) != null;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        final Attempt attempt;
+        m_lock.lock();
+        try {
+            final Attempt outstanding = m_outstanding.get(packet.getThreadId());
+            if (outstanding == null || !outstanding.getHost().equals(address)) {
+                return;
+            }
+            attempt = m_outstanding.remove(packet.getThreadId());
+        } finally {
+            m_lock.unlock();
+        }
+        attempt.m_batch.complete(attempt.m_index, packet.elapsedTime(TimeUnit.MICROSECONDS));
+    }
+
+    /**
+     * The hosts pinged by a single call and their response times.
+     */
+    private static final class Batch {
+        private final InetAddress[] m_hosts;
+        private final Number[] m_responseTimes;
+        private final long m_timeoutNanos;
+        private final int m_packetSize;
+        private final CountDownLatch m_latch;
+
+        private Batch(final Collection<InetAddress> hosts, final long timeout, final int packetSize) {
+            m_hosts = hosts.toArray(new InetAddress[hosts.size()]);
+            m_responseTimes = new Number[m_hosts.length];
+            m_timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            m_packetSize = packetSize;
+            m_latch = new CountDownLatch(m_hosts.length);
+        }
+
+        /**
+         * Records the result for one host, the latch publishes it to the waiting thread.
+         */
+        private void complete(final int index, final Number responseTime) {
+            m_responseTimes[index] = responseTime;
+            m_latch.countDown();
+        }
+    }
+
+    /**
+     * A single echo request, retries are sent as new attempts with a new thread id.
+     */
+    private static final class Attempt {
+        private final Batch m_batch;
+        private final int m_index;
+        private final int m_retries;
+        private long m_threadId;
+        private long m_deadline;
+
+        private Attempt(final Batch batch, final int index, final int retries) {
+            m_batch = batch;
+            m_index = index;
+            m_retries = retries;
+        }
+
+        private InetAddress getHost() {
+            return m_batch.m_hosts[m_index];
+        }
+    }
+}
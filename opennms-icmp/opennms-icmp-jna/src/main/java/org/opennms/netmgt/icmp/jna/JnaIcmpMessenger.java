@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.icmp.jna;
 
+import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.util.Queue;
 
@@ -50,8 +52,15 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 	private V4Pinger m_v4;
 	private V6Pinger m_v6;
     private Queue<JnaPingReply> pendingReplies = null;
+    private final int m_pingerId;
+
+    /**
+     * Receives the replies to the echo requests sent by {@link JnaBulkPinger}.
+     */
+    private volatile PingReplyListener m_bulkListener = null;
 
 	public JnaIcmpMessenger(final int pingerId) throws Exception {
+	    m_pingerId = pingerId;
 	    Throwable error = null;
 	    try {
 	        m_v4 = new V4Pinger(pingerId);
@@ -97,6 +106,25 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 		request.send(m_v4, m_v6);
 	}
 
+    /**
+     * Sends a single echo request which is not tracked by the request tracker.
+     *
+     * @throws IcmpMessengerIOException if the address family of the host is not available
+     */
+    public void sendEcho(final InetAddress addr, final int sequenceNumber, final long threadId, final int packetSize) throws IcmpMessengerIOException, InterruptedException {
+        if (addr instanceof Inet4Address && m_v4 != null) {
+            m_v4.ping((Inet4Address)addr, m_pingerId, sequenceNumber, threadId, 1, 0, packetSize);
+        } else if (addr instanceof Inet6Address && m_v6 != null) {
+            m_v6.ping((Inet6Address)addr, m_pingerId, sequenceNumber, threadId, 1, 0, packetSize);
+        } else {
+            throw new IcmpMessengerIOException("Unable to ping " + addr + ", the address family is not available.");
+        }
+    }
+
+    public void setBulkPingReplyListener(final PingReplyListener listener) {
+        m_bulkListener = listener;
+    }
+
         @Override
 	public void start(final Queue<JnaPingReply> replyQueue) {
         pendingReplies = replyQueue;
@@ -106,6 +134,11 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 
         @Override
 	public void onPingReply(final InetAddress address, final EchoPacket packet) {
+		final PingReplyListener bulkListener = m_bulkListener;
+		if (bulkListener != null && JnaBulkPinger.isBulkThreadId(packet.getThreadId())) {
+			bulkListener.onPingReply(address, packet);
+			return;
+		}
 		pendingReplies.offer(new JnaPingReply(address, packet));
 	}
 
@@ -35,7 +35,9 @@ import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_TIMEOUT;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.security.SecureRandom;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 import org.opennms.core.logging.Logging;
@@ -57,10 +59,21 @@ import org.slf4j.LoggerFactory;
 public class JnaPinger implements Pinger {
     private static final Logger LOG = LoggerFactory.getLogger(JnaPinger.class);
 
+    /**
+     * The number of echo requests per second sent by the bulk ping API, zero or less for no limit.
+     */
+    public static final String BULK_PING_RATE_PROPERTY = "org.opennms.netmgt.icmp.bulkPingRate";
+
+    /**
+     * The number of echo requests the bulk ping API may send back to back before it is paced.
+     */
+    public static final String BULK_PING_BURST_PROPERTY = "org.opennms.netmgt.icmp.bulkPingBurst";
+
     private final int m_pingerId = new SecureRandom().nextInt(Short.MAX_VALUE);
 
     private RequestTracker<JnaPingRequest, JnaPingReply> m_pingTracker;
     private JnaIcmpMessenger m_messenger;
+    private JnaBulkPinger m_bulkPinger;
 
     /**
      * Initializes this singleton
@@ -77,6 +90,20 @@ public class JnaPinger implements Pinger {
         m_pingTracker.start();
     }
 
+    /**
+     * Creates the bulk pinger and its sender thread on first use.
+     */
+    private synchronized JnaBulkPinger getBulkPinger() throws Exception {
+        initialize();
+        if (m_bulkPinger == null) {
+            final int rate = Integer.getInteger(BULK_PING_RATE_PROPERTY, 1000);
+            final int burst = Integer.getInteger(BULK_PING_BURST_PROPERTY, 100);
+            m_bulkPinger = new JnaBulkPinger(m_messenger, rate, burst);
+            m_bulkPinger.start("JNA-ICMP-" + m_pingerId + "-Bulk-Sender");
+        }
+        return m_bulkPinger;
+    }
+
     @Override
     public void initialize4() throws Exception {
         initialize();
@@ -203,6 +230,22 @@ public class JnaPinger implements Pinger {
         return ping(host, DEFAULT_TIMEOUT, DEFAULT_RETRIES);
     }
 
+    /**
+     * Pings all of the hosts at once. The echo requests are sent by a single
+     * thread at the rate given by the {@value #BULK_PING_RATE_PROPERTY} property.
+     *
+     * @param hosts the {@link java.net.InetAddress} addresses to poll.
+     * @param timeout a long.
+     * @param retries a int.
+     * @param packetsize The size in byte of the ICMP packet.
+     * @return the response times in microseconds by address, null for the hosts which did not respond.
+     * @throws java.lang.Exception if any.
+     */
+    @Override
+    public Map<InetAddress, Number> ping(final Collection<InetAddress> hosts, final long timeout, final int retries, final int packetsize) throws Exception {
+        return getBulkPinger().ping(hosts, timeout == 0 ? DEFAULT_TIMEOUT : timeout, retries, packetsize);
+    }
+
     /**
      * <p>parallelPing</p>
      *
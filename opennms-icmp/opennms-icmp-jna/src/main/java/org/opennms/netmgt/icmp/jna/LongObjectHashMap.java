@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.util.Arrays;
+
+/**
+ * A hash map with primitive long keys which does not box the keys or
+ * allocate an entry per mapping. It uses open addressing with linear
+ * probing, null values are not supported.
+ *
+ * Instances are not thread safe.
+ */
+final class LongObjectHashMap<V> {
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] m_keys;
+
+    /**
+     * The values, a null value marks a free slot.
+     */
+    private Object[] m_values;
+
+    private int m_mask;
+
+    private int m_size = 0;
+
+    LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongObjectHashMap(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    int size() {
+        return m_size;
+    }
+
+    boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    V get(final long key) {
+        final int slot = find(key);
+        return slot < 0 ? null : value(slot);
+    }
+
+    boolean containsKey(final long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return the previous value for the key, or null
+     */
+    V put(final long key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not supported");
+        }
+
+        int slot = slot(key);
+        while (m_values[slot] != null) {
+            if (m_keys[slot] == key) {
+                final V previous = value(slot);
+                m_values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & m_mask;
+        }
+
+        m_keys[slot] = key;
+        m_values[slot] = value;
+        if (++m_size > (m_mask + 1) / 2) {
+            rehash((m_mask + 1) * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value for the key, or null
+     */
+    V remove(final long key) {
+        final int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        final V previous = value(slot);
+        m_size--;
+
+        // shift the following entries of the probe sequence back so that
+        // no tombstones are needed
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & m_mask;
+            if (m_values[next] == null) {
+                break;
+            }
+            final int home = slot(m_keys[next]);
+            final boolean movable = next > gap ? (home <= gap || home > next) : (home <= gap && home > next);
+            if (movable) {
+                m_keys[gap] = m_keys[next];
+                m_values[gap] = m_values[next];
+                gap = next;
+            }
+        }
+        m_values[gap] = null;
+        return previous;
+    }
+
+    void clear() {
+        Arrays.fill(m_values, null);
+        m_size = 0;
+    }
+
+    private int find(final long key) {
+        int slot = slot(key);
+        while (m_values[slot] != null) {
+            if (m_keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & m_mask;
+        }
+        return -1;
+    }
+
+    private int slot(final long key) {
+        // spread sequential keys over the table
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32)) & m_mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(final int slot) {
+        return (V)m_values[slot];
+    }
+
+    private void allocate(final int capacity) {
+        m_keys = new long[capacity];
+        m_values = new Object[capacity];
+        m_mask = capacity - 1;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] keys = m_keys;
+        final Object[] values = m_values;
+        allocate(capacity);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                int slot = slot(keys[i]);
+                while (m_values[slot] != null) {
+                    slot = (slot + 1) & m_mask;
+                }
+                m_keys[slot] = keys[i];
+                m_values[slot] = values[i];
+            }
+        }
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the number of pings per second of the bulk ping API, compared to
+ * pinging the same hosts one after the other, and the error of the reported
+ * latency under load. The hosts are loopback addresses, so the latency error
+ * is the difference between the round-trip times reported under load and the
+ * round-trip time of a single ping on an idle pinger. It is printed at the end
+ * of each trial.
+ *
+ * <p>This is not run as part of the unit tests. It needs permission to open
+ * ICMP sockets. Run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opennms.netmgt.icmp.jna.JnaBulkPingBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JnaBulkPingBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final long TIMEOUT = 1000;
+
+    /**
+     * The bulk ping rate in packets per second, 0 for no limit.
+     */
+    @Param({"0", "10000", "50000"})
+    public int rate;
+
+    private JnaPinger m_pinger;
+
+    private List<InetAddress> m_hosts;
+
+    private double m_baseline;
+
+    private double m_latencySum = 0;
+
+    private long m_replies = 0;
+
+    private long m_lost = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        System.setProperty(JnaPinger.BULK_PING_RATE_PROPERTY, Integer.toString(rate));
+        System.setProperty(JnaPinger.BULK_PING_BURST_PROPERTY, Integer.toString(Math.max(1, rate / 100)));
+        m_pinger = new JnaPinger();
+
+        // every address of 127.0.0.0/8 is answered by the loopback interface
+        m_hosts = new ArrayList<InetAddress>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            m_hosts.add(InetAddress.getByAddress(new byte[] { 127, 0, (byte)(i / 250), (byte)(1 + i % 250) }));
+        }
+
+        // the median round-trip time of an idle pinger
+        final double[] rtts = new double[51];
+        for (int i = 0; i < rtts.length; i++) {
+            final Number rtt = m_pinger.ping(m_hosts.get(0), TIMEOUT, 0);
+            if (rtt == null) {
+                throw new IllegalStateException("No reply from " + m_hosts.get(0));
+            }
+            rtts[i] = rtt.doubleValue();
+        }
+        Arrays.sort(rtts);
+        m_baseline = rtts[rtts.length / 2];
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (m_replies > 0) {
+            final double mean = m_latencySum / m_replies;
+            System.out.printf("%nrate=%d: idle RTT %.1fus, mean RTT under load %.1fus, latency error %.1fus, %d of %d pings lost%n",
+                    rate, m_baseline, mean, mean - m_baseline, m_lost, m_replies + m_lost);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Map<InetAddress, Number> bulk() throws Exception {
+        final Map<InetAddress, Number> responseTimes = m_pinger.ping(m_hosts, TIMEOUT, 0, 64);
+        for (final Number rtt : responseTimes.values()) {
+            if (rtt == null) {
+                m_lost++;
+            } else {
+                m_latencySum += rtt.doubleValue();
+                m_replies++;
+            }
+        }
+        return responseTimes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Number sequential() throws Exception {
+        Number rtt = null;
+        for (final InetAddress host : m_hosts) {
+            rtt = m_pinger.ping(host, TIMEOUT, 0);
+        }
+        return rtt;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JnaBulkPingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
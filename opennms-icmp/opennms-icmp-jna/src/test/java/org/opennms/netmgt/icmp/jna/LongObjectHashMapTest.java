@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongObjectHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        final LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(1L, "one"));
+        assertNull(map.put(JnaBulkPinger.BULK_THREAD_ID | 2L, "two"));
+        assertEquals(2, map.size());
+
+        assertEquals("one", map.get(1L));
+        assertEquals("two", map.get(JnaBulkPinger.BULK_THREAD_ID | 2L));
+        assertNull(map.get(2L));
+
+        assertEquals("one", map.put(1L, "uno"));
+        assertEquals(2, map.size());
+        assertEquals("uno", map.remove(1L));
+        assertFalse(map.containsKey(1L));
+        assertNull(map.remove(1L));
+        assertEquals(1, map.size());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNullValue() {
+        new LongObjectHashMap<String>().put(1L, null);
+    }
+
+    /**
+     * Keys which all fall into a few slots of the table make long probe
+     * sequences, removing from them has to keep the other keys reachable.
+     */
+    @Test
+    public void testRemoveFromCollidingKeys() {
+        final LongObjectHashMap<Long> map = new LongObjectHashMap<Long>(4);
+        final Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (long i = 0; i < 64; i++) {
+            final long key = i << 40;
+            map.put(key, i);
+            expected.put(key, i);
+        }
+        for (long i = 0; i < 64; i += 3) {
+            assertEquals(Long.valueOf(i), map.remove(i << 40));
+            expected.remove(i << 40);
+        }
+        assertEquals(expected.size(), map.size());
+        for (final Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        final Random random = new Random(8233);
+        final LongObjectHashMap<Long> map = new LongObjectHashMap<Long>();
+        final Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (int i = 0; i < 200000; i++) {
+            final long key = random.nextInt(2048);
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, (long)i), map.put(key, (long)i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 2048; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(expected.keySet().iterator().next()));
+    }
+}
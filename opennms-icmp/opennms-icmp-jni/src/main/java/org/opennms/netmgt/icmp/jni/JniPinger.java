@@ -35,10 +35,13 @@ import static org.opennms.netmgt.icmp.PingConstants.DEFAULT_PACKET_SIZE;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.security.SecureRandom;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.icmp.BulkPingResponseCallback;
 import org.opennms.netmgt.icmp.LogPrefixPreservingPingResponseCallback;
 import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
 import org.opennms.netmgt.icmp.PingResponseCallback;
@@ -276,6 +279,26 @@ public class JniPinger implements Pinger {
         return ping(host, DEFAULT_TIMEOUT, DEFAULT_RETRIES);
     }
 
+    /**
+     * <p>ping</p>
+     *
+     * @param hosts the {@link java.net.InetAddress} addresses to poll.
+     * @param timeout a long.
+     * @param retries a int.
+     * @param packetsize The size in byte of the ICMP packet.
+     * @return the response times in microseconds by address, null for the hosts which did not respond.
+     * @throws java.lang.Exception if any.
+     */
+    @Override
+    public Map<InetAddress, Number> ping(final Collection<InetAddress> hosts, final long timeout, final int retries, final int packetsize) throws Exception {
+        final BulkPingResponseCallback cb = new BulkPingResponseCallback(hosts);
+        for (final InetAddress host : cb.getHosts()) {
+            ping(host, timeout, retries, packetsize, 1, cb);
+        }
+        cb.waitFor();
+        return cb.getResponseTimes();
+    }
+
     /**
      * <p>parallelPing</p>
      *
@@ -294,6 +294,15 @@ public final class IPAddrRange implements Iterable<InetAddress> {
     	return InetAddressUtils.isInetAddressInRange(ipAddr, m_begin, m_end);
     }
 
+    /**
+     * <p>size</p>
+     *
+     * @return the number of addresses in the range
+     */
+    public BigInteger size() {
+        return new BigInteger(1, m_end).subtract(new BigInteger(1, m_begin)).add(BigInteger.ONE);
+    }
+
     /**
      * <P>
      * Returns an Iterator object that can be used to step through all the
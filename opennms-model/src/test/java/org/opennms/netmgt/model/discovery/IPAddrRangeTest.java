@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.model.discovery;
 
+import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Iterator;
@@ -55,7 +56,7 @@ public class IPAddrRangeTest extends TestCase {
     }
 
     public void testIterator() {
-        // assertEquals(3, small.size());
+        assertEquals(BigInteger.valueOf(3), small.size());
         Iterator<InetAddress> it = small.iterator();
         assertTrue(it.hasNext());
         assertEquals(addr2.toInetAddress(), it.next());
@@ -71,6 +72,7 @@ public class IPAddrRangeTest extends TestCase {
         assertTrue(it.hasNext());
         assertEquals(addr2.toInetAddress(), it.next());
         assertFalse(it.hasNext());
+        assertEquals(BigInteger.ONE, singleton.size());
     }
 
 }
@@ -104,6 +104,11 @@ public class NullRrdStrategy implements RrdStrategy<Object,Object> {
         // pass
 	}
 
+    @Override
+    public void updateFile(Object rrd, String owner, long timestamp, double[] values) {
+        // pass
+    }
+
     @Override
     public String getDefaultFileExtension() {
         return ".nullRrd";
@@ -40,6 +40,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.logging.Logging;
 import org.slf4j.Logger;
@@ -69,6 +70,12 @@ import org.slf4j.LoggerFactory;
  * collected but will not be output to the rrd files until the next time the
  * file is processed by the write threads.
  *
+ * To keep the collection threads that enqueue work from contending with each
+ * other and with the write threads on a single monitor, the queue is split
+ * into shards. Each file is hashed onto exactly one shard, and every shard
+ * keeps its own pending operations, work lists, write threads and statistics,
+ * so updates for different shards never share a lock.
+ *
  * As another performance improving strategy. The queue distinguishes between
  * files with significant vs insignificant updates. Files with only insignificant
  * updates are put at the lowest priority and are only written when the highest
@@ -80,7 +87,11 @@ import org.slf4j.LoggerFactory;
  * System properties effecting the operation:
  *
  * org.opennms.rrd.queuing.writethreads: (default 2) The number of rrd write
- * threads that process the queue
+ * threads that process the queue. They are spread over the shards, with at
+ * least one per shard
+ *
+ * org.opennms.rrd.queuing.shards: (default 1) the number of independent queues
+ * that files are hashed onto. The high water marks are split evenly among them
  *
  * org.opennms.rrd.queuing.queueCreates: (default false) indicates whether rrd
  * file creates should be queued or processed synchronously
@@ -109,7 +120,7 @@ import org.slf4j.LoggerFactory;
  * @author ranger
  * @version $Id: $
  */
-public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, Runnable {
+public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String> {
 
     private Logger m_log = LoggerFactory.getLogger(QueuingRrdStrategy.class);
 
@@ -135,10 +146,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     private static final int UPDATE = 0;
     private static final int CREATE = 1;
 
+    private static final double[] ZERO_VALUES = new double[] { 0.0 };
+
     private String m_category = "queued";
 
     private int m_writeThreads = 0;
 
+    private volatile Shard[] m_shards = new Shard[] { new Shard(0) };
+
     private boolean m_queueCreates;
 
     private boolean m_prioritizeSignificantUpdates;
@@ -175,6 +190,32 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreads = writeThreads;
     }
 
+    /**
+     * <p>getShards</p>
+     *
+     * @return the number of queues that files are hashed onto
+     */
+    public int getShards() {
+        return m_shards.length;
+    }
+
+    /**
+     * Sets the number of queues that files are hashed onto. This must be set
+     * before the first operation is enqueued.
+     *
+     * @param shards the number of queues, at least 1
+     */
+    public void setShards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        final Shard[] newShards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            newShards[i] = new Shard(i);
+        }
+        m_shards = newShards;
+    }
+
     /**
      * <p>queueCreates</p>
      *
@@ -357,41 +398,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
-    LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
-
-    LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
-
-    Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
-
-    Map<Thread, String> fileAssignments = new HashMap<Thread, String>();
-
-    Set<String> reservedFiles = new HashSet<String>();
-
-    private long m_totalOperationsPending = 0;
-
-    private long m_enqueuedOperations = 0;
-
-    private long m_dequeuedOperations = 0;
-
-    private long m_significantOpsEnqueued = 0;
-
-    private long m_significantOpsDequeued = 0;
-
-    private long m_significantOpsCompleted = 0;
-
-    private long m_dequeuedItems = 0;
-
-    private long m_createsCompleted = 0;
-
-    private long m_updatesCompleted = 0;
-
-    private long m_errors = 0;
-
-    int threadsRunning = 0;
-
-    private long m_startTime = 0;
-
-    private long m_promotionCount = 0;
+    private volatile long m_startTime = 0;
 
     long lastLap = System.currentTimeMillis();
 
@@ -419,12 +426,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         final int type;
         final Object data;
         final boolean significant;
+        final long enqueueTime;
 
         Operation(final String fileName, final int type, final Object data, final boolean significant) {
             this.fileName = fileName;
             this.type = type;
             this.data = data;
             this.significant = significant;
+            this.enqueueTime = System.currentTimeMillis();
         }
 
         int getCount() {
@@ -451,7 +460,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             pendingOperations.add(this);
         }
 
-        abstract Object process(Object rrd) throws Exception;
+        abstract Object process(Shard shard, Object rrd) throws Exception;
 
     }
 
@@ -471,7 +480,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         }
 
         @Override
-        Object process(Object rrd) throws Exception {
+        Object process(Shard shard, Object rrd) throws Exception {
             // if the rrd is already open we are confused
             if (rrd != null) {
                 m_log.debug("WHAT! rrd open but not created?");
@@ -483,7 +492,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_delegate.createFile(getData(), attributeMappings);
 
             // keep stats
-            setCreatesCompleted(getCreatesCompleted() + 1);
+            shard.m_createsCompleted.incrementAndGet();
 
             // return the file
             return rrd;
@@ -497,35 +506,50 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      */
     public class UpdateOperation extends Operation {
 
+        /**
+         * The update time of a typed update, whose values are kept as the
+         * operation data.
+         */
+        final long updateTime;
+
         UpdateOperation(String fileName, String data) {
             super(fileName, UPDATE, data, true);
+            updateTime = 0;
         }
 
         UpdateOperation(String fileName, String data, boolean significant) {
             super(fileName, UPDATE, data, significant);
+            updateTime = 0;
+        }
+
+        UpdateOperation(String fileName, long timestamp, double[] values) {
+            super(fileName, UPDATE, values, true);
+            updateTime = timestamp;
         }
 
         @Override
-        Object process(Object rrd) throws Exception {
+        Object process(Shard shard, Object rrd) throws Exception {
             // open the file if we need to
             if (rrd == null) rrd = m_delegate.openFile(getFileName());
 
-            final String update = (String) getData();
+            final Object data = getData();
 
             try {
                 // process the update
-                m_delegate.updateFile(rrd, "", update);
+                if (data instanceof double[]) {
+                    m_delegate.updateFile(rrd, "", updateTime, (double[]) data);
+                } else {
+                    m_delegate.updateFile(rrd, "", (String) data);
+                }
             } catch (final Throwable e) {
+                final String update = data instanceof double[] ? RrdUpdateUtils.formatUpdate(updateTime, (double[]) data) : (String) data;
                 final String error = String.format("Error processing update for file %s: %s", getFileName(), update);
                 m_log.debug(error, e);
                 throw new Exception(error, e);
             }
 
             // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
-                logStats();
-            }
+            shard.updateCompleted();
             // return the open rrd for further processing
             return rrd;
 
@@ -552,27 +576,23 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         }
 
         @Override
-        Object process(Object rrd) throws Exception {
+        Object process(Shard shard, Object rrd) throws Exception {
             long ts = getFirstTimeStamp();
             for (int i = 0; i < count; i++) {
                 // open the file if we need to
                 if (rrd == null)
                     rrd = m_delegate.openFile(getFileName());
 
-                String update = ts + ":0";
                 try {
                     // process the update
-                    m_delegate.updateFile(rrd, "", update);
+                    m_delegate.updateFile(rrd, "", ts, ZERO_VALUES);
                 } catch (Throwable e) {
-                    throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + update, e);
+                    throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + ts + ":0", e);
                 }
                 ts += getInterval();
 
                 // keep stats
-                setUpdatesCompleted(getUpdatesCompleted() + 1);
-                if (getUpdatesCompleted() % m_modulus == 0) {
-                    logStats();
-                }
+                shard.updateCompleted();
             }
             return rrd;
         }
@@ -676,19 +696,128 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return new UpdateOperation(fileName, update);
     }
 
+    /**
+     * <p>makeUpdateOperation</p>
+     *
+     * @param fileName a {@link java.lang.String} object.
+     * @param owner a {@link java.lang.String} object.
+     * @param timestamp the update time in seconds since the epoch
+     * @param values the values, which are copied
+     * @return a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     */
+    Operation makeUpdateOperation(String fileName, String owner, long timestamp, double[] values) {
+        if (values.length == 1 && values[0] == 0.0) {
+            if (timestamp == 0)
+                m_log.debug("ZERO ERROR: created a zero update with ts=0 for file: {}", fileName);
+
+            return new ZeroUpdateOperation(fileName, timestamp);
+        }
+        return new UpdateOperation(fileName, timestamp, values.clone());
+    }
+
     //
     // Queue management functions.
     //
-    // TODO: Put this all in a class of its own. This is really ugly.
+    // The work is split into shards that each synchronize on themselves, so
+    // an enqueuing thread only contends with threads using the same shard.
     //
 
+    /**
+     * Return the shard that holds the operations for the given file.
+     *
+     * @param fileName a {@link java.lang.String} object.
+     * @return the shard for the file
+     */
+    Shard getShard(final String fileName) {
+        final Shard[] shards = m_shards;
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        int h = fileName.hashCode();
+        h ^= (h >>> 16);
+        return shards[(h & 0x7fffffff) % shards.length];
+    }
+
     /**
      * Add an operation to the queue.
      *
      * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
      */
     private void addOperation(final Operation op) {
-        synchronized (this) {
+        getShard(op.getFileName()).addOperation(op);
+    }
+
+    /**
+     * Return the part of a high water mark that applies to a single shard.
+     */
+    private long perShard(final long highWaterMark) {
+        final int shards = m_shards.length;
+        return (highWaterMark + shards - 1) / shards;
+    }
+
+    /**
+     * An independent queue of pending file operations along with the write
+     * threads that process it. All of the queue state is guarded by the
+     * shard's monitor.
+     */
+    class Shard implements Runnable {
+
+        private final int m_index;
+
+        LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
+
+        LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
+
+        Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
+
+        Map<Thread, String> fileAssignments = new HashMap<Thread, String>();
+
+        Set<String> reservedFiles = new HashSet<String>();
+
+        int threadsRunning = 0;
+
+        private long m_totalOperationsPending = 0;
+
+        private long m_peakOperationsPending = 0;
+
+        private long m_enqueuedOperations = 0;
+
+        private long m_dequeuedOperations = 0;
+
+        private long m_significantOpsEnqueued = 0;
+
+        private long m_significantOpsDequeued = 0;
+
+        private long m_dequeuedItems = 0;
+
+        private long m_promotionCount = 0;
+
+        private long m_startTime = 0;
+
+        private long m_latencyTotal = 0;
+
+        private long m_latencyCount = 0;
+
+        private long m_latencyMax = 0;
+
+        // these are updated by the write threads while processing, outside of the monitor
+        final AtomicLong m_createsCompleted = new AtomicLong();
+
+        final AtomicLong m_updatesCompleted = new AtomicLong();
+
+        final AtomicLong m_significantOpsCompleted = new AtomicLong();
+
+        final AtomicLong m_errors = new AtomicLong();
+
+        Shard(final int index) {
+            m_index = index;
+        }
+
+        int getIndex() {
+            return m_index;
+        }
+
+        synchronized void addOperation(final Operation op) {
             if (queueIsFull()) {
                 m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
                 return;
@@ -706,56 +835,66 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
             storeAssignment(op);
 
-            setTotalOperationsPending(getTotalOperationsPending() + 1);
-            setEnqueuedOperations(getEnqueuedOperations() + 1);
+            m_totalOperationsPending++;
+            if (m_totalOperationsPending > m_peakOperationsPending) {
+                m_peakOperationsPending = m_totalOperationsPending;
+            }
+            m_enqueuedOperations++;
             if (op.isSignificant())
-                setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
+                m_significantOpsEnqueued++;
             notifyAll();
             ensureThreadsStarted();
         }
-    }
 
+        private boolean queueIsFull() {
+            if (m_queueHighWaterMark <= 0)
+                return false;
+            else
+                return m_totalOperationsPending >= perShard(m_queueHighWaterMark);
+        }
 
-    private boolean queueIsFull() {
-        if (m_queueHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_queueHighWaterMark;
-    }
-
-    private boolean sigQueueIsFull() {
-        if (m_sigHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_sigHighWaterMark;
-    }
+        private boolean sigQueueIsFull() {
+            if (m_sigHighWaterMark <= 0)
+                return false;
+            else
+                return m_totalOperationsPending >= perShard(m_sigHighWaterMark);
+        }
 
-    private boolean inSigQueueIsFull() {
-        if (m_inSigHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_inSigHighWaterMark;
-    }
+        private boolean inSigQueueIsFull() {
+            if (m_inSigHighWaterMark <= 0)
+                return false;
+            else
+                return m_totalOperationsPending >= perShard(m_inSigHighWaterMark);
+        }
 
-    /**
-     * Ensure that we have threads started to process the queue.
-     */
-    private synchronized void ensureThreadsStarted() {
-        if (threadsRunning < m_writeThreads) {
-            threadsRunning++;
-            new Thread(this, this.getClass().getSimpleName() + "-" + threadsRunning).start();
+        /**
+         * The number of write threads for this shard; the configured threads
+         * are spread over the shards with at least one each.
+         */
+        int getWriteThreads() {
+            if (m_writeThreads <= 0) {
+                return 0;
+            }
+            final int shards = m_shards.length;
+            return Math.max(1, m_writeThreads / shards + (m_index < m_writeThreads % shards ? 1 : 0));
         }
-    }
 
-    /**
-     * Get the operations for the next file that should be worked on.
-     *
-     * @return a linkedList of operations to be processed all for the same file.
-     */
-    private LinkedList<Operation> getNext() {
-        LinkedList<Operation> ops = null;
-        synchronized (this) {
+        /**
+         * Ensure that we have threads started to process the queue.
+         */
+        private synchronized void ensureThreadsStarted() {
+            if (threadsRunning < getWriteThreads()) {
+                threadsRunning++;
+                new Thread(this, QueuingRrdStrategy.this.getClass().getSimpleName() + "-" + m_index + "-" + threadsRunning).start();
+            }
+        }
 
+        /**
+         * Get the operations for the next file that should be worked on.
+         *
+         * @return a linkedList of operations to be processed all for the same file.
+         */
+        private synchronized LinkedList<Operation> getNext() {
             // turn in our previous assignment
             completeAssignment();
 
@@ -769,167 +908,338 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             }
 
             // initialize start time for stats
-            if (getStartTime() == 0)
-                setStartTime(System.currentTimeMillis());
+            final long now = System.currentTimeMillis();
+            if (m_startTime == 0) {
+                m_startTime = now;
+                if (QueuingRrdStrategy.this.m_startTime == 0)
+                    QueuingRrdStrategy.this.m_startTime = now;
+            }
 
             // reserve the assignment and take work items
-            ops = takeAssignment(newAssignment);
+            final LinkedList<Operation> ops = takeAssignment(newAssignment);
 
             // keep stats
             if (ops != null) {
                 for(Operation op : ops) {
-                    setTotalOperationsPending(getTotalOperationsPending()-op.getCount());
-                    setDequeuedOperations(getDequeuedOperations() + op.getCount());
+                    m_totalOperationsPending -= op.getCount();
+                    m_dequeuedOperations += op.getCount();
                     if (op.isSignificant()) {
-                        setSignificantOpsDequeued(getSignificantOpsDequeued() + op.getCount());
+                        m_significantOpsDequeued += op.getCount();
+                    }
+                    final long latency = now - op.enqueueTime;
+                    m_latencyTotal += latency;
+                    m_latencyCount++;
+                    if (latency > m_latencyMax) {
+                        m_latencyMax = latency;
                     }
                 }
-                setDequeuedItems(getDequeuedItems() + 1);
+                m_dequeuedItems++;
             }
+
+            return ops;
         }
 
-        return ops;
+        /**
+         * We need to track which files are being processed by which threads so that
+         * we don't try to process updates for the same file on more than one
+         * thread.
+         */
+        private synchronized void storeAssignment(Operation op) {
+            // look and see if there a pending ops list for this file
+            LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
+
+            // if not then we create an ops list for the file and add the file to
+            // the work items list
+            if (pendingOperations == null) {
+                pendingOperations = new LinkedList<Operation>();
+                pendingFileOperations.put(op.getFileName(), pendingOperations);
+
+                // add the file to the correct list based on what type of work we
+                // are adding.  (if we aren't prioritizing then every file is counted as
+                // signficant
+                if (!m_prioritizeSignificantUpdates || op.isSignificant())
+                    filesWithSignificantWork.addLast(op.getFileName());
+                else
+                    filesWithInsignificantWork.addLast(op.getFileName());
+            } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
+                // only do this when we are prioritizing as this bumps files from inSig
+                // up to insig
+                // promote the file to the significant list if this is the first
+                // significant
+                filesWithSignificantWork.addLast(op.getFileName());
+            }
 
-    }
+            promoteAgedFiles();
 
-    /**
-     * We need to track which files are being processed by which threads so that
-     * we don't try to process updates for the same file on more than one
-     * thread.
-     */
-    private synchronized void storeAssignment(Operation op) {
-        // look and see if there a pending ops list for this file
-        LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
-
-        // if not then we create an ops list for the file and add the file to
-        // the work items list
-        if (pendingOperations == null) {
-            pendingOperations = new LinkedList<Operation>();
-            pendingFileOperations.put(op.getFileName(), pendingOperations);
-
-            // add the file to the correct list based on what type of work we
-            // are adding.  (if we aren't prioritizing then every file is counted as
-            // signficant
-            if (!m_prioritizeSignificantUpdates || op.isSignificant())
-                filesWithSignificantWork.addLast(op.getFileName());
-            else
-                filesWithInsignificantWork.addLast(op.getFileName());
-        } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
-            // only do this when we are prioritizing as this bumps files from inSig
-            // up to insig
-            // promote the file to the significant list if this is the first
-            // significant
-            filesWithSignificantWork.addLast(op.getFileName());
+            op.addToPendingList(pendingOperations);
         }
 
-        promoteAgedFiles();
+        /**
+         * Ensure that files with insignificant changes are getting promoted if
+         * necessary
+         *
+         */
+        private synchronized void promoteAgedFiles() {
 
-        op.addToPendingList(pendingOperations);
-    }
+            // no need to do this is we aren't prioritizing
+            if (!m_prioritizeSignificantUpdates) return;
 
-    /**
-     * Ensure that files with insignificant changes are getting promoted if
-     * necessary
-     *
-     */
-    private synchronized void promoteAgedFiles() {
+            // the num seconds to update files is 0 then use unfair prioritization
+            if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
+                return;
 
-        // no need to do this is we aren't prioritizing
-        if (!m_prioritizeSignificantUpdates) return;
+            // calculate the elapsed time we first queued updates
+            long now = System.currentTimeMillis();
+            long elapsedMillis = Math.max(now - m_startTime, 1);
+
+            // calculate the milliseconds between promotions necessary to age
+            // insignificant files into
+            // the significant queue
+            double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
+
+            // calculate the number of millis since start until the next file needs
+            // to be promotoed
+            long nextPromotionMillis = (long) (millisPerPromotion * m_promotionCount);
+
+            // if more time has elapsed than the next promotion time then promote a
+            // file
+            if (elapsedMillis > nextPromotionMillis) {
+                String file = filesWithInsignificantWork.removeFirst();
+                filesWithSignificantWork.addFirst(file);
+                m_promotionCount++;
+            }
 
-        // the num seconds to update files is 0 then use unfair prioritization
-        if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
-            return;
+        }
 
-        // calculate the elapsed time we first queued updates
-        long now = System.currentTimeMillis();
-        long elapsedMillis = Math.max(now - getStartTime(), 1);
+        synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+            filesWithSignificantWork.addAll(0, rrdFiles);
+        }
+
+        /**
+         * Return true if and only if all the operations in the list are
+         * insignificant
+         */
+        private boolean hasOnlyInsignificant(List<Operation> pendingOps) {
+            for(Operation op : pendingOps) {
+                if (op.isSignificant()) {
+                    return false;
+                }
+            }
+            return true;
+        }
 
-        // calculate the milliseconds between promotions necessary to age
-        // insignificant files into
-        // the significant queue
-        double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
+        /**
+         * register the file that the currentThread is be working on. This enables
+         * us to ensure that another thread doesn't try to work on operations for
+         * that file.  Note: this is not synchronized as it is called from getNext which
+         * is thread safe
+         */
+        private LinkedList<Operation> takeAssignment(String newAssignment) {
 
-        // calculate the number of millis since start until the next file needs
-        // to be promotoed
-        long nextPromotionMillis = (long) (millisPerPromotion * getPromotionCount());
+            // make the file as reserved by the current thread
+            fileAssignments.put(Thread.currentThread(), newAssignment);
+            reservedFiles.add(newAssignment);
 
-        // if more time has elapsed than the next promotion time then promote a
-        // file
-        if (elapsedMillis > nextPromotionMillis) {
-            String file = filesWithInsignificantWork.removeFirst();
-            filesWithSignificantWork.addFirst(file);
-            setPromotionCount(getPromotionCount() + 1);
+            // get the assignments work list and return it
+            return pendingFileOperations.remove(newAssignment);
         }
 
-    }
+        /**
+         * Return the name of the next file with available work
+         */
+        private String selectNewAssignment() {
+            for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
+                String fn = it.next();
+                if (!reservedFiles.contains(fn)) {
+                    it.remove();
+                    return fn;
+                }
+            }
+            for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
+                String fn = it.next();
+                if (!reservedFiles.contains(fn)) {
+                    it.remove();
+                    return fn;
+                }
+            }
+            return null;
+        }
 
-    /** {@inheritDoc} */
-    @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
-        m_delegate.promoteEnqueuedFiles(rrdFiles);
-    }
+        /**
+         * Record that fact that the current thread has finished process operations
+         * for its current assignment
+         */
+        private synchronized void completeAssignment() {
+            // remove any existing reservation of the current thread
+            String previousAssignment = fileAssignments.remove(Thread.currentThread());
+            if (previousAssignment != null)
+                reservedFiles.remove(previousAssignment);
+        }
 
-    /**
-     * Return true if and only if all the operations in the list are
-     * insignificant
-     */
-    private boolean hasOnlyInsignificant(List<Operation> pendingOps) {
-        for(Operation op : pendingOps) {
-            if (op.isSignificant()) {
-                return false;
+        //
+        // These methods are run by the write threads the process the queue.
+        //
+
+        @Override
+        public void run() {
+            try {
+
+                long waitStart = -1L;
+                long delayed = 0;
+                while (delayed < m_writeThreadExitDelay) {
+                    if (getTotalOperationsPending() > 0) {
+                        delayed = 0;
+                        waitStart = -1L;
+                        processPendingOperations();
+                    } else {
+                        if (waitStart < 0) {
+                            waitStart = System.currentTimeMillis();
+                        }
+                        try {
+                            Thread.sleep(m_writeThreadSleepTime);
+                        } catch (InterruptedException e) {
+                        }
+                        long now = System.currentTimeMillis();
+                        delayed = now - waitStart;
+                    }
+
+                }
+            } finally {
+                synchronized (this) {
+                    threadsRunning--;
+                    completeAssignment();
+                }
             }
         }
-        return true;
-    }
 
-    /**
-     * register the file that the currentThread is be working on. This enables
-     * us to ensure that another thread doesn't try to work on operations for
-     * that file.  Note: this is not synchronized as it is called from getNext which
-     * is thread safe
-     */
-    private LinkedList<Operation> takeAssignment(String newAssignment) {
+        /**
+         * Actually process the operations be calling the underlying delegate
+         * strategy
+         */
+        private void processPendingOperations() {
+            Logging.withPrefix(m_category, new Runnable() {
+                @Override public void run() {
+                    Object rrd = null;
+                    String fileName = null;
 
-        // make the file as reserved by the current thread
-        fileAssignments.put(Thread.currentThread(), newAssignment);
-        reservedFiles.add(newAssignment);
+                    try {
+                        final LinkedList<Operation> ops = getNext();
+                        if (ops == null) {
+                            return;
+                        }
+                        // update stats correctly we update them even if an exception occurs
+                        // while we are processing
+                        for (final Operation op : ops) {
+                            if (op.isSignificant()) {
+                                m_significantOpsCompleted.incrementAndGet();
+                            }
 
-        // get the assignments work list and return it
-        return pendingFileOperations.remove(newAssignment);
-    }
+                        }
+                        // now we actually process the events
+                        for (final Operation op : ops) {
+                            fileName = op.getFileName();
+                            rrd = op.process(Shard.this, rrd);
+                        }
+                    } catch (final Throwable e) {
+                        m_errors.incrementAndGet();
+                        logLapTime("Error updating file " + fileName + ": " + e.getMessage());
+                        m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
+                    } finally {
+                        processClose(rrd);
+                    }
+                }
+            });
+        }
 
-    /**
-     * Return the name of the next file with available work
-     */
-    private String selectNewAssignment() {
-        for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
+        /**
+         * close the rrd file
+         */
+        private void processClose(final Object rrd) {
+            if (rrd != null) {
+                try {
+                    m_delegate.closeFile(rrd);
+                } catch (final Throwable e) {
+                    m_errors.incrementAndGet();
+                    logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
+                    m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
+                }
             }
         }
-        for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
+
+        /**
+         * Count a completed update, printing the statistics every modulus
+         * updates across all of the shards.
+         */
+        void updateCompleted() {
+            final long completed = m_updatesCompleted.incrementAndGet();
+            if (m_modulus > 0 && completed % (m_modulus * m_shards.length) == 0) {
+                logStats();
             }
         }
-        return null;
-    }
 
-    /**
-     * Record that fact that the current thread has finished process operations
-     * for its current assignment
-     */
-    private synchronized void completeAssignment() {
-        // remove any existing reservation of the current thread
-        String previousAssignment = fileAssignments.remove(Thread.currentThread());
-        if (previousAssignment != null)
-            reservedFiles.remove(previousAssignment);
+        /**
+         * Return the statistics of this shard. The latency figures cover the
+         * time operations spent in the queue since the last call.
+         */
+        synchronized String getStats() {
+            final String stats = "\nQS:\t" + "shard=" + m_index +
+                    ", writeThreads=" + threadsRunning + "/" + getWriteThreads() +
+                    ", operationsPending=" + m_totalOperationsPending +
+                    ", operationsPendingHighWaterMark=" + m_peakOperationsPending +
+                    ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
+                    ", filesWithInsignificantWork=" + filesWithInsignificantWork.size() +
+                    ", enqueuedOperations=" + m_enqueuedOperations +
+                    ", dequeuedOperations=" + m_dequeuedOperations +
+                    ", errors=" + m_errors.get() +
+                    ", currentAverageLatency=" + (m_latencyTotal / Math.max(m_latencyCount, 1)) + "ms" +
+                    ", currentMaxLatency=" + m_latencyMax + "ms";
+
+            m_latencyTotal = 0;
+            m_latencyCount = 0;
+            m_latencyMax = 0;
+
+            return stats;
+        }
+
+        synchronized long getTotalOperationsPending() {
+            return m_totalOperationsPending;
+        }
+
+        synchronized long getPeakOperationsPending() {
+            return m_peakOperationsPending;
+        }
+
+        synchronized long getEnqueuedOperations() {
+            return m_enqueuedOperations;
+        }
+
+        synchronized long getDequeuedOperations() {
+            return m_dequeuedOperations;
+        }
+
+        synchronized long getSignificantOpsEnqueued() {
+            return m_significantOpsEnqueued;
+        }
+
+        synchronized long getSignificantOpsDequeued() {
+            return m_significantOpsDequeued;
+        }
+
+        synchronized long getDequeuedItems() {
+            return m_dequeuedItems;
+        }
+
+        synchronized long getPromotionCount() {
+            return m_promotionCount;
+        }
+
+        synchronized int getFilesWithSignificantWork() {
+            return filesWithSignificantWork.size();
+        }
+
+        synchronized int getFilesWithInsignificantWork() {
+            return filesWithInsignificantWork.size();
+        }
     }
 
     /**
@@ -1023,6 +1333,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         addOperation(makeUpdateOperation((String) rrdFile, owner, data));
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, long timestamp, double[] values) throws Exception {
+        addOperation(makeUpdateOperation(rrdFile, owner, timestamp, values));
+    }
+
     /** {@inheritDoc} */
     @Override
     public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
@@ -1056,97 +1372,28 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return m_delegate.createGraph(command, workDir);
     }
 
-    //
-    // These methods are run by the write threads the process the queues.
-    //
-
-    /**
-     * <p>run</p>
-     */
+    /** {@inheritDoc} */
     @Override
-    public void run() {
-        try {
-
-            long waitStart = -1L;
-            long delayed = 0;
-            while (delayed < m_writeThreadExitDelay) {
-                if (getTotalOperationsPending() > 0) {
-                    delayed = 0;
-                    waitStart = -1L;
-                    processPendingOperations();
-                } else {
-                    if (waitStart < 0) {
-                        waitStart = System.currentTimeMillis();
-                    }
-                    try {
-                        Thread.sleep(m_writeThreadSleepTime);
-                    } catch (InterruptedException e) {
-                    }
-                    long now = System.currentTimeMillis();
-                    delayed = now - waitStart;
-                }
-
-            }
-        } finally {
-            synchronized (this) {
-                threadsRunning--;
-                completeAssignment();
-            }
-        }
-    }
-
-    /**
-     * Actually process the operations be calling the underlying delegate
-     * strategy
-     */
-    private void processPendingOperations() {
-        Logging.withPrefix(m_category, new Runnable() {
-            @Override public void run() {
-                Object rrd = null;
-                String fileName = null;
-
-                try {
-                    final LinkedList<Operation> ops = getNext();
-                    if (ops == null) {
-                        return;
-                    }
-                    // update stats correctly we update them even if an exception occurs
-                    // while we are processing
-                    for (final Operation op : ops) {
-                        if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
-                        }
-
-                    }
-                    // now we actually process the events
-                    for (final Operation op : ops) {
-                        fileName = op.getFileName();
-                        rrd = op.process(rrd);
-                    }
-                } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
-                    logLapTime("Error updating file " + fileName + ": " + e.getMessage());
-                    m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
-                } finally {
-                    processClose(rrd);
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        final Shard[] shards = m_shards;
+        if (shards.length == 1) {
+            shards[0].promoteEnqueuedFiles(rrdFiles);
+        } else {
+            final Map<Shard, List<String>> filesByShard = new HashMap<Shard, List<String>>();
+            for (final String rrdFile : rrdFiles) {
+                final Shard shard = getShard(rrdFile);
+                List<String> files = filesByShard.get(shard);
+                if (files == null) {
+                    files = new LinkedList<String>();
+                    filesByShard.put(shard, files);
                 }
+                files.add(rrdFile);
             }
-        });
-    }
-
-    /**
-     * close the rrd file
-     */
-    private void processClose(final Object rrd) {
-        if (rrd != null) {
-            try {
-                m_delegate.closeFile(rrd);
-            } catch (final Throwable e) {
-                setErrors(getErrors() + 1);
-                logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
-                m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
+            for (final Map.Entry<Shard, List<String>> entry : filesByShard.entrySet()) {
+                entry.getKey().promoteEnqueuedFiles(entry.getValue());
             }
         }
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
     /**
@@ -1188,8 +1435,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         String stats = "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
                 ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
-                ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
-                ", filesWithInsignificantWork=" + filesWithInsignificantWork.size()
+                ", filesWithSignificantWork=" + getFilesWithSignificantWork() +
+                ", filesWithInsignificantWork=" + getFilesWithInsignificantWork()
 
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
@@ -1219,7 +1466,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         lastSignificantCompleted = getSignificantOpsCompleted();
         lastOpsPending = getTotalOperationsPending();
 
-        return stats;
+        final StringBuilder shardStats = new StringBuilder(stats);
+        for (final Shard shard : m_shards) {
+            shardStats.append(shard.getStats());
+        }
+        return shardStats.toString();
     }
 
     void logStats() {
@@ -1274,16 +1525,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
-    }
-
-    /**
-     * <p>setTotalOperationsPending</p>
-     *
-     * @param totalOperationsPending a long.
-     */
-    public void setTotalOperationsPending(long totalOperationsPending) {
-        m_totalOperationsPending = totalOperationsPending;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getTotalOperationsPending();
+        }
+        return total;
     }
 
     /**
@@ -1292,16 +1538,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getCreatesCompleted() {
-        return m_createsCompleted;
-    }
-
-    /**
-     * <p>setCreatesCompleted</p>
-     *
-     * @param createsCompleted a long.
-     */
-    public void setCreatesCompleted(long createsCompleted) {
-        m_createsCompleted = createsCompleted;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.m_createsCompleted.get();
+        }
+        return total;
     }
 
     /**
@@ -1310,16 +1551,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getUpdatesCompleted() {
-        return m_updatesCompleted;
-    }
-
-    /**
-     * <p>setUpdatesCompleted</p>
-     *
-     * @param updatesCompleted a long.
-     */
-    public void setUpdatesCompleted(long updatesCompleted) {
-        m_updatesCompleted = updatesCompleted;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.m_updatesCompleted.get();
+        }
+        return total;
     }
 
     /**
@@ -1328,16 +1564,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getErrors() {
-        return m_errors;
-    }
-
-    /**
-     * <p>setErrors</p>
-     *
-     * @param errors a long.
-     */
-    public void setErrors(long errors) {
-        m_errors = errors;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.m_errors.get();
+        }
+        return total;
     }
 
     /**
@@ -1346,16 +1577,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
-    }
-
-    /**
-     * <p>setPromotionCount</p>
-     *
-     * @param promotionCount a long.
-     */
-    public void setPromotionCount(long promotionCount) {
-        m_promotionCount = promotionCount;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getPromotionCount();
+        }
+        return total;
     }
 
     /**
@@ -1364,16 +1590,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
-    }
-
-    /**
-     * <p>setSignificantOpsEnqueued</p>
-     *
-     * @param significantOpsEnqueued a long.
-     */
-    public void setSignificantOpsEnqueued(long significantOpsEnqueued) {
-        m_significantOpsEnqueued = significantOpsEnqueued;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getSignificantOpsEnqueued();
+        }
+        return total;
     }
 
     /**
@@ -1382,16 +1603,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
-    }
-
-    /**
-     * <p>setSignificantOpsDequeued</p>
-     *
-     * @param significantOpsDequeued a long.
-     */
-    public void setSignificantOpsDequeued(long significantOpsDequeued) {
-        m_significantOpsDequeued = significantOpsDequeued;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getSignificantOpsDequeued();
+        }
+        return total;
     }
 
     /**
@@ -1400,16 +1616,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
-    }
-
-    /**
-     * <p>setEnqueuedOperations</p>
-     *
-     * @param enqueuedOperations a long.
-     */
-    public void setEnqueuedOperations(long enqueuedOperations) {
-        m_enqueuedOperations = enqueuedOperations;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getEnqueuedOperations();
+        }
+        return total;
     }
 
     /**
@@ -1418,16 +1629,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
-    }
-
-    /**
-     * <p>setDequeuedOperations</p>
-     *
-     * @param dequeuedOperations a long.
-     */
-    public void setDequeuedOperations(long dequeuedOperations) {
-        m_dequeuedOperations = dequeuedOperations;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getDequeuedOperations();
+        }
+        return total;
     }
 
     /**
@@ -1436,16 +1642,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
-    }
-
-    /**
-     * <p>setDequeuedItems</p>
-     *
-     * @param dequeuedItems a long.
-     */
-    public void setDequeuedItems(long dequeuedItems) {
-        m_dequeuedItems = dequeuedItems;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getDequeuedItems();
+        }
+        return total;
     }
 
     /**
@@ -1454,16 +1655,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsCompleted() {
-        return m_significantOpsCompleted;
-    }
-
-    /**
-     * <p>setSignificantOpsCompleted</p>
-     *
-     * @param significantOpsCompleted a long.
-     */
-    public void setSignificantOpsCompleted(long significantOpsCompleted) {
-        m_significantOpsCompleted = significantOpsCompleted;
+        long total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.m_significantOpsCompleted.get();
+        }
+        return total;
     }
 
     /**
@@ -1475,14 +1671,20 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return m_startTime;
     }
 
-    /**
-     * <p>setStartTime</p>
-     *
-     * @param updateStart a long.
-     */
-    public void setStartTime(long updateStart) {
-        m_startTime = updateStart;
+    private int getFilesWithSignificantWork() {
+        int total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getFilesWithSignificantWork();
+        }
+        return total;
     }
 
+    private int getFilesWithInsignificantWork() {
+        int total = 0;
+        for (final Shard shard : m_shards) {
+            total += shard.getFilesWithInsignificantWork();
+        }
+        return total;
+    }
 
 }
@@ -44,7 +44,7 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class RrdMetaDataUtils {
     private static final Logger LOG = LoggerFactory.getLogger(RrdMetaDataUtils.class);
-    private static PropertiesCache s_cache = new PropertiesCache();
+    private static PropertiesCache s_cache = RrdPropertiesCache.getInstance();
 
     /**
      * Writes a file with the attribute to rrd track mapping next to the rrd file.
@@ -63,7 +63,7 @@ public abstract class RrdMetaDataUtils {
         LOG.info("createMetaDataFile: creating meta data file {} with values '{}'", metaFile, attributeMappings);
 
         try {
-            if (metaFile.exists()) {
+            if (s_cache.findProperties(metaFile) != null) {
                 s_cache.updateProperties(metaFile, attributeMappings);
             } else {
                 s_cache.saveProperties(metaFile, attributeMappings);
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.opennms.core.utils.IndexedPropertiesStorage;
+import org.opennms.core.utils.PropertiesCache;
+
+/**
+ * Holds the {@link PropertiesCache} shared by everything that reads or writes
+ * the properties files kept next to the RRD files: strings.properties,
+ * ds.properties and the .meta files.
+ *
+ * When {@link #STORE_PROPERTY} is set to {@value #INDEXED_STORE}, the
+ * properties of all of the resources of a node are kept in one
+ * {@link IndexedPropertiesStorage} index in the node's directory, rather than
+ * in one file per resource.
+ */
+public abstract class RrdPropertiesCache {
+
+    public static final String STORE_PROPERTY = "org.opennms.rrd.metadata.store";
+
+    public static final String INDEXED_STORE = "indexed";
+
+    public static final String MAX_INDEXES_PROPERTY = "org.opennms.rrd.metadata.store.maxIndexes";
+
+    private static final PropertiesCache s_cache = create();
+
+    /**
+     * Returns the shared cache.
+     *
+     * @return a {@link PropertiesCache} object.
+     */
+    public static PropertiesCache getInstance() {
+        return s_cache;
+    }
+
+    private static PropertiesCache create() {
+        if (INDEXED_STORE.equalsIgnoreCase(System.getProperty(STORE_PROPERTY))) {
+            final String baseDir = System.getProperty("rrd.base.dir");
+            return new PropertiesCache(new IndexedPropertiesStorage(
+                    file -> getIndexRoot(baseDir == null ? null : new File(baseDir), file),
+                    Integer.getInteger(MAX_INDEXES_PROPERTY, 1000)));
+        }
+        return new PropertiesCache();
+    }
+
+    /**
+     * Returns the directory of the node or response time resource that the
+     * given file belongs to, or the directory of the file itself when it is
+     * not part of one.
+     *
+     * @param rrdBaseDir the RRD base directory
+     * @param file a properties file
+     * @return a {@link File} object.
+     */
+    public static File getIndexRoot(final File rrdBaseDir, final File file) {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (rrdBaseDir == null) {
+            return parent;
+        }
+
+        final Path base = rrdBaseDir.getAbsoluteFile().toPath().normalize();
+        final Path dir = parent.toPath().normalize();
+        if (!dir.startsWith(base) || dir.equals(base)) {
+            return parent;
+        }
+
+        final Path relative = base.relativize(dir);
+        final int depth;
+        if ("snmp".equals(relative.getName(0).toString())) {
+            // snmp/<nodeId> or snmp/fs/<foreignSource>/<foreignId>
+            depth = relative.getNameCount() > 1 && "fs".equals(relative.getName(1).toString()) ? 4 : 2;
+        } else if ("response".equals(relative.getName(0).toString())) {
+            // response/<ipAddress>
+            depth = 2;
+        } else {
+            return parent;
+        }
+
+        if (relative.getNameCount() < depth) {
+            return parent;
+        }
+        return base.resolve(relative.subpath(0, depth)).toFile();
+    }
+}
@@ -130,6 +130,29 @@ public interface RrdStrategy<D extends Object,F extends Object> {
      */
     public void updateFile(F rrd, String owner, String data) throws Exception;
 
+    /**
+     * Updates the supplied round robin database with the given values at the
+     * given time. This is the primitive form of
+     * {@link #updateFile(Object, String, String)}: implementations consume
+     * the values directly and only format them if their backend requires a
+     * string. Integers above 2<sup>53</sup>, such as large Counter64 values,
+     * cannot be represented exactly as doubles; callers that need them kept
+     * exact have to use the string form.
+     *
+     * @param rrd
+     *            an rrd object created using openFile
+     * @param owner
+     *            the owner of the rrd
+     * @param timestamp
+     *            the update time in seconds since the epoch
+     * @param values
+     *            one value per data source, in data source order;
+     *            {@link Double#NaN} marks an unknown value
+     * @throws java.lang.Exception
+     *             if an error occurs updating the file
+     */
+    public void updateFile(F rrd, String owner, long timestamp, double[] values) throws Exception;
+
     /**
      * This closes the supplied round robin database
      *
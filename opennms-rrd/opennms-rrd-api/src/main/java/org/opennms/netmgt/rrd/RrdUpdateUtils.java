@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.math.BigDecimal;
+
+/**
+ * Provides static methods for converting between the typed and the
+ * <code>&lt;timestamp&gt;:&lt;value&gt;[:&lt;value&gt;...]</code> forms of an
+ * RRD update.
+ *
+ * Strategies that hand updates to a native or remote backend as text only
+ * format the values at that boundary; everything upstream of it passes the
+ * timestamp and values around as primitives.
+ */
+public abstract class RrdUpdateUtils {
+
+    /** The RRD notation for an unknown value. */
+    public static final String UNKNOWN = "U";
+
+    /**
+     * Formats a typed update as <code>&lt;timestamp&gt;:&lt;value&gt;...</code>.
+     *
+     * @param timestamp the update time in seconds since the epoch
+     * @param values one value per data source, {@link Double#NaN} for unknown
+     * @return the update string
+     */
+    public static String formatUpdate(final long timestamp, final double[] values) {
+        final StringBuilder sb = new StringBuilder(16 + values.length * 8);
+        sb.append(timestamp);
+        for (final double value : values) {
+            sb.append(':');
+            appendValue(sb, value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats only the values of a typed update, separated by colons.
+     *
+     * @param values one value per data source, {@link Double#NaN} for unknown
+     * @return the colon separated values
+     */
+    public static String formatValues(final double[] values) {
+        final StringBuilder sb = new StringBuilder(values.length * 8);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(':');
+            }
+            appendValue(sb, values[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats a single value the way rrdtool expects it: plain decimal
+     * notation without exponent or grouping, and <code>U</code> for
+     * {@link Double#NaN} and infinities.
+     *
+     * @param value the value
+     * @return the formatted value
+     */
+    public static String formatValue(final double value) {
+        return appendValue(new StringBuilder(), value).toString();
+    }
+
+    private static StringBuilder appendValue(final StringBuilder sb, final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return sb.append(UNKNOWN);
+        }
+        final long asLong = (long)value;
+        if (asLong == value && Math.abs(value) < 1e15) {
+            return sb.append(asLong);
+        }
+        return sb.append(BigDecimal.valueOf(value).stripTrailingZeros().toPlainString());
+    }
+
+    /**
+     * Parses a single value of an update string, mapping <code>U</code> (and
+     * a missing or <code>null</code> value) to {@link Double#NaN}.
+     *
+     * @param value the string value
+     * @return the parsed value
+     * @throws NumberFormatException if the value is not a number
+     */
+    public static double parseValue(final String value) throws NumberFormatException {
+        if (value == null || value.isEmpty() || UNKNOWN.equals(value) || "null".equals(value)) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class QueuingRrdStrategyTest {
+
+    /**
+     * Records the update times per file in the order they were written.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final Map<String, List<Long>> m_updates = new HashMap<String, List<Long>>();
+        private final CountDownLatch m_latch;
+
+        public RecordingRrdStrategy(int expectedUpdates) {
+            m_latch = new CountDownLatch(expectedUpdates);
+        }
+
+        @Override
+        public Object openFile(String fileName) {
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, long timestamp, double[] values) {
+            synchronized (m_updates) {
+                List<Long> updates = m_updates.get(rrd);
+                if (updates == null) {
+                    updates = new ArrayList<Long>();
+                    m_updates.put((String) rrd, updates);
+                }
+                updates.add(timestamp);
+            }
+            m_latch.countDown();
+        }
+
+        public Map<String, List<Long>> getUpdates() {
+            synchronized (m_updates) {
+                return new HashMap<String, List<Long>>(m_updates);
+            }
+        }
+    }
+
+    private static QueuingRrdStrategy createStrategy(RrdStrategy<Object, Object> delegate, int shards, int writeThreads) {
+        QueuingRrdStrategy strategy = new QueuingRrdStrategy(delegate);
+        strategy.setShards(shards);
+        strategy.setWriteThreads(writeThreads);
+        strategy.setModulus(10000);
+        strategy.setWriteThreadSleepTime(10);
+        strategy.setWriteThreadExitDelay(500);
+        return strategy;
+    }
+
+    @Test
+    public void canSpreadFilesOverShards() {
+        QueuingRrdStrategy strategy = createStrategy(new NullRrdStrategy(), 4, 4);
+        assertEquals(4, strategy.getShards());
+
+        boolean[] used = new boolean[4];
+        for (int i = 0; i < 100; i++) {
+            String fileName = "/opt/opennms/share/rrd/snmp/" + i + "/ifInOctets.jrb";
+            QueuingRrdStrategy.Shard shard = strategy.getShard(fileName);
+            // a file always maps onto the same shard
+            assertTrue(shard == strategy.getShard(fileName));
+            used[shard.getIndex()] = true;
+        }
+        for (boolean u : used) {
+            assertTrue(u);
+        }
+    }
+
+    @Test
+    public void canDivideWriteThreadsAmongShards() {
+        QueuingRrdStrategy strategy = createStrategy(new NullRrdStrategy(), 3, 4);
+        int total = 0;
+        for (int i = 0; i < 3; i++) {
+            total += getShard(strategy, i).getWriteThreads();
+        }
+        assertEquals(4, total);
+
+        strategy = createStrategy(new NullRrdStrategy(), 4, 2);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1, getShard(strategy, i).getWriteThreads());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void canProcessUpdatesInOrderPerFile() throws Exception {
+        final int files = 50;
+        final int updatesPerFile = 20;
+        RecordingRrdStrategy delegate = new RecordingRrdStrategy(files * updatesPerFile);
+        QueuingRrdStrategy strategy = createStrategy(delegate, 4, 4);
+
+        for (int ts = 1; ts <= updatesPerFile; ts++) {
+            for (int f = 0; f < files; f++) {
+                strategy.updateFile(strategy.openFile("file" + f), "test", ts, new double[] { ts });
+            }
+        }
+
+        assertTrue(delegate.m_latch.await(20, TimeUnit.SECONDS));
+
+        Map<String, List<Long>> updates = delegate.getUpdates();
+        assertEquals(files, updates.size());
+        for (List<Long> fileUpdates : updates.values()) {
+            assertEquals(updatesPerFile, fileUpdates.size());
+            for (int i = 0; i < updatesPerFile; i++) {
+                assertEquals(Long.valueOf(i + 1), fileUpdates.get(i));
+            }
+        }
+        assertEquals(files * updatesPerFile, strategy.getEnqueuedOperations());
+        assertEquals(files * updatesPerFile, strategy.getUpdatesCompleted());
+        assertEquals(0, strategy.getTotalOperationsPending());
+
+        String stats = strategy.getStats();
+        assertTrue(stats, stats.contains("shard=3"));
+        assertTrue(stats, stats.contains("operationsPendingHighWaterMark="));
+    }
+
+    private static QueuingRrdStrategy.Shard getShard(QueuingRrdStrategy strategy, int index) {
+        for (int i = 0; ; i++) {
+            QueuingRrdStrategy.Shard shard = strategy.getShard("file" + i);
+            if (shard.getIndex() == index) {
+                return shard;
+            }
+        }
+    }
+}
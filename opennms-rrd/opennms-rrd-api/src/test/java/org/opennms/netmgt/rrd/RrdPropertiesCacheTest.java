@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class RrdPropertiesCacheTest {
+
+    private final File m_base = new File("/opt/opennms/share/rrd");
+
+    @Test
+    public void indexesByNode() {
+        assertEquals(new File(m_base, "snmp/1"), root("snmp/1/strings.properties"));
+        assertEquals(new File(m_base, "snmp/1"), root("snmp/1/eth0-0011223344/strings.properties"));
+        assertEquals(new File(m_base, "snmp/1"), root("snmp/1/hrStorageIndex/3/ds.properties"));
+        assertEquals(new File(m_base, "snmp/fs/Servers/web01"), root("snmp/fs/Servers/web01/eth0/strings.properties"));
+        assertEquals(new File(m_base, "response/10.0.0.1"), root("response/10.0.0.1/icmp.meta"));
+    }
+
+    @Test
+    public void fallsBackToTheParentDirectory() {
+        assertEquals(new File(m_base, "snmp"), root("snmp/strings.properties"));
+        assertEquals(new File(m_base, "snmp/fs/Servers"), root("snmp/fs/Servers/strings.properties"));
+        assertEquals(new File(m_base, "other/thing"), root("other/thing/strings.properties"));
+        assertEquals(new File("/tmp/x"), RrdPropertiesCache.getIndexRoot(m_base, new File("/tmp/x/strings.properties")));
+        assertEquals(new File(m_base, "snmp/1"), RrdPropertiesCache.getIndexRoot(null, new File(m_base, "snmp/1/strings.properties")));
+    }
+
+    private File root(String relativePath) {
+        return RrdPropertiesCache.getIndexRoot(m_base, new File(m_base, relativePath));
+    }
+}
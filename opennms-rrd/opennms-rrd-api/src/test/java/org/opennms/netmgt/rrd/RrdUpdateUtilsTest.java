@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RrdUpdateUtilsTest {
+
+    @Test
+    public void canFormatUpdates() {
+        assertEquals("1400000000:42.1:1:U:3", RrdUpdateUtils.formatUpdate(1400000000L, new double[] { 42.1, 1, Double.NaN, 3 }));
+        assertEquals("1400000000", RrdUpdateUtils.formatUpdate(1400000000L, new double[0]));
+        assertEquals("42.1:U", RrdUpdateUtils.formatValues(new double[] { 42.1, Double.POSITIVE_INFINITY }));
+    }
+
+    @Test
+    public void canFormatValuesWithoutExponent() {
+        assertEquals("2147483647", RrdUpdateUtils.formatValue(Integer.MAX_VALUE));
+        assertEquals("-2", RrdUpdateUtils.formatValue(-2d));
+        assertEquals("0", RrdUpdateUtils.formatValue(0d));
+        assertEquals("2.0001", RrdUpdateUtils.formatValue(2.0001d));
+        assertEquals("0.00000123", RrdUpdateUtils.formatValue(1.23e-6));
+        assertEquals("1230000000000000000000", RrdUpdateUtils.formatValue(1.23e21));
+        assertEquals("U", RrdUpdateUtils.formatValue(Double.NaN));
+    }
+
+    @Test
+    public void canParseValues() {
+        assertEquals(42.1d, RrdUpdateUtils.parseValue("42.1"), 0);
+        assertTrue(Double.isNaN(RrdUpdateUtils.parseValue("U")));
+        assertTrue(Double.isNaN(RrdUpdateUtils.parseValue("null")));
+    }
+}
@@ -237,6 +237,19 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         sample.setAndUpdate(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Creates a sample at the given time and stores the values without
+     * going through the string form.
+     */
+    @Override
+    public void updateFile(final RrdDb rrdFile, final String owner, final long timestamp, final double[] values) throws Exception {
+        Sample sample = rrdFile.createSample(timestamp);
+        sample.setValues(values);
+        sample.update();
+    }
+
     /**
      * Initialized the RrdDb to use the FILE factory because the NIO factory
      * uses too much memory for our implementation.
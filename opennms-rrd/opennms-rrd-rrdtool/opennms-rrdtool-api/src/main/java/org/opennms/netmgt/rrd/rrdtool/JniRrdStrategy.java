@@ -36,6 +36,7 @@ import java.util.Properties;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdMetaDataUtils;
+import org.opennms.netmgt.rrd.RrdUpdateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -205,6 +206,18 @@ public class JniRrdStrategy extends AbstractJniRrdStrategy<JniRrdStrategy.Create
         rrd.append(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The values are formatted as they are appended to the command string,
+     * since the JNI interface only accepts textual updates.
+     */
+    @Override
+    public void updateFile(StringBuffer rrd, String owner, long timestamp, double[] values) throws Exception {
+        rrd.append(' ');
+        rrd.append(RrdUpdateUtils.formatUpdate(timestamp, values));
+    }
+
     /**
      * Initialized the JNI Interface
      *
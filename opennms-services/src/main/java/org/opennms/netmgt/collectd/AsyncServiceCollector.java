@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.collectd;
+
+import java.util.Map;
+
+import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.ServiceCollector;
+import org.opennms.netmgt.events.api.EventProxy;
+
+/**
+ * A {@link ServiceCollector} that can collect without blocking the calling
+ * thread until the agent has answered.
+ */
+public interface AsyncServiceCollector extends ServiceCollector {
+
+    /**
+     * Starts a collection and returns immediately.  The outcome is reported
+     * to <code>callback</code>, possibly on another thread and possibly
+     * before this method returns.
+     *
+     * @param agent the agent to collect from
+     * @param eventProxy used to send events during the collection
+     * @param parameters the service parameters
+     * @param callback notified when the collection has finished
+     */
+    public void collectAsync(CollectionAgent agent, EventProxy eventProxy, Map<String, Object> parameters, CollectionCallback callback);
+}
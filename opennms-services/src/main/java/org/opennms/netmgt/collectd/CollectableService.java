@@ -104,6 +104,15 @@ final class CollectableService implements ReadyRunnable {
      */
     private static final boolean ABORT_COLLECTION = true;
 
+    /**
+     * Set this system property to <code>true</code> to collect from
+     * collectors that support it without holding a collectd thread while
+     * waiting for the agent.  See {@link AsyncServiceCollector}.
+     */
+    static final String ASYNC_COLLECTION_PROPERTY = "org.opennms.netmgt.collectd.asyncCollection";
+
+    private static final boolean ASYNC_COLLECTION = Boolean.getBoolean(ASYNC_COLLECTION_PROPERTY);
+
 	private final CollectionSpecification m_spec;
 
 	private final SchedulingCompletedFlag m_schedulingCompletedFlag;
@@ -301,6 +310,15 @@ final class CollectableService implements ReadyRunnable {
      */
     @Override
     public void run() {
+        withLoggingContext(new Runnable() {
+            @Override
+            public void run() {
+                doRun();
+            }
+        });
+    }
+
+    private void withLoggingContext(final Runnable runnable) {
         Logging.withPrefix(Collectd.LOG4J_CATEGORY, new Runnable() {
 
             @Override
@@ -312,7 +330,7 @@ final class CollectableService implements ReadyRunnable {
                 Logging.putThreadContext("foreignSource", m_agent.getForeignSource());
                 Logging.putThreadContext("foreignId", m_agent.getForeignId());
                 Logging.putThreadContext("sysObjectId", m_agent.getSysObjectId());
-                doRun();
+                runnable.run();
             }
             
         });
@@ -333,21 +351,17 @@ final class CollectableService implements ReadyRunnable {
          * that the collection should be skipped.
          */
         if (!m_spec.scheduledOutage(m_agent)) {
+            if (ASYNC_COLLECTION && m_spec.isAsync()) {
+                // the service is rescheduled once the collection completes
+                doCollectionAsync();
+                return;
+            }
+
             try {
                 doCollection();
                 updateStatus(ServiceCollector.COLLECTION_SUCCEEDED, null);
-            } catch (CollectionTimedOut e) {
-                LOG.info(e.getMessage());
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
-            } catch (CollectionWarning e) {
-                LOG.warn(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
-            } catch (CollectionException e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, e);
             } catch (Throwable e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(ServiceCollector.COLLECTION_FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+                collectionFailed(e);
             }
         }
         
@@ -355,6 +369,22 @@ final class CollectableService implements ReadyRunnable {
         m_scheduler.schedule(m_spec.getInterval(), getReadyRunnable());
     }
 
+    private void collectionFailed(final Throwable t) {
+        if (t instanceof CollectionTimedOut) {
+            LOG.info(t.getMessage());
+            updateStatus(ServiceCollector.COLLECTION_FAILED, (CollectionTimedOut)t);
+        } else if (t instanceof CollectionWarning) {
+            LOG.warn(t.getMessage(), t);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, (CollectionWarning)t);
+        } else if (t instanceof CollectionException) {
+            LOG.error(t.getMessage(), t);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, (CollectionException)t);
+        } else {
+            LOG.error(t.getMessage(), t);
+            updateStatus(ServiceCollector.COLLECTION_FAILED, new CollectionException("Collection failed unexpectedly: " + t.getClass().getSimpleName() + ": " + t.getMessage(), t));
+        }
+    }
+
     private void updateStatus(int status, CollectionException e) {
         // Any change in status?
         if (status != m_status) {
@@ -393,6 +423,73 @@ final class CollectableService implements ReadyRunnable {
 		CollectionSet result = null;
 		try {
 		    result = m_spec.collect(m_agent);
+		} catch (Throwable t) {
+		    throw collectionException(t);
+		}
+		processCollectionSet(result);
+	}
+
+    /**
+     * Start data collection without waiting for it.  The collector calls back
+     * from its own thread (for SNMP, the thread that received the last
+     * response), so the persisting, thresholding and rescheduling are handed
+     * to the scheduler's thread pool rather than done in the callback.
+     */
+    private void doCollectionAsync() {
+        LOG.info("run: starting new asynchronous collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+        m_spec.collectAsync(m_agent, new CollectionCallback() {
+            @Override
+            public void collectionComplete(final CollectionSet collectionSet) {
+                completeCollectionAsync(collectionSet, null);
+            }
+
+            @Override
+            public void collectionFailed(final CollectionException e) {
+                completeCollectionAsync(null, e);
+            }
+        });
+    }
+
+    private void completeCollectionAsync(final CollectionSet result, final CollectionException failure) {
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                withLoggingContext(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (failure != null) {
+                                throw collectionException(failure);
+                            }
+                            processCollectionSet(result);
+                            updateStatus(ServiceCollector.COLLECTION_SUCCEEDED, null);
+                        } catch (Throwable e) {
+                            collectionFailed(e);
+                        }
+
+                        // Reschedule the service
+                        m_scheduler.schedule(m_spec.getInterval(), getReadyRunnable());
+                    }
+                });
+            }
+
+            @Override
+            public String toString() {
+                return "completion of " + CollectableService.this;
+            }
+        });
+    }
+
+    /**
+     * Persist and threshold the result of a collection.
+     */
+    private void processCollectionSet(final CollectionSet result) throws CollectionException {
+		try {
 		    if (result != null) {
                         Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
                         try {
@@ -419,16 +516,20 @@ final class CollectableService implements ReadyRunnable {
                             throw new CollectionFailed(result.getStatus());
                         }
                     }
-                } catch (CollectionException e) {
-                    LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-                    throw e;
 		} catch (Throwable t) {
-                    LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-                    throw new CollectionException("An undeclared throwable was caught during data collection for interface " + m_nodeId + "/" + getHostAddress() + "/" + m_spec.getServiceName(), t);
+		    throw collectionException(t);
 		}
 		LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
 	}
 
+    private CollectionException collectionException(final Throwable t) {
+        LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+        if (t instanceof CollectionException) {
+            return (CollectionException)t;
+        }
+        return new CollectionException("An undeclared throwable was caught during data collection for interface " + m_nodeId + "/" + getHostAddress() + "/" + m_spec.getServiceName(), t);
+    }
+
 	/**
      * Process any outstanding updates.
      * 
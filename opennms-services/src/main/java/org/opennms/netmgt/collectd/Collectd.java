@@ -74,9 +74,10 @@ import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.model.events.EventUtils;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.Schedulers;
+import org.opennms.netmgt.threshd.CounterStateStore;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -315,7 +316,7 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Create a scheduler
                 try {
                     LOG.debug("init: Creating collectd scheduler");
-                    setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                    setScheduler(Schedulers.create("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
                 } catch (final RuntimeException e) {
                     LOG.error("init: Failed to create collectd scheduler", e);
                     throw e;
@@ -327,6 +328,9 @@ public class Collectd extends AbstractServiceDaemon implements
     /** {@inheritDoc} */
     @Override
     protected void onStart() {
+        // restore the counters used for threshold rates before the first collection
+        CounterStateStore.loadSnapshot();
+
         // start the scheduler
         try {
             LOG.debug("start: Starting collectd scheduler");
@@ -345,6 +349,8 @@ public class Collectd extends AbstractServiceDaemon implements
         deinstallMessageSelectors();
 
         setScheduler(null);
+
+        CounterStateStore.saveSnapshot();
     }
 
     /** {@inheritDoc} */
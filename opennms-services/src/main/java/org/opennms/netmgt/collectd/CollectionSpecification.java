@@ -285,6 +285,44 @@ public class CollectionSpecification {
         }
     }
 
+    /**
+     * Returns whether the collector can collect without blocking the calling
+     * thread, see {@link #collectAsync(CollectionAgent, CollectionCallback)}.
+     *
+     * @return true if the collector is an {@link AsyncServiceCollector}
+     */
+    public boolean isAsync() {
+        return getCollector() instanceof AsyncServiceCollector;
+    }
+
+    /**
+     * Starts a collection and returns immediately; the outcome is reported to
+     * <code>callback</code>.  Only valid if {@link #isAsync()} is true.
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @param callback notified when the collection has finished
+     */
+    public void collectAsync(final CollectionAgent agent, final CollectionCallback callback) {
+        m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+        ((AsyncServiceCollector)getCollector()).collectAsync(agent, EventIpcManagerFactory.getIpcManager(), getPropertyMap(), new CollectionCallback() {
+            @Override
+            public void collectionComplete(final CollectionSet set) {
+                if (set.getStatus() == ServiceCollector.COLLECTION_FAILED) {
+                    m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, new CollectionFailed(ServiceCollector.COLLECTION_FAILED));
+                }
+                m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+                callback.collectionComplete(set);
+            }
+
+            @Override
+            public void collectionFailed(final CollectionException e) {
+                m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, e);
+                m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+                callback.collectionFailed(e);
+            }
+        });
+    }
+
     /**
      * <p>scheduledOutage</p>
      *
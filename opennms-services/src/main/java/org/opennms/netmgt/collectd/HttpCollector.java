@@ -31,29 +31,41 @@ package org.opennms.netmgt.collectd;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
@@ -64,9 +76,9 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ContentType;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
 import org.exolab.castor.xml.MarshalException;
 import org.exolab.castor.xml.ValidationException;
 import org.opennms.core.utils.EmptyKeyRelaxedTrustProvider;
@@ -112,6 +124,56 @@ public class HttpCollector implements ServiceCollector {
     private static final int DEFAULT_RETRY_COUNT = 2;
     private static final int DEFAULT_SO_TIMEOUT = 3000;
 
+    /**
+     * If set, the HTTP clients are kept between collections, so that the
+     * connections to the collected hosts are kept alive and re-used.
+     */
+    public static final String POOLED_CONNECTIONS_PROPERTY = "org.opennms.netmgt.collectd.HttpCollector.pooledConnections";
+
+    /**
+     * The maximum number of pooled connections per host.
+     */
+    public static final String MAX_CONNECTIONS_PER_HOST_PROPERTY = "org.opennms.netmgt.collectd.HttpCollector.maxConnectionsPerHost";
+
+    /**
+     * The time in milliseconds after which idle pooled connections and unused clients are closed.
+     */
+    public static final String IDLE_TIMEOUT_PROPERTY = "org.opennms.netmgt.collectd.HttpCollector.idleTimeout";
+
+    /**
+     * The maximum number of bytes read from a response, 0 reads the whole response.
+     */
+    public static final String MAX_RESPONSE_BYTES_PROPERTY = "org.opennms.netmgt.collectd.HttpCollector.maxResponseBytes";
+
+    /**
+     * If greater than 0, the response is searched for the first match of the regular
+     * expression while it is read, keeping only this many characters in memory.
+     * Otherwise the whole response has to match the regular expression.
+     */
+    public static final String MATCH_WINDOW_PROPERTY = "org.opennms.netmgt.collectd.HttpCollector.matchWindow";
+
+    private static final boolean POOLED_CONNECTIONS = Boolean.getBoolean(POOLED_CONNECTIONS_PROPERTY);
+
+    private static final int MAX_CONNECTIONS_PER_HOST = Math.max(1, Integer.getInteger(MAX_CONNECTIONS_PER_HOST_PROPERTY, 2));
+
+    private static final long IDLE_TIMEOUT = Long.getLong(IDLE_TIMEOUT_PROPERTY, 60000L);
+
+    private static final long MAX_RESPONSE_BYTES = Long.getLong(MAX_RESPONSE_BYTES_PROPERTY, 0L);
+
+    private static final int MATCH_WINDOW = Integer.getInteger(MATCH_WINDOW_PROPERTY, 0);
+
+    /**
+     * The compiled regular expressions by flags and expression.
+     */
+    private static final ConcurrentMap<String, Pattern> s_patterns = new ConcurrentHashMap<String, Pattern>();
+
+    /**
+     * The pooled clients by host and client settings, this is also the lock for the pool state.
+     */
+    private static final Map<String, PooledClient> s_clients = new HashMap<String, PooledClient>();
+
+    private static long s_lastIdleCheck = System.currentTimeMillis();
+
     private static final NumberFormat PARSER;
 
     private static final NumberFormat RRD_FORMATTER;
@@ -257,45 +319,23 @@ public class HttpCollector implements ServiceCollector {
     private static void doCollection(final HttpCollectionSet collectionSet, final HttpCollectionResource collectionResource) throws HttpCollectorException {
         HttpRequestBase method = null;
         HttpClientWrapper clientWrapper = null;
+        PooledClient pooledClient = null;
+        CloseableHttpResponse response = null;
         try {
             final HttpVersion httpVersion = computeVersion(collectionSet.getUriDef());
 
-            clientWrapper = HttpClientWrapper.create()
-                    .setConnectionTimeout(ParameterMap.getKeyedInteger(collectionSet.getParameters(), ParameterName.TIMEOUT.toString(), DEFAULT_SO_TIMEOUT))
-                    .setSocketTimeout(ParameterMap.getKeyedInteger(collectionSet.getParameters(), ParameterName.TIMEOUT.toString(), DEFAULT_SO_TIMEOUT))
-                    .useBrowserCompatibleCookies();
-
-            if ("https".equals(collectionSet.getUriDef().getUrl().getScheme())) {
-                clientWrapper.useRelaxedSSL("https");
-            }
-
-            String key = ParameterName.RETRY.toString();
-            if (collectionSet.getParameters().containsKey(ParameterName.RETRIES.toString())) {
-                key = ParameterName.RETRIES.toString();
-            }
-            Integer retryCount = ParameterMap.getKeyedInteger(collectionSet.getParameters(), key, DEFAULT_RETRY_COUNT);
-            clientWrapper.setRetries(retryCount);
-
             method = buildHttpMethod(collectionSet);
             method.setProtocolVersion(httpVersion);
-            final String userAgent = determineUserAgent(collectionSet);
-            if (userAgent != null && !userAgent.trim().isEmpty()) {
-                clientWrapper.setUserAgent(userAgent);
-            }
-            final HttpClientWrapper wrapper = clientWrapper;
-
-            if (collectionSet.getUriDef().getUrl().getUserInfo() != null) {
-                final String userInfo = collectionSet.getUriDef().getUrl().getUserInfo();
-                final String[] streetCred = userInfo.split(":", 2);
-                if (streetCred.length == 2) {
-                    wrapper.addBasicCredentials(streetCred[0], streetCred[1]);
-                } else { 
-                    LOG.warn("Illegal value found for username/password HTTP credentials: {}", userInfo);
-                }
+
+            if (POOLED_CONNECTIONS) {
+                pooledClient = getPooledClient(collectionSet, method.getURI());
+                clientWrapper = pooledClient.getClientWrapper();
+            } else {
+                clientWrapper = createClientWrapper(collectionSet);
             }
 
             LOG.info("doCollection: collecting using method: {}", method);
-            final CloseableHttpResponse response = clientWrapper.execute(method);
+            response = clientWrapper.execute(method);
             //Not really a persist as such; it just stores data in collectionSet for later retrieval
             persistResponse(collectionSet, collectionResource, response);
         } catch (URISyntaxException e) {
@@ -307,10 +347,143 @@ public class HttpCollector implements ServiceCollector {
         } catch (Throwable e) {
             throw new HttpCollectorException("Unexpected exception caught during HTTP collection", e);
         } finally {
+            // a response that was read completely has already released its connection to the pool,
+            // otherwise closing it closes the connection
+            IOUtils.closeQuietly(response);
+            if (pooledClient != null) {
+                pooledClient.release();
+            } else {
+                IOUtils.closeQuietly(clientWrapper);
+            }
+        }
+    }
+
+    private static HttpClientWrapper createClientWrapper(final HttpCollectionSet collectionSet) throws GeneralSecurityException {
+        final HttpClientWrapper clientWrapper = HttpClientWrapper.create()
+                .setConnectionTimeout(ParameterMap.getKeyedInteger(collectionSet.getParameters(), ParameterName.TIMEOUT.toString(), DEFAULT_SO_TIMEOUT))
+                .setSocketTimeout(ParameterMap.getKeyedInteger(collectionSet.getParameters(), ParameterName.TIMEOUT.toString(), DEFAULT_SO_TIMEOUT))
+                .useBrowserCompatibleCookies();
+
+        if ("https".equals(collectionSet.getUriDef().getUrl().getScheme())) {
+            clientWrapper.useRelaxedSSL("https");
+        }
+
+        clientWrapper.setRetries(getRetryCount(collectionSet));
+
+        final String userAgent = determineUserAgent(collectionSet);
+        if (userAgent != null && !userAgent.trim().isEmpty()) {
+            clientWrapper.setUserAgent(userAgent);
+        }
+
+        if (collectionSet.getUriDef().getUrl().getUserInfo() != null) {
+            final String userInfo = collectionSet.getUriDef().getUrl().getUserInfo();
+            final String[] streetCred = userInfo.split(":", 2);
+            if (streetCred.length == 2) {
+                clientWrapper.addBasicCredentials(streetCred[0], streetCred[1]);
+            } else { 
+                LOG.warn("Illegal value found for username/password HTTP credentials: {}", userInfo);
+            }
+        }
+        return clientWrapper;
+    }
+
+    private static int getRetryCount(final HttpCollectionSet collectionSet) {
+        String key = ParameterName.RETRY.toString();
+        if (collectionSet.getParameters().containsKey(ParameterName.RETRIES.toString())) {
+            key = ParameterName.RETRIES.toString();
+        }
+        return ParameterMap.getKeyedInteger(collectionSet.getParameters(), key, DEFAULT_RETRY_COUNT);
+    }
+
+    /**
+     * Returns the shared client for the host of the given URI and the client settings of
+     * the collection, the client has to be released when the collection is done.
+     */
+    private static PooledClient getPooledClient(final HttpCollectionSet collectionSet, final URI uri) throws GeneralSecurityException {
+        closeIdleClients();
+
+        final String key = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort()
+                + "/timeout=" + ParameterMap.getKeyedInteger(collectionSet.getParameters(), ParameterName.TIMEOUT.toString(), DEFAULT_SO_TIMEOUT)
+                + "/retries=" + getRetryCount(collectionSet)
+                + "/userAgent=" + determineUserAgent(collectionSet)
+                + "/userInfo=" + collectionSet.getUriDef().getUrl().getUserInfo();
+        synchronized (s_clients) {
+            PooledClient pooledClient = s_clients.get(key);
+            if (pooledClient == null) {
+                LOG.debug("getPooledClient: creating a new client for {}://{}:{}", uri.getScheme(), uri.getHost(), uri.getPort());
+                final HttpClientWrapper clientWrapper = createClientWrapper(collectionSet).usePooledConnections(MAX_CONNECTIONS_PER_HOST);
+                // the wrapper creates its client lazily and without locking, so create it
+                // here before the wrapper is shared between collection threads
+                clientWrapper.getClient();
+                pooledClient = new PooledClient(clientWrapper);
+                s_clients.put(key, pooledClient);
+            }
+            pooledClient.m_users++;
+            return pooledClient;
+        }
+    }
+
+    /**
+     * Closes the idle connections of the pooled clients and the clients which have not
+     * been used for longer than the idle timeout.
+     */
+    private static void closeIdleClients() {
+        final long now = System.currentTimeMillis();
+        final List<HttpClientWrapper> closed = new ArrayList<HttpClientWrapper>();
+        synchronized (s_clients) {
+            if (now - s_lastIdleCheck < IDLE_TIMEOUT) {
+                return;
+            }
+            s_lastIdleCheck = now;
+
+            final Iterator<PooledClient> it = s_clients.values().iterator();
+            while (it.hasNext()) {
+                final PooledClient pooledClient = it.next();
+                if (pooledClient.m_users == 0 && pooledClient.m_lastReleased <= now - IDLE_TIMEOUT) {
+                    it.remove();
+                    closed.add(pooledClient.getClientWrapper());
+                } else {
+                    pooledClient.getClientWrapper().closeIdleConnections(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        if (!closed.isEmpty()) {
+            LOG.debug("closeIdleClients: closing {} unused clients", closed.size());
+        }
+        for (final HttpClientWrapper clientWrapper : closed) {
             IOUtils.closeQuietly(clientWrapper);
         }
     }
 
+    /**
+     * A client which is shared by the collections of a host, the client keeps a pool
+     * of connections to the host.
+     */
+    private static class PooledClient {
+        private final HttpClientWrapper m_clientWrapper;
+
+        // guarded by s_clients
+        private int m_users = 0;
+
+        // guarded by s_clients
+        private long m_lastReleased = System.currentTimeMillis();
+
+        public PooledClient(final HttpClientWrapper clientWrapper) {
+            m_clientWrapper = clientWrapper;
+        }
+
+        public HttpClientWrapper getClientWrapper() {
+            return m_clientWrapper;
+        }
+
+        public void release() {
+            synchronized (s_clients) {
+                m_users--;
+                m_lastReleased = System.currentTimeMillis();
+            }
+        }
+    }
+
     private static class HttpCollectionAttribute extends AbstractCollectionAttribute {
         private final Object m_value;
 
@@ -383,41 +556,56 @@ public class HttpCollector implements ServiceCollector {
 
     }
 
-    private static List<HttpCollectionAttribute> processResponse(final Locale responseLocale, final String responseBodyAsString, final HttpCollectionSet collectionSet, HttpCollectionResource collectionResource) {
-        LOG.debug("processResponse:");
-        LOG.debug("responseBody = {}", responseBodyAsString);
-        LOG.debug("getmatches = {}", collectionSet.getUriDef().getUrl().getMatches());
-        List<HttpCollectionAttribute> butes = new LinkedList<HttpCollectionAttribute>();
+    /**
+     * Returns the compiled regular expression of the URI definition, the expressions
+     * are compiled once and shared by all collections.
+     */
+    static Pattern getPattern(final Uri uriDef) {
         int flags = 0;
-        if (collectionSet.getUriDef().getUrl().getCanonicalEquivalence()) {
+        if (uriDef.getUrl().getCanonicalEquivalence()) {
             flags |= Pattern.CANON_EQ;
         }
-        if (collectionSet.getUriDef().getUrl().getCaseInsensitive()) {
+        if (uriDef.getUrl().getCaseInsensitive()) {
             flags |= Pattern.CASE_INSENSITIVE;
         }
-        if (collectionSet.getUriDef().getUrl().getComments()) {
+        if (uriDef.getUrl().getComments()) {
             flags |= Pattern.COMMENTS;
         }
-        if (collectionSet.getUriDef().getUrl().getDotall()) {
+        if (uriDef.getUrl().getDotall()) {
             flags |= Pattern.DOTALL;
         }
-        if (collectionSet.getUriDef().getUrl().getLiteral()) {
+        if (uriDef.getUrl().getLiteral()) {
             flags |= Pattern.LITERAL;
         }
-        if (collectionSet.getUriDef().getUrl().getMultiline()) {
+        if (uriDef.getUrl().getMultiline()) {
             flags |= Pattern.MULTILINE;
         }
-        if (collectionSet.getUriDef().getUrl().getUnicodeCase()) {
+        if (uriDef.getUrl().getUnicodeCase()) {
             flags |= Pattern.UNICODE_CASE;
         }
-        if (collectionSet.getUriDef().getUrl().getUnixLines()) {
+        if (uriDef.getUrl().getUnixLines()) {
             flags |= Pattern.UNIX_LINES;
         }
-        LOG.debug("flags = {}", flags);
-        Pattern p = Pattern.compile(collectionSet.getUriDef().getUrl().getMatches(), flags);
-        Matcher m = p.matcher(responseBodyAsString);
+        final String key = flags + ":" + uriDef.getUrl().getMatches();
+        Pattern p = s_patterns.get(key);
+        if (p == null) {
+            LOG.debug("flags = {}", flags);
+            p = Pattern.compile(uriDef.getUrl().getMatches(), flags);
+            s_patterns.putIfAbsent(key, p);
+        }
+        return p;
+    }
 
-        final boolean matches = m.matches();
+    /**
+     * Creates the attributes from the groups of the matcher.
+     *
+     * @param m the matcher after a successful match, or null if the response did not match
+     */
+    private static List<HttpCollectionAttribute> processResponse(final Locale responseLocale, final Matcher m, final HttpCollectionSet collectionSet, HttpCollectionResource collectionResource) {
+        LOG.debug("processResponse:");
+        LOG.debug("getmatches = {}", collectionSet.getUriDef().getUrl().getMatches());
+        List<HttpCollectionAttribute> butes = new LinkedList<HttpCollectionAttribute>();
+        final boolean matches = m != null;
         if (matches) {
             LOG.debug("processResponse: found matching attributes: {}", matches);
             final List<Attrib> attribDefs = collectionSet.getUriDef().getAttributes().getAttribCollection();
@@ -505,8 +693,14 @@ public class HttpCollector implements ServiceCollector {
     }
 
     private static void persistResponse(final HttpCollectionSet collectionSet, final HttpCollectionResource collectionResource, final HttpResponse response) throws IOException {
-        final String responseString = EntityUtils.toString(response.getEntity());
-        if (responseString != null && !"".equals(responseString)) {
+        final PushbackReader reader = getResponseReader(response.getEntity(), MAX_RESPONSE_BYTES);
+        if (reader == null) {
+            return;
+        }
+        final int first = reader.read();
+        if (first != -1) {
+            reader.unread(first);
+
             // Get response's locale from the Content-Language header if available
             Locale responseLocale = null;
             final Header[] headers = response.getHeaders("Content-Language");
@@ -534,10 +728,26 @@ public class HttpCollector implements ServiceCollector {
                 }
             }
 
-            List<HttpCollectionAttribute> attributes = processResponse(responseLocale, responseString, collectionSet, collectionResource);
+            final Pattern p = getPattern(collectionSet.getUriDef());
+            final Matcher m;
+            String responseString = null;
+            if (MATCH_WINDOW > 0) {
+                m = find(p, reader, MATCH_WINDOW);
+            } else {
+                responseString = IOUtils.toString(reader);
+                LOG.debug("responseBody = {}", responseString);
+                final Matcher matcher = p.matcher(responseString);
+                m = matcher.matches() ? matcher : null;
+            }
+
+            List<HttpCollectionAttribute> attributes = processResponse(responseLocale, m, collectionSet, collectionResource);
 
             if (attributes.isEmpty()) {
-                LOG.warn("doCollection: no attributes defined by the response: {}", responseString.trim());
+                if (responseString != null) {
+                    LOG.warn("doCollection: no attributes defined by the response: {}", responseString.trim());
+                } else {
+                    LOG.warn("doCollection: no attributes defined by the response");
+                }
                 throw new HttpCollectorException("No attributes specified were found: ");
             }
 
@@ -546,6 +756,74 @@ public class HttpCollector implements ServiceCollector {
         }
     }
 
+    /**
+     * Returns a reader for the body of the response which stops after <code>maxResponseBytes</code>
+     * bytes, or null if there is no body. The charset is determined the same way
+     * {@link org.apache.http.util.EntityUtils#toString(HttpEntity)} does.
+     *
+     * @param maxResponseBytes the maximum number of bytes to read, 0 reads the whole body
+     */
+    static PushbackReader getResponseReader(final HttpEntity entity, final long maxResponseBytes) throws IOException {
+        if (entity == null) {
+            throw new IllegalArgumentException("HTTP entity may not be null");
+        }
+        final InputStream content = entity.getContent();
+        if (content == null) {
+            return null;
+        }
+
+        Charset charset = null;
+        try {
+            final ContentType contentType = ContentType.get(entity);
+            if (contentType != null) {
+                charset = contentType.getCharset();
+            }
+        } catch (final UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(e.getMessage());
+        }
+        if (charset == null) {
+            charset = HTTP.DEF_CONTENT_CHARSET;
+        }
+
+        InputStream in = content;
+        if (maxResponseBytes > 0) {
+            final BoundedInputStream bounded = new BoundedInputStream(content, maxResponseBytes);
+            // closing the content would read the rest of the response
+            bounded.setPropagateClose(false);
+            in = bounded;
+        }
+        return new PushbackReader(new InputStreamReader(in, charset));
+    }
+
+    /**
+     * Searches the response for the first match of the regular expression while it is read.
+     * Only the last <code>window</code> characters (and a match that is still growing at the
+     * end of the data read so far) are kept, so the matched text has to fit into the window.
+     *
+     * @return the matcher positioned at the first match, or null if there is none
+     */
+    static Matcher find(final Pattern p, final Reader reader, final int window) throws IOException {
+        final StringBuilder buffer = new StringBuilder(window * 2);
+        final char[] chunk = new char[Math.min(window, 8192)];
+        final Matcher m = p.matcher(buffer);
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+            m.reset(buffer);
+            if (m.find()) {
+                // more input could still change a match which reaches the end of the data read so far
+                if (!m.hitEnd() || m.start() < buffer.length() - window) {
+                    return m;
+                }
+                buffer.delete(0, m.start());
+            } else if (buffer.length() > window) {
+                buffer.delete(0, buffer.length() - window);
+            }
+        }
+        m.reset(buffer);
+        return m.find() ? m : null;
+    }
+
     private static String determineUserAgent(final HttpCollectionSet collectionSet) {
         String userAgent = collectionSet.getUriDef().getUrl().getUserAgent();
         return (String) (userAgent == null ? null : userAgent);
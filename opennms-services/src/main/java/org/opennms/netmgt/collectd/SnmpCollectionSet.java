@@ -49,6 +49,7 @@ import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpWalkCallback;
 import org.opennms.netmgt.snmp.SnmpWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -397,6 +398,33 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
         }
     }
 
+    /**
+     * Starts the walk and returns without waiting for it.  The callback is
+     * notified from the thread that finishes the walk.
+     *
+     * @param callback notified with this collection set or the failure
+     */
+    void collectAsync(final CollectionCallback callback) {
+        final SnmpWalker walker = createWalker();
+        walker.setCallback(new SnmpWalkCallback() {
+            @Override
+            public void complete(final SnmpWalker finishedWalker) {
+                logFinishedWalker();
+                try {
+                    verifySuccessfulWalk(finishedWalker);
+                } catch (final CollectionException e) {
+                    callback.collectionFailed(e);
+                    return;
+                }
+                m_status = ServiceCollector.COLLECTION_SUCCEEDED;
+                callback.collectionComplete(SnmpCollectionSet.this);
+            }
+        });
+        walker.start();
+
+        logStartedWalker();
+    }
+
     boolean checkDisableForceRescan(final String disabledString) {
         final Map<String, Object> parameters = m_snmpCollection.getServiceParameters().getParameters();
         final String src = ParameterMap.getKeyedString(parameters, "disableForceRescan", null);
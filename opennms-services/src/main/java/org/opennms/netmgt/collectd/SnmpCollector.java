@@ -37,7 +37,6 @@ import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
 import org.opennms.netmgt.collection.api.CollectionSet;
-import org.opennms.netmgt.collection.api.ServiceCollector;
 import org.opennms.netmgt.collection.api.ServiceParameters;
 import org.opennms.netmgt.config.DataCollectionConfigFactory;
 import org.opennms.netmgt.config.SnmpPeerFactory;
@@ -54,7 +53,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <A HREF="mailto:brozow@opennms.org">Matt Brozowski</A>
  */
-public class SnmpCollector implements ServiceCollector {
+public class SnmpCollector implements AsyncServiceCollector {
     
     private static final Logger LOG = LoggerFactory.getLogger(SnmpCollector.class);
     
@@ -304,41 +303,13 @@ public class SnmpCollector implements ServiceCollector {
     @Override
     public CollectionSet collect(CollectionAgent agent, EventProxy eventProxy, Map<String, Object> parameters) throws CollectionException {
         try {
-            // XXX: Experimental code that reuses the OnmsSnmpCollection
-            // OnmsSnmpCollection snmpCollection = (OnmsSnmpCollection)agent.getAttribute("SNMP_COLLECTION");
-            // ServiceParameters params = snmpCollection.getServiceParameters();
-            
-            // XXX: This code would be commented out in light if the experimental code above was enabled
-            final ServiceParameters params = new ServiceParameters(parameters);
-            params.logIfAliasConfig();
-            OnmsSnmpCollection snmpCollection = new OnmsSnmpCollection((SnmpCollectionAgent)agent, params);
-
             final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
 
-            SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
-            collectionSet.setCollectionTimestamp(new Date());
-            if (!collectionSet.hasDataToCollect()) {
-                logNoDataToCollect(agent);
-                // should we return here?
-            }
+            SnmpCollectionSet collectionSet = createCollectionSet(agent, parameters);
             
             collectionSet.collect();
 
-            /*
-             * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
-             * {@see http://issues.opennms.org/browse/NMS-1057}
-             */
-            if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
-                    && collectionSet.rescanNeeded()) {
-                /*
-                 * TODO: the behavior of this object may have been re-factored away.
-                 * Verify that this is correct and remove this unused object if it
-                 * is no longer needed.  My gut thinks this should be investigated.
-                 */
-                forceRescanState.rescanIndicated();
-            } else {
-                collectionSet.checkForSystemRestart();
-            }
+            checkForRescan(collectionSet, forceRescanState);
             return collectionSet;
         } catch (CollectionException e) {
             throw e;
@@ -347,6 +318,78 @@ public class SnmpCollector implements ServiceCollector {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Starts the SNMP walk and returns; the callback is notified once the
+     * walk has finished instead of the calling thread waiting for it.
+     */
+    @Override
+    public void collectAsync(final CollectionAgent agent, final EventProxy eventProxy, final Map<String, Object> parameters, final CollectionCallback callback) {
+        try {
+            final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
+
+            final SnmpCollectionSet collectionSet = createCollectionSet(agent, parameters);
+
+            collectionSet.collectAsync(new CollectionCallback() {
+                @Override
+                public void collectionComplete(final CollectionSet completedSet) {
+                    try {
+                        checkForRescan(collectionSet, forceRescanState);
+                    } catch (Throwable t) {
+                        callback.collectionFailed(new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t));
+                        return;
+                    }
+                    callback.collectionComplete(collectionSet);
+                }
+
+                @Override
+                public void collectionFailed(final CollectionException e) {
+                    callback.collectionFailed(e);
+                }
+            });
+        } catch (Throwable t) {
+            callback.collectionFailed(new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t));
+        }
+    }
+
+    private SnmpCollectionSet createCollectionSet(final CollectionAgent agent, final Map<String, Object> parameters) {
+        // XXX: Experimental code that reuses the OnmsSnmpCollection
+        // OnmsSnmpCollection snmpCollection = (OnmsSnmpCollection)agent.getAttribute("SNMP_COLLECTION");
+        // ServiceParameters params = snmpCollection.getServiceParameters();
+        
+        // XXX: This code would be commented out in light if the experimental code above was enabled
+        final ServiceParameters params = new ServiceParameters(parameters);
+        params.logIfAliasConfig();
+        OnmsSnmpCollection snmpCollection = new OnmsSnmpCollection((SnmpCollectionAgent)agent, params);
+
+        SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
+        collectionSet.setCollectionTimestamp(new Date());
+        if (!collectionSet.hasDataToCollect()) {
+            logNoDataToCollect(agent);
+            // should we return here?
+        }
+        return collectionSet;
+    }
+
+    private void checkForRescan(final SnmpCollectionSet collectionSet, final ForceRescanState forceRescanState) {
+        /*
+         * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
+         * {@see http://issues.opennms.org/browse/NMS-1057}
+         */
+        if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
+                && collectionSet.rescanNeeded()) {
+            /*
+             * TODO: the behavior of this object may have been re-factored away.
+             * Verify that this is correct and remove this unused object if it
+             * is no longer needed.  My gut thinks this should be investigated.
+             */
+            forceRescanState.rescanIndicated();
+        } else {
+            collectionSet.checkForSystemRestart();
+        }
+    }
+
     /*private void persistData(ServiceParameters params, SnmpCollectionSet collectionSet) {
         Collectd.instrumentation().beginPersistingServiceData(collectionSet.getCollectionAgent().getNodeId(), collectionSet.getCollectionAgent().getHostAddress(), serviceName());
         try {
@@ -30,6 +30,8 @@ package org.opennms.netmgt.collectd.jmx;
 
 import java.util.concurrent.ThreadPoolExecutor;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 
@@ -126,11 +128,56 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
         return getDaemon().getCollectableServiceCount();
     }
     
+    @Override
+    public long getScheduledTasks() {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) scheduler).getScheduled();
+        } else if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler) scheduler).getScheduled();
+        } else {
+            return 0L;
+        }
+    }
+
+    @Override
+    public long getScheduleQueueDepth() {
+        if (getThreadPoolStatsStatus()) {
+            return getExecutor().getQueue().size();
+        } else {
+            return 0L;
+        }
+    }
+
+    @Override
+    public double getScheduleLag() {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) scheduler).getAverageLag();
+        } else {
+            return 0.0;
+        }
+    }
+
+    @Override
+    public long getMaxScheduleLag() {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) scheduler).getMaxLag();
+        } else {
+            return 0L;
+        }
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) scheduler).getRunner();
+        }
+        return (ThreadPoolExecutor) ((LegacyScheduler) scheduler).getRunner();
     }
 
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof LegacyScheduler || getDaemon().getScheduler() instanceof TimingWheelScheduler);
     }
 }
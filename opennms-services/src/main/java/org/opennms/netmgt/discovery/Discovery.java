@@ -29,15 +29,14 @@
 package org.opennms.netmgt.discovery;
 
 import java.io.IOException;
-import java.net.InetAddress;
+import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.locks.Lock;
@@ -46,7 +45,7 @@ import org.exolab.castor.xml.MarshalException;
 import org.exolab.castor.xml.ValidationException;
 import org.opennms.core.db.DataSourceFactory;
 import org.opennms.core.utils.DBUtils;
-import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.utils.IteratorIterator;
 import org.opennms.netmgt.config.DiscoveryConfigFactory;
 import org.opennms.netmgt.daemon.AbstractServiceDaemon;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -56,6 +55,7 @@ import org.opennms.netmgt.events.api.annotations.EventHandler;
 import org.opennms.netmgt.events.api.annotations.EventListener;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.model.discovery.IPPollAddress;
+import org.opennms.netmgt.model.discovery.IPPollRange;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
@@ -95,7 +95,7 @@ public class Discovery extends AbstractServiceDaemon {
     /**
      * a set of devices to skip discovery on
      */
-    private Set<String> m_alreadyDiscovered = Collections.synchronizedSet(new HashSet<String>());
+    private volatile KnownAddressSet m_alreadyDiscovered = new KnownAddressSet();
 
     private DiscoveryConfigFactory m_discoveryFactory;
 
@@ -106,6 +106,11 @@ public class Discovery extends AbstractServiceDaemon {
     private volatile EventForwarder m_eventForwarder;
 
     private Pinger m_pinger;
+
+    /**
+     * The current or last ping sweep.
+     */
+    private volatile PingSweep m_sweep;
     
     /**
      * <p>setEventForwarder</p>
@@ -201,56 +206,48 @@ public class Discovery extends AbstractServiceDaemon {
 
         m_xstatus = PING_RUNNING;
 
-        getDiscoveryFactory().getReadLock().lock();
+        final DiscoveryConfigFactory factory = getDiscoveryFactory();
+        factory.getReadLock().lock();
         try {
-            for (IPPollAddress pollAddress : getDiscoveryFactory().getConfiguredAddresses()) {
-                if (m_xstatus == PING_FINISHING || m_timer == null) {
-                    m_xstatus = PING_IDLE;
-                    return;
-                }
-                LOG.debug("Pinging: {} of foreign source {}", pollAddress.getAddress().toString(), m_discoveryFactory.getForeignSource(pollAddress.getAddress()));
-                ping(pollAddress);
-                try {
-                    Thread.sleep(getDiscoveryFactory().getIntraPacketDelay());
-                } catch (InterruptedException e) {
-                    LOG.info("interrupting discovery sweep");
-                    break;
-                }
+            if (m_xstatus == PING_FINISHING || m_timer == null) {
+                m_xstatus = PING_IDLE;
+                return;
             }
-        } finally {
-            getDiscoveryFactory().getReadLock().unlock();
-        }
 
-        LOG.info("finished discovery sweep");
-        m_xstatus = PING_IDLE;
-    }
+            // the same addresses as DiscoveryConfigFactory.getConfiguredAddresses(), counted without iterating them
+            final List<IPPollAddress> specifics = factory.getSpecifics();
+            specifics.addAll(factory.getURLSpecifics());
+            final List<IPPollRange> ranges = factory.getRanges();
+
+            BigInteger expected = BigInteger.valueOf(specifics.size());
+            final List<Iterator<IPPollAddress>> iters = new ArrayList<Iterator<IPPollAddress>>();
+            iters.add(specifics.iterator());
+            for (final IPPollRange range : ranges) {
+                expected = expected.add(range.getAddressRange().size());
+                iters.add(factory.getExcludingInterator(range.iterator()));
+            }
 
-    private void ping(IPPollAddress pollAddress) {
-        InetAddress address = pollAddress.getAddress();
-        if (address != null) {
-            if (!isAlreadyDiscovered(address)) {
-                try {
-                    m_pinger.ping(address, pollAddress.getTimeout(), pollAddress.getRetries(), (short) 1, cb);
-                } catch (Throwable e) {
-                    LOG.debug("error pinging {}", address.getAddress(), e);
-                }
-            } else {
-            	LOG.debug("{} already discovered.", address.toString());
+            final PingSweep sweep = new PingSweep(m_pinger, cb, m_alreadyDiscovered, factory.getPacketsPerSecond());
+            m_sweep = sweep;
+            LOG.info("sweeping {} addresses at {} packets per second", expected, factory.getPacketsPerSecond());
+            if (!sweep.sweep(new IteratorIterator<IPPollAddress>(iters), expected)) {
+                m_xstatus = PING_IDLE;
+                return;
             }
+            LOG.info("swept {} addresses, sent {} pings at {} packets per second", sweep.getAddressesSwept(), sweep.getPacketsSent(), sweep.getPacketsPerSecond());
+        } finally {
+            factory.getReadLock().unlock();
         }
-    }
 
-    private boolean isAlreadyDiscovered(InetAddress address) {
-        if (m_alreadyDiscovered.contains(InetAddressUtils.str(address))) {
-            return true;
-        }
-        return false;
+        LOG.info("finished discovery sweep");
+        m_xstatus = PING_IDLE;
     }
 
     private void startTimer() {
         if (m_timer != null) {
             LOG.debug("startTimer() called, but a previous timer exists; making sure it's cleaned up");
             m_xstatus = PING_FINISHING;
+            cancelSweep();
             m_timer.cancel();
         }
         
@@ -278,6 +275,7 @@ public class Discovery extends AbstractServiceDaemon {
         if (m_timer != null) {
             LOG.debug("stopping existing timer");
             m_xstatus = PING_FINISHING;
+            cancelSweep();
             m_timer.cancel();
             m_timer = null;
         } else {
@@ -285,6 +283,31 @@ public class Discovery extends AbstractServiceDaemon {
         }
     }
 
+    private void cancelSweep() {
+        final PingSweep sweep = m_sweep;
+        if (sweep != null) {
+            sweep.cancel();
+        }
+    }
+
+    /**
+     * <p>getSweep</p>
+     *
+     * @return the ping sweep that is running or ran last, or null if none has started yet
+     */
+    public PingSweep getSweep() {
+        return m_sweep;
+    }
+
+    /**
+     * <p>getKnownAddressCount</p>
+     *
+     * @return the number of managed addresses that are not pinged
+     */
+    public int getKnownAddressCount() {
+        return m_alreadyDiscovered.size();
+    }
+
     /**
      * <p>onStart</p>
      */
@@ -327,7 +350,7 @@ public class Discovery extends AbstractServiceDaemon {
     	 * if something goes wrong with the DB we won't lose whatever was already
     	 * in there
     	 */
-    	Set<String> newAlreadyDiscovered = Collections.synchronizedSet(new HashSet<String>());
+    	KnownAddressSet newAlreadyDiscovered = new KnownAddressSet();
     	Connection conn = null;
         final DBUtils d = new DBUtils(getClass());
 
@@ -340,7 +363,11 @@ public class Discovery extends AbstractServiceDaemon {
     		d.watch(rs);
     		if (rs != null) {
     			while (rs.next()) {
-    				newAlreadyDiscovered.add(rs.getString(1));
+    				try {
+    					newAlreadyDiscovered.add(rs.getString(1));
+    				} catch (IllegalArgumentException e) {
+    					LOG.warn("Ignoring invalid managed IP address {}", rs.getString(1));
+    				}
     			}
     		} else {
     			LOG.warn("Got null ResultSet from query for all IP addresses");
@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import org.opennms.core.utils.InetAddressUtils;
+
+/**
+ * The set of interface addresses discovery should not ping because they are
+ * already known.
+ *
+ * <p>IPv4 addresses are kept in a compressed bitmap in the style of Roaring
+ * bitmaps: the upper 16 bits of an address select a container that holds the
+ * lower 16 bits either as a sorted <code>short</code> array, while it is
+ * sparse, or as a 65536-bit bitmap once it holds more than
+ * {@link #ARRAY_LIMIT} addresses. IPv6 addresses are kept as 64-bit hashes in
+ * an open-addressed <code>long</code> table; a hash collision can only cause
+ * an unknown address to be skipped, which is as likely as two random 64-bit
+ * numbers being equal.</p>
+ */
+public class KnownAddressSet {
+
+    private static final int ARRAY_LIMIT = 4096;
+
+    private static final int BITMAP_WORDS = 1024;
+
+    /**
+     * Upper 16 bits of the IPv4 addresses held by each container, sorted.
+     */
+    private int[] m_keys = new int[4];
+
+    private Container[] m_containers = new Container[4];
+
+    private int m_containerCount = 0;
+
+    private long[] m_v6Hashes = new long[16];
+
+    private boolean m_v6HasZero = false;
+
+    private int m_v6Size = 0;
+
+    private int m_size = 0;
+
+    private static class Container {
+        private short[] m_array = new short[4];
+        private long[] m_bitmap = null;
+        private int m_cardinality = 0;
+
+        private int find(final int low) {
+            int lo = 0;
+            int hi = m_cardinality - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                final int value = m_array[mid] & 0xffff;
+                if (value < low) {
+                    lo = mid + 1;
+                } else if (value > low) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1 - lo;
+        }
+
+        public boolean contains(final int low) {
+            if (m_bitmap != null) {
+                return (m_bitmap[low >>> 6] & (1L << low)) != 0;
+            }
+            return find(low) >= 0;
+        }
+
+        public boolean add(final int low) {
+            if (m_bitmap != null) {
+                final long bit = 1L << low;
+                if ((m_bitmap[low >>> 6] & bit) != 0) {
+                    return false;
+                }
+                m_bitmap[low >>> 6] |= bit;
+                m_cardinality++;
+                return true;
+            }
+            int i = find(low);
+            if (i >= 0) {
+                return false;
+            }
+            if (m_cardinality == ARRAY_LIMIT) {
+                m_bitmap = new long[BITMAP_WORDS];
+                for (int j = 0; j < m_cardinality; j++) {
+                    final int value = m_array[j] & 0xffff;
+                    m_bitmap[value >>> 6] |= 1L << value;
+                }
+                m_array = null;
+                return add(low);
+            }
+            i = -1 - i;
+            if (m_cardinality == m_array.length) {
+                m_array = Arrays.copyOf(m_array, Math.min(ARRAY_LIMIT, m_array.length * 2));
+            }
+            System.arraycopy(m_array, i, m_array, i + 1, m_cardinality - i);
+            m_array[i] = (short) low;
+            m_cardinality++;
+            return true;
+        }
+
+        public boolean remove(final int low) {
+            if (m_bitmap != null) {
+                final long bit = 1L << low;
+                if ((m_bitmap[low >>> 6] & bit) == 0) {
+                    return false;
+                }
+                m_bitmap[low >>> 6] &= ~bit;
+                m_cardinality--;
+                if (m_cardinality == ARRAY_LIMIT / 2) {
+                    m_array = new short[m_cardinality];
+                    int j = 0;
+                    for (int word = 0; word < BITMAP_WORDS; word++) {
+                        long bits = m_bitmap[word];
+                        while (bits != 0) {
+                            m_array[j++] = (short) ((word << 6) + Long.numberOfTrailingZeros(bits));
+                            bits &= bits - 1;
+                        }
+                    }
+                    m_bitmap = null;
+                }
+                return true;
+            }
+            final int i = find(low);
+            if (i < 0) {
+                return false;
+            }
+            System.arraycopy(m_array, i + 1, m_array, i, m_cardinality - i - 1);
+            m_cardinality--;
+            return true;
+        }
+
+        public boolean isEmpty() {
+            return m_cardinality == 0;
+        }
+    }
+
+    private int findContainer(final int high) {
+        return Arrays.binarySearch(m_keys, 0, m_containerCount, high);
+    }
+
+    private static int toInt(final byte[] address) {
+        return ((address[0] & 0xff) << 24) | ((address[1] & 0xff) << 16) | ((address[2] & 0xff) << 8) | (address[3] & 0xff);
+    }
+
+    /**
+     * Hashes a 128-bit address to 64 bits by mixing both halves with the
+     * MurmurHash3 finalizer.
+     */
+    private static long hash(final byte[] address) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (address[i] & 0xff);
+            low = (low << 8) | (address[i + 8] & 0xff);
+        }
+        return mix(mix(high) ^ low);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private int findV6(final long hash) {
+        final int mask = m_v6Hashes.length - 1;
+        int i = (int) hash & mask;
+        while (m_v6Hashes[i] != 0) {
+            if (m_v6Hashes[i] == hash) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1 - i;
+    }
+
+    private boolean addV6(final long hash) {
+        if (hash == 0) {
+            // zero marks an empty slot in the table
+            final boolean added = !m_v6HasZero;
+            m_v6HasZero = true;
+            return added;
+        }
+        if (findV6(hash) >= 0) {
+            return false;
+        }
+        if ((m_v6Size + 1) * 4 > m_v6Hashes.length * 3) {
+            final long[] hashes = m_v6Hashes;
+            m_v6Hashes = new long[hashes.length * 2];
+            for (final long h : hashes) {
+                if (h != 0) {
+                    m_v6Hashes[-1 - findV6(h)] = h;
+                }
+            }
+        }
+        m_v6Hashes[-1 - findV6(hash)] = hash;
+        m_v6Size++;
+        return true;
+    }
+
+    private boolean removeV6(final long hash) {
+        if (hash == 0) {
+            final boolean removed = m_v6HasZero;
+            m_v6HasZero = false;
+            return removed;
+        }
+        int index = findV6(hash);
+        if (index < 0) {
+            return false;
+        }
+        // backward shift deletion keeps the probe sequences intact
+        final int mask = m_v6Hashes.length - 1;
+        m_v6Hashes[index] = 0;
+        m_v6Size--;
+        int i = (index + 1) & mask;
+        while (m_v6Hashes[i] != 0) {
+            final int home = (int) m_v6Hashes[i] & mask;
+            if (((i - home) & mask) >= ((i - index) & mask)) {
+                m_v6Hashes[index] = m_v6Hashes[i];
+                m_v6Hashes[i] = 0;
+                index = i;
+            }
+            i = (i + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * <p>add</p>
+     *
+     * @param address the address to add
+     * @return true if the address was not already in the set
+     */
+    public synchronized boolean add(final InetAddress address) {
+        final boolean added;
+        if (address instanceof Inet4Address) {
+            final int value = toInt(address.getAddress());
+            final int high = value >>> 16;
+            int i = findContainer(high);
+            if (i < 0) {
+                i = -1 - i;
+                if (m_containerCount == m_keys.length) {
+                    m_keys = Arrays.copyOf(m_keys, m_keys.length * 2);
+                    m_containers = Arrays.copyOf(m_containers, m_containers.length * 2);
+                }
+                System.arraycopy(m_keys, i, m_keys, i + 1, m_containerCount - i);
+                System.arraycopy(m_containers, i, m_containers, i + 1, m_containerCount - i);
+                m_keys[i] = high;
+                m_containers[i] = new Container();
+                m_containerCount++;
+            }
+            added = m_containers[i].add(value & 0xffff);
+        } else {
+            added = addV6(hash(address.getAddress()));
+        }
+        if (added) {
+            m_size++;
+        }
+        return added;
+    }
+
+    /**
+     * <p>add</p>
+     *
+     * @param address the address to add, as a string
+     * @return true if the address was not already in the set
+     */
+    public boolean add(final String address) {
+        final InetAddress addr = InetAddressUtils.addr(address);
+        return addr != null && add(addr);
+    }
+
+    /**
+     * <p>remove</p>
+     *
+     * @param address the address to remove
+     * @return true if the address was in the set
+     */
+    public synchronized boolean remove(final InetAddress address) {
+        final boolean removed;
+        if (address instanceof Inet4Address) {
+            final int value = toInt(address.getAddress());
+            final int i = findContainer(value >>> 16);
+            removed = i >= 0 && m_containers[i].remove(value & 0xffff);
+            if (removed && m_containers[i].isEmpty()) {
+                System.arraycopy(m_keys, i + 1, m_keys, i, m_containerCount - i - 1);
+                System.arraycopy(m_containers, i + 1, m_containers, i, m_containerCount - i - 1);
+                m_containerCount--;
+                m_containers[m_containerCount] = null;
+            }
+        } else {
+            removed = removeV6(hash(address.getAddress()));
+        }
+        if (removed) {
+            m_size--;
+        }
+        return removed;
+    }
+
+    /**
+     * <p>remove</p>
+     *
+     * @param address the address to remove, as a string
+     * @return true if the address was in the set
+     */
+    public boolean remove(final String address) {
+        final InetAddress addr = InetAddressUtils.addr(address);
+        return addr != null && remove(addr);
+    }
+
+    /**
+     * <p>contains</p>
+     *
+     * @param address an address
+     * @return true if the address is in the set
+     */
+    public synchronized boolean contains(final InetAddress address) {
+        if (address instanceof Inet4Address) {
+            final int value = toInt(address.getAddress());
+            final int i = findContainer(value >>> 16);
+            return i >= 0 && m_containers[i].contains(value & 0xffff);
+        } else {
+            final long hash = hash(address.getAddress());
+            return hash == 0 ? m_v6HasZero : findV6(hash) >= 0;
+        }
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of addresses in the set
+     */
+    public synchronized int size() {
+        return m_size;
+    }
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.utils.TokenBucket;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.Pinger;
+import org.opennms.netmgt.model.discovery.IPPollAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single pass of discovery over the configured addresses. Addresses are
+ * read lazily from the ranges as the sweep goes, addresses that are already
+ * known are skipped without using up the packet budget, and pings are paced
+ * by a {@link TokenBucket}. Responses are handled asynchronously by the
+ * {@link PingResponseCallback}, so the sweep never waits for a reply.
+ *
+ * <p>The counters are updated as the sweep progresses so that it can be
+ * monitored while it runs.</p>
+ */
+public class PingSweep {
+    private static final Logger LOG = LoggerFactory.getLogger(PingSweep.class);
+
+    private final Pinger m_pinger;
+
+    private final PingResponseCallback m_callback;
+
+    private final KnownAddressSet m_knownAddresses;
+
+    private final TokenBucket m_bucket;
+
+    private volatile BigInteger m_expected = BigInteger.ZERO;
+
+    private volatile boolean m_running = false;
+
+    private volatile boolean m_cancelled = false;
+
+    private volatile long m_swept = 0;
+
+    private volatile long m_sent = 0;
+
+    private volatile long m_skipped = 0;
+
+    private volatile long m_startTime = 0;
+
+    private volatile long m_endTime = 0;
+
+    /**
+     * <p>Constructor for PingSweep.</p>
+     *
+     * @param pinger used to send the pings
+     * @param callback notified of every response
+     * @param knownAddresses addresses that are not pinged
+     * @param packetsPerSecond the rate at which pings are sent
+     */
+    public PingSweep(final Pinger pinger, final PingResponseCallback callback, final KnownAddressSet knownAddresses, final double packetsPerSecond) {
+        m_pinger = pinger;
+        m_callback = callback;
+        m_knownAddresses = knownAddresses;
+        // allow a tenth of a second worth of packets at the start and to catch up after a stall
+        m_bucket = new TokenBucket(packetsPerSecond, packetsPerSecond / 10);
+    }
+
+    /**
+     * Pings every address that is not already known.
+     *
+     * @param addresses the addresses to sweep
+     * @param expected the number of addresses, used to report progress
+     * @return false if the sweep was cancelled or interrupted before the end
+     */
+    public boolean sweep(final Iterable<IPPollAddress> addresses, final BigInteger expected) {
+        m_expected = expected;
+        m_startTime = System.nanoTime();
+        m_running = true;
+        try {
+            final Iterator<IPPollAddress> it = addresses.iterator();
+            while (it.hasNext()) {
+                if (m_cancelled) {
+                    return false;
+                }
+                final IPPollAddress pollAddress = it.next();
+                m_swept++;
+                final InetAddress address = pollAddress.getAddress();
+                if (address == null) {
+                    continue;
+                }
+                if (m_knownAddresses.contains(address)) {
+                    LOG.debug("{} already discovered.", address);
+                    m_skipped++;
+                    continue;
+                }
+                m_bucket.acquire();
+                LOG.debug("Pinging: {}", address);
+                try {
+                    m_pinger.ping(address, pollAddress.getTimeout(), pollAddress.getRetries(), (short) 1, m_callback);
+                    m_sent++;
+                } catch (Throwable e) {
+                    LOG.debug("error pinging {}", address, e);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            LOG.info("interrupting discovery sweep");
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            m_endTime = System.nanoTime();
+            m_running = false;
+        }
+    }
+
+    /**
+     * Stops the sweep before its next address.
+     */
+    public void cancel() {
+        m_cancelled = true;
+    }
+
+    public boolean isRunning() {
+        return m_running;
+    }
+
+    /**
+     * <p>getAddressesSwept</p>
+     *
+     * @return the number of addresses visited so far, including known ones
+     */
+    public long getAddressesSwept() {
+        return m_swept;
+    }
+
+    /**
+     * <p>getExpectedAddresses</p>
+     *
+     * @return the number of addresses in the configured ranges and specifics,
+     *         before exclusions are applied
+     */
+    public BigInteger getExpectedAddresses() {
+        return m_expected;
+    }
+
+    public long getPacketsSent() {
+        return m_sent;
+    }
+
+    public long getAddressesSkipped() {
+        return m_skipped;
+    }
+
+    /**
+     * <p>getProgress</p>
+     *
+     * @return the percentage of the expected addresses swept so far
+     */
+    public double getProgress() {
+        final BigInteger expected = m_expected;
+        if (expected.signum() == 0) {
+            return m_running ? 0.0 : 100.0;
+        }
+        return Math.min(100.0, m_swept * 100.0 / expected.doubleValue());
+    }
+
+    /**
+     * <p>getPacketsPerSecond</p>
+     *
+     * @return the rate at which pings were sent, over the running time of
+     *         the sweep
+     */
+    public double getPacketsPerSecond() {
+        if (m_startTime == 0) {
+            return 0.0;
+        }
+        final long elapsed = (m_running ? System.nanoTime() : m_endTime) - m_startTime;
+        return elapsed <= 0 ? 0.0 : m_sent * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
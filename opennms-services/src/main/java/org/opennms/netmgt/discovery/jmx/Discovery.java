@@ -29,6 +29,7 @@
 package org.opennms.netmgt.discovery.jmx;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.discovery.PingSweep;
 
 /**
  * <p>Discovery class.</p>
@@ -49,5 +50,46 @@ public class Discovery extends AbstractSpringContextJmxServiceDaemon<org.opennms
     protected String getSpringContext() {
         return "discoveryContext";
     }
+
+    @Override
+    public boolean isSweepRunning() {
+        final PingSweep sweep = getDaemon().getSweep();
+        return sweep != null && sweep.isRunning();
+    }
+
+    @Override
+    public double getSweepProgress() {
+        final PingSweep sweep = getDaemon().getSweep();
+        return sweep == null ? 0.0 : sweep.getProgress();
+    }
+
+    @Override
+    public long getAddressesSwept() {
+        final PingSweep sweep = getDaemon().getSweep();
+        return sweep == null ? 0 : sweep.getAddressesSwept();
+    }
+
+    @Override
+    public String getAddressesToSweep() {
+        final PingSweep sweep = getDaemon().getSweep();
+        return sweep == null ? "0" : sweep.getExpectedAddresses().toString();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        final PingSweep sweep = getDaemon().getSweep();
+        return sweep == null ? 0 : sweep.getPacketsSent();
+    }
+
+    @Override
+    public double getPacketsPerSecond() {
+        final PingSweep sweep = getDaemon().getSweep();
+        return sweep == null ? 0.0 : sweep.getPacketsPerSecond();
+    }
+
+    @Override
+    public int getKnownAddresses() {
+        return getDaemon().getKnownAddressCount();
+    }
     
 }
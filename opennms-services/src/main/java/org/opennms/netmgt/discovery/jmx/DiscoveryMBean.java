@@ -38,4 +38,38 @@ import org.opennms.netmgt.daemon.BaseOnmsMBean;
  */
 public interface DiscoveryMBean extends BaseOnmsMBean {
 
+    /**
+     * @return true while a ping sweep is running
+     */
+    public boolean isSweepRunning();
+
+    /**
+     * @return the percentage of the configured addresses visited by the current or last sweep
+     */
+    public double getSweepProgress();
+
+    /**
+     * @return the number of addresses visited by the current or last sweep
+     */
+    public long getAddressesSwept();
+
+    /**
+     * @return the number of addresses in the configured ranges and specifics
+     */
+    public String getAddressesToSweep();
+
+    /**
+     * @return the number of pings sent by the current or last sweep
+     */
+    public long getPacketsSent();
+
+    /**
+     * @return the rate at which the current or last sweep sent pings
+     */
+    public double getPacketsPerSecond();
+
+    /**
+     * @return the number of managed addresses that are not pinged
+     */
+    public int getKnownAddresses();
 }
@@ -64,6 +64,13 @@ import org.slf4j.LoggerFactory;
 public class DefaultPollContext implements PollContext, EventListener {
     
     private static final Logger LOG = LoggerFactory.getLogger(DefaultPollContext.class);
+
+    /**
+     * Set this system property to <code>true</code> to queue the scheduled
+     * polls of each node rather than have poller threads wait for its lock.
+     */
+    public static final String SERIAL_NODE_EXECUTION_PROPERTY = "org.opennms.poller.serialNodeExecution";
+
     private static final String[] UEIS = {
         // service events without node processing enable
         EventConstants.SERVICE_UNRESPONSIVE_EVENT_UEI,
@@ -88,6 +95,7 @@ public class DefaultPollContext implements PollContext, EventListener {
     private volatile String m_name;
     private volatile String m_localHostName;
     private volatile boolean m_listenerAdded = false;
+    private volatile boolean m_serialNodeExecutionEnabled = Boolean.getBoolean(SERIAL_NODE_EXECUTION_PROPERTY);
     private final List<PendingPollEvent> m_pendingPollEvents = new LinkedList<PendingPollEvent>();
 
     /**
@@ -207,6 +215,25 @@ public class DefaultPollContext implements PollContext, EventListener {
         return getPollerConfig().isNodeOutageProcessingEnabled();
     }
 
+    /**
+     * <p>isSerialNodeExecutionEnabled</p>
+     *
+     * @return a boolean.
+     */
+    @Override
+    public boolean isSerialNodeExecutionEnabled() {
+        return m_serialNodeExecutionEnabled;
+    }
+
+    /**
+     * <p>setSerialNodeExecutionEnabled</p>
+     *
+     * @param serialNodeExecutionEnabled a boolean.
+     */
+    public void setSerialNodeExecutionEnabled(boolean serialNodeExecutionEnabled) {
+        m_serialNodeExecutionEnabled = serialNodeExecutionEnabled;
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.poller.pollables.PollContext#isPollingAllIfCritServiceUndefined()
      */
@@ -61,9 +61,9 @@ import org.opennms.netmgt.poller.pollables.PollableService;
 import org.opennms.netmgt.poller.pollables.PollableServiceConfig;
 import org.opennms.netmgt.poller.pollables.PollableVisitor;
 import org.opennms.netmgt.poller.pollables.PollableVisitorAdaptor;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.Schedulers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -86,7 +86,7 @@ public class Poller extends AbstractServiceDaemon {
 
     private boolean m_initialized = false;
 
-    private LegacyScheduler m_scheduler = null;
+    private Scheduler m_scheduler = null;
 
     private PollerEventProcessor m_eventProcessor;
 
@@ -270,9 +270,9 @@ public class Poller extends AbstractServiceDaemon {
     /**
      * <p>setScheduler</p>
      *
-     * @param scheduler a {@link org.opennms.netmgt.scheduler.LegacyScheduler} object.
+     * @param scheduler a {@link org.opennms.netmgt.scheduler.Scheduler} object.
      */
-    public void setScheduler(LegacyScheduler scheduler) {
+    public void setScheduler(Scheduler scheduler) {
         m_scheduler = scheduler;
     }
 
@@ -331,7 +331,7 @@ public class Poller extends AbstractServiceDaemon {
         try {
             LOG.debug("init: Creating poller scheduler");
 
-            setScheduler(new LegacyScheduler("Poller", getPollerConfig().getThreads()));
+            setScheduler(Schedulers.create("Poller", getPollerConfig().getThreads()));
         } catch (RuntimeException e) {
             LOG.error("init: Failed to create poller scheduler", e);
             throw e;
@@ -715,6 +715,33 @@ public class Poller extends AbstractServiceDaemon {
         }
     }
 
+    /**
+     * Returns the number of times work has had to wait for a node's lock.
+     *
+     * @return the number of lock waits, summed over all nodes
+     */
+    public long getLockWaitCount() {
+        return (m_network == null ? 0L : m_network.getLockWaitCount());
+    }
+
+    /**
+     * Returns the time work has spent waiting for node locks.
+     *
+     * @return the lock wait time in milliseconds, summed over all nodes
+     */
+    public long getLockWaitTime() {
+        return (m_network == null ? 0L : m_network.getLockWaitTime());
+    }
+
+    /**
+     * Returns the longest time work has waited for a node's lock.
+     *
+     * @return the longest lock wait in milliseconds
+     */
+    public long getMaxLockWaitTime() {
+        return (m_network == null ? 0L : m_network.getMaxLockWaitTime());
+    }
+
     public static String getLoggingCategory() {
         return LOG4J_CATEGORY;
     }
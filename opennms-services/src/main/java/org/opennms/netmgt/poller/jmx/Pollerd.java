@@ -32,6 +32,8 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 
 /**
  * <p>Pollerd class.</p>
@@ -121,12 +123,75 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
         }
     }
 
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLockWaitCount() {
+        return getDaemon().getLockWaitCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLockWaitTime() {
+        return getDaemon().getLockWaitTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getMaxLockWaitTime() {
+        return getDaemon().getMaxLockWaitTime();
+    }
     
+    @Override
+    public long getScheduledTasks() {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) scheduler).getScheduled();
+        } else if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler) scheduler).getScheduled();
+        } else {
+            return 0L;
+        }
+    }
+
+    @Override
+    public long getScheduleQueueDepth() {
+        if (getThreadPoolStatsStatus()) {
+            return getExecutor().getQueue().size();
+        } else {
+            return 0L;
+        }
+    }
+
+    @Override
+    public double getScheduleLag() {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) scheduler).getAverageLag();
+        } else {
+            return 0.0;
+        }
+    }
+
+    @Override
+    public long getMaxScheduleLag() {
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) scheduler).getMaxLag();
+        } else {
+            return 0L;
+        }
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        final Scheduler scheduler = getDaemon().getScheduler();
+        if (scheduler instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) scheduler).getRunner();
+        }
+        return (ThreadPoolExecutor) ((LegacyScheduler) scheduler).getRunner();
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof LegacyScheduler || getDaemon().getScheduler() instanceof TimingWheelScheduler);
     }
 }
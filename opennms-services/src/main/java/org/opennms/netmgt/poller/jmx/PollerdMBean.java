@@ -74,4 +74,32 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The maximum number of threads allowed in the poller's thread pool
      */
     public long getMaxPoolThreads();
+
+    public long getLockWaitCount();
+
+    public long getLockWaitTime();
+
+    public long getMaxLockWaitTime();
+
+    /**
+     * @return The number of tasks waiting in the scheduler for their next run
+     */
+    public long getScheduledTasks();
+
+    /**
+     * @return The number of due tasks waiting for a free thread
+     */
+    public long getScheduleQueueDepth();
+
+    /**
+     * @return The average time in milliseconds between a task becoming due
+     * and being handed to the thread pool (timing wheel scheduler only)
+     */
+    public double getScheduleLag();
+
+    /**
+     * @return The largest schedule lag seen, in milliseconds (timing wheel
+     * scheduler only)
+     */
+    public long getMaxScheduleLag();
 }
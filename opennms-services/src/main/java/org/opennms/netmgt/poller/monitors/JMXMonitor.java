@@ -34,7 +34,7 @@ import org.opennms.netmgt.jmx.JmxUtils;
 import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
-import org.opennms.netmgt.jmx.impl.connection.connectors.DefaultConnectionManager;
+import org.opennms.netmgt.jmx.impl.connection.connectors.PooledConnectionManager;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
@@ -43,6 +43,7 @@ import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Map;
 
@@ -90,7 +91,7 @@ public abstract class JMXMonitor extends AbstractServiceMonitor {
         PollStatus serviceStatus = PollStatus.unavailable();
         try {
             final Timer timer = new Timer();
-            final JmxConnectionManager connectionManager = new DefaultConnectionManager(ParameterMap.getKeyedInteger(map, "retry", 3));
+            final JmxConnectionManager connectionManager = new PooledConnectionManager(ParameterMap.getKeyedInteger(map, "retry", 3));
             final JmxConnectionManager.RetryCallback retryCallback = new JmxConnectionManager.RetryCallback() {
                 @Override
                 public void onRetry() {
@@ -100,7 +101,13 @@ public abstract class JMXMonitor extends AbstractServiceMonitor {
 
             try (JmxServerConnectionWrapper connection = connectionManager.connect(getConnectionName(), InetAddrUtils.str(ipv4Addr), JmxUtils.convertToStringMap(map), retryCallback)) {
 
-                connection.getMBeanServerConnection().getMBeanCount();
+                try {
+                    connection.getMBeanServerConnection().getMBeanCount();
+                } catch (IOException e) {
+                    // do not hand out a broken pooled connection again
+                    PooledConnectionManager.invalidate(connection);
+                    throw e;
+                }
                 long nanoResponseTime = System.nanoTime() - timer.getStartTime();
                 serviceStatus = PollStatus.available(nanoResponseTime / 1000000.0);
             } catch (JmxServerConnectionException mbse) {
@@ -55,6 +55,15 @@ public interface PollContext {
      */
     public boolean isNodeProcessingEnabled();
 
+    /**
+     * Whether scheduled polls of a node's services are queued and run one
+     * at a time by whichever poller thread is free, rather than having each
+     * poller thread wait for the node's lock.
+     *
+     * @return a boolean.
+     */
+    public boolean isSerialNodeExecutionEnabled();
+
     /**
      * <p>isPollingAllIfCritServiceUndefined</p>
      *
@@ -126,6 +126,45 @@ public class PollableNetwork extends PollableContainer {
     public int getNodeCount() {
         return getMemberCount();
     }
+
+    /**
+     * <p>getLockWaitCount</p>
+     *
+     * @return the number of times work has had to wait for a node's lock, summed over all nodes.
+     */
+    public long getLockWaitCount() {
+        long count = 0;
+        for (final PollableElement e : getMembers()) {
+            count += ((PollableNode)e).getLockWaitCount();
+        }
+        return count;
+    }
+
+    /**
+     * <p>getLockWaitTime</p>
+     *
+     * @return the time, in milliseconds, work has waited for a node's lock, summed over all nodes.
+     */
+    public long getLockWaitTime() {
+        long time = 0;
+        for (final PollableElement e : getMembers()) {
+            time += ((PollableNode)e).getLockWaitTime();
+        }
+        return time;
+    }
+
+    /**
+     * <p>getMaxLockWaitTime</p>
+     *
+     * @return the longest time, in milliseconds, work has waited for any node's lock.
+     */
+    public long getMaxLockWaitTime() {
+        long max = 0;
+        for (final PollableElement e : getMembers()) {
+            max = Math.max(max, ((PollableNode)e).getMaxLockWaitTime());
+        }
+        return max;
+    }
     
     /**
      * <p>createInterface</p>
@@ -32,9 +32,10 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.xml.event.Event;
@@ -62,9 +63,13 @@ public class PollableNode extends PollableContainer {
             
             if (m_owner != Thread.currentThread()) {
                 LOG.debug("Trying to obtain lock for {}", PollableNode.this);
+                final long waitStart = (m_owner == null ? 0 : System.currentTimeMillis());
                 while (m_owner != null) {
                     try { wait();} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
                 }
+                if (waitStart != 0) {
+                    recordLockWait(System.currentTimeMillis() - waitStart);
+                }
                 m_owner = Thread.currentThread();
                 LOG.debug("Obtained lock for {}", PollableNode.this);
             }
@@ -75,15 +80,20 @@ public class PollableNode extends PollableContainer {
             
             if (m_owner != Thread.currentThread()) {
                 LOG.debug("Trying to obtain lock for {}", PollableNode.this);
-                long now = System.currentTimeMillis();
+                final long waitStart = System.currentTimeMillis();
+                long now = waitStart;
                 long endTime = (timeout == 0 ? Long.MAX_VALUE : now+timeout);
                 while (m_owner != null) {
                     try { wait(endTime-now);} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
                     now = System.currentTimeMillis();
                     if (m_owner != null && now >= endTime) {
+                        recordLockWait(now - waitStart);
                         throw new LockUnavailable("Unable to obtain lock for "+PollableNode.this+" before timeout");
                     }
                 }
+                if (now != waitStart) {
+                    recordLockWait(now - waitStart);
+                }
                 m_owner = Thread.currentThread();
                 LOG.debug("Obtained lock for {}", PollableNode.this);
             }
@@ -114,6 +124,14 @@ public class PollableNode extends PollableContainer {
     private String m_nodeLabel;
     private final Lock m_lock = new Lock();
 
+    private final Queue<Runnable> m_serialQueue = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean m_serialQueueRunning = new AtomicBoolean(false);
+
+    private final Object m_lockWaitStatsLock = new Object();
+    private long m_lockWaitCount = 0;
+    private long m_lockWaitTime = 0;
+    private long m_maxLockWaitTime = 0;
+
     /**
      * <p>Constructor for PollableNode.</p>
      *
@@ -319,6 +337,99 @@ public class PollableNode extends PollableContainer {
     public void releaseTreeLock() {
         m_lock.release();
     }
+
+    /**
+     * Run the given work with the tree lock held, after any work already
+     * queued for this node.  If no other thread is working through the queue
+     * the calling thread runs it, otherwise this returns at once and the
+     * thread that is already working through the queue picks it up.  Poller
+     * threads therefore never park waiting for a busy node.
+     *
+     * @param r the work to run
+     */
+    public void executeSerially(final Runnable r) {
+        final long queuedTime = System.currentTimeMillis();
+        m_serialQueue.add(new Runnable() {
+            @Override
+            public void run() {
+                final long waited = System.currentTimeMillis() - queuedTime;
+                if (waited > 0) {
+                    recordLockWait(waited);
+                }
+                withTreeLock(r);
+            }
+        });
+
+        // If another thread owns the queue it will run our work; if it gave
+        // up ownership just after we queued, loop around and take over.
+        while (!m_serialQueue.isEmpty() && m_serialQueueRunning.compareAndSet(false, true)) {
+            try {
+                Runnable next;
+                while ((next = m_serialQueue.poll()) != null) {
+                    try {
+                        next.run();
+                    } catch (final RuntimeException e) {
+                        LOG.warn("Unexpected exception running queued work for {}", this, e);
+                    }
+                }
+            } finally {
+                m_serialQueueRunning.set(false);
+            }
+        }
+    }
+
+    /**
+     * <p>getSerialQueueSize</p>
+     *
+     * @return the number of pieces of work queued for this node.
+     */
+    public int getSerialQueueSize() {
+        return m_serialQueue.size();
+    }
+
+    private void recordLockWait(final long waited) {
+        synchronized (m_lockWaitStatsLock) {
+            m_lockWaitCount++;
+            m_lockWaitTime += waited;
+            if (waited > m_maxLockWaitTime) {
+                m_maxLockWaitTime = waited;
+            }
+        }
+        LOG.debug("Waited {}ms for lock on {}", waited, this);
+    }
+
+    /**
+     * <p>getLockWaitCount</p>
+     *
+     * @return the number of times work for this node has had to wait for another poll of it.
+     */
+    public long getLockWaitCount() {
+        synchronized (m_lockWaitStatsLock) {
+            return m_lockWaitCount;
+        }
+    }
+
+    /**
+     * <p>getLockWaitTime</p>
+     *
+     * @return the total time, in milliseconds, work for this node has waited for other polls of it.
+     */
+    public long getLockWaitTime() {
+        synchronized (m_lockWaitStatsLock) {
+            return m_lockWaitTime;
+        }
+    }
+
+    /**
+     * <p>getMaxLockWaitTime</p>
+     *
+     * @return the longest time, in milliseconds, work for this node has waited for another poll of it.
+     */
+    public long getMaxLockWaitTime() {
+        synchronized (m_lockWaitStatsLock) {
+            return m_maxLockWaitTime;
+        }
+    }
     
     /** {@inheritDoc} */
     @Override
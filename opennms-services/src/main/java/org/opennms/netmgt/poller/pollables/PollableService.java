@@ -32,6 +32,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -76,6 +77,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+
+    /**
+     * Set while a poll of this service is queued on its node in serial
+     * execution mode.
+     */
+    private final AtomicBoolean m_pollQueued = new AtomicBoolean(false);
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -400,14 +407,49 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private PollStatus doRun(int timeout) {
         final Map<String, String> mdc = Logging.getCopyOfContextMap();
         try {
-            Logging.putThreadContext("service", m_svcName);
-            Logging.putThreadContext("ipAddress", m_netInterface.getAddress().getHostAddress());
-            Logging.putThreadContext("nodeId", Integer.toString(getNodeId()));
-            Logging.putThreadContext("nodeLabel", getNodeLabel());
+            putLoggingContext();
             long startDate = System.currentTimeMillis();
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
-            if (getContext().isNodeProcessingEnabled()) {
+            if (getContext().isNodeProcessingEnabled() && getContext().isSerialNodeExecutionEnabled() && timeout > 0) {
+                // only one poll of a service may be queued, or a node that polls slower than its interval piles them up
+                if (!m_pollQueued.compareAndSet(false, true)) {
+                    LOG.info("Postponing poll for {}, the previous one is still queued", this);
+                    throw new PostponeNecessary("Poll already queued");
+                }
+                // queue the poll behind any other work for the node rather than waiting for its lock
+                final Thread queuingThread = Thread.currentThread();
+                final PollRunner r = new PollRunner();
+                getNode().executeSerially(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (isDeleted()) {
+                                LOG.debug("Skipping queued poll of deleted service {}", PollableService.this);
+                                return;
+                            }
+                            final Map<String, String> queuedMdc = Logging.getCopyOfContextMap();
+                            try {
+                                putLoggingContext();
+                                r.run();
+                            } finally {
+                                Logging.setContextMap(queuedMdc);
+                            }
+                        } finally {
+                            m_pollQueued.set(false);
+                        }
+                        if (Thread.currentThread() != queuingThread) {
+                            // the schedule went ahead when the poll was queued; start the next interval from its result
+                            final Schedule schedule = getSchedule();
+                            if (schedule != null) {
+                                schedule.adjustSchedule();
+                            }
+                        }
+                    }
+                });
+                status = r.getPollStatus() == null ? getStatus() : r.getPollStatus();
+            }
+            else if (getContext().isNodeProcessingEnabled()) {
                 PollRunner r = new PollRunner();
                 try {
                     withTreeLock(r, timeout);
@@ -429,6 +471,13 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         }
     }
 
+    private void putLoggingContext() {
+        Logging.putThreadContext("service", m_svcName);
+        Logging.putThreadContext("ipAddress", m_netInterface.getAddress().getHostAddress());
+        Logging.putThreadContext("nodeId", Integer.toString(getNodeId()));
+        Logging.putThreadContext("nodeLabel", getNodeLabel());
+    }
+
 	/**
      * <p>delete</p>
      */
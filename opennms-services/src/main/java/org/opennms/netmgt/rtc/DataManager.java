@@ -39,7 +39,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -80,6 +79,13 @@ import org.springframework.transaction.support.TransactionTemplate;
  * 'nodeGainedService' event would result in the 'nodeGainedService()' method
  * being called by the DataUpdater(s).
  *
+ * Updates are serialized per node rather than across the whole manager: each
+ * node ID hashes to one of a fixed set of lock stripes, so events for
+ * different nodes are applied concurrently while events for the same node
+ * are still applied in order. Readers do not lock at all; the map, the
+ * category membership lists and the category availabilities can all be read
+ * while they are being updated.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
@@ -87,6 +93,11 @@ public class DataManager implements AvailabilityService, InitializingBean {
     
     private static final Logger LOG = LoggerFactory.getLogger(DataManager.class);
 
+    /**
+     * The number of lock stripes that node updates are spread over
+     */
+    private static final int LOCK_STRIPES = 64;
+
     @Autowired
 	private FilterDao m_filterDao;
 
@@ -107,6 +118,11 @@ public class DataManager implements AvailabilityService, InitializingBean {
      */
     private final LegacyEuiLevelMapper m_euiMapper;
 
+    /**
+     * The per-node update locks
+     */
+    private final Object[] m_locks = new Object[LOCK_STRIPES];
+
 	private class RTCNodeProcessor implements RowCallbackHandler {
 		RTCNodeKey m_currentKey = null;
 
@@ -211,7 +227,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
 	private static void addNodeToCategory(RTCCategory cat, RTCNode rtcN) {
 
 		// add the category info to the node
-        rtcN.addCategory(cat.getLabel());
+        rtcN.addCategory(cat);
 
 		// Add node to category
 		cat.addNode(rtcN);
@@ -290,8 +306,20 @@ public class DataManager implements AvailabilityService, InitializingBean {
     public DataManager() {
         // create category converter
         m_euiMapper = new LegacyEuiLevelMapper(this);
+
+        for (int i = 0; i < m_locks.length; i++) {
+            m_locks[i] = new Object();
+        }
     };
 
+    private int stripeFor(int nodeid) {
+        return (nodeid & Integer.MAX_VALUE) % m_locks.length;
+    }
+
+    private Object lockFor(int nodeid) {
+        return m_locks[stripeFor(nodeid)];
+    }
+
     /**
      * Constructor. Parses categories from the categories.xml and populates them
      * with 'RTCNode' objects created from data read from the database (services
@@ -353,7 +381,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param svcName
      *            the service name
      */
-    public synchronized void nodeGainedService(int nodeid, InetAddress ip, String svcName) {
+    public void nodeGainedService(int nodeid, InetAddress ip, String svcName) {
         //
         // check the 'status' flag for the service
         //
@@ -414,18 +442,19 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was lost
      */
-    public synchronized void outageCreated(int nodeid, InetAddress ip, String svcName, long t) {
+    public void outageCreated(int nodeid, InetAddress ip, String svcName, long t) {
         RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
-        RTCNode rtcN = m_map.getRTCNode(key);
-        if (rtcN == null) {
-            // oops! got a lost/regained service for a node that is not known?
-            LOG.info("Received a outageCreated event for an unknown/irrelevant node: {}", key.toString());
-            return;
-        }
-
-        // inform node
-        rtcN.nodeLostService(t);
+        synchronized (lockFor(nodeid)) {
+            RTCNode rtcN = m_map.getRTCNode(key);
+            if (rtcN == null) {
+                // oops! got a lost/regained service for a node that is not known?
+                LOG.info("Received a outageCreated event for an unknown/irrelevant node: {}", key.toString());
+                return;
+            }
 
+            // inform node
+            rtcN.nodeLostService(t);
+        }
     }
 
     /**
@@ -441,17 +470,19 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was regained
      */
-    public synchronized void outageResolved(int nodeid, InetAddress ip, String svcName, long t) {
+    public void outageResolved(int nodeid, InetAddress ip, String svcName, long t) {
         RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
-        RTCNode rtcN = m_map.getRTCNode(key);
-        if (rtcN == null) {
-            // oops! got a lost/regained service for a node that is not known?
-            LOG.info("Received a outageResolved event for an unknown/irrelevant node: {}", key.toString());
-            return;
-        }
+        synchronized (lockFor(nodeid)) {
+            RTCNode rtcN = m_map.getRTCNode(key);
+            if (rtcN == null) {
+                // oops! got a lost/regained service for a node that is not known?
+                LOG.info("Received a outageResolved event for an unknown/irrelevant node: {}", key.toString());
+                return;
+            }
 
-        // inform node
-        rtcN.nodeRegainedService(t);
+            // inform node
+            rtcN.nodeRegainedService(t);
+        }
     }
 
     /**
@@ -464,50 +495,44 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param svcName
      *            the service that was deleted
      */
-    public synchronized void serviceDeleted(int nodeid, InetAddress ip, String svcName) {
+    public void serviceDeleted(int nodeid, InetAddress ip, String svcName) {
         // create lookup key
         RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
 
-        // lookup the node
-        RTCNode rtcN = m_map.getRTCNode(key);
-        if (rtcN == null) {
-            LOG.warn("Received a {} event for an unknown node: {}", EventConstants.SERVICE_DELETED_EVENT_UEI, key.toString());
+        synchronized (lockFor(nodeid)) {
+            // lookup the node
+            RTCNode rtcN = m_map.getRTCNode(key);
+            if (rtcN == null) {
+                LOG.warn("Received a {} event for an unknown node: {}", EventConstants.SERVICE_DELETED_EVENT_UEI, key.toString());
 
-            return;
-        }
+                return;
+            }
 
-        //
-        // Go through from all the categories this node belongs to
-        // and delete the service
-        //
-        List<String> categories = rtcN.getCategories();
-        ListIterator<String> catIter = categories.listIterator();
-        while (catIter.hasNext()) {
-            String catlabel = (String) catIter.next();
-
-            RTCCategory cat = (RTCCategory) m_categories.get(catlabel);
-
-            // get nodes in this category
-            List<Integer> catNodes = cat.getNodes();
-
-            // check if the category contains this node
-            int nIndex = catNodes.indexOf(rtcN.getNodeID());
-            if (nIndex != -1) {
-                // remove from the category if it is the only service left.
-                if (m_map.getServiceCount(nodeid, catlabel) == 1) {
-                    catNodes.remove(nIndex);
-                    LOG.info("Removing node from category: {}", catlabel);
+            //
+            // Go through from all the categories this node belongs to
+            // and delete the service
+            //
+            for (String catlabel : rtcN.getCategories()) {
+                RTCCategory cat = m_categories.get(catlabel);
+
+                // check if the category contains this node
+                if (cat.getNodes().contains(rtcN.getNodeID())) {
+                    // remove from the category if it is the only service left.
+                    if (m_map.getServiceCount(nodeid, catlabel) == 1) {
+                        cat.deleteNode(rtcN.getNodeID());
+                        LOG.info("Removing node from category: {}", catlabel);
+                    }
+
+                    // let the node know that this category is out
+                    rtcN.removeCategory(catlabel);
                 }
-
-                // let the node know that this category is out
-                catIter.remove();
             }
-        }
-
-        // finally remove from map
-        
-        m_map.delete(rtcN);
 
+            // drop anything left of the service from the category
+            // availabilities and finally remove from map
+            rtcN.removeCategories();
+            m_map.delete(rtcN);
+        }
     }
     
     /**
@@ -515,7 +540,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *
      * @param nodeid a long.
      */
-    public synchronized void assetInfoChanged(int nodeid) {
+    public void assetInfoChanged(int nodeid) {
         try {
         	rtcNodeRescan(nodeid);
         } catch (FilterParseException ex) {
@@ -537,7 +562,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *
      * @param nodeid a long.
      */
-    public synchronized void nodeCategoryMembershipChanged(int nodeid) {
+    public void nodeCategoryMembershipChanged(int nodeid) {
         try {
         	rtcNodeRescan(nodeid);
         } catch (FilterParseException ex) {
@@ -567,16 +592,22 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *             if the database read or filtering the data against the
      *             category rule fails for some reason
      */
-    public synchronized void rtcNodeRescan(int nodeid) throws SQLException, FilterParseException, RTCException {
-    	
-    	for (RTCCategory cat : m_categories.values()) {
-			cat.deleteNode(nodeid);
-		}
-    	
-    	m_map.deleteNode(nodeid);
-    	
-    	populateNodesFromDB("ifsvc.nodeid = ?", new Object[] { Long.valueOf(nodeid) });
-    	
+    public void rtcNodeRescan(int nodeid) throws SQLException, FilterParseException, RTCException {
+        synchronized (lockFor(nodeid)) {
+            for (RTCCategory cat : m_categories.values()) {
+                cat.deleteNode(nodeid);
+            }
+
+            // take the services out of the category availabilities
+            // before they are dropped
+            for (RTCNode rtcN : m_map.getRTCNodes(nodeid)) {
+                rtcN.removeCategories();
+            }
+
+            m_map.deleteNode(nodeid);
+
+            populateNodesFromDB("ifsvc.nodeid = ?", new Object[] { Long.valueOf(nodeid) });
+        }
     }
 
     /**
@@ -599,27 +630,35 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param newNodeId
      *            the node that the IP now belongs to
      */
-    public synchronized void interfaceReparented(InetAddress ip, int oldNodeId, int newNodeId) {
-        // get all RTCNodes with the IP/old node ID
-        for (RTCNode rtcN : m_map.getRTCNodes(oldNodeId, ip)) {
+    public void interfaceReparented(InetAddress ip, int oldNodeId, int newNodeId) {
+        // always take the two stripes in the same order
+        final int oldStripe = stripeFor(oldNodeId);
+        final int newStripe = stripeFor(newNodeId);
 
-            // remove the node with the old node id from the map
-            m_map.delete(rtcN);
+        synchronized (m_locks[Math.min(oldStripe, newStripe)]) {
+            synchronized (m_locks[Math.max(oldStripe, newStripe)]) {
+                // get all RTCNodes with the IP/old node ID
+                for (RTCNode rtcN : m_map.getRTCNodes(oldNodeId, ip)) {
 
-            // change the node ID on the RTCNode
-            rtcN.setNodeID(newNodeId);
+                    // remove the node with the old node id from the map
+                    m_map.delete(rtcN);
 
-            // now add the node with the new node ID
-            m_map.add(rtcN);
+                    // change the node ID on the RTCNode
+                    rtcN.setNodeID(newNodeId);
 
-            // remove old node ID from the categories it belonged to
-            // and the new node ID
-            for (String catlabel : rtcN.getCategories()) {
-                RTCCategory rtcCat = m_categories.get(catlabel);
-                rtcCat.deleteNode(oldNodeId);
-                rtcCat.addNode(newNodeId);
-            }
+                    // now add the node with the new node ID
+                    m_map.add(rtcN);
+
+                    // remove old node ID from the categories it belonged to
+                    // and the new node ID
+                    for (String catlabel : rtcN.getCategories()) {
+                        RTCCategory rtcCat = m_categories.get(catlabel);
+                        rtcCat.deleteNode(oldNodeId);
+                        rtcCat.addNode(newNodeId);
+                    }
 
+                }
+            }
         }
     }
 
@@ -636,8 +675,13 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the value(uptime) for the category in the last 'rollingWindow'
      *         starting at current time
      */
-    public synchronized double getValue(RTCCategory category, long curTime, long rollingWindow) {
-        return m_map.getValue(category.getLabel(), curTime, rollingWindow);
+    public double getValue(RTCCategory category, long curTime, long rollingWindow) {
+        final double value = category.getAvailability().getValue(curTime, rollingWindow);
+        if (Double.isNaN(value)) {
+            // the window moved backwards, recompute from the outages
+            return m_map.getValue(category.getLabel(), curTime, rollingWindow);
+        }
+        return value;
     }
 
     /**
@@ -655,7 +699,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the value(uptime) for the node in the last 'rollingWindow'
      *         starting at current time in the context of the passed category
      */
-    public synchronized double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
+    public double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
         return m_map.getValue(nodeid, category.getLabel(), curTime, rollingWindow);
     }
 
@@ -670,7 +714,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the service count for the nodeid in the context of the passed
      *         category
      */
-    public synchronized int getServiceCount(int nodeid, RTCCategory category) {
+    public int getServiceCount(int nodeid, RTCCategory category) {
         return m_map.getServiceCount(nodeid, category.getLabel());
     }
 
@@ -685,7 +729,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the service down count for the nodeid in the context of the
      *         passed category
      */
-    public synchronized int getServiceDownCount(int nodeid, RTCCategory category) {
+    public int getServiceDownCount(int nodeid, RTCCategory category) {
         return m_map.getServiceDownCount(nodeid, category.getLabel());
     }
 
@@ -695,7 +739,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the categories
      */
     @Override
-    public synchronized Map<String, RTCCategory> getCategories() {
+    public Map<String, RTCCategory> getCategories() {
         return m_categories;
     }
 
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rtc.datablock;
+
+import java.util.Arrays;
+
+import org.opennms.netmgt.rtc.RTCUtils;
+
+/**
+ * Keeps the availability of a category up to date as outages start and end,
+ * so that it does not have to be recomputed from every service in the
+ * category for each request.
+ *
+ * <p>Every outage is recorded as a +1 event when it starts and a -1 event when
+ * it ends. The total outage time up to an instant <code>x</code> is then
+ * <code>x * S0 - S1</code>, where <code>S0</code> is the sum of the signs and
+ * <code>S1</code> the sum of sign times event time of all events up to
+ * <code>x</code>. The outage time within the rolling window is the
+ * difference between that total at the current time, which is kept for all
+ * events, and at the start of the window, which is kept for the events that
+ * have dropped out of the window. Events that are still inside the window
+ * wait in a heap ordered by time until the window passes them, so each event
+ * is handled a constant number of times.</p>
+ *
+ * <p>Removing a service from the category adds the inverse of its events.
+ * Since the window only moves forward, a request for a window that starts
+ * before an earlier one cannot be answered and returns {@link Double#NaN}.</p>
+ */
+public class CategoryAvailability {
+
+    /**
+     * Event times are kept relative to this to keep the sums small.
+     */
+    private final long m_base = System.currentTimeMillis();
+
+    private long[] m_times = new long[16];
+
+    private int[] m_signs = new int[16];
+
+    private int m_heapSize = 0;
+
+    private long m_windowStart = Long.MIN_VALUE;
+
+    private long m_expiredSlope = 0;
+
+    private long m_expiredWeighted = 0;
+
+    private long m_totalSlope = 0;
+
+    private long m_totalWeighted = 0;
+
+    private int m_services = 0;
+
+    /**
+     * Adds a service to the category.
+     */
+    public synchronized void addService() {
+        m_services++;
+    }
+
+    /**
+     * Removes a service from the category. Its outages have to be removed
+     * separately.
+     */
+    public synchronized void removeService() {
+        m_services--;
+    }
+
+    /**
+     * <p>getServiceCount</p>
+     *
+     * @return the number of services in the category
+     */
+    public synchronized int getServiceCount() {
+        return m_services;
+    }
+
+    /**
+     * Records an outage of a service in the category.
+     *
+     * @param lostTime when the service was lost
+     * @param regainedTime when the service was regained, or -1 if it is still down
+     */
+    public synchronized void addOutage(final long lostTime, final long regainedTime) {
+        addEvent(lostTime, 1);
+        if (regainedTime > 0) {
+            addEvent(regainedTime, -1);
+        }
+    }
+
+    /**
+     * Removes an outage previously recorded with {@link #addOutage(long, long)}
+     * or {@link #outageStarted(long)} and {@link #outageEnded(long)}.
+     *
+     * @param lostTime when the service was lost
+     * @param regainedTime when the service was regained, or -1 if it is still down
+     */
+    public synchronized void removeOutage(final long lostTime, final long regainedTime) {
+        addEvent(lostTime, -1);
+        if (regainedTime > 0) {
+            addEvent(regainedTime, 1);
+        }
+    }
+
+    /**
+     * Records the start of an outage that is still in progress.
+     *
+     * @param lostTime when the service was lost
+     */
+    public synchronized void outageStarted(final long lostTime) {
+        addEvent(lostTime, 1);
+    }
+
+    /**
+     * Records the end of an outage started with {@link #outageStarted(long)}.
+     *
+     * @param regainedTime when the service was regained
+     */
+    public synchronized void outageEnded(final long regainedTime) {
+        addEvent(regainedTime, -1);
+    }
+
+    private void addEvent(final long time, final int sign) {
+        final long t = time - m_base;
+        m_totalSlope += sign;
+        m_totalWeighted += sign * t;
+        if (t <= m_windowStart) {
+            m_expiredSlope += sign;
+            m_expiredWeighted += sign * t;
+        } else {
+            push(t, sign);
+        }
+    }
+
+    /**
+     * Get the value (uptime) for the category in the last 'rollingWindow'
+     * starting at current time
+     *
+     * @param curTime
+     *            the current time
+     * @param rollingWindow
+     *            the window for which value is to be calculated
+     * @return the value(uptime) for the category, or {@link Double#NaN} if
+     *         the window starts before the window of an earlier call
+     */
+    public synchronized double getValue(final long curTime, final long rollingWindow) {
+        final long now = curTime - m_base;
+        final long windowStart = now - rollingWindow;
+        if (windowStart < m_windowStart) {
+            return Double.NaN;
+        }
+        while (m_heapSize > 0 && m_times[0] <= windowStart) {
+            m_expiredSlope += m_signs[0];
+            m_expiredWeighted += m_signs[0] * m_times[0];
+            pop();
+        }
+        m_windowStart = windowStart;
+
+        final long outageTime = (now * m_totalSlope - m_totalWeighted) - (windowStart * m_expiredSlope - m_expiredWeighted);
+        final double clamped = Math.max(0.0, Math.min((double) outageTime, (double) rollingWindow * m_services));
+        return RTCUtils.getOutagePercentage(clamped, rollingWindow, m_services);
+    }
+
+    private void push(final long time, final int sign) {
+        if (m_heapSize == m_times.length) {
+            m_times = Arrays.copyOf(m_times, m_heapSize * 2);
+            m_signs = Arrays.copyOf(m_signs, m_heapSize * 2);
+        }
+        int i = m_heapSize++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (m_times[parent] <= time) {
+                break;
+            }
+            m_times[i] = m_times[parent];
+            m_signs[i] = m_signs[parent];
+            i = parent;
+        }
+        m_times[i] = time;
+        m_signs[i] = sign;
+    }
+
+    private void pop() {
+        final long time = m_times[--m_heapSize];
+        final int sign = m_signs[m_heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= m_heapSize) {
+                break;
+            }
+            if (child + 1 < m_heapSize && m_times[child + 1] < m_times[child]) {
+                child++;
+            }
+            if (time <= m_times[child]) {
+                break;
+            }
+            m_times[i] = m_times[child];
+            m_signs[i] = m_signs[child];
+            i = child;
+        }
+        if (m_heapSize > 0) {
+            m_times[i] = time;
+            m_signs[i] = sign;
+        }
+    }
+}
@@ -28,11 +28,10 @@
 
 package org.opennms.netmgt.rtc.datablock;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.opennms.netmgt.config.categories.Category;
 
@@ -52,9 +51,16 @@ public class RTCCategory extends Category {
     private final String m_effectiveRule;
 
     /**
-     * The nodes list - list of node IDs
+     * The nodes list - list of node IDs. Membership is read far more often
+     * than it changes so readers iterate a snapshot without locking.
      */
-    private final List<Integer> m_nodes = Collections.synchronizedList(new ArrayList<Integer>());
+    private final CopyOnWriteArrayList<Integer> m_nodes = new CopyOnWriteArrayList<Integer>();
+
+    /**
+     * The availability of the services in this category, kept up to date as
+     * outages and services are added and removed
+     */
+    private final transient CategoryAvailability m_availability = new CategoryAvailability();
 
     /**
      * The default constructor - initializes the values
@@ -80,10 +86,7 @@ public class RTCCategory extends Category {
      *            the node to add
      */
     public void addNode(RTCNode node) {
-        Integer longnodeid = node.getNodeID();
-
-        if (!m_nodes.contains(longnodeid))
-            m_nodes.add(longnodeid);
+        m_nodes.addIfAbsent(node.getNodeID());
     }
 
     /**
@@ -93,9 +96,7 @@ public class RTCCategory extends Category {
      *            the node ID to add
      */
     public void addNode(int nodeid) {
-        if (!m_nodes.contains(nodeid)) {
-            m_nodes.add(nodeid);
-        }
+        m_nodes.addIfAbsent(nodeid);
     }
 
     /**
@@ -167,4 +168,13 @@ public class RTCCategory extends Category {
     public List<Integer> getNodes() {
         return m_nodes;
     }
+
+    /**
+     * Get the incrementally maintained availability of this category
+     *
+     * @return the availability of the services in this category
+     */
+    public CategoryAvailability getAvailability() {
+        return m_availability;
+    }
 }
@@ -31,11 +31,10 @@ package org.opennms.netmgt.rtc.datablock;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.opennms.netmgt.rtc.NodeNotInCategoryException;
 import org.opennms.netmgt.rtc.RTCUtils;
@@ -45,6 +44,9 @@ import org.opennms.netmgt.rtc.RTCUtils;
  * convenience methods to add and remove 'RTCNodes' with these values - each key
  * points to a list of 'RTCNode's
  *
+ * The map and the lists it holds are safe for concurrent use so that updates
+ * for different nodes do not have to be serialized against each other.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Kumaraswamy </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
@@ -52,7 +54,7 @@ import org.opennms.netmgt.rtc.RTCUtils;
 // FIXME: 2011-05-18 Seth: OK it is less insane now... but still insane
 public class RTCHashMap {
 	
-    private final Map<RTCNodeKey,List<RTCNode>> m_map;
+    private final ConcurrentMap<RTCNodeKey,List<RTCNode>> m_map;
 	
     /**
      * constructor
@@ -60,16 +62,19 @@ public class RTCHashMap {
      * @param initialCapacity a int.
      */
     public RTCHashMap(int initialCapacity) {
-        m_map = new HashMap<RTCNodeKey,List<RTCNode>>(initialCapacity);
+        m_map = new ConcurrentHashMap<RTCNodeKey,List<RTCNode>>(initialCapacity);
     }
 
-    private List<Integer> getNodeIDs() {
-    	List<Integer> nodes = new LinkedList<Integer>();
-    	for (Iterator<RTCNodeKey> it = m_map.keySet().iterator(); it.hasNext();) {
-			RTCNodeKey key = it.next();
-			nodes.add(key.getNodeID());
-		}
-    	return nodes;
+    private void addToList(RTCNodeKey key, RTCNode rtcN) {
+        List<RTCNode> nodesList = m_map.get(key);
+        if (nodesList == null) {
+            final List<RTCNode> newList = new CopyOnWriteArrayList<RTCNode>();
+            nodesList = m_map.putIfAbsent(key, newList);
+            if (nodesList == null) {
+                nodesList = newList;
+            }
+        }
+        nodesList.add(rtcN);
     }
     
     /**
@@ -81,19 +86,7 @@ public class RTCHashMap {
      *            the RTCNode to add
      */
     private void add(int nodeid, RTCNode rtcN) {
-        RTCNodeKey key = new RTCNodeKey(nodeid, null, null);
-
-        List<RTCNode> nodesList = m_map.get(key);
-        if (nodesList != null) {
-            nodesList.add(rtcN);
-        } else {
-            // add current node to list
-            nodesList = new ArrayList<RTCNode>();
-            nodesList.add(rtcN);
-
-            // add list to map
-            m_map.put(key, nodesList);
-        }
+        addToList(new RTCNodeKey(nodeid, null, null), rtcN);
     }
 
     /**
@@ -107,19 +100,7 @@ public class RTCHashMap {
      *            the RTCNode to add
      */
     private void add(int nodeid, InetAddress inetAddress, RTCNode rtcN) {
-        RTCNodeKey key = new RTCNodeKey(nodeid, inetAddress, null);
-
-        List<RTCNode> nodesList = m_map.get(key);
-        if (nodesList != null) {
-            nodesList.add(rtcN);
-        } else {
-            // add current node to list
-            nodesList = new ArrayList<RTCNode>();
-            nodesList.add(rtcN);
-
-            // add list to map
-            m_map.put(key, nodesList);
-        }
+        addToList(new RTCNodeKey(nodeid, inetAddress, null), rtcN);
     }
     
     private void add(int nodeid, InetAddress ip, String svcName, RTCNode rtcN) {
@@ -192,7 +173,11 @@ public class RTCHashMap {
 
     /**
      * Get the value (uptime) for a category in the last 'rollingWindow'
-     * starting at current time
+     * starting at current time by walking every service in the map. Each
+     * service is counted once, so the value is the average of the node values
+     * weighted by their number of services and matches
+     * {@link CategoryAvailability}. Nodes used to be counted once for every
+     * key they have in the map.
      *
      * @param catLabel
      *            the category to which the node should belong to
@@ -209,21 +194,23 @@ public class RTCHashMap {
         // number of entries for this node
         int count = 0;
 
-        // get all nodes in the hashtable
-        for (Integer key : getNodeIDs()) {
-            List<RTCNode> valList = getRTCNodes(key);
-            if (valList == null || valList.size() == 0) {
+        // the service level keys each map to exactly one node
+        for (RTCNodeKey key : m_map.keySet()) {
+            if (key.getSvcName() == null) {
                 continue;
             }
 
-            for (RTCNode node : valList) {
-                try {
-                    long downTime = node.getDownTime(catLabel, curTime, rollingWindow);
-                    count++;
-                    outageTime += downTime;
-                } catch (NodeNotInCategoryException e) {
-                    continue;
-                }
+            final RTCNode node = getRTCNode(key);
+            if (node == null) {
+                continue;
+            }
+
+            try {
+                long downTime = node.getDownTime(catLabel, curTime, rollingWindow);
+                count++;
+                outageTime += downTime;
+            } catch (NodeNotInCategoryException e) {
+                continue;
             }
         }
 
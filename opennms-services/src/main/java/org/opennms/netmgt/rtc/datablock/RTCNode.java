@@ -29,8 +29,10 @@
 package org.opennms.netmgt.rtc.datablock;
 
 import java.net.InetAddress;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.opennms.netmgt.rtc.NodeNotInCategoryException;
@@ -46,7 +48,8 @@ import org.opennms.netmgt.rtc.NodeNotInCategoryException;
  *
  * <p>
  * Also, each node knows and maintains a list of categories that this tuple
- * belongs to
+ * belongs to, and keeps the availability of those categories up to date as
+ * its outages start and end
  * </p>
  *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Kumaraswamy </A>
@@ -59,7 +62,7 @@ public class RTCNode {
     /**
      * The node ID.
      */
-    private int m_nodeID;
+    private volatile int m_nodeID;
 
     /**
      * The ip address of the interface of the node.
@@ -77,9 +80,15 @@ public class RTCNode {
     private RTCNodeSvcTimesList m_svcTimesList;
 
     /**
-     * List of the categories this node belongs to
+     * List of the categories this node belongs to. It is copied on write so
+     * that it can be read without holding the node's lock.
      */
-    private final List<String> m_categories = new ArrayList<String>();
+    private final List<String> m_categories = new CopyOnWriteArrayList<String>();
+
+    /**
+     * Availability of each category this node belongs to, by label
+     */
+    private final Map<String, CategoryAvailability> m_availabilities = new HashMap<String, CategoryAvailability>();
 
     /**
      * <p>Constructor for RTCNode.</p>
@@ -128,21 +137,31 @@ public class RTCNode {
      * @param regainedtime
      *            time at which service was regained
      */
-    public void addSvcTime(long losttime, long regainedtime) {
-        m_svcTimesList.addSvcTime(losttime, regainedtime);
+    public synchronized void addSvcTime(long losttime, long regainedtime) {
+        if (m_svcTimesList.addSvcTime(losttime, regainedtime)) {
+            for (CategoryAvailability availability : m_availabilities.values()) {
+                availability.addOutage(losttime, regainedtime);
+            }
+        }
     }
 
     /**
      * Add to the category list for this node.
      *
-     * @param catLabel
-     *            category label of the category this node has been added to
+     * @param category
+     *            the category this node has been added to
      */
-    public void addCategory(String catLabel) {
-        int index = m_categories.indexOf(catLabel);
-        if (index == -1) {
-            m_categories.add(catLabel);
+    public synchronized void addCategory(RTCCategory category) {
+        if (m_categories.contains(category.getLabel())) {
+            return;
         }
+        final CategoryAvailability availability = category.getAvailability();
+        availability.addService();
+        for (RTCNodeSvcTime svcTime : m_svcTimesList) {
+            availability.addOutage(svcTime.getLostTime(), svcTime.getRegainedTime());
+        }
+        m_availabilities.put(category.getLabel(), availability);
+        m_categories.add(category.getLabel());
     }
 
     /**
@@ -151,11 +170,23 @@ public class RTCNode {
      * @param catLabel
      *            category label of the category this node has been added to
      */
-    public void removeCategory(String catLabel) {
-        int index = m_categories.indexOf(catLabel);
-        if (index != -1) {
-            m_categories.remove(catLabel);
+    public synchronized void removeCategory(String catLabel) {
+        m_categories.remove(catLabel);
+        final CategoryAvailability availability = m_availabilities.remove(catLabel);
+        if (availability != null) {
+            availability.removeService();
+            for (RTCNodeSvcTime svcTime : m_svcTimesList) {
+                availability.removeOutage(svcTime.getLostTime(), svcTime.getRegainedTime());
+            }
+        }
+    }
 
+    /**
+     * Remove every category from the node's context.
+     */
+    public synchronized void removeCategories() {
+        for (String catLabel : m_categories) {
+            removeCategory(catLabel);
         }
     }
 
@@ -185,6 +216,10 @@ public class RTCNode {
         // create a new entry
         RTCNodeSvcTime newStime = new RTCNodeSvcTime(t);
         m_svcTimesList.add(newStime);
+
+        for (CategoryAvailability availability : m_availabilities.values()) {
+            availability.outageStarted(t);
+        }
     }
 
     /**
@@ -207,6 +242,12 @@ public class RTCNode {
             }
 
             stime.setRegainedTime(t);
+
+            if (stime.getRegainedTime() != -1) {
+                for (CategoryAvailability availability : m_availabilities.values()) {
+                    availability.outageEnded(t);
+                }
+            }
         }
     }
 
@@ -275,7 +316,7 @@ public class RTCNode {
      * @return the total outage time for this node
      * @throws NodeNotInCategoryException 
      */
-    public long getDownTime(String cat, long curTime, long rollingWindow) throws NodeNotInCategoryException {
+    public synchronized long getDownTime(String cat, long curTime, long rollingWindow) throws NodeNotInCategoryException {
         // get the down time for this node in the context of the
         // category.
         // if the service is not in 'context', throw an exception
@@ -291,7 +332,7 @@ public class RTCNode {
      *
      * @return true if the service is currently down
      */
-    public boolean isServiceCurrentlyDown() {
+    public synchronized boolean isServiceCurrentlyDown() {
         int size = m_svcTimesList.size();
         if (size == 0) {
             return false;
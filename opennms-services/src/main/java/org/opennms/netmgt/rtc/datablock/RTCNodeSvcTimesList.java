@@ -111,18 +111,20 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
      *            time at which service was lost
      * @param regainedtime
      *            time at which service was regained
+     * @return false if the entry was rejected
      */
-    public void addSvcTime(long losttime, long regainedtime) {
+    public boolean addSvcTime(long losttime, long regainedtime) {
         // remove expired outages
         removeExpiredOutages();
 
         if (regainedtime > 0 && regainedtime < losttime) {
             LOG.warn("RTCNodeSvcTimesList: Rejecting service time pair since regained time {}\tregainedtime in milliseconds: {} less than lost time -> losttime in milliseconds: {}", regainedtime, losttime);
 
-            return;
+            return false;
         }
 
         addLast(new RTCNodeSvcTime(losttime, regainedtime));
+        return true;
     }
 
     /**
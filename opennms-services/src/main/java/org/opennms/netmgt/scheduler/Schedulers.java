@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link Scheduler} for a daemon.
+ *
+ * <p>The implementation is chosen per daemon by the system property
+ * <code>org.opennms.&lt;daemon&gt;.scheduler</code>, where
+ * <code>&lt;daemon&gt;</code> is the lower-cased name passed to
+ * {@link #create(String, int)} (e.g. <code>org.opennms.poller.scheduler</code>).
+ * Recognized values are <code>legacy</code> (the default) and
+ * <code>timingwheel</code>.  For the timing wheel,
+ * <code>org.opennms.&lt;daemon&gt;.scheduler.jitter</code> sets the fraction of
+ * each interval used to spread out runnables with the same interval.</p>
+ */
+public abstract class Schedulers {
+    private static final Logger LOG = LoggerFactory.getLogger(Schedulers.class);
+
+    public static final String LEGACY = "legacy";
+
+    public static final String TIMING_WHEEL = "timingwheel";
+
+    public static final double DEFAULT_JITTER = 0.05;
+
+    /**
+     * Returns the name of the system property that selects the scheduler
+     * implementation for the given daemon.
+     *
+     * @param parent the daemon name
+     * @return the property name
+     */
+    public static String getSchedulerProperty(final String parent) {
+        return "org.opennms." + parent.toLowerCase(Locale.ENGLISH) + ".scheduler";
+    }
+
+    /**
+     * Creates the scheduler configured for <code>parent</code>.
+     *
+     * @param parent
+     *            the daemon name, also used to name the scheduler's threads
+     * @param maxSize
+     *            the maximum size of the thread pool
+     * @return a new, unstarted scheduler
+     */
+    public static Scheduler create(final String parent, final int maxSize) {
+        final String property = getSchedulerProperty(parent);
+        final String type = System.getProperty(property, LEGACY).trim();
+
+        if (TIMING_WHEEL.equalsIgnoreCase(type)) {
+            final TimingWheelScheduler scheduler = new TimingWheelScheduler(parent, maxSize);
+            scheduler.setJitter(getJitter(property + ".jitter"));
+            LOG.info("Using the timing wheel scheduler for {} with a jitter of {}", parent, scheduler.getJitter());
+            return scheduler;
+        }
+
+        if (!LEGACY.equalsIgnoreCase(type)) {
+            LOG.warn("Unknown scheduler type '{}' in {}; using the legacy scheduler.", type, property);
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+
+    private static double getJitter(final String property) {
+        final String value = System.getProperty(property);
+        if (value == null) {
+            return DEFAULT_JITTER;
+        }
+        try {
+            final double jitter = Double.parseDouble(value.trim());
+            if (jitter >= 0.0 && jitter <= 1.0) {
+                return jitter;
+            }
+        } catch (final NumberFormatException e) {
+            // fall through
+        }
+        LOG.warn("Invalid value '{}' for {}; it must be between 0 and 1.  Using {}.", value, property, DEFAULT_JITTER);
+        return DEFAULT_JITTER;
+    }
+}
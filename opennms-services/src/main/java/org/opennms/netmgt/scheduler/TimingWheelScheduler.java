@@ -0,0 +1,663 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Scheduler} backed by a hierarchical timing wheel.
+ *
+ * <p>Unlike {@link LegacyScheduler}, which keeps one FIFO queue per interval
+ * and peeks at every queue head on each pass, this scheduler hashes each
+ * runnable into a bucket of a wheel by its deadline tick. Scheduling and
+ * cancelling are O(1); the ticker thread only touches the bucket for the
+ * current tick, cascading entries from the coarser wheels down as their
+ * rotation comes around.</p>
+ *
+ * <p>Runnables scheduled with the same interval (for example every service
+ * polled at the default five minutes after a restart) would otherwise all
+ * become due in the same tick and arrive at the thread pool as one burst.
+ * Each non-zero delay is therefore moved by a random offset of up to
+ * <code>jitter * interval / 2</code> in either direction, so that such work
+ * spreads out over the interval instead.</p>
+ *
+ * <p>The time between a runnable's deadline and its hand-off to the thread
+ * pool is recorded as the schedule lag and exposed together with the number
+ * of scheduled entries and the thread pool's queue depth.</p>
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * The default duration of a tick of the innermost wheel, in milliseconds.
+     */
+    public static final long DEFAULT_TICK_DURATION = 100;
+
+    /**
+     * The default number of buckets per wheel.  512 buckets of 100ms cover
+     * 51.2 seconds on the first wheel and just over seven hours on the
+     * second.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * The number of wheels; any deadline beyond the range of the outermost
+     * wheel is parked there and re-examined on each of its rotations.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * A handle to a scheduled runnable that can be used to cancel it.
+     */
+    public static final class Timeout {
+        private final TimingWheelScheduler m_scheduler;
+        private final ReadyRunnable m_runnable;
+        private final long m_deadline;
+        private volatile boolean m_cancelled = false;
+
+        // the following are only accessed by the ticker thread
+        private long m_deadlineTick;
+        private Bucket m_bucket;
+        private Timeout m_prev;
+        private Timeout m_next;
+
+        private Timeout(final TimingWheelScheduler scheduler, final ReadyRunnable runnable, final long deadline) {
+            m_scheduler = scheduler;
+            m_runnable = runnable;
+            m_deadline = deadline;
+        }
+
+        /**
+         * Returns the time at which the runnable becomes due.
+         *
+         * @return the deadline in milliseconds since the epoch
+         */
+        public long getDeadline() {
+            return m_deadline;
+        }
+
+        public ReadyRunnable getRunnable() {
+            return m_runnable;
+        }
+
+        public boolean isCancelled() {
+            return m_cancelled;
+        }
+
+        /**
+         * Cancels the runnable if it has not been handed to the thread pool
+         * yet.  The entry is unlinked from its bucket on the next tick.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (m_cancelled) {
+                    return;
+                }
+                m_cancelled = true;
+            }
+            m_scheduler.m_cancelled.add(this);
+        }
+
+        @Override
+        public String toString() {
+            return m_runnable + " (ready in " + Math.max(0, m_deadline - m_scheduler.getCurrentTime()) + "ms)";
+        }
+    }
+
+    /**
+     * A doubly-linked list of entries so that removal is O(1).  Only the
+     * ticker thread touches buckets.
+     */
+    private static final class Bucket {
+        private Timeout m_head;
+        private Timeout m_tail;
+
+        private void add(final Timeout timeout) {
+            timeout.m_bucket = this;
+            timeout.m_prev = m_tail;
+            timeout.m_next = null;
+            if (m_tail == null) {
+                m_head = timeout;
+            } else {
+                m_tail.m_next = timeout;
+            }
+            m_tail = timeout;
+        }
+
+        private void remove(final Timeout timeout) {
+            if (timeout.m_prev == null) {
+                m_head = timeout.m_next;
+            } else {
+                timeout.m_prev.m_next = timeout.m_next;
+            }
+            if (timeout.m_next == null) {
+                m_tail = timeout.m_prev;
+            } else {
+                timeout.m_next.m_prev = timeout.m_prev;
+            }
+            timeout.m_bucket = null;
+            timeout.m_prev = null;
+            timeout.m_next = null;
+        }
+
+        /**
+         * Empties the bucket and returns the former head of the list.
+         */
+        private Timeout clear() {
+            final Timeout head = m_head;
+            m_head = null;
+            m_tail = null;
+            return head;
+        }
+    }
+
+    private final ExecutorService m_runner;
+
+    private final long m_tickDuration;
+
+    private final int m_wheelBits;
+
+    private final int m_wheelMask;
+
+    private final Bucket[][] m_wheels;
+
+    /**
+     * New entries are handed to the ticker thread through this queue so that
+     * {@link #schedule(long, ReadyRunnable)} never has to take a lock.
+     */
+    private final Queue<Timeout> m_pending = new ConcurrentLinkedQueue<Timeout>();
+
+    private final Queue<Timeout> m_cancelled = new ConcurrentLinkedQueue<Timeout>();
+
+    private volatile double m_jitter = 0.0;
+
+    /**
+     * The tick that was processed last.  Only accessed by the ticker thread.
+     */
+    private long m_tick = 0;
+
+    /**
+     * The time that corresponds to tick 0.
+     */
+    private volatile long m_startTime;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+
+    private final AtomicLong m_totalLag = new AtomicLong(0);
+
+    private volatile long m_lastLag = 0;
+
+    private volatile long m_maxLag = 0;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    /**
+     * Constructs a new scheduler with the default tick duration and wheel
+     * size and a fixed thread pool of <code>maxSize</code> threads.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructs a new scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickDuration
+     *            The resolution of the innermost wheel in milliseconds.
+     * @param wheelSize
+     *            The number of buckets per wheel; rounded up to a power of two.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickDuration, final int wheelSize) {
+        Assert.isTrue(tickDuration > 0, "tickDuration must be positive");
+        Assert.isTrue(wheelSize > 1 && wheelSize <= (1 << 16), "wheelSize must be between 2 and 65536");
+
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickDuration = tickDuration;
+        m_wheelBits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        m_wheelMask = (1 << m_wheelBits) - 1;
+        m_wheels = new Bucket[LEVELS][1 << m_wheelBits];
+        for (final Bucket[] wheel : m_wheels) {
+            for (int i = 0; i < wheel.length; i++) {
+                wheel[i] = new Bucket();
+            }
+        }
+        m_startTime = getCurrentTime();
+        m_worker = null;
+    }
+
+    /**
+     * Returns the fraction of each interval that is used to spread out
+     * runnables scheduled with the same interval.
+     *
+     * @return the jitter ratio
+     */
+    public double getJitter() {
+        return m_jitter;
+    }
+
+    /**
+     * Sets the fraction of each interval that is used to spread out runnables
+     * scheduled with the same interval.  A ratio of 0.1 moves a runnable
+     * scheduled in 300 seconds by up to 15 seconds in either direction.
+     *
+     * @param jitter a ratio between 0 and 1
+     */
+    public void setJitter(final double jitter) {
+        Assert.isTrue(jitter >= 0.0 && jitter <= 1.0, "jitter must be between 0 and 1");
+        m_jitter = jitter;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        scheduleTimeout(interval, runnable);
+    }
+
+    /**
+     * Schedules <code>runnable</code> to be run once <code>interval</code>
+     * milliseconds (plus or minus the configured jitter) have elapsed and it
+     * reports itself as ready.
+     *
+     * @param interval the delay in milliseconds
+     * @param runnable the runnable to schedule
+     * @return a handle that can be used to cancel the runnable
+     */
+    public Timeout scheduleTimeout(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+
+        final Timeout timeout = new Timeout(this, runnable, getCurrentTime() + jitter(interval));
+        m_pending.add(timeout);
+        m_scheduled.incrementAndGet();
+        return timeout;
+    }
+
+    private long jitter(final long interval) {
+        final double jitter = m_jitter;
+        if (interval <= 0 || jitter <= 0.0) {
+            return Math.max(0, interval);
+        }
+        final long spread = (long)(interval * jitter / 2.0);
+        if (spread <= 0) {
+            return interval;
+        }
+        return interval + ThreadLocalRandom.current().nextLong(-spread, spread + 1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns the number of runnables that are scheduled but have not been
+     * handed to the thread pool yet.
+     *
+     * @return the number of scheduled entries
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the number of runnables that are due and waiting for a free
+     * thread in the pool.
+     *
+     * @return the thread pool's queue depth
+     */
+    public int getQueueDepth() {
+        if (m_runner instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor)m_runner).getQueue().size();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * Returns the time between the deadline of the most recently executed
+     * runnable and its hand-off to the thread pool.
+     *
+     * @return the lag in milliseconds
+     */
+    public long getLastLag() {
+        return m_lastLag;
+    }
+
+    /**
+     * @return the largest schedule lag seen so far, in milliseconds
+     */
+    public long getMaxLag() {
+        return m_maxLag;
+    }
+
+    /**
+     * @return the average schedule lag of all executed runnables, in milliseconds
+     */
+    public double getAverageLag() {
+        final long executed = m_numTasksExecuted.get();
+        return executed == 0 ? 0.0 : (double)m_totalLag.get() / executed;
+    }
+
+    /**
+     * The main method of the scheduler.  Each tick it moves newly scheduled
+     * entries into the wheels, unlinks cancelled ones, cascades the outer
+     * wheels and hands everything in the current bucket to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                    if (m_status == PAUSE_PENDING) {
+                        LOG.debug("run: pausing.");
+                    }
+                    m_status = PAUSED;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // exit
+                        break;
+                    }
+                }
+
+                // if resume pending then change to running
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+                    m_status = RUNNING;
+                }
+
+                if (m_status != RUNNING) {
+                    continue;
+                }
+
+                final long sleep = tickTime(m_tick + 1) - getCurrentTime();
+                if (sleep > 0) {
+                    try {
+                        TimeUnit.MILLISECONDS.timedWait(this, sleep);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+
+            try {
+                // catch up on every tick that has elapsed, one at a time
+                final long now = getCurrentTime();
+                while (tickTime(m_tick + 1) <= now) {
+                    transferPending();
+                    removeCancelled();
+                    tick();
+                }
+            } catch (RejectedExecutionException e) {
+                LOG.info("run: schedule thread pool has been shut down");
+                break;
+            } catch (RuntimeException e) {
+                LOG.warn("run: an unexpected exception occurred while dispatching scheduled runnables", e);
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    private long tickTime(final long tick) {
+        return m_startTime + tick * m_tickDuration;
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = m_pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                m_scheduled.decrementAndGet();
+                continue;
+            }
+            // round up so that nothing runs before its deadline
+            final long offset = timeout.getDeadline() - m_startTime;
+            timeout.m_deadlineTick = Math.max(m_tick + 1, (offset + m_tickDuration - 1) / m_tickDuration);
+            insert(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = m_cancelled.poll()) != null) {
+            if (timeout.m_bucket != null) {
+                timeout.m_bucket.remove(timeout);
+                m_scheduled.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Places the entry on the innermost wheel whose current rotation contains
+     * its deadline tick.
+     */
+    private void insert(final Timeout timeout) {
+        final long deadlineTick = timeout.m_deadlineTick;
+        int level = 0;
+        while (level < LEVELS - 1 && (deadlineTick >>> (m_wheelBits * (level + 1))) != (m_tick >>> (m_wheelBits * (level + 1)))) {
+            level++;
+        }
+        final int slot = (int)((deadlineTick >>> (m_wheelBits * level)) & m_wheelMask);
+        m_wheels[level][slot].add(timeout);
+    }
+
+    private void tick() {
+        final long tick = ++m_tick;
+
+        // cascade from the outermost wheel inwards so that entries can fall
+        // through several levels in a single tick
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((tick & ((1L << (m_wheelBits * level)) - 1)) == 0) {
+                final int slot = (int)((tick >>> (m_wheelBits * level)) & m_wheelMask);
+                Timeout timeout = m_wheels[level][slot].clear();
+                while (timeout != null) {
+                    final Timeout next = timeout.m_next;
+                    timeout.m_bucket = null;
+                    timeout.m_prev = null;
+                    timeout.m_next = null;
+                    insert(timeout);
+                    timeout = next;
+                }
+            }
+        }
+
+        Timeout timeout = m_wheels[0][(int)(tick & m_wheelMask)].clear();
+        while (timeout != null) {
+            final Timeout next = timeout.m_next;
+            timeout.m_bucket = null;
+            timeout.m_prev = null;
+            timeout.m_next = null;
+            expire(timeout);
+            timeout = next;
+        }
+    }
+
+    private void expire(final Timeout timeout) {
+        if (timeout.isCancelled()) {
+            // cancelled after removeCancelled() ran, so it is no longer linked anywhere
+            m_scheduled.decrementAndGet();
+            return;
+        }
+
+        final ReadyRunnable runnable = timeout.getRunnable();
+        if (!runnable.isReady()) {
+            // try again on the next tick, as the legacy scheduler would on its next pass
+            LOG.debug("run: runnable {} is not ready, deferring", runnable);
+            timeout.m_deadlineTick = m_tick + 1;
+            insert(timeout);
+            return;
+        }
+
+        m_scheduled.decrementAndGet();
+
+        final long lag = Math.max(0, getCurrentTime() - timeout.getDeadline());
+        m_lastLag = lag;
+        if (lag > m_maxLag) {
+            m_maxLag = lag;
+        }
+        m_totalLag.addAndGet(lag);
+
+        LOG.debug("run: found ready runnable {}", runnable);
+        m_runner.execute(runnable);
+        m_numTasksExecuted.incrementAndGet();
+    }
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds every occurrence of a fixed set of literal strings in a single pass
+ * over the input text.
+ *
+ * <p>The automaton is built once and is immutable afterwards, so it can be
+ * shared by all of the threads that process syslog messages.</p>
+ */
+final class AhoCorasickMatcher {
+
+    private static final int[] NO_OUTPUT = new int[0];
+
+    /** Sorted transition characters for each state. */
+    private final char[][] m_keys;
+    /** Target state for each transition, parallel to {@link #m_keys}. */
+    private final int[][] m_targets;
+    /** Failure transition for each state. */
+    private final int[] m_failure;
+    /** Literals that end at each state, including those of its failure chain. */
+    private final int[][] m_outputs;
+    private final int m_literalCount;
+
+    /**
+     * @param literals the literals to search for; the position of each literal
+     *        in the list is the bit set in the result of {@link #findAll(CharSequence)}
+     */
+    AhoCorasickMatcher(final List<String> literals) {
+        m_literalCount = literals.size();
+
+        // build the trie
+        final List<TreeMap<Character, Integer>> transitions = new ArrayList<TreeMap<Character, Integer>>();
+        final List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+        transitions.add(new TreeMap<Character, Integer>());
+        outputs.add(new ArrayList<Integer>());
+
+        for (int i = 0; i < literals.size(); i++) {
+            final String literal = literals.get(i);
+            int state = 0;
+            for (int j = 0; j < literal.length(); j++) {
+                final Character c = literal.charAt(j);
+                Integer next = transitions.get(state).get(c);
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.add(new TreeMap<Character, Integer>());
+                    outputs.add(new ArrayList<Integer>());
+                    transitions.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(i);
+        }
+
+        final int stateCount = transitions.size();
+        m_keys = new char[stateCount][];
+        m_targets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            final Map<Character, Integer> stateTransitions = transitions.get(state);
+            m_keys[state] = new char[stateTransitions.size()];
+            m_targets[state] = new int[stateTransitions.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Integer> entry : stateTransitions.entrySet()) {
+                m_keys[state][i] = entry.getKey();
+                m_targets[state][i] = entry.getValue();
+                i++;
+            }
+        }
+
+        // compute failure links breadth first, merging the outputs of each
+        // state's failure target into its own
+        m_failure = new int[stateCount];
+        final Queue<Integer> queue = new ArrayDeque<Integer>();
+        for (final int child : m_targets[0]) {
+            m_failure[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int i = 0; i < m_keys[state].length; i++) {
+                final char c = m_keys[state][i];
+                final int child = m_targets[state][i];
+                int failure = m_failure[state];
+                int next = transition(failure, c);
+                while (next < 0 && failure != 0) {
+                    failure = m_failure[failure];
+                    next = transition(failure, c);
+                }
+                m_failure[child] = next < 0 ? 0 : next;
+                outputs.get(child).addAll(outputs.get(m_failure[child]));
+                queue.add(child);
+            }
+        }
+
+        m_outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            final List<Integer> stateOutputs = outputs.get(state);
+            if (stateOutputs.isEmpty()) {
+                m_outputs[state] = NO_OUTPUT;
+            } else {
+                m_outputs[state] = new int[stateOutputs.size()];
+                for (int i = 0; i < stateOutputs.size(); i++) {
+                    m_outputs[state][i] = stateOutputs.get(i);
+                }
+            }
+        }
+    }
+
+    private int transition(final int state, final char c) {
+        final int idx = Arrays.binarySearch(m_keys[state], c);
+        return idx < 0 ? -1 : m_targets[state][idx];
+    }
+
+    /**
+     * @return the number of literals this matcher searches for
+     */
+    int size() {
+        return m_literalCount;
+    }
+
+    /**
+     * @return a set with a bit set for each literal that occurs in the text
+     */
+    BitSet findAll(final CharSequence text) {
+        final BitSet found = new BitSet(m_literalCount);
+        if (m_literalCount == 0) {
+            return found;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = transition(state, c);
+            while (next < 0 && state != 0) {
+                state = m_failure[state];
+                next = transition(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for (final int literal : m_outputs[state]) {
+                found.set(literal);
+            }
+        }
+        // the empty string occurs in every text
+        for (final int literal : m_outputs[0]) {
+            found.set(literal);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only {@link CharSequence} view over a range of a {@link ByteBuffer}
+ * holding <tt>US-ASCII</tt> text, which lets the syslog parsers run their
+ * regular expressions against a received datagram without decoding it into
+ * a {@link String} first. Bytes outside the 7-bit range are mapped to the
+ * matching ISO-8859-1 character rather than to a replacement character.
+ *
+ * The view reads the buffer with absolute gets, so it never changes the
+ * buffer's position or limit, but it is only valid for as long as the
+ * buffer's contents are left alone. Only {@link #toString()} copies.
+ */
+final class ByteBufferCharSequence implements CharSequence {
+    private final ByteBuffer m_buffer;
+    private final int m_start;
+    private final int m_end;
+
+    /**
+     * @param buffer the buffer to view
+     * @param start the absolute index of the first byte, inclusive
+     * @param end the absolute index of the last byte, exclusive
+     */
+    ByteBufferCharSequence(final ByteBuffer buffer, final int start, final int end) {
+        if (start < 0 || end < start || end > buffer.limit()) {
+            throw new IndexOutOfBoundsException("start=" + start + ", end=" + end + ", limit=" + buffer.limit());
+        }
+        m_buffer = buffer;
+        m_start = start;
+        m_end = end;
+    }
+
+    @Override
+    public int length() {
+        return m_end - m_start;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return (char)(m_buffer.get(m_start + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        if (start < 0 || end < start || end > length()) {
+            throw new IndexOutOfBoundsException("start=" + start + ", end=" + end + ", length=" + length());
+        }
+        return new ByteBufferCharSequence(m_buffer, m_start + start, m_start + end);
+    }
+
+    @Override
+    public String toString() {
+        final char[] chars = new char[length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char)(m_buffer.get(m_start + i) & 0xff);
+        }
+        return new String(chars);
+    }
+}
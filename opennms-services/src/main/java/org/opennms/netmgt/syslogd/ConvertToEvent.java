@@ -34,25 +34,18 @@ import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.opennms.core.utils.InetAddressUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opennms.netmgt.config.SyslogdConfigFactory;
-import org.opennms.netmgt.config.syslogd.HideMatch;
 import org.opennms.netmgt.config.syslogd.HideMessage;
-import org.opennms.netmgt.config.syslogd.HostaddrMatch;
-import org.opennms.netmgt.config.syslogd.HostnameMatch;
 import org.opennms.netmgt.config.syslogd.ParameterAssignment;
-import org.opennms.netmgt.config.syslogd.ProcessMatch;
 import org.opennms.netmgt.config.syslogd.UeiList;
 import org.opennms.netmgt.config.syslogd.UeiMatch;
 import org.opennms.netmgt.model.events.EventBuilder;
@@ -75,11 +68,6 @@ final class ConvertToEvent {
     /** Constant <code>HIDDEN_MESSAGE="The message logged has been removed due"{trunked}</code> */
     protected static final String HIDDEN_MESSAGE = "The message logged has been removed due to configuration of Syslogd; it may contain sensitive data.";
 
-    /**
-     * The received XML event, decoded using the US-ASCII encoding.
-     */
-    private final String m_eventXML;
-
     /**
      * The Internet address of the sending agent.
      */
@@ -97,27 +85,27 @@ final class ConvertToEvent {
 
     private Event m_event;
 
-    private static Class<? extends SyslogParser> m_parserClass = null;
-
-    private static Map<String,Pattern> m_patterns = new ConcurrentHashMap<String,Pattern>();
+    /**
+     * The static <code>getParser</code> factory of the configured parser,
+     * resolved once rather than looked up reflectively for every message.
+     */
+    private static volatile Method m_parserMethod = null;
 
     /**
      * Private constructor to prevent the used of <em>new</em> except by the
      * <code>make</code> method.
      * 
-     * @param eventXml 
      * @param port 
      * @param addr 
      */
-    private ConvertToEvent(InetAddress addr, int port, String eventXml) {
+    private ConvertToEvent(InetAddress addr, int port) {
         m_sender = addr;
         m_port = port;
-        m_eventXML = eventXml;
     }
 
     public static void invalidate() {
-        m_parserClass = null;
-        m_patterns.clear();
+        m_parserMethod = null;
+        SyslogUeiMatcher.invalidate();
     }
 
     /**
@@ -154,32 +142,84 @@ final class ConvertToEvent {
                                final int len, final String matchPattern, final int hostGroup, final int messageGroup,
                                final UeiList ueiList, final HideMessage hideMessage, final String discardUei)
             throws UnsupportedEncodingException, MessageDiscardedException {
-        if (m_parserClass == null) {
-            final String parser = SyslogdConfigFactory.getInstance().getParser();
-            try {
-                m_parserClass = Class.forName(parser).asSubclass(SyslogParser.class);
-            } catch (final Exception ex) {
-                LOG.debug("Unable to instantiate Syslog parser class specified in config: {}", parser, ex);
-                m_parserClass = CustomSyslogParser.class;
-            }
-        }
-
         String deZeroedData = new String(data, 0, len, "US-ASCII");
         if (deZeroedData.endsWith("\0")) {
             deZeroedData = deZeroedData.substring(0, deZeroedData.length() - 1);
         }
 
-        final ConvertToEvent e = new ConvertToEvent(addr, port, deZeroedData);
+        return make(addr, port, deZeroedData, matchPattern, hostGroup, messageGroup, ueiList, hideMessage, discardUei);
+    }
+
+    /**
+     * Constructs a new event encapsulation instance directly from the bytes
+     * between the position and the limit of a receive buffer, which are
+     * treated as <tt>US-ASCII</tt>. The header is parsed in place; only the
+     * fields that end up in the event are copied out, so the buffer may be
+     * reused as soon as this method returns. The buffer's position and limit
+     * are left unchanged.
+     *
+     * @param addr The remote agent's address.
+     * @param port The remote agent's port
+     * @param data The received datagram, flipped for reading.
+     * @throws MessageDiscardedException 
+     */
+    static ConvertToEvent make(final InetAddress addr, final int port, final ByteBuffer data,
+                               final String matchPattern, final int hostGroup, final int messageGroup,
+                               final UeiList ueiList, final HideMessage hideMessage, final String discardUei)
+            throws MessageDiscardedException {
+        int end = data.limit();
+        if (end > data.position() && data.get(end - 1) == 0) {
+            end--;
+        }
+
+        return make(addr, port, new ByteBufferCharSequence(data, data.position(), end), matchPattern, hostGroup, messageGroup, ueiList, hideMessage, discardUei);
+    }
+
+    private static Method getParserMethod() throws MessageDiscardedException {
+        Method m = m_parserMethod;
+        if (m != null) {
+            return m;
+        }
+
+        Class<? extends SyslogParser> parserClass;
+        final String parser = SyslogdConfigFactory.getInstance().getParser();
+        try {
+            parserClass = Class.forName(parser).asSubclass(SyslogParser.class);
+        } catch (final Exception ex) {
+            LOG.debug("Unable to instantiate Syslog parser class specified in config: {}", parser, ex);
+            parserClass = CustomSyslogParser.class;
+        }
+
+        try {
+            // prefer the CharSequence factory so that buffers need not be decoded to a String first
+            try {
+                m = parserClass.getDeclaredMethod("getParser", CharSequence.class);
+            } catch (final NoSuchMethodException ex) {
+                m = parserClass.getDeclaredMethod("getParser", String.class);
+            }
+        } catch (final Exception ex) {
+            LOG.debug("Unable to get parser for class '{}'", parserClass.getName(), ex);
+            throw new MessageDiscardedException(ex);
+        }
+        m_parserMethod = m;
+        return m;
+    }
+
+    private static ConvertToEvent make(final InetAddress addr, final int port, final CharSequence text,
+                                       final String matchPattern, final int hostGroup, final int messageGroup,
+                                       final UeiList ueiList, final HideMessage hideMessage, final String discardUei)
+            throws MessageDiscardedException {
+        final ConvertToEvent e = new ConvertToEvent(addr, port);
 
         LOG.debug("Converting to event: {}", e);
 
+        final Method m = getParserMethod();
         final SyslogParser parser;
         try {
-            Method m = m_parserClass.getDeclaredMethod("getParser", String.class);
-            Object[] args = new Object[] { e.m_eventXML };
-            parser = (SyslogParser)m.invoke(ConvertToEvent.class, args);
+            final Object arg = m.getParameterTypes()[0] == String.class ? text.toString() : text;
+            parser = (SyslogParser)m.invoke(ConvertToEvent.class, arg);
         } catch (final Exception ex) {
-            LOG.debug("Unable to get parser for class '{}'", m_parserClass.getName(), ex);
+            LOG.debug("Unable to get parser for class '{}'", m.getDeclaringClass().getName(), ex);
             throw new MessageDiscardedException(ex);
         }
 
@@ -190,13 +230,13 @@ final class ConvertToEvent {
         try {
             message = parser.parse();
         } catch (final SyslogParserException ex) {
-            LOG.debug("Unable to parse '{}'", e.m_eventXML, ex);
+            LOG.debug("Unable to parse '{}'", text, ex);
             throw new MessageDiscardedException(ex);
         }
 
         LOG.debug("got syslog message {}", message);
         if (message == null) {
-            throw new MessageDiscardedException(String.format("Unable to parse '%s'", e.m_eventXML));
+            throw new MessageDiscardedException(String.format("Unable to parse '%s'", text));
         }
         // Build a basic event out of the syslog message
         final String priorityTxt = message.getSeverity().toString();
@@ -239,69 +279,25 @@ final class ConvertToEvent {
         * node to match against nodeId.
          */
 
-        Pattern msgPat = null;
-        Matcher msgMat = null;
-
         // Time to verify UEI matching.
 
-        final String fullText = message.getFullText();
-        final String matchedText = message.getMatchedMessage();
+        final SyslogUeiMatcher ueiMatcher = SyslogUeiMatcher.getInstance(ueiList, hideMessage);
 
-        final List<UeiMatch> ueiMatch = ueiList == null? null : ueiList.getUeiMatchCollection();
-        if (ueiMatch == null) {
+        if (ueiList == null) {
             LOG.warn("No ueiList configured.");
         } else {
-            for (final UeiMatch uei : ueiMatch) {
-                final boolean otherStuffMatches = matchFacility(uei.getFacilityCollection(), facilityTxt) &&
-                                                  matchSeverity(uei.getSeverityCollection(), priorityTxt) &&
-                                                  matchProcess(uei.getProcessMatch(), message.getProcessName()) && 
-                                                  matchHostname(uei.getHostnameMatch(), message.getHostName()) &&
-                                                  matchHostAddr(uei.getHostaddrMatch(), message.getHostAddress());
-                
-                if (otherStuffMatches && uei.getMatch().getType().equals("substr")) {
-                    if (matchSubstring(discardUei, bldr, matchedText, uei)) {
-                        break;
-                    }
-                } else if (otherStuffMatches && (uei.getMatch().getType().startsWith("regex"))) {
-                    if (matchRegex(message, uei, bldr, discardUei)) {
-                        break;
-                    }
-                }
+            final SyslogUeiMatcher.Match match = ueiMatcher.match(message, facilityTxt, priorityTxt);
+            if (match != null) {
+                applyMatch(match, bldr, discardUei);
             }
         }
 
         // Time to verify if we need to hide the message
-        boolean doHide = false;
-        final List<HideMatch> hideMatch = hideMessage == null? null : hideMessage.getHideMatchCollection();
-        if (hideMatch == null) {
+        if (hideMessage == null) {
             LOG.warn("No hideMessage configured.");
-        } else {
-            for (final HideMatch hide : hideMatch) {
-                if (hide.getMatch().getType().equals("substr")) {
-                    if (fullText.contains(hide.getMatch().getExpression())) {
-                        // We should hide the message based on this match
-                    	doHide = true;
-                    }            	
-                } else if (hide.getMatch().getType().equals("regex")) {
-                	try {
-                    	msgPat = Pattern.compile(hide.getMatch().getExpression(), Pattern.MULTILINE);
-                    	msgMat = msgPat.matcher(fullText);            		
-                	} catch (PatternSyntaxException pse) {
-			    LOG.warn("Failed to compile regex pattern '{}'", hide.getMatch().getExpression(), pse);
-                		msgMat = null;
-                	}
-                	if ((msgMat != null) && (msgMat.find())) {
-                        // We should hide the message based on this match
-                		doHide = true;
-                	}
-                }
-                if (doHide) {
-                    LOG.debug("Hiding syslog message from Event - May contain sensitive data");
-                    message.setMessage(HIDDEN_MESSAGE);
-    	            // We want to stop here, no point in checking further hideMatches
-    	            break;
-                }
-            }
+        } else if (ueiMatcher.shouldHide(message.getFullText())) {
+            LOG.debug("Hiding syslog message from Event - May contain sensitive data");
+            message.setMessage(HIDDEN_MESSAGE);
         }
 
         // Using parms provides configurability.
@@ -325,155 +321,39 @@ final class ConvertToEvent {
         return e;
     }
 
-    private static boolean matchFind(final String expression, final String input, final String context) {
-        final Pattern pat = getPattern(expression);
-        if (pat == null) {
-            LOG.debug("Unable to get pattern for expression '{}' in {} context", expression, context);
-            return false;
-        }
-        final Matcher mat = pat.matcher(input);
-        if (mat != null && mat.find()) return true;
-        return false;
-    }
-    
-    private static boolean matchHostAddr(final HostaddrMatch hostaddrMatch, final String hostAddress) {
-        if (hostaddrMatch == null) return true;
-        if (hostAddress == null) return false;
-        
-        final String expression = hostaddrMatch.getExpression();
-        
-        if (matchFind(expression, hostAddress, "hostaddr-match")) {
-            LOG.trace("Successful regex hostaddr-match for input '{}' against expression '{}'", hostAddress, expression);
-            return true;
-        }
-        return false;
-    }
-    
-    private static boolean matchHostname(final HostnameMatch hostnameMatch, final String hostName) {
-        if (hostnameMatch == null) return true;
-        if (hostName == null) return false;
-        
-        final String expression = hostnameMatch.getExpression();
-        
-        if (matchFind(expression, hostName, "hostname-match")) {
-            LOG.trace("Successful regex hostname-match for input '{}' against expression '{}'", hostName, expression);
-            return true;
-        }
-        return false;
-    }
-
-    private static boolean matchProcess(final ProcessMatch processMatch, final String processName) {
-        if (processMatch == null) return true;
-        if (processName == null) return false;
-
-        final String expression = processMatch.getExpression();
-
-        if (matchFind(expression, processName, "process-match")) {
-            LOG.trace("Successful regex process-match for input '{}' against expression '{}'", processName, expression);
-            return true;
+    private static void applyMatch(final SyslogUeiMatcher.Match match, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+        final boolean traceEnabled = LOG.isTraceEnabled();
+        final UeiMatch uei = match.getUeiMatch();
+        if (discardUei.equals(uei.getUei())) {
+            LOG.debug("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
+            throw new MessageDiscardedException();
         }
-        return false;
-    }
 
-    private static boolean matchSeverity(List<String> severities, String priorityTxt) {
-        if (severities.size() == 0) return true;
-        for (String severity : severities) {
-            if (severity.equalsIgnoreCase(priorityTxt)) return true;
-        }
-        return false;
-    }
+        // We matched a UEI
+        if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on {} match, to : {}", uei.getMatch().getType(), uei.getUei());
+        bldr.setUei(uei.getUei());
 
-    private static boolean matchFacility(List<String> facilities, String facilityTxt) {
-        if (facilities.size() == 0) return true;
-        for (String facility : facilities) {
-            if (facility.equalsIgnoreCase(facilityTxt)) return true;
+        final Matcher msgMat = match.getMatcher();
+        if (msgMat == null) {
+            return;
         }
-        return false;
-    }
-
-    private static Pattern getPattern(final String expression) {
-        final Pattern msgPat = m_patterns.get(expression);
-        if (msgPat == null) {
-            try {
-                final Pattern newPat = Pattern.compile(expression, Pattern.MULTILINE);
-                m_patterns.put(expression, newPat);
-                return newPat;
-            } catch(final PatternSyntaxException pse) {
-                LOG.warn("Failed to compile regex pattern '{}'", expression, pse);
-        	}
-        }
-        return msgPat;
-    }
-
-    private static boolean matchSubstring(final String discardUei, final EventBuilder bldr, String message, final UeiMatch uei) throws MessageDiscardedException {
-        boolean doIMatch = false;
-        boolean traceEnabled = LOG.isTraceEnabled();
-        if (message.contains(uei.getMatch().getExpression())) {
-            if (discardUei.equals(uei.getUei())) {
-                if (traceEnabled) LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
-                throw new MessageDiscardedException();
-            } else {
-                //We can pass a new UEI on this
-		    if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on substring match, to : {}", uei.getUei());
-                bldr.setUei(uei.getUei());
-                // I think we want to stop processing here so the first
-                // ueiMatch wins, right?
-                doIMatch = true;
-            }
-        } else {
-            if (traceEnabled) LOG.trace("No substring match for text of a Syslogd event to : {}", uei.getMatch().getExpression());
-        }
-        return doIMatch;
-    }
-
-    private static boolean matchRegex(final SyslogMessage message, final UeiMatch uei, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
-        boolean traceEnabled = LOG.isTraceEnabled();
-        final String expression = uei.getMatch().getExpression();
-        final Pattern msgPat = getPattern(expression);
-        final Matcher msgMat;
-        if (msgPat == null) {
-            LOG.debug("Unable to create pattern for expression '{}'", expression);
-            return false;
-        } else {
-            final String text;
-            if (message.getMatchedMessage() != null) {
-                text = message.getMatchedMessage();
-            } else {
-                text = message.getFullText();
+        if (msgMat.groupCount() > 0 && uei.getMatch().isDefaultParameterMapping()) {
+            if (traceEnabled) LOG.trace("Doing default parameter mappings for this regex match.");
+            for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
+                if (traceEnabled) LOG.trace("Added parm 'group{}' with value '{}' to Syslogd event based on regex match group", groupNum, msgMat.group(groupNum));
+                bldr.addParam("group"+groupNum, msgMat.group(groupNum));
             }
-            msgMat = msgPat.matcher(text);
         }
-        if ((msgMat != null) && (msgMat.find())) {
-            if (discardUei.equals(uei.getUei())) {
-                LOG.debug("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
-                throw new MessageDiscardedException();
-            }
-
-            // We matched a UEI
-            bldr.setUei(uei.getUei());
-            if (msgMat.groupCount() > 0 && uei.getMatch().isDefaultParameterMapping()) {
-                if (traceEnabled) LOG.trace("Doing default parameter mappings for this regex match.");
-                for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
-                    if (traceEnabled) LOG.trace("Added parm 'group{}' with value '{}' to Syslogd event based on regex match group", groupNum, msgMat.group(groupNum));
-                    bldr.addParam("group"+groupNum, msgMat.group(groupNum));
-                }
-            }
-            if (msgMat.groupCount() > 0 && uei.getParameterAssignmentCount() > 0) {
-                if (traceEnabled) LOG.trace("Doing user-specified parameter assignments for this regex match.");
-                for (ParameterAssignment assignment : uei.getParameterAssignmentCollection()) {
-                    String parmName = assignment.getParameterName();
-                    String parmValue = msgMat.group(assignment.getMatchingGroup());
-                    parmValue = parmValue == null ? "" : parmValue;
-                    bldr.addParam(parmName, parmValue);
-                    if (traceEnabled) LOG.trace("Added parm '{}' with value '{}' to Syslogd event based on user-specified parameter assignment", parmName, parmValue);
-                }
+        if (msgMat.groupCount() > 0 && uei.getParameterAssignmentCount() > 0) {
+            if (traceEnabled) LOG.trace("Doing user-specified parameter assignments for this regex match.");
+            for (ParameterAssignment assignment : uei.getParameterAssignmentCollection()) {
+                String parmName = assignment.getParameterName();
+                String parmValue = msgMat.group(assignment.getMatchingGroup());
+                parmValue = parmValue == null ? "" : parmValue;
+                bldr.addParam(parmName, parmValue);
+                if (traceEnabled) LOG.trace("Added parm '{}' with value '{}' to Syslogd event based on user-specified parameter assignment", parmName, parmValue);
             }
-            // I think we want to stop processing here so the first
-            // ueiMatch wins, right?
-            return true;
         }
-        if (traceEnabled) LOG.trace("Message '{}' did not regex-match pattern '{}'", message.getMessage(), expression);
-        return false;
     }
 
     /**
@@ -487,13 +367,6 @@ final class ConvertToEvent {
             m_ackEvents.add(e);
     }
 
-    /**
-     * Returns the raw XML data as a string.
-     */
-    String getXmlData() {
-        return m_eventXML;
-    }
-
     /**
      * Returns the sender's address.
      */
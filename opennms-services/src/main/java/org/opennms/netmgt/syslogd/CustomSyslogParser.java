@@ -47,7 +47,7 @@ public class CustomSyslogParser extends SyslogParser {
     private int m_matchingGroupHost;
     private int m_matchingGroupMessage;
 
-    protected CustomSyslogParser(final String text) throws SyslogParserException {
+    protected CustomSyslogParser(final CharSequence text) throws SyslogParserException {
         super(text);
 
         final SyslogdConfig config = SyslogdConfigFactory.getInstance();
@@ -64,6 +64,10 @@ public class CustomSyslogParser extends SyslogParser {
         return new CustomSyslogParser(text);
     }
 
+    public static SyslogParser getParser(final CharSequence text) throws SyslogParserException {
+        return new CustomSyslogParser(text);
+    }
+
     @Override
     public SyslogMessage parse() throws SyslogParserException {
         final SyslogMessage syslogMessage = new SyslogMessage();
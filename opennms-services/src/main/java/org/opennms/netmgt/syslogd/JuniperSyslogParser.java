@@ -40,13 +40,17 @@ public class JuniperSyslogParser extends SyslogParser {
     //                                                                PRI         TIMESTAMP                                          HOST      PROCESS/ID          MESSAGE
     private static final Pattern m_juniperPattern = Pattern.compile("^<(\\d+)>\\s*(\\S\\S\\S\\s+\\d{1,2}\\s+\\d\\d:\\d\\d:\\d\\d)\\s+(\\S+)\\s+(\\S+)\\[(\\d+)\\]: (.*?)$", Pattern.MULTILINE);
 
-    protected JuniperSyslogParser(final String text) {
+    protected JuniperSyslogParser(final CharSequence text) {
         super(text);
     }
 
     public static SyslogParser getParser(final String text) {
         return new JuniperSyslogParser(text);
     }
+
+    public static SyslogParser getParser(final CharSequence text) {
+        return new JuniperSyslogParser(text);
+    }
     
     @Override
     protected Pattern getPattern() {
@@ -46,7 +46,7 @@ public class Rfc5424SyslogParser extends SyslogParser {
 
     private static final Pattern m_dateWithOffset = Pattern.compile("^(.*[\\-\\+]\\d\\d):?(\\d\\d)$");
 
-    protected Rfc5424SyslogParser(final String text) {
+    protected Rfc5424SyslogParser(final CharSequence text) {
         super(text);
     }
 
@@ -54,6 +54,10 @@ public class Rfc5424SyslogParser extends SyslogParser {
         return new Rfc5424SyslogParser(text);
     }
 
+    public static SyslogParser getParser(final CharSequence text) {
+        return new Rfc5424SyslogParser(text);
+    }
+
     @Override
     protected Pattern getPattern() {
         return m_rfc5424Pattern;
@@ -59,6 +59,14 @@ public final class SyslogHandler implements Fiber {
     private final boolean USE_NIO = false;
     private final boolean USE_NETTY = false;
 
+    /**
+     * Set this system property to <code>ringbuffer</code> to receive with
+     * {@link SyslogReceiverNioRingBufferImpl}.
+     */
+    static final String RECEIVER_PROPERTY = "org.opennms.netmgt.syslogd.receiver";
+
+    private final boolean USE_RING_BUFFER = "ringbuffer".equalsIgnoreCase(System.getProperty(RECEIVER_PROPERTY));
+
     /**
      * The UDP receiver thread.
      */
@@ -134,6 +142,9 @@ public final class SyslogHandler implements Fiber {
 
         m_HideMessages = m_syslogdConfig.getHideMessages();
 
+        // compile the match rules now rather than on the first message
+        SyslogUeiMatcher.getInstance(m_UeiList, m_HideMessages);
+
         m_status = START_PENDING;
 
         m_dgSock = null;
@@ -161,7 +172,26 @@ public final class SyslogHandler implements Fiber {
         m_status = STARTING;
 
         try {
-            if (USE_NIO) {
+            if (USE_RING_BUFFER) {
+                // NIO SyslogReceiver implementation with pooled buffers and a bounded ring
+
+                DatagramChannel channel = DatagramChannel.open();
+                if (m_dgIp != null && m_dgIp.length() != 0) {
+                    channel.socket().bind(new InetSocketAddress(InetAddressUtils.addr(m_dgIp), m_dgPort));
+                } else {
+                    channel.socket().bind(new InetSocketAddress(m_dgPort));
+                }
+
+                m_receiver = new SyslogReceiverNioRingBufferImpl(
+                    channel,
+                    m_ForwardingRegexp,
+                    m_MatchingGroupHost,
+                    m_MatchingGroupMessage,
+                    m_UeiList,
+                    m_HideMessages,
+                    m_DiscardUei
+                );
+            } else if (USE_NIO) {
                 // NIO SyslogReceiver implementation
 
                 DatagramChannel channel = DatagramChannel.open();
@@ -40,7 +40,7 @@ public class SyslogNGParser extends SyslogParser {
     //                                                                <PRI>        IDENT               TIMESTAMP                                                                                 HOST   PROCESS/ID                            MESSAGE
     private static final Pattern m_syslogNGPattern = Pattern.compile("^<(\\d{1,3})>(?:(\\S*?)(?::? )?)((?:\\d\\d\\d\\d-\\d\\d-\\d\\d)|(?:\\S\\S\\S\\s+\\d{1,2}\\s+\\d\\d:\\d\\d:\\d\\d)) (\\S+) (?:(\\S+?)(?:\\[(\\d+)\\])?:\\s+){0,1}(\\S.*?)$", Pattern.MULTILINE);
 
-    protected SyslogNGParser(final String text) {
+    protected SyslogNGParser(final CharSequence text) {
         super(text);
     }
 
@@ -48,6 +48,10 @@ public class SyslogNGParser extends SyslogParser {
         return new SyslogNGParser(text);
     }
 
+    public static SyslogParser getParser(final CharSequence text) {
+        return new SyslogNGParser(text);
+    }
+
     @Override
     protected Pattern getPattern() {
         return m_syslogNGPattern;
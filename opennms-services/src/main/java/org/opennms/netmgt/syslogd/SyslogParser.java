@@ -45,12 +45,16 @@ public class SyslogParser {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogParser.class);
     private static Pattern m_pattern = Pattern.compile("^.*$");
     private Matcher m_matcher = null;
-    private final String m_text;
+    private final CharSequence m_text;
     private Boolean m_found = null;
     private Boolean m_matched = null;
     private boolean m_traceEnabled = false;
 
-    protected SyslogParser(final String text) {
+    /**
+     * @param text the message; any {@link CharSequence} that stays unchanged
+     *        until {@link #parse()} returns, such as a view over a receive buffer
+     */
+    protected SyslogParser(final CharSequence text) {
         m_text = text;
         m_traceEnabled = LOG.isTraceEnabled();
     }
@@ -76,7 +80,7 @@ public class SyslogParser {
     }
 
     protected String getText() {
-        return m_text;
+        return m_text.toString();
     }
 
     protected boolean traceEnabled() {
@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SyslogReceiver} that reads datagrams straight into pooled direct
+ * buffers and hands them to a fixed set of worker threads through a bounded
+ * {@link SyslogRingBuffer}. The workers parse each message in place and send
+ * the resulting event themselves, so nothing is allocated per packet apart
+ * from the event itself, and a burst can no longer grow an unbounded task
+ * queue until the resulting GC pauses overflow the socket's receive buffer.
+ *
+ * When the ring is full a socket reader waits for up to
+ * <code>org.opennms.netmgt.syslogd.ringBuffer.offerTimeout</code>
+ * milliseconds, leaving further datagrams queued in the kernel, before it
+ * drops the datagram it holds. Workers that find the ring empty block until
+ * a socket reader publishes a datagram and wakes one of them up, so an idle
+ * receiver uses no CPU. Received, dropped and truncated datagrams are
+ * counted and published through the Syslogd MBean.
+ *
+ * The ring and worker sizes can be tuned with the
+ * <code>org.opennms.netmgt.syslogd.ringBuffer.*</code> system properties.
+ */
+class SyslogReceiverNioRingBufferImpl implements SyslogReceiver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiverNioRingBufferImpl.class);
+
+    private static final int RING_SIZE = Integer.getInteger("org.opennms.netmgt.syslogd.ringBuffer.size", 2048);
+
+    private static final int MESSAGE_SIZE = Integer.getInteger("org.opennms.netmgt.syslogd.ringBuffer.maxMessageSize", 8192);
+
+    private static final int RECEIVERS = Integer.getInteger("org.opennms.netmgt.syslogd.ringBuffer.receivers", Runtime.getRuntime().availableProcessors());
+
+    private static final int WORKERS = Integer.getInteger("org.opennms.netmgt.syslogd.ringBuffer.workers", Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final long OFFER_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(Long.getLong("org.opennms.netmgt.syslogd.ringBuffer.offerTimeout", 50L));
+
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+
+    private static final long MAX_OFFER_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * How long an idle worker waits for a wake-up before it looks at the ring
+     * again on its own.
+     */
+    private static final long IDLE_WAIT = 1000L;
+
+    private static final AtomicLong m_received = new AtomicLong();
+
+    private static final AtomicLong m_dropped = new AtomicLong();
+
+    private static final AtomicLong m_truncated = new AtomicLong();
+
+    /**
+     * The Fiber's status.
+     */
+    private volatile boolean m_stop;
+
+    private final DatagramChannel m_channel;
+
+    private final SyslogRingBuffer m_ring;
+
+    private final String m_matchPattern;
+
+    private final int m_hostGroup;
+
+    private final int m_messageGroup;
+
+    private final String m_discardUei;
+
+    private final UeiList m_UeiList;
+
+    private final HideMessage m_HideMessages;
+
+    private final ExecutorService m_socketReceivers;
+
+    private final ExecutorService m_workers;
+
+    private final Lock m_idleLock = new ReentrantLock();
+
+    private final Condition m_notEmpty = m_idleLock.newCondition();
+
+    /**
+     * The number of workers waiting on {@link #m_notEmpty}, so that socket
+     * readers only take the lock when there is someone to wake up.
+     */
+    private final AtomicInteger m_idleWorkers = new AtomicInteger();
+
+    SyslogReceiverNioRingBufferImpl(DatagramChannel channel, String matchPattern, int hostGroup, int messageGroup,
+                   UeiList ueiList, HideMessage hideMessages, String discardUei) {
+        m_stop = false;
+        m_channel = channel;
+        m_matchPattern = matchPattern;
+        m_hostGroup = hostGroup;
+        m_messageGroup = messageGroup;
+        m_discardUei = discardUei;
+        m_UeiList = ueiList;
+        m_HideMessages = hideMessages;
+
+        m_ring = new SyslogRingBuffer(RING_SIZE, MESSAGE_SIZE);
+        m_socketReceivers = Executors.newFixedThreadPool(RECEIVERS, new LogPreservingThreadFactory(getClass().getSimpleName() + "-SocketReceiver", RECEIVERS));
+        m_workers = Executors.newFixedThreadPool(WORKERS, new LogPreservingThreadFactory(getClass().getSimpleName() + "-Worker", WORKERS));
+    }
+
+    /**
+     * @return the number of datagrams read from the socket
+     */
+    static long getMessagesReceived() {
+        return m_received.get();
+    }
+
+    /**
+     * @return the number of datagrams discarded because the ring stayed full
+     */
+    static long getMessagesDropped() {
+        return m_dropped.get();
+    }
+
+    /**
+     * @return the number of datagrams that filled the whole receive buffer
+     *         and so may have been cut short
+     */
+    static long getMessagesTruncated() {
+        return m_truncated.get();
+    }
+
+    /**
+     * stop the current receiver
+     * @throws InterruptedException
+     */
+    @Override
+    public void stop() throws InterruptedException {
+        m_stop = true;
+
+        m_idleLock.lock();
+        try {
+            m_notEmpty.signalAll();
+        } finally {
+            m_idleLock.unlock();
+        }
+
+        // Closing the channel wakes up any thread blocked in receive()
+        try {
+            m_channel.close();
+        } catch (IOException e) {
+            LOG.warn("An I/O error occured while closing the syslog channel", e);
+        }
+
+        m_socketReceivers.shutdown();
+        m_workers.shutdown();
+        m_socketReceivers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        m_workers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The execution context.
+     */
+    @Override
+    public void run() {
+        Logging.putPrefix(Syslogd.LOG4J_CATEGORY);
+
+        if (m_stop) {
+            LOG.debug("Stop flag set before thread started, exiting");
+            return;
+        } else
+            LOG.debug("Thread context started");
+
+        try {
+            LOG.debug("Attempting to set receive buffer size to {}", Integer.MAX_VALUE);
+            m_channel.socket().setReceiveBufferSize(Integer.MAX_VALUE);
+            LOG.debug("Actual receive buffer size is {}", m_channel.socket().getReceiveBufferSize());
+        } catch (SocketException e) {
+            LOG.info("Failed to set the receive buffer to {}", Integer.MAX_VALUE, e);
+        }
+
+        LOG.debug("Starting {} socket receivers and {} workers around a ring of {} {}-byte buffers", RECEIVERS, WORKERS, m_ring.capacity(), MESSAGE_SIZE);
+
+        for (int i = 0; i < WORKERS; i++) {
+            m_workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+        }
+        for (int i = 0; i < RECEIVERS; i++) {
+            m_socketReceivers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    receive();
+                }
+            });
+        }
+    }
+
+    private void receive() {
+        final SyslogRingBuffer.Datagram datagram = new SyslogRingBuffer.Datagram(MESSAGE_SIZE);
+
+        while (!m_stop) {
+            final ByteBuffer buffer = datagram.getBuffer();
+            try {
+                datagram.setSource((InetSocketAddress)m_channel.receive(buffer));
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
+                break;
+            }
+            m_received.incrementAndGet();
+            if (!buffer.hasRemaining()) {
+                // receive() silently discards whatever did not fit
+                m_truncated.incrementAndGet();
+            }
+            buffer.flip();
+
+            if (offer(datagram)) {
+                wakeWorker();
+            } else {
+                m_dropped.incrementAndGet();
+                buffer.clear();
+            }
+        }
+
+        LOG.debug("Socket receiver exiting");
+    }
+
+    /**
+     * Hands the datagram to the workers, waiting up to {@link #OFFER_TIMEOUT}
+     * for a slot to free up.
+     */
+    private boolean offer(final SyslogRingBuffer.Datagram datagram) {
+        if (m_ring.offer(datagram)) {
+            return true;
+        }
+        final long deadline = System.nanoTime() + OFFER_TIMEOUT;
+        long park = 1000L;
+        while (!m_stop && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(park);
+            if (m_ring.offer(datagram)) {
+                return true;
+            }
+            park = Math.min(park << 1, MAX_OFFER_PARK);
+        }
+        return false;
+    }
+
+    /**
+     * Wakes up one idle worker, if there is one, after a datagram has been
+     * published.
+     */
+    private void wakeWorker() {
+        if (m_idleWorkers.get() > 0) {
+            m_idleLock.lock();
+            try {
+                m_notEmpty.signal();
+            } finally {
+                m_idleLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Blocks an idle worker until a datagram is published or the receiver is
+     * stopped.
+     *
+     * @return false if the worker was interrupted
+     */
+    private boolean awaitDatagram() {
+        // Registering before looking at the ring means that a reader that
+        // publishes after the check below will see us and signal
+        m_idleWorkers.incrementAndGet();
+        m_idleLock.lock();
+        try {
+            if (!m_stop && m_ring.size() == 0) {
+                m_notEmpty.await(IDLE_WAIT, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            m_idleLock.unlock();
+            m_idleWorkers.decrementAndGet();
+        }
+    }
+
+    private void work() {
+        final SyslogRingBuffer.Datagram datagram = new SyslogRingBuffer.Datagram(MESSAGE_SIZE);
+        boolean yielded = false;
+
+        while (true) {
+            if (!m_ring.poll(datagram)) {
+                // drain whatever is left in the ring before exiting
+                if (m_stop) {
+                    break;
+                }
+                // give a reader that is about to publish a chance before blocking
+                if (!yielded) {
+                    Thread.yield();
+                    yielded = true;
+                } else if (awaitDatagram()) {
+                    yielded = false;
+                } else {
+                    break;
+                }
+                continue;
+            }
+            yielded = false;
+
+            final InetSocketAddress source = datagram.getSource();
+            try {
+                final ConvertToEvent re = ConvertToEvent.make(source.getAddress(), source.getPort(), datagram.getBuffer(), m_matchPattern, m_hostGroup, m_messageGroup, m_UeiList, m_HideMessages, m_discardUei);
+                LOG.debug("Sending received packet to processor");
+                new SyslogProcessor(re).call();
+            } catch (final MessageDiscardedException e) {
+                LOG.debug("Message discarded, returning without enqueueing event.", e);
+            } catch (final Throwable e) {
+                LOG.error("Unable to process syslog message from {}", source, e);
+            }
+        }
+
+        LOG.debug("Worker exiting");
+    }
+
+    /**
+     * <p>setLogPrefix</p>
+     *
+     * @param prefix a {@link java.lang.String} object.
+     */
+    @Override
+    public void setLogPrefix(String prefix) {
+    }
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer/multi-consumer ring of received
+ * datagrams, used to hand packets from the socket readers to the workers
+ * that turn them into events.
+ *
+ * Every slot owns a preallocated direct {@link ByteBuffer}. Producers and
+ * consumers each hold a {@link Datagram} of their own, and {@link #offer}
+ * and {@link #poll} swap buffers with the slot instead of copying bytes, so
+ * the steady state allocates nothing. A slot is reserved with a single CAS
+ * and published with a per-slot sequence number (the bounded queue design
+ * described by Dmitry Vyukov).
+ *
+ * @see SyslogReceiverNioRingBufferImpl
+ */
+final class SyslogRingBuffer {
+
+    /**
+     * A buffer plus the address of the agent its contents came from.
+     */
+    static final class Datagram {
+        private ByteBuffer m_buffer;
+        private InetSocketAddress m_source;
+
+        Datagram(final int bufferSize) {
+            m_buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        ByteBuffer getBuffer() {
+            return m_buffer;
+        }
+
+        InetSocketAddress getSource() {
+            return m_source;
+        }
+
+        void setSource(final InetSocketAddress source) {
+            m_source = source;
+        }
+
+        private void swap(final Datagram other) {
+            final ByteBuffer buffer = m_buffer;
+            m_buffer = other.m_buffer;
+            other.m_buffer = buffer;
+
+            final InetSocketAddress source = m_source;
+            m_source = other.m_source;
+            other.m_source = source;
+        }
+    }
+
+    private final Datagram[] m_slots;
+    private final AtomicLongArray m_sequences;
+    private final int m_mask;
+
+    private final AtomicLong m_head = new AtomicLong();
+    private final AtomicLong m_tail = new AtomicLong();
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param bufferSize the size of each slot's buffer, which should be
+     *        large enough for the largest datagram that is to be accepted
+     */
+    SyslogRingBuffer(final int capacity, final int bufferSize) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+
+        m_slots = new Datagram[size];
+        m_sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            m_slots[i] = new Datagram(bufferSize);
+            m_sequences.set(i, i);
+        }
+        m_mask = size - 1;
+    }
+
+    int capacity() {
+        return m_slots.length;
+    }
+
+    /**
+     * @return an estimate of the number of datagrams waiting to be polled
+     */
+    int size() {
+        final long size = m_tail.get() - m_head.get();
+        return (int)Math.max(0, Math.min(size, m_slots.length));
+    }
+
+    /**
+     * Publishes the contents of <code>datagram</code>. On success the
+     * datagram is left holding the (cleared) buffer of a free slot, ready
+     * for the next receive.
+     *
+     * @return false if the ring is full, in which case
+     *         <code>datagram</code> is untouched
+     */
+    boolean offer(final Datagram datagram) {
+        long pos;
+        int index;
+        while (true) {
+            pos = m_tail.get();
+            index = (int)pos & m_mask;
+            final long diff = m_sequences.get(index) - pos;
+            if (diff == 0) {
+                if (m_tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+
+        m_slots[index].swap(datagram);
+        datagram.getBuffer().clear();
+        datagram.setSource(null);
+        m_sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Takes the oldest published datagram. On success the contents of
+     * <code>datagram</code>'s previous buffer are discarded and the buffer
+     * goes back into the ring.
+     *
+     * @return false if the ring is empty, in which case
+     *         <code>datagram</code> is untouched
+     */
+    boolean poll(final Datagram datagram) {
+        long pos;
+        int index;
+        while (true) {
+            pos = m_head.get();
+            index = (int)pos & m_mask;
+            final long diff = m_sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (m_head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+
+        datagram.getBuffer().clear();
+        datagram.setSource(null);
+        m_slots[index].swap(datagram);
+        m_sequences.lazySet(index, pos + m_slots.length);
+        return true;
+    }
+}
@@ -0,0 +1,484 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ueiList</code> and <code>hideMessage</code> sections of the
+ * syslogd configuration, compiled once when the configuration is loaded.
+ *
+ * <p>All regular expressions are compiled up front.  The expressions of the
+ * substring rules, together with the longest literal that each regex rule
+ * requires, are searched for in a single Aho-Corasick pass over the message,
+ * so only the regex rules whose literal actually occurs in the message are
+ * ever evaluated.  Rules are still considered in configuration order and the
+ * first one that matches wins.</p>
+ *
+ * @see ConvertToEvent
+ */
+final class SyslogUeiMatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogUeiMatcher.class);
+
+    private static final String TYPE_SUBSTR = "substr";
+    private static final String TYPE_REGEX = "regex";
+
+    private static volatile SyslogUeiMatcher s_instance;
+
+    private final UeiList m_ueiList;
+    private final HideMessage m_hideMessage;
+    private final Rule[] m_rules;
+    private final AhoCorasickMatcher m_literals;
+    private final HideRule[] m_hideRules;
+    private final AtomicLongArray m_hits;
+
+    /**
+     * Returns the compiled form of the given configuration.  The compiled
+     * rules are cached and only rebuilt when a different configuration is
+     * passed in.
+     */
+    static SyslogUeiMatcher getInstance(final UeiList ueiList, final HideMessage hideMessage) {
+        final SyslogUeiMatcher instance = s_instance;
+        if (instance != null && instance.m_ueiList == ueiList && instance.m_hideMessage == hideMessage) {
+            return instance;
+        }
+        final SyslogUeiMatcher compiled = new SyslogUeiMatcher(ueiList, hideMessage);
+        s_instance = compiled;
+        return compiled;
+    }
+
+    static void invalidate() {
+        s_instance = null;
+    }
+
+    /**
+     * @return the number of messages matched by each rule of the current
+     *         configuration, in configuration order
+     */
+    static Map<String, Long> getCurrentHitCounts() {
+        final SyslogUeiMatcher instance = s_instance;
+        return instance == null ? Collections.<String, Long>emptyMap() : instance.getHitCounts();
+    }
+
+    SyslogUeiMatcher(final UeiList ueiList, final HideMessage hideMessage) {
+        m_ueiList = ueiList;
+        m_hideMessage = hideMessage;
+
+        final List<UeiMatch> ueiMatches = ueiList == null ? Collections.<UeiMatch>emptyList() : ueiList.getUeiMatchCollection();
+        final List<String> literals = new ArrayList<String>();
+        final Map<String, Integer> literalIndexes = new HashMap<String, Integer>();
+
+        m_rules = new Rule[ueiMatches.size()];
+        for (int i = 0; i < m_rules.length; i++) {
+            final UeiMatch ueiMatch = ueiMatches.get(i);
+            final String type = ueiMatch.getMatch().getType();
+            final String expression = ueiMatch.getMatch().getExpression();
+
+            final String literal;
+            Pattern pattern = null;
+            if (TYPE_SUBSTR.equals(type)) {
+                literal = expression;
+            } else if (type.startsWith(TYPE_REGEX)) {
+                pattern = compile(expression);
+                literal = pattern == null ? null : requiredLiteral(expression);
+            } else {
+                literal = null;
+            }
+
+            int literalIndex = -1;
+            if (literal != null && literal.length() > 0) {
+                Integer index = literalIndexes.get(literal);
+                if (index == null) {
+                    index = literals.size();
+                    literals.add(literal);
+                    literalIndexes.put(literal, index);
+                }
+                literalIndex = index;
+            }
+            m_rules[i] = new Rule(ueiMatch, type, pattern, literalIndex);
+        }
+        m_literals = new AhoCorasickMatcher(literals);
+        m_hits = new AtomicLongArray(m_rules.length);
+
+        final List<HideMatch> hideMatches = hideMessage == null ? Collections.<HideMatch>emptyList() : hideMessage.getHideMatchCollection();
+        m_hideRules = new HideRule[hideMatches.size()];
+        for (int i = 0; i < m_hideRules.length; i++) {
+            final HideMatch hideMatch = hideMatches.get(i);
+            final String type = hideMatch.getMatch().getType();
+            final String expression = hideMatch.getMatch().getExpression();
+            m_hideRules[i] = new HideRule(type, expression, TYPE_REGEX.equals(type) ? compile(expression) : null);
+        }
+
+        LOG.debug("Compiled {} ueiMatch rules ({} prefilter literals) and {} hideMatch rules", m_rules.length, literals.size(), m_hideRules.length);
+    }
+
+    /**
+     * Finds the first <code>ueiMatch</code> rule that matches the message.
+     *
+     * @return the match, or null if no rule matched
+     */
+    Match match(final SyslogMessage message, final String facilityTxt, final String priorityTxt) {
+        if (m_rules.length == 0) {
+            return null;
+        }
+
+        final String matchedText = message.getMatchedMessage();
+        final String regexText = matchedText != null ? matchedText : message.getFullText();
+        final BitSet substrHits = matchedText == null ? new BitSet() : m_literals.findAll(matchedText);
+        final BitSet regexHits = regexText == matchedText ? substrHits : m_literals.findAll(regexText);
+
+        for (int i = 0; i < m_rules.length; i++) {
+            final Rule rule = m_rules[i];
+            if (rule.m_substr) {
+                if (matchedText == null || (rule.m_literal >= 0 && !substrHits.get(rule.m_literal))) {
+                    continue;
+                }
+                if (rule.matchesOtherCriteria(message, facilityTxt, priorityTxt)) {
+                    m_hits.incrementAndGet(i);
+                    return new Match(rule.m_ueiMatch, null);
+                }
+            } else if (rule.m_pattern != null) {
+                if (regexText == null || (rule.m_literal >= 0 && !regexHits.get(rule.m_literal))) {
+                    continue;
+                }
+                if (rule.matchesOtherCriteria(message, facilityTxt, priorityTxt)) {
+                    final Matcher matcher = rule.m_pattern.matcher(regexText);
+                    if (matcher.find()) {
+                        m_hits.incrementAndGet(i);
+                        return new Match(rule.m_ueiMatch, matcher);
+                    }
+                    LOG.trace("Message '{}' did not regex-match pattern '{}'", message.getMessage(), rule.m_pattern);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if any <code>hideMatch</code> rule matches the text
+     */
+    boolean shouldHide(final String fullText) {
+        for (final HideRule rule : m_hideRules) {
+            if (rule.matches(fullText)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Map<String, Long> getHitCounts() {
+        final Map<String, Long> hitCounts = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < m_rules.length; i++) {
+            final UeiMatch ueiMatch = m_rules[i].m_ueiMatch;
+            hitCounts.put(String.format("%d: %s %s '%s'", i + 1, ueiMatch.getUei(), m_rules[i].m_type, ueiMatch.getMatch().getExpression()), m_hits.get(i));
+        }
+        return hitCounts;
+    }
+
+    private static Pattern compile(final String expression) {
+        try {
+            return Pattern.compile(expression, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException pse) {
+            LOG.warn("Failed to compile regex pattern '{}'", expression, pse);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the longest run of literal characters that any text matched by
+     * the given expression must contain, or null if none can be determined.
+     * Only the top level of the expression is considered; groups, character
+     * classes and anything optional end the current run, and alternations or
+     * embedded flags disable the prefilter entirely.
+     */
+    static String requiredLiteral(final String regex) {
+        String longest = "";
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            switch (c) {
+            case '\\':
+                if (i + 1 >= regex.length()) return null;
+                final char escaped = regex.charAt(++i);
+                if (Character.isLetterOrDigit(escaped)) {
+                    // character class, back reference, anchor, quoting or
+                    // a character given by its code
+                    if (escaped == 'Q') return null;
+                    i = endOfEscape(regex, i);
+                    if (i < 0) return null;
+                    longest = longer(longest, run);
+                    run.setLength(0);
+                } else if (depth == 0) {
+                    run.append(escaped);
+                }
+                break;
+            case '[':
+                longest = longer(longest, run);
+                run.setLength(0);
+                i = endOfCharacterClass(regex, i);
+                if (i < 0) return null;
+                break;
+            case '(':
+                if (i + 2 < regex.length() && regex.charAt(i + 1) == '?') {
+                    final char flag = regex.charAt(i + 2);
+                    if (Character.isLetter(flag) || flag == '-') return null;
+                }
+                longest = longer(longest, run);
+                run.setLength(0);
+                depth++;
+                break;
+            case ')':
+                depth--;
+                break;
+            case '|':
+                if (depth == 0) return null;
+                break;
+            case '*':
+            case '?':
+            case '{':
+                if (depth == 0 && run.length() > 0) {
+                    // the preceding character is optional
+                    run.setLength(run.length() - 1);
+                }
+                longest = longer(longest, run);
+                run.setLength(0);
+                if (c == '{') {
+                    i = regex.indexOf('}', i);
+                    if (i < 0) return null;
+                }
+                break;
+            case '+':
+                longest = longer(longest, run);
+                run.setLength(0);
+                break;
+            case '.':
+            case '^':
+            case '$':
+                longest = longer(longest, run);
+                run.setLength(0);
+                break;
+            default:
+                if (depth == 0) {
+                    run.append(c);
+                }
+            }
+        }
+        if (depth != 0) return null;
+        longest = longer(longest, run);
+        return longest.length() == 0 ? null : longest;
+    }
+
+    private static String longer(final String longest, final StringBuilder run) {
+        return run.length() > longest.length() ? run.toString() : longest;
+    }
+
+    /**
+     * Returns the index of the last character of the escape sequence whose
+     * letter or digit is at the given index, or -1 if it is cut short.
+     */
+    private static int endOfEscape(final String regex, final int start) {
+        int i = start;
+        switch (regex.charAt(start)) {
+        case 'x':
+            if (i + 1 < regex.length() && regex.charAt(i + 1) == '{') {
+                return regex.indexOf('}', i);
+            }
+            i += 2;
+            break;
+        case 'u':
+            i += 4;
+            break;
+        case '0':
+            // up to three octal digits
+            while (i < start + 3 && i + 1 < regex.length() && regex.charAt(i + 1) >= '0' && regex.charAt(i + 1) <= '7') {
+                i++;
+            }
+            break;
+        case 'c':
+            i++;
+            break;
+        case 'k':
+            return regex.indexOf('>', i);
+        case 'p':
+        case 'P':
+        case 'N':
+            if (i + 1 < regex.length() && regex.charAt(i + 1) == '{') {
+                return regex.indexOf('}', i);
+            }
+            i++;
+            break;
+        default:
+            // a back reference takes as many digits as follow it
+            if (Character.isDigit(regex.charAt(start))) {
+                while (i + 1 < regex.length() && Character.isDigit(regex.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+        return i < regex.length() ? i : -1;
+    }
+
+    private static int endOfCharacterClass(final String regex, final int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') i++;
+        // a closing bracket first in the class is literal
+        if (i < regex.length() && regex.charAt(i) == ']') i++;
+        int depth = 1;
+        for (; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The rule that matched a message, and for regex rules the matcher that
+     * holds the captured groups.
+     */
+    static final class Match {
+        private final UeiMatch m_ueiMatch;
+        private final Matcher m_matcher;
+
+        private Match(final UeiMatch ueiMatch, final Matcher matcher) {
+            m_ueiMatch = ueiMatch;
+            m_matcher = matcher;
+        }
+
+        UeiMatch getUeiMatch() {
+            return m_ueiMatch;
+        }
+
+        /**
+         * @return the regex matcher, or null if a substring rule matched
+         */
+        Matcher getMatcher() {
+            return m_matcher;
+        }
+    }
+
+    private static final class Rule {
+        private final UeiMatch m_ueiMatch;
+        private final String m_type;
+        private final boolean m_substr;
+        private final Pattern m_pattern;
+        private final int m_literal;
+        private final String[] m_facilities;
+        private final String[] m_severities;
+        private final Pattern m_processPattern;
+        private final Pattern m_hostnamePattern;
+        private final Pattern m_hostaddrPattern;
+        private final boolean m_processConfigured;
+        private final boolean m_hostnameConfigured;
+        private final boolean m_hostaddrConfigured;
+
+        private Rule(final UeiMatch ueiMatch, final String type, final Pattern pattern, final int literal) {
+            m_ueiMatch = ueiMatch;
+            m_type = type;
+            m_substr = TYPE_SUBSTR.equals(type);
+            m_pattern = pattern;
+            m_literal = literal;
+            m_facilities = ueiMatch.getFacilityCollection().toArray(new String[0]);
+            m_severities = ueiMatch.getSeverityCollection().toArray(new String[0]);
+            m_processConfigured = ueiMatch.getProcessMatch() != null;
+            m_processPattern = m_processConfigured ? compile(ueiMatch.getProcessMatch().getExpression()) : null;
+            m_hostnameConfigured = ueiMatch.getHostnameMatch() != null;
+            m_hostnamePattern = m_hostnameConfigured ? compile(ueiMatch.getHostnameMatch().getExpression()) : null;
+            m_hostaddrConfigured = ueiMatch.getHostaddrMatch() != null;
+            m_hostaddrPattern = m_hostaddrConfigured ? compile(ueiMatch.getHostaddrMatch().getExpression()) : null;
+        }
+
+        private boolean matchesOtherCriteria(final SyslogMessage message, final String facilityTxt, final String priorityTxt) {
+            return matchAny(m_facilities, facilityTxt)
+                    && matchAny(m_severities, priorityTxt)
+                    && matchFind(m_processConfigured, m_processPattern, message.getProcessName())
+                    && matchFind(m_hostnameConfigured, m_hostnamePattern, message.getHostName())
+                    && matchFind(m_hostaddrConfigured, m_hostaddrPattern, message.getHostAddress());
+        }
+
+        private static boolean matchAny(final String[] values, final String text) {
+            if (values.length == 0) return true;
+            for (final String value : values) {
+                if (value.equalsIgnoreCase(text)) return true;
+            }
+            return false;
+        }
+
+        private static boolean matchFind(final boolean configured, final Pattern pattern, final String text) {
+            if (!configured) return true;
+            if (text == null || pattern == null) return false;
+            return pattern.matcher(text).find();
+        }
+    }
+
+    private static final class HideRule {
+        private final String m_type;
+        private final String m_expression;
+        private final Pattern m_pattern;
+
+        private HideRule(final String type, final String expression, final Pattern pattern) {
+            m_type = type;
+            m_expression = expression;
+            m_pattern = pattern;
+        }
+
+        private boolean matches(final String fullText) {
+            if (TYPE_SUBSTR.equals(m_type)) {
+                return fullText.contains(m_expression);
+            } else if (m_pattern != null) {
+                return m_pattern.matcher(fullText).find();
+            }
+            return false;
+        }
+    }
+}
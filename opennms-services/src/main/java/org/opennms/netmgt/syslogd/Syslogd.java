@@ -31,6 +31,7 @@ package org.opennms.netmgt.syslogd;
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.sql.SQLException;
+import java.util.Map;
 
 import org.exolab.castor.xml.MarshalException;
 import org.exolab.castor.xml.ValidationException;
@@ -179,6 +180,42 @@ import org.slf4j.LoggerFactory;
         return m_singleton;
     }
 
+    /**
+     * <p>getUeiMatchHitCounts</p>
+     *
+     * @return the number of messages matched by each ueiMatch rule, in configuration order
+     */
+    public Map<String, Long> getUeiMatchHitCounts() {
+        return SyslogUeiMatcher.getCurrentHitCounts();
+    }
+
+    /**
+     * <p>getMessagesReceived</p>
+     *
+     * @return the number of datagrams read by the ring buffer receiver
+     */
+    public long getMessagesReceived() {
+        return SyslogReceiverNioRingBufferImpl.getMessagesReceived();
+    }
+
+    /**
+     * <p>getMessagesDropped</p>
+     *
+     * @return the number of datagrams dropped because the workers fell behind
+     */
+    public long getMessagesDropped() {
+        return SyslogReceiverNioRingBufferImpl.getMessagesDropped();
+    }
+
+    /**
+     * <p>getMessagesTruncated</p>
+     *
+     * @return the number of datagrams that may have been truncated on receipt
+     */
+    public long getMessagesTruncated() {
+        return SyslogReceiverNioRingBufferImpl.getMessagesTruncated();
+    }
+
     /*
     * @return EventDao
      */
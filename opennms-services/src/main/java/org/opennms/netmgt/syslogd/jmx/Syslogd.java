@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.syslogd.jmx;
 
+import java.util.Map;
+
 /**
  * <p>Syslogd class.</p>
  *
@@ -88,4 +90,28 @@ public class Syslogd implements SyslogdMBean {
     public String getStatusText() {
         return org.opennms.core.fiber.Fiber.STATUS_NAMES[getStatus()];
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Long> getUeiMatchHitCounts() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getUeiMatchHitCounts();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getMessagesReceived() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getMessagesReceived();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getMessagesDropped() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getMessagesDropped();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getMessagesTruncated() {
+        return org.opennms.netmgt.syslogd.Syslogd.getInstance().getMessagesTruncated();
+    }
 }
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.syslogd.jmx;
 
+import java.util.Map;
+
 import org.opennms.netmgt.daemon.BaseOnmsMBean;
 
 /**
@@ -37,4 +39,26 @@ import org.opennms.netmgt.daemon.BaseOnmsMBean;
  * @version $Id: $
  */
 public interface SyslogdMBean extends BaseOnmsMBean {
+    /**
+     * @return The number of messages matched by each ueiMatch rule since the
+     *         configuration was last loaded, keyed by rule position, UEI and expression
+     */
+    public Map<String, Long> getUeiMatchHitCounts();
+
+    /**
+     * @return The number of datagrams read by the ring buffer receiver
+     */
+    public long getMessagesReceived();
+
+    /**
+     * @return The number of datagrams the ring buffer receiver dropped
+     *         because its workers could not keep up
+     */
+    public long getMessagesDropped();
+
+    /**
+     * @return The number of datagrams that filled the whole receive buffer
+     *         and may have been truncated
+     */
+    public long getMessagesTruncated();
 }
@@ -34,7 +34,6 @@ import java.io.File;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.netmgt.collectd.AliasedResource;
 import org.opennms.netmgt.collectd.IfInfo;
@@ -108,7 +107,7 @@ public class CollectionResourceWrapper {
     /*
      * Holds last values for counter attributes (in order to calculate delta)
      */
-    static final ConcurrentHashMap<String, CacheEntry> s_cache = new ConcurrentHashMap<String,CacheEntry>();
+    static final CounterStateStore s_cache = CounterStateStore.getInstance();
     
     /*
      * To avoid update static cache on every call of getAttributeValue.
@@ -417,7 +416,8 @@ public class CollectionResourceWrapper {
         if (m_localCache.containsKey(id) == false) {
             // Atomically replace the CacheEntry with the new value
             // If the sysUpTime was changed, the "last" value must be null (to force update the cache).
-            CacheEntry last = m_counterReset ? null : s_cache.put(id, new CacheEntry(m_collectionTimestamp, current));
+            final long timeToLive = s_cache.getTimeToLive(m_repository == null ? 0 : m_repository.getStep());
+            CacheEntry last = m_counterReset ? null : s_cache.put(id, m_collectionTimestamp, current, timeToLive);
             LOG.debug("getCounterValue: id={}, last={}, current={}", id, (last==null ? last : last.m_value +"@"+ last.m_timestamp), current);
             if (last == null) {
                 m_localCache.put(id, Double.NaN);
@@ -450,7 +450,7 @@ public class CollectionResourceWrapper {
                     LOG.info("getCounterValue: invalid zero-length rate interval for {}, returning rate of zero", id);
                     m_localCache.put(id, 0.0);
                     // Restore the original value inside the static cache
-                    s_cache.put(id, last);
+                    s_cache.put(id, last.getTimestamp(), last.getValue(), timeToLive);
                 }
             }
         }
@@ -0,0 +1,458 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.opennms.core.utils.ConfigFileConstants;
+import org.opennms.netmgt.threshd.CollectionResourceWrapper.CacheEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the last collected value of every counter attribute that is used in a
+ * threshold, so that {@link CollectionResourceWrapper} can calculate rates.
+ *
+ * <p>The values are kept in open-addressed tables of primitive arrays split
+ * into independently locked segments, so an entry costs its id plus three
+ * array slots instead of a map entry, a {@link CacheEntry}, a {@link Date} and
+ * a {@link Double}. Every entry expires when it has not been updated for a
+ * number of collection intervals (see {@link #TTL_INTERVALS_PROPERTY}), which
+ * removes the counters of resources that are no longer collected.</p>
+ *
+ * <p>The store can be written to disk when collectd stops and read back when
+ * it starts, so that rates can be calculated on the first collection after a
+ * restart.</p>
+ */
+public class CounterStateStore {
+    private static final Logger LOG = LoggerFactory.getLogger(CounterStateStore.class);
+
+    /**
+     * Number of collection intervals after which a counter that has not been
+     * updated is discarded.
+     */
+    public static final String TTL_INTERVALS_PROPERTY = "org.opennms.netmgt.threshd.counterStateTtlIntervals";
+
+    /**
+     * File used to keep the counters across restarts. Set it to an empty
+     * value to disable the snapshot.
+     */
+    public static final String SNAPSHOT_FILE_PROPERTY = "org.opennms.netmgt.threshd.counterStateFile";
+
+    private static final int DEFAULT_TTL_INTERVALS = 10;
+
+    /**
+     * Collection step assumed when the repository of a resource is unknown.
+     */
+    private static final long DEFAULT_STEP = 300;
+
+    private static final long SWEEP_INTERVAL = 60000;
+
+    private static final int SEGMENTS = 16;
+
+    private static final int SNAPSHOT_MAGIC = 0x6f6e6373;
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final CounterStateStore s_instance = new CounterStateStore();
+
+    private final Segment[] m_segments = new Segment[SEGMENTS];
+
+    private final int m_ttlIntervals;
+
+    /**
+     * <p>getInstance</p>
+     *
+     * @return the store shared by all thresholding sets
+     */
+    public static CounterStateStore getInstance() {
+        return s_instance;
+    }
+
+    public CounterStateStore() {
+        this(Integer.getInteger(TTL_INTERVALS_PROPERTY, DEFAULT_TTL_INTERVALS));
+    }
+
+    public CounterStateStore(final int ttlIntervals) {
+        m_ttlIntervals = Math.max(1, ttlIntervals);
+        for (int i = 0; i < SEGMENTS; i++) {
+            m_segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Returns how long a counter collected every <code>step</code> seconds is
+     * kept after its last update.
+     *
+     * @param step the collection step in seconds, or 0 if unknown
+     * @return the time to live in milliseconds
+     */
+    public long getTimeToLive(final long step) {
+        return (step > 0 ? step : DEFAULT_STEP) * 1000L * m_ttlIntervals;
+    }
+
+    private static int hash(final String id) {
+        final int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(final int hash) {
+        return m_segments[(hash >>> 28) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * <p>get</p>
+     *
+     * @param id the counter id
+     * @return the last value of the counter, or null if it is not known
+     */
+    public CacheEntry get(final String id) {
+        final int hash = hash(id);
+        return segmentFor(hash).get(id, hash, System.currentTimeMillis());
+    }
+
+    public boolean containsKey(final String id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Records the value of a counter.
+     *
+     * @param id the counter id
+     * @param timestamp when the value was collected
+     * @param value the collected value
+     * @param timeToLive how long to keep the value if it is not updated, in milliseconds
+     * @return the previous value of the counter, or null if it was not known
+     */
+    public CacheEntry put(final String id, final Date timestamp, final double value, final long timeToLive) {
+        final int hash = hash(id);
+        final long now = System.currentTimeMillis();
+        return segmentFor(hash).put(id, hash, timestamp.getTime(), value, now + timeToLive, now);
+    }
+
+    public void remove(final String id) {
+        final int hash = hash(id);
+        segmentFor(hash).remove(id, hash);
+    }
+
+    public void clear() {
+        for (final Segment segment : m_segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of counters held, including ones that have expired
+     *         but have not been swept yet
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment segment : m_segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Discards every counter that has expired.
+     *
+     * @return the number of counters discarded
+     */
+    public int expire() {
+        final long now = System.currentTimeMillis();
+        int removed = 0;
+        for (final Segment segment : m_segments) {
+            removed += segment.sweep(now);
+        }
+        return removed;
+    }
+
+    /**
+     * Writes the counters that have not expired to <code>file</code>.
+     *
+     * @param file the snapshot file
+     * @return the number of counters written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public int save(final File file) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            for (final Segment segment : m_segments) {
+                count += segment.write(out, now);
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return count;
+    }
+
+    /**
+     * Adds the counters in <code>file</code> that have not expired yet. Values
+     * already in the store are replaced.
+     *
+     * @param file the snapshot file
+     * @return the number of counters read
+     * @throws IOException if the snapshot cannot be read
+     */
+    public int load(final File file) throws IOException {
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unrecognized counter state snapshot " + file);
+            }
+            while (in.readBoolean()) {
+                final String id = in.readUTF();
+                final long timestamp = in.readLong();
+                final double value = in.readDouble();
+                final long expires = in.readLong();
+                if (expires > now) {
+                    final int hash = hash(id);
+                    segmentFor(hash).put(id, hash, timestamp, value, expires, now);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static File getSnapshotFile() {
+        final String path = System.getProperty(SNAPSHOT_FILE_PROPERTY, ConfigFileConstants.getHome() + File.separator + "share" + File.separator + "threshd-counters.dat");
+        return path.trim().length() == 0 ? null : new File(path);
+    }
+
+    /**
+     * Loads the snapshot of the shared store, if there is one.
+     */
+    public static void loadSnapshot() {
+        final File file = getSnapshotFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            LOG.info("loadSnapshot: loaded {} threshold counters from {}", getInstance().load(file), file);
+        } catch (final IOException e) {
+            LOG.warn("loadSnapshot: unable to load threshold counters from {}", file, e);
+        } finally {
+            if (!file.delete()) {
+                LOG.debug("loadSnapshot: unable to delete {}", file);
+            }
+        }
+    }
+
+    /**
+     * Writes the shared store to its snapshot file, unless disabled.
+     */
+    public static void saveSnapshot() {
+        final File file = getSnapshotFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            LOG.info("saveSnapshot: saved {} threshold counters to {}", getInstance().save(file), file);
+        } catch (final IOException e) {
+            LOG.warn("saveSnapshot: unable to save threshold counters to {}", file, e);
+        }
+    }
+
+    /**
+     * A linear-probing hash table over parallel arrays. Expired entries are
+     * ignored on lookup and removed by a sweep at most once every
+     * {@link CounterStateStore#SWEEP_INTERVAL} milliseconds.
+     */
+    private static class Segment {
+        private String[] m_ids = new String[16];
+        private long[] m_timestamps = new long[16];
+        private double[] m_values = new double[16];
+        private long[] m_expires = new long[16];
+        private int m_size = 0;
+        private long m_lastSweep = System.currentTimeMillis();
+
+        private int indexOf(final String id, final int hash) {
+            final int mask = m_ids.length - 1;
+            int i = hash & mask;
+            while (m_ids[i] != null) {
+                if (m_ids[i].equals(id)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1 - i;
+        }
+
+        public synchronized CacheEntry get(final String id, final int hash, final long now) {
+            final int i = indexOf(id, hash);
+            if (i < 0 || m_expires[i] <= now) {
+                return null;
+            }
+            return new CacheEntry(new Date(m_timestamps[i]), m_values[i]);
+        }
+
+        public synchronized CacheEntry put(final String id, final int hash, final long timestamp, final double value, final long expires, final long now) {
+            if (now - m_lastSweep >= SWEEP_INTERVAL) {
+                sweep(now);
+            }
+            int i = indexOf(id, hash);
+            CacheEntry last = null;
+            if (i >= 0) {
+                if (m_expires[i] > now) {
+                    last = new CacheEntry(new Date(m_timestamps[i]), m_values[i]);
+                }
+            } else {
+                if ((m_size + 1) * 4 > m_ids.length * 3) {
+                    resize(m_ids.length * 2, now);
+                    i = indexOf(id, hash);
+                }
+                i = -1 - i;
+                m_ids[i] = id;
+                m_size++;
+            }
+            m_timestamps[i] = timestamp;
+            m_values[i] = value;
+            m_expires[i] = expires;
+            return last;
+        }
+
+        public synchronized void remove(final String id, final int hash) {
+            final int i = indexOf(id, hash);
+            if (i >= 0) {
+                delete(i);
+            }
+        }
+
+        /**
+         * Removes the entry at <code>index</code> and moves later entries of
+         * the same probe sequence back so that lookups still find them.
+         */
+        private void delete(int index) {
+            final int mask = m_ids.length - 1;
+            m_ids[index] = null;
+            m_size--;
+            int i = (index + 1) & mask;
+            while (m_ids[i] != null) {
+                final int home = hash(m_ids[i]) & mask;
+                // move the entry if its home slot is not between the hole and its current slot
+                if (((i - home) & mask) >= ((i - index) & mask)) {
+                    m_ids[index] = m_ids[i];
+                    m_timestamps[index] = m_timestamps[i];
+                    m_values[index] = m_values[i];
+                    m_expires[index] = m_expires[i];
+                    m_ids[i] = null;
+                    index = i;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        private void resize(final int capacity, final long now) {
+            final String[] ids = m_ids;
+            final long[] timestamps = m_timestamps;
+            final double[] values = m_values;
+            final long[] expires = m_expires;
+            m_ids = new String[capacity];
+            m_timestamps = new long[capacity];
+            m_values = new double[capacity];
+            m_expires = new long[capacity];
+            m_size = 0;
+            for (int j = 0; j < ids.length; j++) {
+                if (ids[j] != null && expires[j] > now) {
+                    final int i = -1 - indexOf(ids[j], hash(ids[j]));
+                    m_ids[i] = ids[j];
+                    m_timestamps[i] = timestamps[j];
+                    m_values[i] = values[j];
+                    m_expires[i] = expires[j];
+                    m_size++;
+                }
+            }
+        }
+
+        public synchronized int sweep(final long now) {
+            m_lastSweep = now;
+            final int before = m_size;
+            int expired = 0;
+            for (int i = 0; i < m_ids.length; i++) {
+                if (m_ids[i] != null && m_expires[i] <= now) {
+                    expired++;
+                }
+            }
+            if (expired == 0) {
+                return 0;
+            }
+            int capacity = m_ids.length;
+            // shrink the table once most of it has expired
+            while (capacity > 16 && (before - expired) * 4 < capacity) {
+                capacity /= 2;
+            }
+            resize(capacity, now);
+            return before - m_size;
+        }
+
+        public synchronized void clear() {
+            Arrays.fill(m_ids, null);
+            m_size = 0;
+        }
+
+        public synchronized int size() {
+            return m_size;
+        }
+
+        public synchronized int write(final DataOutputStream out, final long now) throws IOException {
+            int count = 0;
+            for (int i = 0; i < m_ids.length; i++) {
+                if (m_ids[i] != null && m_expires[i] > now) {
+                    out.writeBoolean(true);
+                    out.writeUTF(m_ids[i]);
+                    out.writeLong(m_timestamps[i]);
+                    out.writeDouble(m_values[i]);
+                    out.writeLong(m_expires[i]);
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
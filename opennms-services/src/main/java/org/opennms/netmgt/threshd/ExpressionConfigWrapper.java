@@ -30,13 +30,14 @@ package org.opennms.netmgt.threshd;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,16 +51,37 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * Number of parsed expressions kept by the shared engine. Thresholding sets
+     * are rebuilt on every configuration reload and for every collected
+     * resource, so the same expression text is seen many times over.
+     */
+    private static final int EXPRESSION_CACHE_SIZE = Integer.getInteger("org.opennms.netmgt.threshd.expressionCacheSize", 1024);
+
+    /**
+     * The engine is thread-safe and keeps an LRU cache of parsed expressions
+     * keyed by their text, so it is shared by every wrapper.
+     */
+    private static final JexlEngine EXPRESSION_ENGINE = new JexlEngine();
+
+    private static final MathBinding MATH_BINDING = new MathBinding();
+
+    static {
+        EXPRESSION_ENGINE.setCache(EXPRESSION_CACHE_SIZE);
+    }
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+    private final org.apache.commons.jexl2.Expression m_compiledExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<String>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
+            ExpressionImpl e = (ExpressionImpl) EXPRESSION_ENGINE.createExpression(m_expression.getExpression());
+            m_compiledExpression = e;
             LOG.trace("List of Variables on the Expression: {}", e.getVariables());
             for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
@@ -140,17 +162,52 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         public float ulp(float a) { return Math.ulp(a); }
     }
 
+    /**
+     * Script context that reads the variable values straight from the map
+     * handed to {@link ExpressionConfigWrapper#evaluate(Map)} instead of
+     * copying them. Variables assigned by the expression itself go to a
+     * separate map that is only created when needed.
+     */
+    private static class ExpressionContext implements JexlContext {
+        private final Map<String, Double> m_values;
+        private Map<String, Object> m_assigned;
+
+        public ExpressionContext(Map<String, Double> values) {
+            m_values = values;
+        }
+
+        @Override
+        public Object get(String name) {
+            if (m_assigned != null && m_assigned.containsKey(name)) {
+                return m_assigned.get(name);
+            } else if ("math".equals(name)) {
+                return MATH_BINDING;
+            } else if ("datasources".equals(name)) {
+                // To workaround NMS-5019
+                return Collections.unmodifiableMap(m_values);
+            }
+            return m_values.get(name);
+        }
+
+        @Override
+        public void set(String name, Object value) {
+            if (m_assigned == null) {
+                m_assigned = new HashMap<String, Object>();
+            }
+            m_assigned.put(name, value);
+        }
+
+        @Override
+        public boolean has(String name) {
+            return (m_assigned != null && m_assigned.containsKey(name)) || "math".equals(name) || "datasources".equals(name) || m_values.containsKey(name);
+        }
+    }
+
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            Object resultObject = m_compiledExpression.evaluate(new ExpressionContext(values));
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
@@ -39,6 +39,8 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -88,6 +90,14 @@ public class AutomationProcessor implements ReadyRunnable {
     private volatile Schedule m_schedule;
     private volatile boolean m_ready = false;
 
+    private final AtomicLong m_runs = new AtomicLong();
+    private final AtomicLong m_triggerRows = new AtomicLong();
+    private final AtomicLong m_rowsUpdated = new AtomicLong();
+    private final AtomicLong m_totalTime = new AtomicLong();
+    private volatile int m_lastTriggerRows = 0;
+    private volatile int m_lastRowsUpdated = 0;
+    private volatile long m_lastTime = 0;
+
     static class TriggerProcessor {
     	private static final Logger LOG = LoggerFactory.getLogger(TriggerProcessor.class);
 
@@ -198,11 +208,17 @@ public class AutomationProcessor implements ReadyRunnable {
     	private final TriggerProcessor m_trigger;
     	private final ResultSet m_resultSet;
     	private final boolean m_successful;
+    	private final int m_rowCount;
     	
 		public TriggerResults(TriggerProcessor trigger, ResultSet set, boolean successful) {
+			this(trigger, set, successful, 0);
+		}
+
+		public TriggerResults(TriggerProcessor trigger, ResultSet set, boolean successful, int rowCount) {
 			m_trigger = trigger;
 			m_resultSet = set;
 			m_successful = successful;
+			m_rowCount = rowCount;
 		}
 		
 		public boolean hasTrigger() {
@@ -216,6 +232,10 @@ public class AutomationProcessor implements ReadyRunnable {
         public boolean isSuccessful() {
             return m_successful;
         }
+
+        public int getRowCount() {
+            return m_rowCount;
+        }
         
     }
     
@@ -224,10 +244,24 @@ public class AutomationProcessor implements ReadyRunnable {
         
         private final String m_automationName;
         private final Action m_action;
+        private final int m_batchSize;
+        private int m_rowsUpdated = 0;
 
         public ActionProcessor(String automationName, Action action) {
+            this(automationName, action, Integer.getInteger(BATCH_SIZE_PROPERTY, 1));
+        }
+
+        public ActionProcessor(String automationName, Action action, int batchSize) {
             m_automationName = automationName;
             m_action = action;
+            m_batchSize = Math.max(1, batchSize);
+        }
+
+        /**
+         * Returns the number of rows changed by the last run of the action.
+         */
+        public int getRowsUpdated() {
+            return m_rowsUpdated;
         }
         
         public boolean hasAction() {
@@ -324,7 +358,7 @@ public class AutomationProcessor implements ReadyRunnable {
             } else {
                 //Convert the sql to a PreparedStatement
                 PreparedStatement actionStatement = createPreparedStatement();
-                actionStatement.executeUpdate();
+                m_rowsUpdated = Math.max(0, actionStatement.executeUpdate());
                 return true;
             }
         }
@@ -335,17 +369,47 @@ public class AutomationProcessor implements ReadyRunnable {
             triggerResultSet.beforeFirst();
             
             PreparedStatement actionStatement = createPreparedStatement();
-        
-            //Loop through the select results
-            while (triggerResultSet.next()) {                        
-                //Convert the sql to a PreparedStatement
+            m_rowsUpdated = 0;
+
+            if (m_batchSize == 1) {
+                //Loop through the select results
+                while (triggerResultSet.next()) {                        
+                    //Convert the sql to a PreparedStatement
+                    assignStatementParameters(actionStatement, triggerResultSet);
+                    m_rowsUpdated += Math.max(0, actionStatement.executeUpdate());
+                }
+                return true;
+            }
+
+            // Send the statements to the database in batches, rather than one round trip per row
+            int batched = 0;
+            while (triggerResultSet.next()) {
                 assignStatementParameters(actionStatement, triggerResultSet);
-                actionStatement.executeUpdate();
+                actionStatement.addBatch();
+                if (++batched == m_batchSize) {
+                    m_rowsUpdated += executeBatch(actionStatement);
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                m_rowsUpdated += executeBatch(actionStatement);
             }
 
             return true;
         }
 
+        private int executeBatch(PreparedStatement actionStatement) throws SQLException {
+            int rowsUpdated = 0;
+            for (int count : actionStatement.executeBatch()) {
+                // Drivers may return SUCCESS_NO_INFO rather than a count
+                if (count > 0) {
+                    rowsUpdated += count;
+                }
+            }
+            LOG.debug("executeBatch: Action {} of automation {} updated {} rows", m_action.getName(), m_automationName, rowsUpdated);
+            return rowsUpdated;
+        }
+
 		boolean processAction(TriggerResults triggerResults) throws SQLException {
 			if (triggerResults.hasTrigger()) {
 			    return processTriggerResults(triggerResults);
@@ -647,6 +711,13 @@ public class AutomationProcessor implements ReadyRunnable {
         
     }
 
+    /**
+     * System property holding the number of trigger rows sent to the
+     * database in one JDBC batch when running an action.  The default of 1
+     * runs the action statement separately for each row.
+     */
+    public static final String BATCH_SIZE_PROPERTY = "org.opennms.vacuumd.actionBatchSize";
+
     /**
      * Public constructor.
      *
@@ -696,11 +767,16 @@ public class AutomationProcessor implements ReadyRunnable {
         
         if (getAutomation() != null) {
             setReady(false);
+            final long start = System.nanoTime();
             try {
                 runAutomation();
             } catch (SQLException e) {
                 LOG.warn("Error running automation: {}, {}", getAutomation().getName(), e.getMessage());
             } finally {
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                m_lastTime = elapsed;
+                m_totalTime.addAndGet(elapsed);
+                m_runs.incrementAndGet();
                 setReady(true);
             }
         }
@@ -736,10 +812,17 @@ public class AutomationProcessor implements ReadyRunnable {
             LOG.debug("runAutomation: Processing automation: {}", m_automation.getName());
 
             TriggerResults results = processTrigger();
+            m_lastTriggerRows = results.getRowCount();
+            m_lastRowsUpdated = 0;
+            m_triggerRows.addAndGet(results.getRowCount());
             
             boolean success = false;
             if (results.isSuccessful()) {
                 success = processAction(results);
+                if (success) {
+                    m_lastRowsUpdated = m_action.getRowsUpdated();
+                    m_rowsUpdated.addAndGet(m_action.getRowsUpdated());
+                }
             }
             
 			return success;
@@ -780,7 +863,9 @@ public class AutomationProcessor implements ReadyRunnable {
 			
             ResultSet triggerResultSet = m_trigger.runTriggerQuery();
 
-            TriggerResults triggerResults = new TriggerResults(m_trigger, triggerResultSet, verifyRowCount(triggerResultSet));
+            int resultRows = countRows(triggerResultSet);
+
+            TriggerResults triggerResults = new TriggerResults(m_trigger, triggerResultSet, verifyRowCount(resultRows), resultRows);
 
 			return triggerResults;
             
@@ -802,12 +887,13 @@ public class AutomationProcessor implements ReadyRunnable {
         }
         
         
-        int resultRows;
+        return verifyRowCount(countRows(triggerResultSet));
+    }
+
+    private boolean verifyRowCount(int resultRows) {
         boolean validRows = true;
         //determine if number of rows required by the trigger row-count and operator were
         //met by the trigger query, if so we'll run the action
-        resultRows = countRows(triggerResultSet);
-        
         int triggerRowCount = m_trigger.getTrigger().getRowCount();
         String triggerOperator = m_trigger.getTrigger().getOperator();
 
@@ -859,6 +945,53 @@ public class AutomationProcessor implements ReadyRunnable {
         return m_automation;
     }
     
+    /**
+     * Returns the number of times this automation has run.
+     *
+     * @return a long.
+     */
+    public long getRuns() {
+        return m_runs.get();
+    }
+
+    /**
+     * Returns the total number of rows returned by the trigger.
+     *
+     * @return a long.
+     */
+    public long getTriggerRows() {
+        return m_triggerRows.get();
+    }
+
+    /**
+     * Returns the total number of rows changed by the action.
+     *
+     * @return a long.
+     */
+    public long getRowsUpdated() {
+        return m_rowsUpdated.get();
+    }
+
+    /**
+     * Returns the total time spent running this automation, in milliseconds.
+     *
+     * @return a long.
+     */
+    public long getTotalTime() {
+        return m_totalTime.get();
+    }
+
+    /**
+     * Returns a one line summary of the last run and the totals of this automation.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getStatistics() {
+        return String.format("%s: runs=%d, lastTriggerRows=%d, lastRowsUpdated=%d, lastTime=%dms, triggerRows=%d, rowsUpdated=%d, totalTime=%dms",
+                m_automation.getName(), m_runs.get(), m_lastTriggerRows, m_lastRowsUpdated, m_lastTime,
+                m_triggerRows.get(), m_rowsUpdated.get(), m_totalTime.get());
+    }
+
     /**
      * <p>isReady</p>
      *
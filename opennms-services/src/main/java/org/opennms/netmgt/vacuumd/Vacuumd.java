@@ -34,8 +34,11 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -85,6 +88,24 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
 
     private volatile EventIpcManager m_eventMgr;
 
+    private final List<AutomationProcessor> m_automationProcessors = new CopyOnWriteArrayList<AutomationProcessor>();
+
+    /*
+     * Totals of the automation processors discarded by configuration reloads,
+     * so that the counters reported over JMX keep growing across reloads.
+     */
+    private final AtomicLong m_retiredTriggerRows = new AtomicLong();
+
+    private final AtomicLong m_retiredRowsUpdated = new AtomicLong();
+
+    private final AtomicLong m_retiredAutomationTime = new AtomicLong();
+
+    /**
+     * System property holding the number of automations that may run at the
+     * same time.  Each running automation uses its own database connection.
+     */
+    public static final String THREADS_PROPERTY = "org.opennms.vacuumd.threads";
+
     /**
      * <p>getSingleton</p>
      *
@@ -300,7 +321,7 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
     private void createScheduler() {
         try {
             LOG.debug("init: Creating Vacuumd scheduler");
-            m_scheduler = new LegacyScheduler("Vacuumd", 2);
+            m_scheduler = new LegacyScheduler("Vacuumd", Math.max(1, Integer.getInteger(THREADS_PROPERTY, 2)));
         } catch (RuntimeException e) {
             LOG.error("init: Failed to create Vacuumd scheduler", e);
             throw e;
@@ -317,16 +338,27 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
     }
 
     private void scheduleAutomations() {
+        retireAutomationProcessors();
         for (Automation auto : getVacuumdConfig().getAutomations()) {
             scheduleAutomation(auto);
         }
     }
 
+    private void retireAutomationProcessors() {
+        for (AutomationProcessor ap : m_automationProcessors) {
+            m_retiredTriggerRows.addAndGet(ap.getTriggerRows());
+            m_retiredRowsUpdated.addAndGet(ap.getRowsUpdated());
+            m_retiredAutomationTime.addAndGet(ap.getTotalTime());
+        }
+        m_automationProcessors.clear();
+    }
+
     private void scheduleAutomation(Automation auto) {
         if (auto.getActive()) {
             AutomationProcessor ap = new AutomationProcessor(auto);
             Schedule s = new Schedule(ap, new AutomationInterval(auto.getInterval()), m_scheduler);
             ap.setSchedule(s);
+            m_automationProcessors.add(ap);
             s.schedule();
         }
     }
@@ -439,6 +471,61 @@ public class Vacuumd extends AbstractServiceDaemon implements Runnable, EventLis
         }
     }
 
+    /**
+     * Returns the total number of rows returned by the triggers of all automations,
+     * including those run before the last configuration reload.
+     *
+     * @return a long.
+     */
+    public long getNumTriggerRows() {
+        long rows = m_retiredTriggerRows.get();
+        for (AutomationProcessor ap : m_automationProcessors) {
+            rows += ap.getTriggerRows();
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the total number of rows changed by the actions of all automations,
+     * including those run before the last configuration reload.
+     *
+     * @return a long.
+     */
+    public long getNumRowsUpdated() {
+        long rows = m_retiredRowsUpdated.get();
+        for (AutomationProcessor ap : m_automationProcessors) {
+            rows += ap.getRowsUpdated();
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the total time spent running automations, in milliseconds,
+     * including automations run before the last configuration reload.
+     *
+     * @return a long.
+     */
+    public long getAutomationTime() {
+        long time = m_retiredAutomationTime.get();
+        for (AutomationProcessor ap : m_automationProcessors) {
+            time += ap.getTotalTime();
+        }
+        return time;
+    }
+
+    /**
+     * Returns a summary of the row counts and elapsed times of each scheduled automation.
+     *
+     * @return an array of {@link java.lang.String} objects.
+     */
+    public String[] getAutomationStatistics() {
+        final List<String> statistics = new ArrayList<String>(m_automationProcessors.size());
+        for (AutomationProcessor ap : m_automationProcessors) {
+            statistics.add(ap.getStatistics());
+        }
+        return statistics.toArray(new String[statistics.size()]);
+    }
+
     private VacuumdConfigFactory getVacuumdConfig() {
         return VacuumdConfigFactory.getInstance();
     }
@@ -135,6 +135,30 @@ public class Vacuumd implements VacuumdMBean {
         return getVacuumd().getNumAutomations();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTriggerRows() {
+        return getVacuumd().getNumTriggerRows();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumRowsUpdated() {
+        return getVacuumd().getNumRowsUpdated();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAutomationTime() {
+        return getVacuumd().getAutomationTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getAutomationStatistics() {
+        return getVacuumd().getAutomationStatistics();
+    }
+
     private org.opennms.netmgt.vacuumd.Vacuumd getVacuumd() {
         return org.opennms.netmgt.vacuumd.Vacuumd.getSingleton();
     }
@@ -46,4 +46,32 @@ public interface VacuumdMBean extends BaseOnmsMBean {
      * @return the number of automations that have been executed
      */
     public long getNumAutomations();
+
+    /**
+     * Returns the number of rows returned by automation triggers so far (counter).
+     *
+     * @return the number of trigger rows
+     */
+    public long getNumTriggerRows();
+
+    /**
+     * Returns the number of rows changed by automation actions so far (counter).
+     *
+     * @return the number of updated rows
+     */
+    public long getNumRowsUpdated();
+
+    /**
+     * Returns the time spent running automations so far, in milliseconds (counter).
+     *
+     * @return the automation time
+     */
+    public long getAutomationTime();
+
+    /**
+     * Returns the row counts and elapsed times of each automation.
+     *
+     * @return one line per scheduled automation
+     */
+    public String[] getAutomationStatistics();
 }
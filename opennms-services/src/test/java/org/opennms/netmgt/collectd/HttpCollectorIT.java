@@ -30,13 +30,25 @@ package org.opennms.netmgt.collectd;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -55,6 +67,8 @@ import org.opennms.netmgt.config.collectd.Filter;
 import org.opennms.netmgt.config.collectd.Package;
 import org.opennms.netmgt.config.collectd.Parameter;
 import org.opennms.netmgt.config.collectd.Service;
+import org.opennms.netmgt.config.httpdatacollection.Uri;
+import org.opennms.netmgt.config.httpdatacollection.Url;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.ServiceTypeDao;
@@ -432,4 +446,86 @@ public class HttpCollectorIT implements TestContextAware, InitializingBean {
         collectionSpecification.release(m_collectionAgent);
     }
 
+    @Test
+    public void testFindMatchAcrossChunkBoundaries() throws Exception {
+        final Pattern p = Pattern.compile("value=(\\d+);");
+        final Matcher m = HttpCollector.find(p, chunked("xxxxxxxxxx value=1234567; yyyy value=2;", 3), 16);
+        assertNotNull(m);
+        assertEquals("1234567", m.group(1));
+
+        // a match which reaches the end of a chunk keeps growing with the next one
+        final Matcher digits = HttpCollector.find(Pattern.compile("(\\d+)"), chunked("ab1234567cd", 3), 16);
+        assertNotNull(digits);
+        assertEquals("1234567", digits.group(1));
+    }
+
+    @Test
+    public void testFindMatchAfterMoreThanAWindow() throws Exception {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            body.append('x');
+        }
+        body.append("value=42;");
+        final Matcher m = HttpCollector.find(Pattern.compile("value=(\\d+);"), chunked(body.toString(), 1000), 16);
+        assertNotNull(m);
+        assertEquals("42", m.group(1));
+    }
+
+    @Test
+    public void testFindWithoutMatch() throws Exception {
+        assertNull(HttpCollector.find(Pattern.compile("value=(\\d+);"), chunked("xxxxxxxxxx value=; yyyy", 3), 16));
+        assertNull(HttpCollector.find(Pattern.compile("value=(\\d+);"), new StringReader(""), 16));
+    }
+
+    @Test
+    public void testFindMatchLongerThanTheWindow() throws Exception {
+        final String body = "start 0123456789012345678901234567890123456789 end";
+        assertNotNull(HttpCollector.find(Pattern.compile("start (\\d+) end"), chunked(body, 3), body.length()));
+        assertNull("a match has to fit into the window", HttpCollector.find(Pattern.compile("start (\\d+) end"), chunked(body, 3), 16));
+    }
+
+    @Test
+    public void testMaxResponseBytes() throws Exception {
+        final StringEntity entity = new StringEntity("0123456789abcdef", ContentType.TEXT_PLAIN);
+        assertEquals("0123456789", IOUtils.toString(HttpCollector.getResponseReader(entity, 10)));
+        assertEquals("0123456789abcdef", IOUtils.toString(HttpCollector.getResponseReader(entity, 0)));
+        assertEquals("0123456789abcdef", IOUtils.toString(HttpCollector.getResponseReader(entity, 100)));
+    }
+
+    @Test
+    public void testPatternCache() throws Exception {
+        final Pattern p = HttpCollector.getPattern(createUri("value=(\\d+);", false));
+        assertSame(p, HttpCollector.getPattern(createUri("value=(\\d+);", false)));
+
+        final Pattern caseInsensitive = HttpCollector.getPattern(createUri("value=(\\d+);", true));
+        assertNotSame(p, caseInsensitive);
+        assertEquals(Pattern.CASE_INSENSITIVE, caseInsensitive.flags());
+        assertSame(caseInsensitive, HttpCollector.getPattern(createUri("value=(\\d+);", true)));
+
+        assertNotSame(p, HttpCollector.getPattern(createUri("value=(\\w+);", false)));
+    }
+
+    private static Uri createUri(final String matches, final boolean caseInsensitive) {
+        final Url url = new Url();
+        url.setPath("/test");
+        url.setMatches(matches);
+        url.setCaseInsensitive(caseInsensitive);
+        final Uri uri = new Uri();
+        uri.setName("test");
+        uri.setUrl(url);
+        return uri;
+    }
+
+    /**
+     * Returns a reader which returns at most <code>chunkSize</code> characters per read.
+     */
+    private static Reader chunked(final String text, final int chunkSize) {
+        return new FilterReader(new StringReader(text)) {
+            @Override
+            public int read(final char[] cbuf, final int off, final int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, chunkSize));
+            }
+        };
+    }
+
 }
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class KnownAddressSetTest {
+
+    private static InetAddress v4(int value) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value });
+    }
+
+    @Test
+    public void testAddRemove() {
+        final KnownAddressSet set = new KnownAddressSet();
+        assertTrue(set.add("192.168.1.1"));
+        assertFalse(set.add("192.168.1.1"));
+        assertTrue(set.add("10.0.0.1"));
+        assertTrue(set.add("fe80::1"));
+        assertEquals(3, set.size());
+
+        assertTrue(set.contains(addr("192.168.1.1")));
+        assertTrue(set.contains(addr("10.0.0.1")));
+        assertTrue(set.contains(addr("fe80:0:0:0:0:0:0:1")));
+        assertFalse(set.contains(addr("192.168.1.2")));
+        assertFalse(set.contains(addr("fe80::2")));
+
+        assertTrue(set.remove("192.168.1.1"));
+        assertFalse(set.remove("192.168.1.1"));
+        assertTrue(set.remove("fe80::1"));
+        assertFalse(set.contains(addr("192.168.1.1")));
+        assertFalse(set.contains(addr("fe80::1")));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void testDenseRange() throws Exception {
+        // a /16 with every other address known turns its container into a bitmap
+        final int base = (172 << 24) | (16 << 16);
+        final KnownAddressSet set = new KnownAddressSet();
+        for (int i = 0; i < 65536; i += 2) {
+            assertTrue(set.add(v4(base + i)));
+        }
+        assertEquals(32768, set.size());
+        for (int i = 0; i < 65536; i++) {
+            assertEquals(i % 2 == 0, set.contains(v4(base + i)));
+        }
+        assertFalse(set.contains(v4(base + 65536)));
+
+        // and back into an array once it is sparse again
+        for (int i = 0; i < 65536; i += 4) {
+            assertTrue(set.remove(v4(base + i)));
+        }
+        for (int i = 0; i < 62000; i += 4) {
+            assertTrue(set.remove(v4(base + i + 2)));
+        }
+        assertEquals(32768 - 16384 - 15500, set.size());
+        for (int i = 0; i < 65536; i++) {
+            assertEquals(i >= 62000 && i % 4 == 2, set.contains(v4(base + i)));
+        }
+    }
+
+    @Test
+    public void testManyNetworks() throws Exception {
+        final KnownAddressSet set = new KnownAddressSet();
+        for (int i = 0; i < 100000; i++) {
+            set.add(v4(i * 7919));
+        }
+        assertEquals(100000, set.size());
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(set.contains(v4(i * 7919)));
+            assertFalse(set.contains(v4(i * 7919 + 1)));
+        }
+    }
+}
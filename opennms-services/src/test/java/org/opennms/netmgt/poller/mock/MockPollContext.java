@@ -54,6 +54,7 @@ import org.opennms.test.mock.MockUtil;
 public class MockPollContext implements PollContext, EventListener {
     private String m_critSvcName;
     private boolean m_nodeProcessingEnabled;
+    private boolean m_serialNodeExecutionEnabled;
     private boolean m_pollingAllIfCritServiceUndefined;
     private boolean m_serviceUnresponsiveEnabled;
     private EventIpcManager m_eventMgr;
@@ -79,6 +80,13 @@ public class MockPollContext implements PollContext, EventListener {
         m_nodeProcessingEnabled = nodeProcessingEnabled;
     }
     @Override
+    public boolean isSerialNodeExecutionEnabled() {
+        return m_serialNodeExecutionEnabled;
+    }
+    public void setSerialNodeExecutionEnabled(boolean serialNodeExecutionEnabled) {
+        m_serialNodeExecutionEnabled = serialNodeExecutionEnabled;
+    }
+    @Override
     public boolean isPollingAllIfCritServiceUndefined() {
         return m_pollingAllIfCritServiceUndefined;
     }
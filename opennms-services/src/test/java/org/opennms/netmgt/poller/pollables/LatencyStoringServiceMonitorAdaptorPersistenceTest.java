@@ -134,7 +134,7 @@ public class LatencyStoringServiceMonitorAdaptorPersistenceTest {
         EasyMock.expectLastCall().andReturn(null).once();
 
         // This is the important bit, the order of the values should match the order there were inserted above
-        m_rrdStrategy.updateFile(EasyMock.isNull(), EasyMock.eq("192.168.1.5"), EasyMock.endsWith(":42.1:1:2:3"));
+        m_rrdStrategy.updateFile(EasyMock.isNull(), EasyMock.eq("192.168.1.5"), EasyMock.anyLong(), EasyMock.aryEq(new double[] { 42.1, 1, 2, 3 }));
         EasyMock.expectLastCall().once();
 
         EasyMock.replay(m_rrdStrategy);
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.pollables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.scheduler.PostponeNecessary;
+
+public class PollableNodeTest {
+    private PollContext m_context;
+    private PollableNetwork m_network;
+    private PollableNode m_node;
+
+    @Before
+    public void setUp() {
+        m_context = mock(PollContext.class);
+        m_network = new PollableNetwork(m_context);
+        m_node = m_network.createNode(1, "node1");
+    }
+
+    @Test
+    public void canRunSeriallyOnCallingThreadWhenIdle() {
+        final Thread caller = Thread.currentThread();
+        final List<Thread> ranOn = new CopyOnWriteArrayList<Thread>();
+        m_node.executeSerially(new Runnable() {
+            @Override
+            public void run() {
+                assertFalse(m_node.isTreeLockAvailable());
+                ranOn.add(Thread.currentThread());
+            }
+        });
+
+        assertEquals(1, ranOn.size());
+        assertEquals(caller, ranOn.get(0));
+        assertTrue(m_node.isTreeLockAvailable());
+    }
+
+    @Test(timeout=10000)
+    public void canQueueWorkWithoutBlockingWhenNodeIsBusy() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+
+        final Thread busy = new Thread("busy") {
+            @Override
+            public void run() {
+                m_node.executeSerially(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        order.add("first");
+                    }
+                });
+            }
+        };
+        busy.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // the node is busy, so this must return without running the work
+        m_node.executeSerially(new Runnable() {
+            @Override
+            public void run() {
+                order.add("second");
+            }
+        });
+        assertEquals(0, order.size());
+        assertEquals(1, m_node.getSerialQueueSize());
+
+        Thread.sleep(10);
+        release.countDown();
+        busy.join();
+
+        assertEquals(2, order.size());
+        assertEquals("first", order.get(0));
+        assertEquals("second", order.get(1));
+        assertEquals(0, m_node.getSerialQueueSize());
+        assertTrue(m_node.getLockWaitCount() >= 1);
+        assertTrue(m_node.getMaxLockWaitTime() >= 10);
+        assertEquals(m_node.getLockWaitTime(), m_network.getLockWaitTime());
+    }
+
+    @Test(timeout=10000)
+    public void canRecordLockWaits() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Thread holder = new Thread("holder") {
+            @Override
+            public void run() {
+                m_node.withTreeLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        locked.countDown();
+                        try {
+                            release.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+        };
+        holder.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        try {
+            m_node.obtainTreeLock(20);
+            m_node.releaseTreeLock();
+            throw new AssertionError("the tree lock should not have been available");
+        } catch (final LockUnavailable e) {
+            // expected
+        }
+
+        release.countDown();
+        holder.join();
+
+        assertEquals(1, m_node.getLockWaitCount());
+        assertTrue(m_node.getMaxLockWaitTime() >= 20);
+        assertEquals(1, m_network.getLockWaitCount());
+    }
+
+    @Test(timeout=10000)
+    public void canPostponePollWhileOneIsQueued() throws Exception {
+        when(m_context.isNodeProcessingEnabled()).thenReturn(true);
+        when(m_context.isSerialNodeExecutionEnabled()).thenReturn(true);
+        final InetAddress addr = InetAddressUtils.addr("192.168.1.1");
+        final PollableService svc = m_node.createService(addr, "ICMP");
+        final PollableServiceConfig pollConfig = mock(PollableServiceConfig.class);
+        when(pollConfig.poll()).thenReturn(PollStatus.unknown());
+        svc.setPollConfig(pollConfig);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread busy = new Thread("busy") {
+            @Override
+            public void run() {
+                m_node.executeSerially(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+        };
+        busy.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        svc.run();
+        assertEquals(1, m_node.getSerialQueueSize());
+
+        // a second poll of the same service must not queue behind the first
+        try {
+            svc.run();
+            fail("the second poll should have been postponed");
+        } catch (final PostponeNecessary e) {
+            // expected
+        }
+        assertEquals(1, m_node.getSerialQueueSize());
+
+        release.countDown();
+        busy.join();
+        assertEquals(0, m_node.getSerialQueueSize());
+        verify(pollConfig, times(1)).poll();
+
+        // once the queued poll has run the service can be polled again
+        svc.run();
+        verify(pollConfig, times(2)).poll();
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.categories.Category;
+
+public class CategoryAvailabilityTest {
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long WINDOW = 24L * HOUR;
+
+    private long m_now;
+    private RTCCategory m_category;
+    private RTCHashMap m_map;
+
+    @Before
+    public void setUp() {
+        m_now = System.currentTimeMillis();
+
+        final Category cat = new Category();
+        cat.setLabel("Web Servers");
+        cat.setRule("IPADDR != '0.0.0.0'");
+        m_category = new RTCCategory(cat, "IPADDR != '0.0.0.0'");
+        m_map = new RTCHashMap(10);
+    }
+
+    private RTCNode addService(final int nodeid, final String svcName) {
+        final RTCNode node = new RTCNode(nodeid, InetAddressUtils.addr("192.168.1." + nodeid), svcName, WINDOW);
+        m_map.add(node);
+        node.addCategory(m_category);
+        m_category.addNode(node);
+        return node;
+    }
+
+    private void assertMatchesRecomputed(final long curTime) {
+        assertEquals(m_map.getValue(m_category.getLabel(), curTime, WINDOW), m_category.getAvailability().getValue(curTime, WINDOW), 0.0001);
+    }
+
+    @Test
+    public void testNoOutages() {
+        addService(1, "ICMP");
+        addService(1, "HTTP");
+
+        assertEquals(2, m_category.getAvailability().getServiceCount());
+        assertEquals(100.0, m_category.getAvailability().getValue(m_now, WINDOW), 0.0);
+    }
+
+    @Test
+    public void testMatchesRecomputedValue() {
+        final RTCNode icmp = addService(1, "ICMP");
+        final RTCNode http = addService(1, "HTTP");
+        final RTCNode ssh = addService(2, "SSH");
+        addService(3, "ICMP");
+
+        // closed outage inside the window
+        icmp.addSvcTime(m_now - 5 * HOUR, m_now - 3 * HOUR);
+        // closed outage that started before the window
+        http.addSvcTime(m_now - 26 * HOUR, m_now - 20 * HOUR);
+        // outage that is still open
+        ssh.nodeLostService(m_now - 2 * HOUR);
+
+        assertMatchesRecomputed(m_now);
+        assertEquals(100.0 * (1.0 - (2 * HOUR + 4 * HOUR + 2 * HOUR) / (4.0 * WINDOW)), m_category.getAvailability().getValue(m_now, WINDOW), 0.0001);
+
+        ssh.nodeRegainedService(m_now - HOUR);
+        assertMatchesRecomputed(m_now);
+    }
+
+    @Test
+    public void testServiceAddedWithOutages() {
+        final RTCNode node = new RTCNode(1, InetAddressUtils.addr("192.168.1.1"), "ICMP", WINDOW);
+        node.addSvcTime(m_now - 4 * HOUR, m_now - 2 * HOUR);
+        m_map.add(node);
+
+        // outages the service had before it joined count towards the category
+        node.addCategory(m_category);
+        m_category.addNode(node);
+        assertMatchesRecomputed(m_now);
+        assertTrue(m_category.getAvailability().getValue(m_now, WINDOW) < 100.0);
+    }
+
+    @Test
+    public void testRemoveCategory() {
+        addService(1, "ICMP");
+        final RTCNode http = addService(1, "HTTP");
+        http.addSvcTime(m_now - 4 * HOUR, m_now - 2 * HOUR);
+        http.nodeLostService(m_now - HOUR);
+
+        http.removeCategory(m_category.getLabel());
+        m_map.delete(http);
+
+        assertEquals(1, m_category.getAvailability().getServiceCount());
+        assertEquals(100.0, m_category.getAvailability().getValue(m_now, WINDOW), 0.0);
+        assertMatchesRecomputed(m_now);
+    }
+
+    @Test
+    public void testWindowSlides() {
+        final RTCNode icmp = addService(1, "ICMP");
+        icmp.addSvcTime(m_now - 5 * HOUR, m_now - 3 * HOUR);
+
+        final CategoryAvailability availability = m_category.getAvailability();
+        assertEquals(100.0 * (1.0 - 2.0 * HOUR / WINDOW), availability.getValue(m_now, WINDOW), 0.0001);
+
+        // half of the outage has left the window
+        assertEquals(100.0 * (1.0 - 1.0 * HOUR / WINDOW), availability.getValue(m_now + 20 * HOUR, WINDOW), 0.0001);
+
+        // all of it has
+        assertEquals(100.0, availability.getValue(m_now + 22 * HOUR, WINDOW), 0.0001);
+
+        // the window cannot move back
+        assertTrue(Double.isNaN(availability.getValue(m_now, WINDOW)));
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.categories.Category;
+
+public class RTCHashMapTest {
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long WINDOW = 24L * HOUR;
+
+    private long m_now;
+    private RTCCategory m_category;
+    private RTCHashMap m_map;
+
+    @Before
+    public void setUp() {
+        m_now = System.currentTimeMillis();
+
+        final Category cat = new Category();
+        cat.setLabel("Web Servers");
+        cat.setRule("IPADDR != '0.0.0.0'");
+        m_category = new RTCCategory(cat, "IPADDR != '0.0.0.0'");
+        m_map = new RTCHashMap(10);
+    }
+
+    private RTCNode addService(final int nodeid, final String ipAddr, final String svcName) {
+        final RTCNode node = new RTCNode(nodeid, InetAddressUtils.addr(ipAddr), svcName, WINDOW);
+        m_map.add(node);
+        node.addCategory(m_category);
+        m_category.addNode(node);
+        return node;
+    }
+
+    /**
+     * A node with more interfaces and services used to be counted once for
+     * every key it has in the map, which gave it more weight than its
+     * services warrant.
+     */
+    @Test
+    public void testEachServiceIsCountedOnce() {
+        addService(1, "192.168.1.1", "ICMP");
+        addService(1, "192.168.1.1", "HTTP");
+        addService(1, "192.168.2.1", "ICMP");
+        final RTCNode ssh = addService(2, "192.168.1.2", "SSH");
+        ssh.addSvcTime(m_now - 12 * HOUR, m_now);
+
+        // four services, one of them down for half of the window
+        assertEquals(100.0 * (1.0 - 12.0 * HOUR / (4 * WINDOW)), m_map.getValue(m_category.getLabel(), m_now, WINDOW), 0.0001);
+        assertEquals(m_category.getAvailability().getValue(m_now, WINDOW), m_map.getValue(m_category.getLabel(), m_now, WINDOW), 0.0001);
+    }
+
+    @Test
+    public void testCategoryValueIsTheServiceWeightedNodeValue() {
+        final RTCNode icmp = addService(1, "192.168.1.1", "ICMP");
+        addService(1, "192.168.1.1", "HTTP");
+        final RTCNode ssh = addService(2, "192.168.1.2", "SSH");
+        icmp.addSvcTime(m_now - 6 * HOUR, m_now - 3 * HOUR);
+        ssh.nodeLostService(m_now - 2 * HOUR);
+
+        final String label = m_category.getLabel();
+        double weighted = 0.0;
+        int services = 0;
+        for (final int nodeid : new int[] { 1, 2 }) {
+            final int count = m_map.getServiceCount(nodeid, label);
+            weighted += count * m_map.getValue(nodeid, label, m_now, WINDOW);
+            services += count;
+        }
+        assertEquals(3, services);
+        assertEquals(weighted / services, m_map.getValue(label, m_now, WINDOW), 0.0001);
+    }
+
+    @Test
+    public void testDeletedServicesAreNotCounted() {
+        addService(1, "192.168.1.1", "ICMP");
+        final RTCNode http = addService(1, "192.168.1.1", "HTTP");
+        http.nodeLostService(m_now - HOUR);
+
+        http.removeCategory(m_category.getLabel());
+        m_map.delete(http);
+
+        assertEquals(100.0, m_map.getValue(m_category.getLabel(), m_now, WINDOW), 0.0);
+    }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    private static class CountingRunnable implements ReadyRunnable {
+        private final CountDownLatch m_latch;
+        private final AtomicInteger m_runs = new AtomicInteger(0);
+        private volatile long m_lastRun = 0;
+        private volatile boolean m_ready = true;
+
+        public CountingRunnable(final int expected) {
+            m_latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public boolean isReady() {
+            return m_ready;
+        }
+
+        @Override
+        public void run() {
+            m_lastRun = System.currentTimeMillis();
+            m_runs.incrementAndGet();
+            m_latch.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        // small wheels so that the outer levels are exercised within a test
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 2, 10, 4);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test
+    public void testRunsAfterInterval() throws Exception {
+        final CountingRunnable runnable = new CountingRunnable(1);
+        final long start = System.currentTimeMillis();
+        m_scheduler.schedule(50, runnable);
+        assertEquals(1, m_scheduler.getScheduled());
+
+        assertTrue(runnable.m_latch.await(5, TimeUnit.SECONDS));
+        assertTrue(runnable.m_lastRun - start >= 50);
+        assertEquals(0, m_scheduler.getScheduled());
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void testCascadesFromOuterWheels() throws Exception {
+        // 4 buckets of 10ms per level, so 700ms is on the fourth level
+        final CountingRunnable runnable = new CountingRunnable(1);
+        final long start = System.currentTimeMillis();
+        m_scheduler.schedule(700, runnable);
+
+        assertTrue(runnable.m_latch.await(5, TimeUnit.SECONDS));
+        assertTrue(runnable.m_lastRun - start >= 700);
+        assertTrue(m_scheduler.getMaxLag() < 1000);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final CountingRunnable cancelled = new CountingRunnable(1);
+        final CountingRunnable later = new CountingRunnable(1);
+        final TimingWheelScheduler.Timeout timeout = m_scheduler.scheduleTimeout(50, cancelled);
+        m_scheduler.schedule(100, later);
+        timeout.cancel();
+
+        assertTrue(later.m_latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, cancelled.m_runs.get());
+        assertEquals(0, m_scheduler.getScheduled());
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void testDefersUntilReady() throws Exception {
+        final CountingRunnable runnable = new CountingRunnable(1);
+        runnable.m_ready = false;
+        m_scheduler.schedule(0, runnable);
+
+        Thread.sleep(100);
+        assertEquals(0, runnable.m_runs.get());
+        assertEquals(1, m_scheduler.getScheduled());
+
+        runnable.m_ready = true;
+        assertTrue(runnable.m_latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void testJitterSpreadsSameInterval() throws Exception {
+        m_scheduler.pause();
+        m_scheduler.setJitter(0.5);
+
+        final long before = System.currentTimeMillis();
+        final Set<Long> offsets = new HashSet<Long>();
+        for (int i = 0; i < 100; i++) {
+            final TimingWheelScheduler.Timeout timeout = m_scheduler.scheduleTimeout(100000, new CountingRunnable(1));
+            final long offset = timeout.getDeadline() - before;
+            assertTrue(offset >= 75000 - 1000);
+            assertTrue(offset <= 125000 + 1000);
+            offsets.add(offset);
+            timeout.cancel();
+        }
+        assertTrue("runnables were not spread out", offsets.size() > 10);
+    }
+
+    @Test
+    public void testNoJitterWhenDisabled() throws Exception {
+        final AtomicBoolean exact = new AtomicBoolean(true);
+        for (int i = 0; i < 10; i++) {
+            final long before = System.currentTimeMillis();
+            final TimingWheelScheduler.Timeout timeout = m_scheduler.scheduleTimeout(100000, new CountingRunnable(1));
+            final long after = System.currentTimeMillis();
+            if (timeout.getDeadline() < before + 100000 || timeout.getDeadline() > after + 100000) {
+                exact.set(false);
+            }
+            timeout.cancel();
+        }
+        assertTrue(exact.get());
+        assertFalse(m_scheduler.getJitter() > 0.0);
+    }
+}
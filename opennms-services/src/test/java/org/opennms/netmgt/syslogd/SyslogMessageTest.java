@@ -35,6 +35,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -329,4 +330,33 @@ public class SyslogMessageTest {
         assertEquals(Integer.valueOf(1317), message.getProcessId());
         assertEquals("CFMD_CCM_DEFECT_RMEP", message.getMessageID());
     }
+
+    @Test
+    public void testParsersOverDirectBuffer() throws Exception {
+        final byte[] bytes = "<34>1 2003-10-11T22:14:15.000Z mymachine.example.com su - ID47 - BOM'su root' failed for lonvick on /dev/pts/8".getBytes("US-ASCII");
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 16);
+        buffer.put(bytes).flip();
+
+        final SyslogParser parser = Rfc5424SyslogParser.getParser(new ByteBufferCharSequence(buffer, buffer.position(), buffer.limit()));
+        assertTrue(parser.find());
+        final SyslogMessage message = parser.parse();
+        assertEquals(SyslogFacility.AUTH, message.getFacility());
+        assertEquals(SyslogSeverity.CRITICAL, message.getSeverity());
+        assertEquals(new Date(1065910455000L), message.getDate());
+        assertEquals("mymachine.example.com", message.getHostName());
+        assertEquals("'su root' failed for lonvick on /dev/pts/8", message.getMessage());
+
+        // the view must not disturb the buffer
+        assertEquals(0, buffer.position());
+        assertEquals(bytes.length, buffer.limit());
+
+        buffer.clear();
+        buffer.put("<6>test: 2007-01-01 127.0.0.1 OpenNMS[1234]: A SyslogNG style message".getBytes("US-ASCII")).flip();
+        final SyslogParser ngParser = SyslogNGParser.getParser(new ByteBufferCharSequence(buffer, buffer.position(), buffer.limit()));
+        assertTrue(ngParser.find());
+        final SyslogMessage ngMessage = ngParser.parse();
+        assertEquals("OpenNMS", ngMessage.getProcessName());
+        assertEquals(1234, ngMessage.getProcessId().intValue());
+        assertEquals("A SyslogNG style message", ngMessage.getMessage());
+    }
 }
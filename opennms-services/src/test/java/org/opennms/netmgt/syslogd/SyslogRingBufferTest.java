@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SyslogRingBufferTest {
+
+    @Test
+    public void testCapacityRoundsUp() {
+        assertEquals(1, new SyslogRingBuffer(1, 16).capacity());
+        assertEquals(8, new SyslogRingBuffer(5, 16).capacity());
+        assertEquals(8, new SyslogRingBuffer(8, 16).capacity());
+    }
+
+    @Test
+    public void testOfferSwapsBuffersAndRespectsBound() {
+        final SyslogRingBuffer ring = new SyslogRingBuffer(2, 16);
+        final SyslogRingBuffer.Datagram producer = new SyslogRingBuffer.Datagram(16);
+        final SyslogRingBuffer.Datagram consumer = new SyslogRingBuffer.Datagram(16);
+
+        assertFalse(ring.poll(consumer));
+
+        for (int i = 0; i < 2; i++) {
+            producer.getBuffer().put((byte)i).flip();
+            producer.setSource(new InetSocketAddress("127.0.0.1", 514 + i));
+            assertTrue(ring.offer(producer));
+            // the producer gets a cleared buffer back
+            assertEquals(0, producer.getBuffer().position());
+            assertEquals(16, producer.getBuffer().limit());
+        }
+
+        producer.getBuffer().put((byte)2).flip();
+        assertFalse(ring.offer(producer));
+        assertEquals(1, producer.getBuffer().limit());
+        assertEquals(2, ring.size());
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(ring.poll(consumer));
+            assertEquals(1, consumer.getBuffer().remaining());
+            assertEquals(i, consumer.getBuffer().get(0));
+            assertEquals(514 + i, consumer.getSource().getPort());
+        }
+        assertFalse(ring.poll(consumer));
+        assertTrue(ring.offer(producer));
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final int producers = 4;
+        final int consumers = 4;
+        final int perProducer = 50000;
+        final SyslogRingBuffer ring = new SyslogRingBuffer(64, 8);
+        final BitSet seen = new BitSet(producers * perProducer);
+        final AtomicInteger consumed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers + consumers);
+
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            new Thread() {
+                @Override
+                public void run() {
+                    final SyslogRingBuffer.Datagram datagram = new SyslogRingBuffer.Datagram(8);
+                    for (int i = 0; i < perProducer; i++) {
+                        datagram.getBuffer().putInt(base + i).flip();
+                        while (!ring.offer(datagram)) {
+                            Thread.yield();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        for (int c = 0; c < consumers; c++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    final SyslogRingBuffer.Datagram datagram = new SyslogRingBuffer.Datagram(8);
+                    while (consumed.get() < producers * perProducer) {
+                        if (ring.poll(datagram)) {
+                            final int value = datagram.getBuffer().getInt(0);
+                            synchronized (seen) {
+                                assertFalse(seen.get(value));
+                                seen.set(value);
+                            }
+                            consumed.incrementAndGet();
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        done.await();
+        assertEquals(producers * perProducer, seen.cardinality());
+        assertEquals(0, ring.size());
+    }
+}
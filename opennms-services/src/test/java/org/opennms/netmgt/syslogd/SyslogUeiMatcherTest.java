@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+public class SyslogUeiMatcherTest {
+
+    @Test
+    public void testRequiredLiteral() {
+        assertEquals("load test ", SyslogUeiMatcher.requiredLiteral("foo23: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+))"));
+        assertEquals("load test ", SyslogUeiMatcher.requiredLiteral(".*load test (\\S+)"));
+        assertEquals("abc", SyslogUeiMatcher.requiredLiteral("x?abcd*"));
+        assertEquals("1.2.3", SyslogUeiMatcher.requiredLiteral("^1\\.2\\.3$"));
+        assertEquals(" ether", SyslogUeiMatcher.requiredLiteral("[a-z]+ ether[^ ]"));
+        assertNull(SyslogUeiMatcher.requiredLiteral("foo|bar"));
+        assertNull(SyslogUeiMatcher.requiredLiteral("(?i)foobar"));
+        assertNull(SyslogUeiMatcher.requiredLiteral("\\Qfoo\\E"));
+        assertNull(SyslogUeiMatcher.requiredLiteral("\\s(19|20)\\d\\d"));
+    }
+
+    @Test
+    public void testRequiredLiteralSkipsWholeEscapes() {
+        assertRequiredLiteral("bc: error", "\\x41bc: error", "Abc: error");
+        assertRequiredLiteral("bc: error", "\\x{41}bc: error", "Abc: error");
+        assertRequiredLiteral("bc: error", "\\u0041bc: error", "Abc: error");
+        assertRequiredLiteral("bc: error", "\\0101bc: error", "Abc: error");
+        assertRequiredLiteral("bc: error", "\\cIbc: error", "\tbc: error");
+        assertRequiredLiteral(" error", "(?<word>ab)cd \\k<word> error", "abcd ab error");
+        assertRequiredLiteral("bc: error", "\\p{Alpha}bc: error", "Abc: error");
+        assertRequiredLiteral(": done", "(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)\\10: done", "abcdefghijj: done");
+        assertNull(SyslogUeiMatcher.requiredLiteral("\\x4"));
+        assertNull(SyslogUeiMatcher.requiredLiteral("abc\\k<word"));
+    }
+
+    private static void assertRequiredLiteral(final String expected, final String regex, final String text) {
+        final String literal = SyslogUeiMatcher.requiredLiteral(regex);
+        assertEquals(regex, expected, literal);
+        assertTrue(regex, Pattern.compile(regex).matcher(text).find());
+        assertTrue(regex, text.contains(literal));
+    }
+
+    @Test
+    public void testAhoCorasick() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "she", "his", "hers", "xyz"));
+        final BitSet found = matcher.findAll("ushers");
+        assertTrue(found.get(0));
+        assertTrue(found.get(1));
+        assertFalse(found.get(2));
+        assertTrue(found.get(3));
+        assertFalse(found.get(4));
+        assertTrue(new AhoCorasickMatcher(Collections.<String>emptyList()).findAll("anything").isEmpty());
+    }
+
+    @Test
+    public void testFirstMatchWins() {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch("uei.opennms.org/tests/noFacility", "substr", "load test", "mail"));
+        ueiList.addUeiMatch(ueiMatch("uei.opennms.org/tests/regex", "regex", "load test (\\S+) on (tty\\d+)", null));
+        ueiList.addUeiMatch(ueiMatch("uei.opennms.org/tests/substr", "substr", "load test", null));
+
+        final SyslogUeiMatcher matcher = new SyslogUeiMatcher(ueiList, null);
+        final SyslogMessage message = message("foo23: load test 23 on tty1");
+
+        final SyslogUeiMatcher.Match match = matcher.match(message, "user", "info");
+        assertEquals("uei.opennms.org/tests/regex", match.getUeiMatch().getUei());
+        assertEquals("23", match.getMatcher().group(1));
+        assertEquals("tty1", match.getMatcher().group(2));
+
+        final SyslogUeiMatcher.Match substrMatch = matcher.match(message("foo23: load test 23 on pts/1"), "user", "info");
+        assertEquals("uei.opennms.org/tests/substr", substrMatch.getUeiMatch().getUei());
+        assertNull(substrMatch.getMatcher());
+
+        assertNull(matcher.match(message("nothing to see here"), "user", "info"));
+
+        final Map<String, Long> hits = matcher.getHitCounts();
+        assertEquals(Arrays.asList(0L, 1L, 1L), Arrays.asList(hits.values().toArray()));
+    }
+
+    @Test
+    public void testHide() {
+        final HideMessage hideMessage = new HideMessage();
+        hideMessage.addHideMatch(hideMatch("substr", "password"));
+        hideMessage.addHideMatch(hideMatch("regex", "secret\\d+"));
+
+        final SyslogUeiMatcher matcher = new SyslogUeiMatcher(null, hideMessage);
+        assertTrue(matcher.shouldHide("your password is foo"));
+        assertTrue(matcher.shouldHide("the secret42 is out"));
+        assertFalse(matcher.shouldHide("the secret is out"));
+    }
+
+    @Test
+    public void testInstanceIsCachedPerConfiguration() {
+        final UeiList ueiList = new UeiList();
+        final SyslogUeiMatcher matcher = SyslogUeiMatcher.getInstance(ueiList, null);
+        assertTrue(matcher == SyslogUeiMatcher.getInstance(ueiList, null));
+        assertFalse(matcher == SyslogUeiMatcher.getInstance(new UeiList(), null));
+        SyslogUeiMatcher.invalidate();
+    }
+
+    private static SyslogMessage message(final String text) {
+        return new SyslogMessage(SyslogFacility.USER.getFacilityNumber(), SyslogSeverity.INFORMATIONAL.getSeverityNumber(), new Date(), "localhost", null, null, text);
+    }
+
+    private static UeiMatch ueiMatch(final String uei, final String type, final String expression, final String facility) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setUei(uei);
+        ueiMatch.setMatch(match);
+        if (facility != null) {
+            ueiMatch.addFacility(facility);
+        }
+        return ueiMatch;
+    }
+
+    private static HideMatch hideMatch(final String type, final String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final HideMatch hideMatch = new HideMatch();
+        hideMatch.setMatch(match);
+        return hideMatch;
+    }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Date;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.threshd.CollectionResourceWrapper.CacheEntry;
+
+public class CounterStateStoreTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static String id(int i) {
+        return "node[" + i + "].resourceType[interfaceSnmp].instance[eth" + i + "].metric[ifInOctets]";
+    }
+
+    @Test
+    public void testPutReturnsPreviousValue() {
+        final CounterStateStore store = new CounterStateStore(10);
+        final Date first = new Date(1000);
+        assertNull(store.put(id(1), first, 100.0, 60000));
+        final CacheEntry last = store.put(id(1), new Date(301000), 250.0, 60000);
+        assertEquals(first, last.getTimestamp());
+        assertEquals(Double.valueOf(100.0), last.getValue());
+        assertEquals(Double.valueOf(250.0), store.get(id(1)).getValue());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testManyCountersAndRemove() {
+        final CounterStateStore store = new CounterStateStore(10);
+        for (int i = 0; i < 10000; i++) {
+            store.put(id(i), new Date(i), i, 60000);
+        }
+        assertEquals(10000, store.size());
+        for (int i = 0; i < 10000; i += 2) {
+            store.remove(id(i));
+        }
+        assertEquals(5000, store.size());
+        for (int i = 0; i < 10000; i++) {
+            if (i % 2 == 0) {
+                assertFalse(store.containsKey(id(i)));
+            } else {
+                assertEquals(Double.valueOf(i), store.get(id(i)).getValue());
+            }
+        }
+    }
+
+    @Test
+    public void testExpiredCountersAreDiscarded() {
+        final CounterStateStore store = new CounterStateStore(10);
+        store.put(id(1), new Date(), 100.0, -1);
+        store.put(id(2), new Date(), 200.0, 60000);
+        assertFalse(store.containsKey(id(1)));
+        assertNull(store.put(id(1), new Date(), 150.0, 60000));
+
+        store.put(id(3), new Date(), 300.0, -1);
+        assertEquals(1, store.expire());
+        assertEquals(2, store.size());
+        assertTrue(store.containsKey(id(2)));
+    }
+
+    @Test
+    public void testTimeToLiveFollowsCollectionStep() {
+        final CounterStateStore store = new CounterStateStore(3);
+        assertEquals(900000, store.getTimeToLive(300));
+        assertEquals(180000, store.getTimeToLive(60));
+        assertEquals(900000, store.getTimeToLive(0));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final File file = new File(tempFolder.getRoot(), "counters.dat");
+        final CounterStateStore store = new CounterStateStore(10);
+        for (int i = 0; i < 100; i++) {
+            store.put(id(i), new Date(i * 1000), i * 10.0, 60000);
+        }
+        store.put(id(100), new Date(), 1.0, -1);
+        assertEquals(100, store.save(file));
+
+        final CounterStateStore restored = new CounterStateStore(10);
+        assertEquals(100, restored.load(file));
+        for (int i = 0; i < 100; i++) {
+            final CacheEntry entry = restored.get(id(i));
+            assertEquals(new Date(i * 1000), entry.getTimestamp());
+            assertEquals(Double.valueOf(i * 10.0), entry.getValue());
+        }
+        assertFalse(restored.containsKey(id(100)));
+    }
+}
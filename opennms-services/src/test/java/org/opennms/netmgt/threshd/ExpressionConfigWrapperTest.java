@@ -171,4 +171,16 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    @Test
+    public void testEvaluateDoesNotModifyValues() throws Exception {
+        Expression exp = new Expression();
+        exp.setExpression("ifInOctets = ifInOctets * 8");
+        ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+        Map<String, Double> values = new HashMap<String,Double>();
+        values.put("ifInOctets", 100.0);
+        Assert.assertEquals(800.0, wrapper.evaluate(values), 0.0);
+        Assert.assertEquals(800.0, wrapper.evaluate(values), 0.0);
+        Assert.assertEquals(100.0, values.get("ifInOctets"), 0.0);
+    }
 }
@@ -297,7 +297,7 @@ public class ManageNodeServlet extends HttpServlet {
     /**
      */
     private static void sendSCMRestartEvent() throws ServletException {
-        EventBuilder bldr = new EventBuilder("uei.opennms.org/internal/restartSCM", "web ui");
+        EventBuilder bldr = new EventBuilder(EventConstants.RESTART_SCM_EVENT_UEI, "web ui");
 
         sendEvent(bldr.getEvent());
     }
@@ -282,7 +282,7 @@ public class ManageNodesServlet extends HttpServlet {
     /**
      */
     private void sendSCMRestartEvent() throws ServletException {
-        EventBuilder bldr = new EventBuilder("uei.opennms.org/internal/restartSCM", "web ui");
+        EventBuilder bldr = new EventBuilder(EventConstants.RESTART_SCM_EVENT_UEI, "web ui");
 
         sendEvent(bldr.getEvent());
     }